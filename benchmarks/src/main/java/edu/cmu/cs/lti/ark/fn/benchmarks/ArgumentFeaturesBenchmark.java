@@ -0,0 +1,49 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+
+/**
+ * Argument identification feature extraction. Each operation extracts the features of every (role, candidate span)
+ * of every (target, frame) of the fixtures once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ArgumentFeaturesBenchmark {
+	private final FeatureExtractor featureExtractor = new FeatureExtractor();
+
+	/** {@link FeatureExtractor#extractFeatures}, once per role */
+	@Benchmark
+	public void extractFeatures(SyntheticModel model, Blackhole blackhole) {
+		for (DataPointWithFrameElements dataPoint : model.dataPoints) {
+			final String frame = dataPoint.getFrameName();
+			final List<String> roles = model.getRoles(frame);
+			for (SpanAndParseIdx span : DataPrep.findSpans(dataPoint, 1)) {
+				for (String role : roles) {
+					blackhole.consume(featureExtractor.extractFeatures(dataPoint, frame, role, span.span,
+							dataPoint.getParses().get(span.parseIdx)));
+				}
+			}
+		}
+	}
+
+	/** How Semafor does it: base features once per span, conjoined with each role by index */
+	@Benchmark
+	public void getFrameFeatures(SyntheticModel model, Blackhole blackhole) {
+		for (DataPointWithFrameElements dataPoint : model.dataPoints) {
+			blackhole.consume(model.semafor.getFrameFeatures(dataPoint, featureExtractor));
+		}
+	}
+}
@@ -0,0 +1,27 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, reporting the allocation rate of each one along with its throughput.
+ *
+ * Takes the same arguments as JMH's own runner, e.g.
+ *   java -jar target/benchmarks.jar Decoding -rf json -rff decoding.json
+ * runs only the decoding benchmarks, and writes the results as json (to compare against a baseline).
+ */
+public class BenchmarkRunner {
+	public static void main(String[] args) throws Exception {
+		final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+		if (commandLineOptions.shouldHelp()) {
+			commandLineOptions.showHelp();
+			return;
+		}
+		new Runner(new OptionsBuilder()
+				.parent(commandLineOptions)
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
@@ -0,0 +1,85 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import edu.cmu.cs.lti.ark.fn.parsing.DDDecoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FrameFeatures;
+import edu.cmu.cs.lti.ark.fn.parsing.SpanAndCorrespondingFeatures;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.Decoding.getWeightSum;
+
+/**
+ * Joint decoding with AD^3, {@link DDDecoding#decode}, on the span scores of the synthetic model. Each frame has
+ * one excludes and one requires constraint between its roles. Each operation decodes every (target, frame) of the
+ * fixtures once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DDDecodingBenchmark {
+	private DDDecoding ddDecoding;
+	private List<String> frames;
+	private List<Map<String, Pair<int[], Double>[]>> scoreMaps;
+	private PrintStream stdout;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public void setUp(SyntheticModel model) {
+		final Map<String, Set<Pair<String, String>>> excludes = Maps.newHashMap();
+		final Map<String, Set<Pair<String, String>>> requires = Maps.newHashMap();
+		frames = Lists.newArrayList();
+		scoreMaps = Lists.newArrayList();
+		final double[] weights = model.decoder.getModelWeights();
+		for (FrameFeatures frameFeatures : model.frameFeatures) {
+			final List<String> roles = frameFeatures.fElements;
+			if (roles.size() >= 4) {
+				excludes.put(frameFeatures.frameName, ImmutableSet.of(Pair.of(roles.get(0), roles.get(1))));
+				requires.put(frameFeatures.frameName, ImmutableSet.of(Pair.of(roles.get(2), roles.get(3))));
+			}
+			// the score of each candidate span of each role, as in JointDecoding.getDecodedMap
+			final ImmutableMap.Builder<String, Pair<int[], Double>[]> scoreMap = ImmutableMap.builder();
+			for (int i = 0; i < roles.size(); i++) {
+				final SpanAndCorrespondingFeatures[] candidates = frameFeatures.fElementSpansAndFeatures.get(i);
+				final Pair<int[], Double>[] scores = new Pair[candidates.length];
+				for (int j = 0; j < candidates.length; j++) {
+					scores[j] = Pair.of(candidates[j].span, getWeightSum(candidates[j].features, weights));
+				}
+				scoreMap.put(roles.get(i), scores);
+			}
+			frames.add(frameFeatures.frameName);
+			scoreMaps.add(scoreMap.build());
+		}
+		ddDecoding = new DDDecoding(false);
+		ddDecoding.setMaps(excludes, requires);
+		// DDDecoding logs every decision to stdout
+		stdout = System.out;
+		System.setOut(new PrintStream(NullOutputStream.NULL_OUTPUT_STREAM));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public void decode(Blackhole blackhole) {
+		for (int i = 0; i < scoreMaps.size(); i++) {
+			blackhole.consume(ddDecoding.decode(scoreMaps.get(i), frames.get(i), false, null));
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import edu.cmu.cs.lti.ark.fn.parsing.FrameFeatures;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Beam search decoding with {@link edu.cmu.cs.lti.ark.fn.parsing.Decoding#getPredictions}. Each operation decodes
+ * the arguments of every (target, frame) of the fixtures once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodingBenchmark {
+	@Param({"1", "5"})
+	public int kBest;
+
+	@Benchmark
+	public void getPredictions(SyntheticModel model, Blackhole blackhole) {
+		for (FrameFeatures frameFeatures : model.frameFeatures) {
+			blackhole.consume(model.decoder.getPredictions(frameFeatures, kBest));
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier}: looking up the candidate frames of a
+ * target in the graph, then scoring them with pickBestFrame. Each operation identifies the frame of every target of
+ * the fixtures once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameIdentificationBenchmark {
+	@Benchmark
+	public void getBestFrame(SyntheticModel model, Blackhole blackhole) {
+		for (int i = 0; i < model.analyses.size(); i++) {
+			for (List<Integer> target : model.targets.get(i)) {
+				blackhole.consume(model.idModel.getBestFrame(target, model.analyses.get(i)));
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole pipeline, {@link edu.cmu.cs.lti.ark.fn.Semafor#parseSentence}: lemmatizing, parsing, and target, frame
+ * and argument identification. Each operation parses every fixture sentence once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseSentenceBenchmark {
+	@Benchmark
+	public void parseSentence(SyntheticModel model, Blackhole blackhole) throws IOException {
+		for (Sentence sentence : model.sentences) blackhole.consume(model.semafor.parseSentence(sentence));
+	}
+}
@@ -0,0 +1,46 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+
+/** Reading the conll fixtures. Each operation reads every fixture sentence once */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SentenceCodecBenchmark {
+	private List<String> encodedSentences;
+
+	@Setup(Level.Trial)
+	public void setUp(SyntheticModel model) {
+		encodedSentences = Lists.newArrayList();
+		for (Sentence sentence : model.sentences) encodedSentences.add(ConllCodec.encode(sentence));
+	}
+
+	@Benchmark
+	public void decode(Blackhole blackhole) {
+		for (String encoded : encodedSentences) blackhole.consume(ConllCodec.decode(encoded));
+	}
+
+	@Benchmark
+	public void readInput(SyntheticModel model, Blackhole blackhole) throws IOException {
+		final SentenceCodec.SentenceIterator sentences = ConllCodec.readInput(new StringReader(model.conll));
+		try {
+			while (sentences.hasNext()) blackhole.consume(sentences.next());
+		} finally {
+			sentences.close();
+		}
+	}
+}
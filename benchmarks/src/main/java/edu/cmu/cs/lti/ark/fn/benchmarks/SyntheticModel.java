@@ -0,0 +1,237 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
+import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.Semafor;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier;
+import edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.identification.SmoothedGraph;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.parsing.FrameFeatures;
+import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.nlp.CachingLemmatizer;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectDoubleHashMap;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+
+/**
+ * A small, made-up model over the fixture sentences, so the benchmarks don't need a trained FrameNet model.
+ *
+ * Every content word of the fixtures is a target, each target has a few candidate frames in the graph, and every
+ * frame identification and argument identification feature that fires on the fixtures gets a random weight.
+ * The numbers the model produces are meaningless, but the work each stage does is the same shape as with a real
+ * model: the same features are extracted, looked up and scored.
+ */
+@State(Scope.Benchmark)
+public class SyntheticModel {
+	public static final String FIXTURE = "fixtures/example.conll";
+	private static final int NUM_FRAMES = 40;
+	private static final int FRAMES_PER_PREDICATE = 4;
+	private static final int ROLES_PER_FRAME = 8;
+	private static final long SEED = 0;
+
+	/** the raw conll text of the fixtures */
+	public String conll;
+	/** the fixture sentences, as read from the conll text (without lemmas) */
+	public List<Sentence> sentences;
+	/** the lemmatized fixture sentences, with their parses already built */
+	public List<SentenceAnalysis> analyses;
+	/** the targets of each sentence */
+	public List<List<List<Integer>>> targets;
+	/** the targets of each sentence, with their frames */
+	public List<List<Pair<List<Integer>, String>>> idResults;
+	/** the argument id input: one data point per (target, frame) */
+	public List<DataPointWithFrameElements> dataPoints;
+	/** the features of every candidate span for every role of each data point */
+	public List<FrameFeatures> frameFeatures;
+
+	public Set<String> allFrames;
+	public FEDict frameElements;
+	public RoteSegmenter segmenter;
+	public GraphBasedFrameIdentifier idModel;
+	public Decoding decoder;
+	public Semafor semafor;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		final Random random = new Random(SEED);
+		conll = Resources.toString(Resources.getResource(FIXTURE), Charsets.UTF_8);
+		sentences = ImmutableList.copyOf(ConllCodec.readInput(new StringReader(conll)));
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(new MorphaLemmatizer());
+		analyses = Lists.newArrayList();
+		for (Sentence sentence : sentences) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(lemmatizer.addLemmas(sentence));
+			analysis.getParses();
+			analysis.getAllLemmaTags();
+			analyses.add(analysis);
+		}
+		final List<String> frames = Lists.newArrayList();
+		final Map<String, THashSet<String>> rolesByFrame = Maps.newHashMap();
+		for (int i = 0; i < NUM_FRAMES; i++) {
+			final String frame = "Frame_" + i;
+			frames.add(frame);
+			final THashSet<String> roles = new THashSet<String>();
+			for (int j = 0; j < ROLES_PER_FRAME; j++) roles.add("Role_" + (i + j) % (2 * ROLES_PER_FRAME));
+			rolesByFrame.put(frame, roles);
+		}
+		allFrames = ImmutableSortedSet.copyOf(frames);
+		frameElements = new FEDict(rolesByFrame);
+		final Set<String> relatedWords = getRelatedWords();
+		segmenter = new RoteSegmenter(relatedWords);
+		targets = Lists.newArrayList();
+		for (SentenceAnalysis analysis : analyses) targets.add(segmenter.getSegmentation(analysis));
+		idModel = makeIdModel(frames, random);
+		idResults = Lists.newArrayList();
+		for (int i = 0; i < analyses.size(); i++) {
+			final List<Pair<List<Integer>, String>> idResult = Lists.newArrayList();
+			for (List<Integer> target : targets.get(i)) {
+				idResult.add(Pair.of(target, idModel.getBestFrame(target, analyses.get(i))));
+			}
+			idResults.add(idResult);
+		}
+		dataPoints = Lists.newArrayList();
+		for (int i = 0; i < analyses.size(); i++) {
+			for (Pair<List<Integer>, String> targetAndFrame : idResults.get(i)) {
+				dataPoints.add(new DataPointWithFrameElements(analyses.get(i), targetAndFrame.second,
+						getLexicalUnit(targetAndFrame.first, analyses.get(i).getSentence()),
+						Ints.toArray(targetAndFrame.first), 0));
+			}
+		}
+		final Map<String, Integer> alphabet = makeArgIdAlphabet();
+		final double[] weights = new double[alphabet.size() + 1];
+		for (int i = 0; i < weights.length; i++) weights[i] = random.nextGaussian();
+		decoder = new Decoding(weights);
+		semafor = new Semafor(relatedWords, frameElements, segmenter, idModel, decoder, alphabet);
+		frameFeatures = Lists.newArrayList();
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		for (DataPointWithFrameElements dataPoint : dataPoints) {
+			frameFeatures.add(semafor.getFrameFeatures(dataPoint, featureExtractor));
+		}
+	}
+
+	/** The roles of a frame */
+	public List<String> getRoles(String frame) {
+		return Arrays.asList(frameElements.lookupFrameElements(frame));
+	}
+
+	/** Every noun, verb, adjective and adverb of the fixtures, and the bigrams of adverbs (e.g. "no longer") */
+	private Set<String> getRelatedWords() {
+		final Set<String> relatedWords = Sets.newHashSet();
+		for (SentenceAnalysis analysis : analyses) {
+			String previous = null;
+			for (Token token : analysis.getSentence().getTokens()) {
+				final String pos = getCoarsePos(token);
+				final String word = token.getLemma() + "_" + token.getPostag().substring(0, 1);
+				if (pos != null) relatedWords.add(word);
+				if ("adv".equals(pos) && previous != null) relatedWords.add(previous + " " + word);
+				previous = "adv".equals(pos) ? word : null;
+			}
+		}
+		return relatedWords;
+	}
+
+	/**
+	 * A graph giving each target a few candidate frames, and an id model with a random weight for every
+	 * (frame, feature) that fires on a target
+	 */
+	private GraphBasedFrameIdentifier makeIdModel(List<String> frames, Random random) {
+		final Map<String, Set<String>> fineMap = Maps.newHashMap();
+		final Map<String, Set<String>> coarseMap = Maps.newHashMap();
+		for (int i = 0; i < analyses.size(); i++) {
+			final List<Token> tokens = analyses.get(i).getSentence().getTokens();
+			for (List<Integer> target : targets.get(i)) {
+				// multiword targets are looked up by their forms, single words by their lemmas
+				final List<String> words = Lists.newArrayList();
+				for (int idx : target) {
+					final Token token = tokens.get(idx);
+					words.add((target.size() > 1 ? token.getForm() : token.getLemma()).toLowerCase());
+				}
+				final String coarseKey = Joiner.on(" ").join(words);
+				coarseMap.put(coarseKey, pickFrames(frames, random));
+				final String pos = getCoarsePos(tokens.get(target.get(0)));
+				if (target.size() == 1 && pos != null) fineMap.put(coarseKey + "." + pos, pickFrames(frames, random));
+			}
+		}
+		final IdFeatureExtractor featureExtractor = IdFeatureExtractor.fromName("basic");
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		for (int i = 0; i < analyses.size(); i++) {
+			for (List<Integer> target : targets.get(i)) {
+				for (String feature : featureExtractor.getBaseFeatures(Ints.toArray(target), analyses.get(i)).keySet()) {
+					for (String conjoined : featureExtractor.getConjoinedFeatureNames(allFrames, feature)) {
+						params.put(conjoined, random.nextGaussian());
+					}
+				}
+			}
+		}
+		return new GraphBasedFrameIdentifier(featureExtractor, allFrames, new THashMap<String, THashSet<String>>(),
+				params, new SmoothedGraph(fineMap, coarseMap));
+	}
+
+	/** Every argument id feature that fires for a role of the frame of a data point */
+	private Map<String, Integer> makeArgIdAlphabet() {
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		final Map<String, Integer> alphabet = Maps.newHashMap();
+		for (DataPointWithFrameElements dataPoint : dataPoints) {
+			final String frame = dataPoint.getFrameName();
+			for (SpanAndParseIdx span : DataPrep.findSpans(dataPoint, 1)) {
+				for (String role : getRoles(frame)) {
+					for (String feature : featureExtractor.extractFeatures(dataPoint, frame, role, span.span,
+							dataPoint.getParses().get(span.parseIdx)).elementSet()) {
+						if (!alphabet.containsKey(feature)) alphabet.put(feature, alphabet.size() + 1);
+					}
+				}
+			}
+		}
+		return alphabet;
+	}
+
+	private static Set<String> pickFrames(List<String> frames, Random random) {
+		final Set<String> picked = Sets.newHashSet();
+		while (picked.size() < FRAMES_PER_PREDICATE) picked.add(frames.get(random.nextInt(frames.size())));
+		return picked;
+	}
+
+	private static String getLexicalUnit(List<Integer> target, Sentence sentence) {
+		final List<String> lemmas = Lists.newArrayList();
+		for (int idx : target) lemmas.add(sentence.getTokens().get(idx).getLemma());
+		final String pos = getCoarsePos(sentence.getTokens().get(target.get(0)));
+		return Joiner.on(" ").join(lemmas) + "." + (pos == null ? "x" : pos);
+	}
+
+	/** The FrameNet part of speech of a content word, or null */
+	private static String getCoarsePos(Token token) {
+		final String postag = token.getPostag();
+		if (postag.startsWith("N")) return "n";
+		if (postag.startsWith("V")) return "v";
+		if (postag.startsWith("J")) return "a";
+		if (postag.startsWith("RB")) return "adv";
+		return null;
+	}
+}
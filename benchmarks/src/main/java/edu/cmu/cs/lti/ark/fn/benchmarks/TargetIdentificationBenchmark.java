@@ -0,0 +1,20 @@
+package edu.cmu.cs.lti.ark.fn.benchmarks;
+
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/** {@link edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter}. Each operation segments every fixture sentence once */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TargetIdentificationBenchmark {
+	@Benchmark
+	public void getSegmentation(SyntheticModel model, Blackhole blackhole) {
+		for (SentenceAnalysis analysis : model.analyses) blackhole.consume(model.segmenter.getSegmentation(analysis));
+	}
+}
@@ -0,0 +1,449 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.fn.identification.*;
+import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.fn.wordnet.CachedRelations;
+import edu.cmu.cs.lti.ark.util.nlp.CachingLemmatizer;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import gnu.trove.*;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static com.google.common.base.Suppliers.memoize;
+import static edu.cmu.cs.lti.ark.util.SerializedObjects.readObject;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Everything {@link Semafor} needs from a model directory, in a single versioned binary file.
+ *
+ * Every distinct string is stored once in a string table, and referred to everywhere else by its index in the
+ * table, so the loaded maps share their strings. Weights are stored as raw doubles. The bundle is read back
+ * through a memory-mapped channel, which is much faster than deserializing <code>reqData.jobj</code> and
+ * <code>sparsegraph.gz</code> and parsing the text model files.
+ *
+ * Compile a bundle once per model directory with:
+ * <pre>
+ *   java edu.cmu.cs.lti.ark.fn.ModelBundle model-dir:&lt;directory-of-trained-model&gt;
+ * </pre>
+ * {@link Semafor#getSemaforInstance(String)} uses the bundle whenever it is newer than the files it was
+ * compiled from.
+ */
+public class ModelBundle {
+	public static final String BUNDLE_FILENAME = "semafor.bundle";
+	private static final int MAGIC = 0x53454D42; // "SEMB"
+	private static final int VERSION = 3;
+	/** magic, version, and the length of the body (everything after the string table) */
+	private static final int HEADER_SIZE = 16;
+	private static final byte STANDARD_ID_MODEL = 0;
+	private static final byte LATENT_ID_MODEL = 1;
+	/** the files a bundle is compiled from */
+	private static final String[] SOURCE_FILENAMES = {
+			Semafor.REQUIRED_DATA_FILENAME,
+			GraphBasedFrameIdentifier.GRAPH_FILENAME,
+			GraphBasedFrameIdentifier.ID_MODEL_FILE,
+			Semafor.ALPHABET_FILENAME,
+			Semafor.FRAME_ELEMENT_MAP_FILENAME,
+			Semafor.ARG_MODEL_FILENAME
+	};
+
+	/* frame identification */
+	public final THashSet<String> allRelatedWords;
+	public final THashMap<String, THashSet<String>> frameMap;
+	public final THashMap<String, THashSet<String>> cMap;
+	public final SmoothedGraph graph;
+	/** the name of the frame id feature extractor, or absent for the old latent model */
+	public final Optional<String> idFeatureExtractorName;
+	public final TObjectDoubleHashMap<String> idParams;
+	/** lemmas of the hidden units, from "word_postag" to lemma, for warming up the lemmatizer. may be empty */
+	public final Map<String, String> hvLemmaCache;
+	/* only used by the latent model */
+	public final Map<String, Map<String, Set<String>>> revisedRelMap;
+	public final Map<String, Set<String>> relatedWordsForWord;
+	/* argument identification */
+	public final Map<String, THashSet<String>> frameElementsForFrame;
+	public final Map<String, Integer> argIdFeatureIndex;
+	public final double[] argModelWeights;
+	// compiled from graph the first time we need it
+	private final Supplier<CompactGraph> compactGraph = memoize(new Supplier<CompactGraph>() {
+		@Override public CompactGraph get() {
+			return CompactGraph.fromSmoothedGraph(graph);
+		} });
+
+	public ModelBundle(THashSet<String> allRelatedWords,
+					   THashMap<String, THashSet<String>> frameMap,
+					   THashMap<String, THashSet<String>> cMap,
+					   SmoothedGraph graph,
+					   Optional<String> idFeatureExtractorName,
+					   TObjectDoubleHashMap<String> idParams,
+					   Map<String, String> hvLemmaCache,
+					   Map<String, Map<String, Set<String>>> revisedRelMap,
+					   Map<String, Set<String>> relatedWordsForWord,
+					   Map<String, THashSet<String>> frameElementsForFrame,
+					   Map<String, Integer> argIdFeatureIndex,
+					   double[] argModelWeights) {
+		this.allRelatedWords = allRelatedWords;
+		this.frameMap = frameMap;
+		this.cMap = cMap;
+		this.graph = graph;
+		this.idFeatureExtractorName = idFeatureExtractorName;
+		this.idParams = idParams;
+		this.hvLemmaCache = hvLemmaCache;
+		this.revisedRelMap = revisedRelMap;
+		this.relatedWordsForWord = relatedWordsForWord;
+		this.frameElementsForFrame = frameElementsForFrame;
+		this.argIdFeatureIndex = argIdFeatureIndex;
+		this.argModelWeights = argModelWeights;
+	}
+
+	/** Reads all the individual model files in <code>modelDirectory</code> */
+	public static ModelBundle fromModelDirectory(File modelDirectory) throws IOException, ClassNotFoundException {
+		final RequiredDataForFrameIdentification r =
+				readObject(new File(modelDirectory, Semafor.REQUIRED_DATA_FILENAME).getAbsolutePath());
+		final SmoothedGraph graph =
+				readObject(new File(modelDirectory, GraphBasedFrameIdentifier.GRAPH_FILENAME).getAbsolutePath());
+		final File idParamsFile = new File(modelDirectory, GraphBasedFrameIdentifier.ID_MODEL_FILE);
+		Optional<String> idFeatureExtractorName;
+		TObjectDoubleHashMap<String> idParams;
+		try {
+			// same fallback as GraphBasedFrameIdentifier.getInstance
+			idParams = FrameIdentificationRelease.parseParamFile(idParamsFile.getAbsolutePath()).second;
+			idFeatureExtractorName = Optional.of(Files.readFirstLine(idParamsFile, Charsets.UTF_8).trim().toLowerCase());
+		} catch (NullPointerException e) {
+			idParams = FrameIdentificationRelease.readOldModel(idParamsFile.getAbsolutePath());
+			idFeatureExtractorName = Optional.absent();
+		}
+		final String alphabetFilename = new File(modelDirectory, Semafor.ALPHABET_FILENAME).getAbsolutePath();
+		final String frameElementMapFilename =
+				new File(modelDirectory, Semafor.FRAME_ELEMENT_MAP_FILENAME).getAbsolutePath();
+		final Map<String, THashSet<String>> frameElementsForFrame = readObject(frameElementMapFilename);
+		final String argModelFilename = new File(modelDirectory, Semafor.ARG_MODEL_FILENAME).getAbsolutePath();
+		return new ModelBundle(
+				r.getAllRelatedWords(),
+				r.getFrameMap(),
+				r.getcMap(),
+				graph,
+				idFeatureExtractorName,
+				idParams,
+				r.getHvLemmaCache() == null ? Collections.<String, String>emptyMap() : r.getHvLemmaCache(),
+				idFeatureExtractorName.isPresent() ?
+						Collections.<String, Map<String, Set<String>>>emptyMap() :
+						r.getRevisedRelMap(),
+				idFeatureExtractorName.isPresent() ?
+						Collections.<String, Set<String>>emptyMap() :
+						r.getRelatedWordsForWord(),
+				frameElementsForFrame,
+				DataPrep.readFeatureIndex(new File(alphabetFilename)),
+				Decoding.fromFile(argModelFilename, alphabetFilename).getModelWeights());
+	}
+
+	/** Whether <code>modelDirectory</code> has a bundle that is newer than all the files it was compiled from */
+	public static boolean hasUpToDateBundle(File modelDirectory) {
+		final File bundleFile = new File(modelDirectory, BUNDLE_FILENAME);
+		if (!bundleFile.isFile()) return false;
+		for (String sourceFilename : SOURCE_FILENAMES) {
+			final File sourceFile = new File(modelDirectory, sourceFilename);
+			if (sourceFile.lastModified() > bundleFile.lastModified()) return false;
+		}
+		return true;
+	}
+
+	public GraphBasedFrameIdentifier getFrameIdentifier() {
+		if (idFeatureExtractorName.isPresent()) {
+			return new GraphBasedFrameIdentifier(
+					IdFeatureExtractor.fromName(idFeatureExtractorName.get()),
+					frameMap.keySet(),
+					cMap,
+					idParams,
+					compactGraph.get());
+		} else {
+			final LatentFeatureExtractor latentFeatureExtractor = new LatentFeatureExtractor(
+					new CachedRelations(revisedRelMap, relatedWordsForWord),
+					new CachingLemmatizer(new MorphaLemmatizer()));
+			return new LatentGraphBasedFrameIdentifier(
+					latentFeatureExtractor, frameMap, cMap, idParams, compactGraph.get());
+		}
+	}
+
+	public FEDict getFrameElementDict() {
+		return new FEDict(frameElementsForFrame);
+	}
+
+	public Decoding getDecoder() {
+		return new Decoding(argModelWeights);
+	}
+
+	/* writing */
+
+	/**
+	 * Writes the bundle to a temp file next to <code>file</code>, then renames it into place, so a failed or
+	 * killed write never leaves a truncated bundle behind.
+	 */
+	public void write(File file) throws IOException {
+		// the string table has to come first, but we only know what's in it once we've written everything else,
+		// so write the body to a temp file and copy it over afterwards
+		final StringTable strings = new StringTable();
+		final File directory = file.getAbsoluteFile().getParentFile();
+		final File bodyFile = File.createTempFile("semafor-bundle", ".tmp", directory);
+		final File bundleFile = File.createTempFile(file.getName(), ".tmp", directory);
+		try {
+			final DataOutputStream body = newOutput(bodyFile);
+			try {
+				writeStrings(body, strings, allRelatedWords);
+				writeStringSetMap(body, strings, frameMap);
+				writeStringSetMap(body, strings, cMap);
+				writeStringSetMap(body, strings, graph.getFineMap());
+				writeStringSetMap(body, strings, graph.getCoarseMap());
+				if (idFeatureExtractorName.isPresent()) {
+					body.writeByte(STANDARD_ID_MODEL);
+					body.writeInt(strings.intern(idFeatureExtractorName.get()));
+				} else {
+					body.writeByte(LATENT_ID_MODEL);
+					body.writeInt(revisedRelMap.size());
+					for (Map.Entry<String, Map<String, Set<String>>> entry : revisedRelMap.entrySet()) {
+						body.writeInt(strings.intern(entry.getKey()));
+						writeStringSetMap(body, strings, entry.getValue());
+					}
+					writeStringSetMap(body, strings, relatedWordsForWord);
+				}
+				body.writeInt(idParams.size());
+				for (TObjectDoubleIterator<String> it = idParams.iterator(); it.hasNext(); ) {
+					it.advance();
+					body.writeInt(strings.intern(it.key()));
+					body.writeDouble(it.value());
+				}
+				body.writeInt(hvLemmaCache.size());
+				for (Map.Entry<String, String> entry : hvLemmaCache.entrySet()) {
+					body.writeInt(strings.intern(entry.getKey()));
+					body.writeInt(strings.intern(entry.getValue()));
+				}
+				writeStringSetMap(body, strings, frameElementsForFrame);
+				// the alphabet, in index order. indexes start at 1
+				final String[] featureNames = new String[argIdFeatureIndex.size()];
+				for (Map.Entry<String, Integer> entry : argIdFeatureIndex.entrySet()) {
+					featureNames[entry.getValue() - 1] = entry.getKey();
+				}
+				writeStrings(body, strings, Arrays.asList(featureNames));
+				body.writeInt(argModelWeights.length);
+				for (double weight : argModelWeights) body.writeDouble(weight);
+				body.close();
+			} finally {
+				closeQuietly(body);
+			}
+			final DataOutputStream output = newOutput(bundleFile);
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(bodyFile.length());
+				output.writeInt(strings.size());
+				for (String string : strings.strings) {
+					final byte[] bytes = string.getBytes(Charsets.UTF_8);
+					output.writeInt(bytes.length);
+					output.write(bytes);
+				}
+				Files.copy(bodyFile, output);
+				// a failed flush has to fail the write, not leave a short file
+				output.close();
+			} finally {
+				closeQuietly(output);
+			}
+			java.nio.file.Files.move(bundleFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+		} finally {
+			if (!bodyFile.delete()) bodyFile.deleteOnExit();
+			if (bundleFile.exists() && !bundleFile.delete()) bundleFile.deleteOnExit();
+		}
+	}
+
+	private static DataOutputStream newOutput(File file) throws FileNotFoundException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+	/** Assigns consecutive ids to distinct strings */
+	private static class StringTable {
+		private final TObjectIntHashMap<String> ids = new TObjectIntHashMap<String>();
+		private final List<String> strings = Lists.newArrayList();
+
+		int intern(String string) {
+			if (ids.containsKey(string)) return ids.get(string);
+			final int id = strings.size();
+			ids.put(string, id);
+			strings.add(string);
+			return id;
+		}
+
+		int size() { return strings.size(); }
+	}
+
+	private static void writeStrings(DataOutput output, StringTable strings, Collection<String> values)
+			throws IOException {
+		output.writeInt(values.size());
+		for (String value : values) output.writeInt(strings.intern(value));
+	}
+
+	private static void writeStringSetMap(DataOutput output,
+										  StringTable strings,
+										  Map<String, ? extends Set<String>> map) throws IOException {
+		output.writeInt(map.size());
+		for (Map.Entry<String, ? extends Set<String>> entry : map.entrySet()) {
+			output.writeInt(strings.intern(entry.getKey()));
+			writeStrings(output, strings, entry.getValue());
+		}
+	}
+
+	/* reading */
+
+	/**
+	 * Reads a bundle written by {@link #write(java.io.File)}, using a memory-mapped channel.
+	 *
+	 * @throws IOException if the file isn't a complete model bundle of this version
+	 */
+	public static ModelBundle read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("Model bundle is too large to map: " + file);
+			}
+			if (channel.size() < HEADER_SIZE) throw new IOException(file + " is too short to be a model bundle");
+			final MappedByteBuffer input = channel.map(READ_ONLY, 0, channel.size());
+			if (input.getInt() != MAGIC) throw new IOException(file + " is not a model bundle");
+			final int version = input.getInt();
+			if (version != VERSION) throw new IOException("Unsupported model bundle version: " + version);
+			final long bodyLength = input.getLong();
+			try {
+				return readBody(file, input, bodyLength);
+			} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+				throw new IOException(file + " is corrupt", e);
+			}
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	private static ModelBundle readBody(File file, MappedByteBuffer input, long bodyLength) throws IOException {
+		final String[] strings = readStringTable(input);
+		if (input.remaining() != bodyLength) {
+			throw new IOException(file + " is truncated: its body should be " + bodyLength + " bytes long, but is " +
+					input.remaining());
+		}
+		final THashSet<String> allRelatedWords = readStrings(input, strings, new THashSet<String>());
+		final THashMap<String, THashSet<String>> frameMap = readStringSetMap(input, strings);
+		final THashMap<String, THashSet<String>> cMap = readStringSetMap(input, strings);
+		final Map<String, Set<String>> fineMap = ModelBundle.<Set<String>>upcast(readStringSetMap(input, strings));
+		final Map<String, Set<String>> coarseMap = ModelBundle.<Set<String>>upcast(readStringSetMap(input, strings));
+		final SmoothedGraph graph = new SmoothedGraph(fineMap, coarseMap);
+		final Optional<String> idFeatureExtractorName;
+		Map<String, Map<String, Set<String>>> revisedRelMap = Collections.emptyMap();
+		Map<String, Set<String>> relatedWordsForWord = Collections.emptyMap();
+		final byte idModelType = input.get();
+		if (idModelType == STANDARD_ID_MODEL) {
+			idFeatureExtractorName = Optional.of(strings[input.getInt()]);
+		} else if (idModelType == LATENT_ID_MODEL) {
+			idFeatureExtractorName = Optional.absent();
+			final int numWords = input.getInt();
+			revisedRelMap = new THashMap<String, Map<String, Set<String>>>(numWords);
+			for (int i = 0; i < numWords; i++) {
+				final String word = strings[input.getInt()];
+				revisedRelMap.put(word, ModelBundle.<Set<String>>upcast(readStringSetMap(input, strings)));
+			}
+			relatedWordsForWord = ModelBundle.<Set<String>>upcast(readStringSetMap(input, strings));
+		} else {
+			throw new IOException("Unknown frame identification model type: " + idModelType);
+		}
+		final int numIdParams = input.getInt();
+		final TObjectDoubleHashMap<String> idParams = new TObjectDoubleHashMap<String>(numIdParams);
+		for (int i = 0; i < numIdParams; i++) {
+			final String name = strings[input.getInt()];
+			idParams.put(name, input.getDouble());
+		}
+		final int numHvLemmas = input.getInt();
+		final Map<String, String> hvLemmaCache = new THashMap<String, String>(numHvLemmas);
+		for (int i = 0; i < numHvLemmas; i++) {
+			final String wordAndPostag = strings[input.getInt()];
+			hvLemmaCache.put(wordAndPostag, strings[input.getInt()]);
+		}
+		final Map<String, THashSet<String>> frameElementsForFrame = readStringSetMap(input, strings);
+		final int numFeatures = input.getInt();
+		final Map<String, Integer> argIdFeatureIndex = Maps.newHashMapWithExpectedSize(numFeatures);
+		for (int i = 0; i < numFeatures; i++) {
+			argIdFeatureIndex.put(strings[input.getInt()], i + 1);
+		}
+		final double[] argModelWeights = new double[input.getInt()];
+		input.asDoubleBuffer().get(argModelWeights);
+		return new ModelBundle(
+				allRelatedWords,
+				frameMap,
+				cMap,
+				graph,
+				idFeatureExtractorName,
+				idParams,
+				hvLemmaCache,
+				revisedRelMap,
+				relatedWordsForWord,
+				frameElementsForFrame,
+				argIdFeatureIndex,
+				argModelWeights);
+	}
+
+	private static String[] readStringTable(MappedByteBuffer input) {
+		final String[] strings = new String[input.getInt()];
+		byte[] buffer = new byte[64];
+		for (int i = 0; i < strings.length; i++) {
+			final int length = input.getInt();
+			if (length > buffer.length) buffer = new byte[Math.max(length, 2 * buffer.length)];
+			input.get(buffer, 0, length);
+			strings[i] = new String(buffer, 0, length, Charsets.UTF_8);
+		}
+		return strings;
+	}
+
+	private static <C extends Collection<String>> C readStrings(MappedByteBuffer input, String[] strings, C result) {
+		final int size = input.getInt();
+		for (int i = 0; i < size; i++) result.add(strings[input.getInt()]);
+		return result;
+	}
+
+	/** A view of <code>map</code> with a wider value type. Safe because the result is read-only */
+	private static <V> Map<String, V> upcast(Map<String, ? extends V> map) {
+		return Collections.unmodifiableMap(map);
+	}
+
+	private static THashMap<String, THashSet<String>> readStringSetMap(MappedByteBuffer input, String[] strings) {
+		final int size = input.getInt();
+		final THashMap<String, THashSet<String>> result = new THashMap<String, THashSet<String>>(size);
+		for (int i = 0; i < size; i++) {
+			final String key = strings[input.getInt()];
+			result.put(key, readStrings(input, strings, new THashSet<String>()));
+		}
+		return result;
+	}
+
+	/**
+	 * Compiles the model files in a model directory into a single bundle in the same directory.
+	 * Usage: model-dir:&lt;directory-of-trained-model&gt;
+	 */
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final File modelDirectory = new File(options.modelDirectory.get());
+		final File bundleFile = new File(modelDirectory, BUNDLE_FILENAME);
+		final long start = System.currentTimeMillis();
+		fromModelDirectory(modelDirectory).write(bundleFile);
+		System.err.printf("Wrote %s in %d millis.%n", bundleFile, System.currentTimeMillis() - start);
+	}
+}
@@ -24,13 +24,15 @@ package edu.cmu.cs.lti.ark.fn;
 import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Queues;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 import com.google.common.io.OutputSupplier;
 import com.google.common.primitives.Ints;
-import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
@@ -41,9 +43,11 @@ import edu.cmu.cs.lti.ark.fn.parsing.*;
 import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
 import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
 import edu.cmu.cs.lti.ark.util.ds.Range0Based;
-import edu.cmu.cs.lti.ark.util.nlp.Lemmatizer;
+import edu.cmu.cs.lti.ark.util.ds.Scored;
+import edu.cmu.cs.lti.ark.util.nlp.CachingLemmatizer;
 import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParses;
@@ -63,16 +67,18 @@ import static com.google.common.collect.Lists.transform;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
 import static edu.cmu.cs.lti.ark.fn.evaluation.PrepareFullAnnotationJson.processPredictionLine;
 import static edu.cmu.cs.lti.ark.fn.identification.FrameIdentificationRelease.getTokenRepresentation;
+import static edu.cmu.cs.lti.ark.fn.parsing.CandidateFrameElementFilters.createSpanRange;
 import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements.FrameElementAndSpan;
 import static edu.cmu.cs.lti.ark.util.SerializedObjects.readObject;
 import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 
 public class Semafor {
 	public static final String REQUIRED_DATA_FILENAME = "reqData.jobj";
-	private static final String ALPHABET_FILENAME = "parser.conf";
-	private static final String FRAME_ELEMENT_MAP_FILENAME = "framenet.frame.element.map";
-	private static final String ARG_MODEL_FILENAME = "argmodel.dat";
+	public static final String ALPHABET_FILENAME = "parser.conf";
+	public static final String FRAME_ELEMENT_MAP_FILENAME = "framenet.frame.element.map";
+	public static final String ARG_MODEL_FILENAME = "argmodel.dat";
 
 	private static final Joiner TAB = Joiner.on("\t");
 
@@ -82,13 +88,19 @@ public class Semafor {
 	protected final GraphBasedFrameIdentifier idModel;
 	protected final Decoding decoder;
 	protected final Map<String, Integer> argIdFeatureIndex;
-	protected final Lemmatizer lemmatizer = new MorphaLemmatizer();
+	protected final ConjoinedFeatureIndex conjoinedFeatureIndex;
+	/** if present, the frames of a sentence are decoded in parallel on this executor */
+	protected final Optional<? extends Executor> decodingExecutor;
+	protected final CachingLemmatizer lemmatizer;
 
 	/**
 	 * required flags:
 	 * model-dir
 	 * input-file
 	 * output-file
+	 * optional flags:
+	 * numthreads (number of sentences parsed at once, default 1)
+	 * decoding-threads (number of threads shared for decoding the frames within sentences, default 1)
 	 */
 	public static void main(String[] args) throws Exception {
 		final FNModelOptions options = new FNModelOptions(args);
@@ -96,7 +108,8 @@ public class Semafor {
 		final File outputFile = new File(options.outputFile.get());
 		final String modelDirectory = options.modelDirectory.get();
 		final int numThreads = options.numThreads.present() ? options.numThreads.get() : 1;
-		final Semafor semafor = getSemaforInstance(modelDirectory);
+		final int decodingThreads = options.decodingThreads.present() ? options.decodingThreads.get() : 1;
+		final Semafor semafor = getSemaforInstance(modelDirectory, decodingThreads);
 		semafor.runParser(
 				Files.newReaderSupplier(inputFile, Charsets.UTF_8),
 				Files.newWriterSupplier(outputFile, Charsets.UTF_8),
@@ -108,16 +121,63 @@ public class Semafor {
 				   RoteSegmenter segmenter,
 				   GraphBasedFrameIdentifier idModel,
 				   Decoding decoder, Map<String, Integer> argIdFeatureIndex) {
+		this(allRelatedWords, frameElementsForFrame, segmenter, idModel, decoder, argIdFeatureIndex,
+				Optional.<Executor>absent());
+	}
+
+	public Semafor(Set<String> allRelatedWords,
+				   FEDict frameElementsForFrame,
+				   RoteSegmenter segmenter,
+				   GraphBasedFrameIdentifier idModel,
+				   Decoding decoder, Map<String, Integer> argIdFeatureIndex,
+				   Optional<? extends Executor> decodingExecutor) {
+		this(allRelatedWords, frameElementsForFrame, segmenter, idModel, decoder, argIdFeatureIndex,
+				decodingExecutor, new CachingLemmatizer(new MorphaLemmatizer()));
+	}
+
+	public Semafor(Set<String> allRelatedWords,
+				   FEDict frameElementsForFrame,
+				   RoteSegmenter segmenter,
+				   GraphBasedFrameIdentifier idModel,
+				   Decoding decoder, Map<String, Integer> argIdFeatureIndex,
+				   Optional<? extends Executor> decodingExecutor,
+				   CachingLemmatizer lemmatizer) {
 		this.allRelatedWords = allRelatedWords;
 		this.frameElementsForFrame = frameElementsForFrame;
 		this.segmenter = segmenter;
 		this.idModel = idModel;
 		this.decoder = decoder;
 		this.argIdFeatureIndex = argIdFeatureIndex;
+		this.conjoinedFeatureIndex = new ConjoinedFeatureIndex(argIdFeatureIndex, frameElementsForFrame);
+		this.decodingExecutor = decodingExecutor;
+		this.lemmatizer = lemmatizer;
 	}
 
 	public static Semafor getSemaforInstance(String modelDirectory)
 			throws IOException, ClassNotFoundException, URISyntaxException {
+		return getSemaforInstance(modelDirectory, 1);
+	}
+
+	/**
+	 * @param modelDirectory the directory of the trained model
+	 * @param decodingThreads if greater than 1, the frames of each sentence are decoded in parallel, on a pool of
+	 *                        this many threads shared by all sentences
+	 */
+	public static Semafor getSemaforInstance(String modelDirectory, int decodingThreads)
+			throws IOException, ClassNotFoundException, URISyntaxException {
+		final Optional<? extends Executor> decodingExecutor = decodingThreads > 1 ?
+				Optional.of(newDecodingThreadPool(decodingThreads)) :
+				Optional.<ExecutorService>absent();
+		if (ModelBundle.hasUpToDateBundle(new File(modelDirectory))) {
+			final File bundleFile = new File(modelDirectory, ModelBundle.BUNDLE_FILENAME);
+			System.err.println("Reading model bundle from: " + bundleFile);
+			try {
+				return fromBundle(ModelBundle.read(bundleFile), decodingExecutor);
+			} catch (IOException e) {
+				System.err.println("Warning: could not read model bundle, falling back to the individual model " +
+						"files: " + e.getMessage());
+			}
+		}
 		final String requiredDataFilename = new File(modelDirectory, REQUIRED_DATA_FILENAME).getAbsolutePath();
 		final String alphabetFilename = new File(modelDirectory, ALPHABET_FILENAME).getAbsolutePath();
 		final String frameElementMapFilename = new File(modelDirectory, FRAME_ELEMENT_MAP_FILENAME).getAbsolutePath();
@@ -125,7 +185,7 @@ public class Semafor {
 		// unpack required data
 		final RequiredDataForFrameIdentification r = readObject(requiredDataFilename);
 		final Set<String> allRelatedWords = r.getAllRelatedWords();
-		final GraphBasedFrameIdentifier idModel = GraphBasedFrameIdentifier.getInstance(modelDirectory);
+		final GraphBasedFrameIdentifier idModel = GraphBasedFrameIdentifier.getInstance(modelDirectory, r);
 		final RoteSegmenter segmenter = new RoteSegmenter(allRelatedWords);
 		System.err.println("Initializing alphabet for argument identification..");
 		final Map<String, Integer> argIdFeatureIndex = DataPrep.readFeatureIndex(new File(alphabetFilename));
@@ -136,7 +196,34 @@ public class Semafor {
 				segmenter,
 				idModel,
 				decoder,
-				argIdFeatureIndex);
+				argIdFeatureIndex,
+				decodingExecutor,
+				newLemmatizer(r.getHvLemmaCache()));
+	}
+
+	/** Starts with the lemmas of the hidden units, if we have them. The rest get filled in as we see them */
+	private static CachingLemmatizer newLemmatizer(Map<String, String> hvLemmaCache) {
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(new MorphaLemmatizer());
+		if (hvLemmaCache != null) lemmatizer.preload(hvLemmaCache);
+		return lemmatizer;
+	}
+
+	/** Builds an instance from a model bundle compiled by {@link ModelBundle#main} */
+	public static Semafor fromBundle(ModelBundle bundle, Optional<? extends Executor> decodingExecutor) {
+		return new Semafor(bundle.allRelatedWords,
+				bundle.getFrameElementDict(),
+				new RoteSegmenter(bundle.allRelatedWords),
+				bundle.getFrameIdentifier(),
+				bundle.getDecoder(),
+				bundle.argIdFeatureIndex,
+				decodingExecutor,
+				newLemmatizer(bundle.hvLemmaCache));
+	}
+
+	/** Daemon threads, so an idle pool doesn't keep the jvm alive */
+	private static ExecutorService newDecodingThreadPool(int numThreads) {
+		return newFixedThreadPool(numThreads,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("semafor-decoder-%d").build());
 	}
 
 	/**
@@ -175,7 +262,8 @@ public class Semafor {
 						try {
 							final Optional<SemaforParseResult> oResult = results.take().get();
 							if (!oResult.isPresent()) break; // got poison pill. we're done
-							output.println(oResult.get().toJson());
+							oResult.get().writeJson(output);
+							output.println();
 							output.flush();
 						} catch (Exception e) {
 							e.printStackTrace();
@@ -217,28 +305,41 @@ public class Semafor {
 			// wait for consumer to finish
 			consumer.join();
 		} finally { closeQuietly(output); }
+		final CacheStats lemmaStats = lemmatizer.stats();
+		System.err.printf("Lemma cache: %d lookups, %.1f%% hits, %d cached.%n",
+				lemmaStats.requestCount(), 100 * lemmaStats.hitRate(), lemmatizer.size());
 		System.err.println("Done.");
 	}
 
 	public SemaforParseResult parseSentence(Sentence unLemmatizedSentence) throws IOException {
 		// look up lemmas
 		final Sentence sentence = addLemmas(unLemmatizedSentence);
+		// parse the sentence once, for all three stages
+		final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
 		// find targets
-		final List<List<Integer>> segments = predictTargets(sentence);
+		final List<List<Integer>> segments = predictTargets(analysis);
 		// frame identification
-		final List<Pair<List<Integer>, String>> idResult = predictFrames(sentence, segments);
+		final List<Pair<List<Integer>, String>> idResult = predictFrames(analysis, segments);
 		// argument identification
-		return predictArguments(sentence, idResult);
+		return predictArguments(analysis, idResult);
 	}
 
 	public List<List<Integer>> predictTargets(Sentence sentence) {
-		return segmenter.getSegmentation(sentence);
+		return predictTargets(new SentenceAnalysis(sentence));
+	}
+
+	public List<List<Integer>> predictTargets(SentenceAnalysis analysis) {
+		return segmenter.getSegmentation(analysis);
 	}
 
 	public List<Pair<List<Integer>, String>> predictFrames(Sentence sentence, List<List<Integer>> targets) {
+		return predictFrames(new SentenceAnalysis(sentence), targets);
+	}
+
+	public List<Pair<List<Integer>, String>> predictFrames(SentenceAnalysis analysis, List<List<Integer>> targets) {
 		final List<Pair<List<Integer>, String>> idResult = Lists.newArrayList();
 		for (List<Integer> targetTokenIdxs : targets) {
-			final String frame = idModel.getBestFrame(targetTokenIdxs, sentence);
+			final String frame = idModel.getBestFrame(targetTokenIdxs, analysis);
 			idResult.add(Pair.of(targetTokenIdxs, frame));
 		}
 		return idResult;
@@ -246,9 +347,54 @@ public class Semafor {
 
 	public SemaforParseResult predictArguments(Sentence sentence, List<Pair<List<Integer>, String>> idResults)
 			throws IOException {
-		final List<String> idResultLines = getArgumentIdInput(sentence, idResults);
-		final List<String> argResult = predictArgumentLines(sentence, idResultLines, 1);
-		return getSemaforParseResult(sentence, argResult);
+		return predictArguments(new SentenceAnalysis(sentence), idResults);
+	}
+
+	/**
+	 * Identifies the arguments of each (target, frame) pair, going straight from objects to a SemaforParseResult.
+	 * Gives the same result as formatting the pairs with {@link #getArgumentIdInput}, decoding them with
+	 * {@link #predictArgumentLines}, and reading the prediction lines back with {@link #getSemaforParseResult},
+	 * which is kept for callers that use the line format.
+	 */
+	public SemaforParseResult predictArguments(SentenceAnalysis analysis, List<Pair<List<Integer>, String>> idResults)
+			throws IOException {
+		// the same sentence the line format's lexical units come from
+		final Sentence lemmaTagsSentence = Sentence.fromAllLemmaTagsArray(analysis.getAllLemmaTags());
+		final List<FrameFeatures> frameFeaturesList = Lists.newArrayListWithExpectedSize(idResults.size());
+		final List<Pair<String, String>> tokenRepresentations = Lists.newArrayListWithExpectedSize(idResults.size());
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		for (Pair<List<Integer>, String> targetAndFrame : idResults) {
+			final List<Integer> targetTokenIdxs = targetAndFrame.first;
+			final Pair<String, String> tokenRepresentation =
+					getTokenRepresentation(targetTokenIdxs, lemmaTagsSentence);
+			tokenRepresentations.add(tokenRepresentation);
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(
+					analysis, targetAndFrame.second, tokenRepresentation.first, Ints.toArray(targetTokenIdxs), 0);
+			frameFeaturesList.add(getFrameFeatures(dataPoint, analysis.getCandidateSpans(), featureExtractor));
+		}
+		final List<List<Scored<Decoding.RoleAssignments>>> predictions = decodingExecutor.isPresent() ?
+				decoder.getAllPredictions(frameFeaturesList, 1, decodingExecutor.get()) :
+				decoder.getAllPredictions(frameFeaturesList, 1);
+		final List<RankedScoredRoleAssignment> roleAssignments = Lists.newArrayList();
+		for (int i = 0; i < idResults.size(); i++) {
+			final List<Integer> targetTokenIdxs = idResults.get(i).first;
+			final Range0Based targetSpan =
+					new Range0Based(targetTokenIdxs.get(0), targetTokenIdxs.get(targetTokenIdxs.size() - 1));
+			final Pair<String, String> tokenRepresentation = tokenRepresentations.get(i);
+			final List<Scored<Decoding.RoleAssignments>> kBest = predictions.get(i);
+			for (int rank = 0; rank < kBest.size(); rank++) {
+				final Scored<Decoding.RoleAssignments> prediction = kBest.get(rank);
+				final ImmutableList.Builder<FrameElementAndSpan> fesAndSpans = ImmutableList.builder();
+				for (Map.Entry<String, Decoding.Span> roleAndSpan :
+						prediction.value.getNonNullAssignments().entrySet()) {
+					final Decoding.Span span = roleAndSpan.getValue();
+					fesAndSpans.add(new FrameElementAndSpan(roleAndSpan.getKey(), createSpanRange(span.start, span.end)));
+				}
+				roleAssignments.add(new RankedScoredRoleAssignment(rank, prediction.score, idResults.get(i).second,
+						tokenRepresentation.first, targetSpan, tokenRepresentation.second, 0, fesAndSpans.build()));
+			}
+		}
+		return PrepareFullAnnotationJson.getSemaforParse(roleAssignments, getForms(analysis.getSentence()));
 	}
 
 	/**
@@ -258,8 +404,12 @@ public class Semafor {
 	 * @return a list of strings in the format that {@link #predictArgumentLines} expects.
 	 */
 	public List<String> getArgumentIdInput(Sentence sentence, List<Pair<List<Integer>, String>> idResults) {
+		return getArgumentIdInput(new SentenceAnalysis(sentence), idResults);
+	}
+
+	public List<String> getArgumentIdInput(SentenceAnalysis analysis, List<Pair<List<Integer>, String>> idResults) {
 		final List<String> idResultLines = Lists.newArrayList();
-		final String parseLine = AllLemmaTags.makeLine(sentence.toAllLemmaTagsArray());
+		final String parseLine = analysis.getAllLemmaTagsLine();
 		for (Pair<List<Integer>, String> targetAndFrame : idResults) {
 			final List<Integer> targetTokenIdxs = targetAndFrame.first;
 			final String frame = targetAndFrame.second;
@@ -273,57 +423,81 @@ public class Semafor {
 	}
 
 	public List<String> predictArgumentLines(Sentence sentence, List<String> idResult, int kBest) throws IOException {
+		return predictArgumentLines(new SentenceAnalysis(sentence), idResult, kBest);
+	}
+
+	public List<String> predictArgumentLines(SentenceAnalysis analysis, List<String> idResult, int kBest)
+			throws IOException {
 		final List<FrameFeatures> frameFeaturesList = Lists.newArrayList();
 		final FeatureExtractor featureExtractor = new FeatureExtractor();
 		for (String feLine : idResult) {
-			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(sentence, feLine);
-			final String frame = dataPoint.getFrameName();
-			final DependencyParses parses = dataPoint.getParses();
-			final int targetStartTokenIdx = dataPoint.getTargetTokenIdxs()[0];
-			final int targetEndTokenIdx = dataPoint.getTargetTokenIdxs()[dataPoint.getTargetTokenIdxs().length-1];
-			final List<SpanAndParseIdx> spans = DataPrep.findSpans(dataPoint, 1);
-			final List<String> frameElements = Lists.newArrayList(frameElementsForFrame.lookupFrameElements(frame));
-			final List<SpanAndCorrespondingFeatures[]> featuresAndSpanByArgument = Lists.newArrayList();
-			for (String frameElement : frameElements) {
-				final List<SpanAndCorrespondingFeatures> spansAndFeatures = Lists.newArrayList();
-				for (SpanAndParseIdx candidateSpanAndParseIdx : spans) {
-					final Range0Based span = candidateSpanAndParseIdx.span;
-					final DependencyParse parse = parses.get(candidateSpanAndParseIdx.parseIdx);
-					final Set<String> featureSet =
-							featureExtractor.extractFeatures(dataPoint, frame, frameElement, span, parse).elementSet();
-					final int[] featArray = convertToIdxs(featureSet);
-					spansAndFeatures.add(new SpanAndCorrespondingFeatures(new int[] {span.start, span.end}, featArray));
-				}
-				featuresAndSpanByArgument.add(spansAndFeatures.toArray(new SpanAndCorrespondingFeatures[spansAndFeatures.size()]));
-			}
-			frameFeaturesList.add(new FrameFeatures(frame,
-					targetStartTokenIdx,
-					targetEndTokenIdx,
-					frameElements,
-					featuresAndSpanByArgument));
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(analysis, feLine);
+			frameFeaturesList.add(getFrameFeatures(dataPoint, analysis.getCandidateSpans(), featureExtractor));
+		}
+		if (decodingExecutor.isPresent()) {
+			return decoder.decodeAll(frameFeaturesList, idResult, 0, kBest, decodingExecutor.get());
 		}
 		return decoder.decodeAll(frameFeaturesList, idResult, 0, kBest);
 	}
 
-	private int[] convertToIdxs(Iterable<String> featureSet) {
-		// convert feature names to feature indexes
-		final List<Integer> featureList = Lists.newArrayList();
-		for (String feature : featureSet) {
-			final Integer idx = argIdFeatureIndex.get(feature);
-			if (idx != null) {
-				featureList.add(idx);
+	/** Extracts the features of every candidate span for every role of the data point's frame */
+	public FrameFeatures getFrameFeatures(DataPointWithFrameElements dataPoint, FeatureExtractor featureExtractor) {
+		return getFrameFeatures(dataPoint,
+				CandidateSpanIndex.fromParse(dataPoint.getParses().getBestParse()), featureExtractor);
+	}
+
+	/**
+	 * Extracts the features of every candidate span for every role of the data point's frame
+	 * @param candidateSpans the candidate spans of the data point's sentence
+	 */
+	public FrameFeatures getFrameFeatures(DataPointWithFrameElements dataPoint,
+										  CandidateSpanIndex candidateSpans,
+										  FeatureExtractor featureExtractor) {
+		final String frame = dataPoint.getFrameName();
+		final DependencyParses parses = dataPoint.getParses();
+		final int targetStartTokenIdx = dataPoint.getTargetTokenIdxs()[0];
+		final int targetEndTokenIdx = dataPoint.getTargetTokenIdxs()[dataPoint.getTargetTokenIdxs().length-1];
+		final List<SpanAndParseIdx> spans = candidateSpans.getCandidates(dataPoint, 1);
+		// none of the base features depend on the role, so extract them once per span
+		final List<FeatureExtractor.BaseFeatures> baseFeaturesBySpan = Lists.newArrayListWithExpectedSize(spans.size());
+		final List<int[]> baseIdsBySpan = Lists.newArrayListWithExpectedSize(spans.size());
+		for (SpanAndParseIdx candidateSpanAndParseIdx : spans) {
+			final DependencyParse parse = parses.get(candidateSpanAndParseIdx.parseIdx);
+			final FeatureExtractor.BaseFeatures baseFeatures =
+					featureExtractor.extractBaseFeatures(dataPoint, candidateSpanAndParseIdx.span, parse);
+			baseFeaturesBySpan.add(baseFeatures);
+			baseIdsBySpan.add(conjoinedFeatureIndex.getBaseIds(baseFeatures));
+		}
+		final List<String> frameElements = Lists.newArrayList(frameElementsForFrame.lookupFrameElements(frame));
+		final List<SpanAndCorrespondingFeatures[]> featuresAndSpanByArgument = Lists.newArrayList();
+		for (String frameElement : frameElements) {
+			final List<SpanAndCorrespondingFeatures> spansAndFeatures = Lists.newArrayList();
+			for (int i = 0; i < spans.size(); i++) {
+				final Range0Based span = spans.get(i).span;
+				final int[] featArray = conjoinedFeatureIndex.getFeatureIdxs(
+						baseFeaturesBySpan.get(i), baseIdsBySpan.get(i), frame, frameElement);
+				spansAndFeatures.add(new SpanAndCorrespondingFeatures(new int[] {span.start, span.end}, featArray));
 			}
+			featuresAndSpanByArgument.add(spansAndFeatures.toArray(new SpanAndCorrespondingFeatures[spansAndFeatures.size()]));
 		}
-		return Ints.toArray(featureList);
+		return new FrameFeatures(frame,
+				targetStartTokenIdx,
+				targetEndTokenIdx,
+				frameElements,
+				featuresAndSpanByArgument);
 	}
 
 	public SemaforParseResult getSemaforParseResult(Sentence sentence, List<String> results) {
 		final List<RankedScoredRoleAssignment> roleAssignments = copyOf(transform(results, processPredictionLine));
-		List<String> tokens = Lists.newArrayListWithExpectedSize(sentence.size());
-		for(Token token : sentence.getTokens()) {
+		return PrepareFullAnnotationJson.getSemaforParse(roleAssignments, getForms(sentence));
+	}
+
+	private static List<String> getForms(Sentence sentence) {
+		final List<String> tokens = Lists.newArrayListWithExpectedSize(sentence.size());
+		for (Token token : sentence.getTokens()) {
 			tokens.add(token.getForm());
 		}
-		return PrepareFullAnnotationJson.getSemaforParse(roleAssignments, tokens);
+		return tokens;
 	}
 
 	public Sentence addLemmas(Sentence sentence) {
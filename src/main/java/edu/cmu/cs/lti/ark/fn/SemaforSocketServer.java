@@ -1,74 +1,332 @@
 package edu.cmu.cs.lti.ark.fn;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Queues;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Uninterruptibles;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.URISyntaxException;
+import java.util.Set;
+import java.util.concurrent.*;
+
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import static com.google.common.io.Closeables.closeQuietly;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 
+/**
+ * A TCP socket server that reads conll sentences and replies with one json parse per sentence.
+ *
+ * Up to <code>maxConnections</code> clients are served at once. Sentences from all clients are parsed by a shared
+ * pool of <code>numThreads</code> workers, and each client gets its results back in the order it sent them.
+ * At most <code>queueSize</code> sentences wait for a worker; once that fills up, connections stop reading from
+ * their sockets until a worker frees up. With the default settings (one thread, one connection) this behaves like
+ * the original single-client server.
+ */
 public class SemaforSocketServer {
 	private static final ObjectMapper jsonMapper = new ObjectMapper();
+	private static final int DEFAULT_NUM_THREADS = 1;
+	private static final int DEFAULT_MAX_CONNECTIONS = 1;
+	/** max number of parsed sentences waiting to be written, per connection */
+	private static final int MAX_PENDING_PER_CONNECTION = 16;
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+	private final Semafor semafor;
+	private final ServerSocket serverSocket;
+	private final ExecutorService workerPool;
+	private final ExecutorService connectionPool;
+	private final Semaphore connectionPermits;
+	private final Set<Socket> openSockets = Sets.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+	private volatile boolean isShuttingDown = false;
 
 	/**
 	 * required flags:
 	 * model-dir
 	 * port
+	 * optional flags:
+	 * numthreads (number of worker threads shared by all connections, default 1)
+	 * max-connections (number of clients served at once, default 1)
+	 * queue-size (number of sentences that can wait for a worker, default 4 * numthreads)
+	 * decoding-threads (number of threads shared for decoding the frames within sentences, default 1)
 	 */
 	public static void main(String[] args) throws Exception {
 		final FNModelOptions options = new FNModelOptions(args);
 		final String modelDirectory = options.modelDirectory.get();
 		final int port = options.port.get();
-		runSocketServer(modelDirectory, port);
+		final int numThreads = options.numThreads.present() ? options.numThreads.get() : DEFAULT_NUM_THREADS;
+		final int maxConnections =
+				options.maxConnections.present() ? options.maxConnections.get() : DEFAULT_MAX_CONNECTIONS;
+		final int queueSize = options.queueSize.present() ? options.queueSize.get() : 4 * numThreads;
+		final int decodingThreads = options.decodingThreads.present() ? options.decodingThreads.get() : 1;
+		runSocketServer(modelDirectory, port, numThreads, maxConnections, queueSize, decodingThreads);
 	}
 
 	public static void runSocketServer(String modelDirectory, int port)
-			throws URISyntaxException, IOException, ClassNotFoundException {
-		final Semafor semafor = Semafor.getSemaforInstance(modelDirectory);
-		// Set up socket server
-		final ServerSocket serverSocket = new ServerSocket(port);
+			throws URISyntaxException, IOException, ClassNotFoundException, InterruptedException {
+		runSocketServer(modelDirectory, port, DEFAULT_NUM_THREADS, DEFAULT_MAX_CONNECTIONS, 4 * DEFAULT_NUM_THREADS, 1);
+	}
+
+	public static void runSocketServer(String modelDirectory,
+									   int port,
+									   int numThreads,
+									   int maxConnections,
+									   int queueSize,
+									   int decodingThreads)
+			throws URISyntaxException, IOException, ClassNotFoundException, InterruptedException {
+		final Semafor semafor = Semafor.getSemaforInstance(modelDirectory, decodingThreads);
+		final SemaforSocketServer server = new SemaforSocketServer(semafor, port, numThreads, maxConnections, queueSize);
+		// finish parsing and sending whatever we've already read before exiting
+		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					server.shutdown();
+				} catch (InterruptedException ignored) { }
+			} }));
+		server.serve();
+	}
+
+	public SemaforSocketServer(Semafor semafor, int port, int numThreads, int maxConnections, int queueSize)
+			throws IOException {
+		this(semafor, port, newBlockingThreadPool(numThreads, queueSize), maxConnections);
+	}
+
+	/** Parses sentences on the given worker pool, which the server shuts down when it's done */
+	SemaforSocketServer(Semafor semafor, int port, ExecutorService workerPool, int maxConnections)
+			throws IOException {
+		this.semafor = semafor;
+		this.serverSocket = new ServerSocket(port);
+		this.workerPool = workerPool;
+		this.connectionPool = newFixedThreadPool(maxConnections);
+		this.connectionPermits = new Semaphore(maxConnections);
+	}
+
+	/** A fixed-size thread pool whose <code>execute</code> blocks when its queue of <code>queueSize</code> is full */
+	private static ExecutorService newBlockingThreadPool(int numThreads, int queueSize) {
+		return new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new RejectedExecutionHandler() {
+					@Override public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+						if (executor.isShutdown()) throw new RejectedExecutionException("Worker pool is shut down");
+						try {
+							executor.getQueue().put(task);
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new RejectedExecutionException(e);
+						}
+					} });
+	}
+
+	public int getLocalPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** Accepts connections until {@link #shutdown()} is called */
+	public void serve() throws InterruptedException {
 		System.err.println("Listening on port: " + serverSocket.getLocalPort());
-		while (true) {
+		while (!isShuttingDown) {
+			// don't accept a connection until we have room to serve it
+			connectionPermits.acquire();
+			final Socket clientSocket;
 			try {
-				final Socket clientSocket = serverSocket.accept();
-				final SentenceCodec.SentenceIterator sentences =
-						ConllCodec.readInput(new InputStreamReader(clientSocket.getInputStream(), Charsets.UTF_8));
-				final PrintWriter output =
-						new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), Charsets.UTF_8));
-				while (sentences.hasNext()) {
-					processSentence(semafor, sentences.next(), output);
+				clientSocket = serverSocket.accept();
+			} catch (IOException e) {
+				connectionPermits.release();
+				if (!isShuttingDown) e.printStackTrace(System.err);
+				continue;
+			}
+			openSockets.add(clientSocket);
+			try {
+				connectionPool.execute(new Runnable() {
+					@Override public void run() {
+						try {
+							handleConnection(clientSocket);
+						} catch (Exception e) {
+							e.printStackTrace(System.err);
+						} finally {
+							openSockets.remove(clientSocket);
+							closeQuietly(clientSocket);
+							connectionPermits.release();
+						}
+					} });
+			} catch (RejectedExecutionException e) {
+				// we're shutting down
+				openSockets.remove(clientSocket);
+				closeQuietly(clientSocket);
+				connectionPermits.release();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting new connections, stops reading from open connections, and waits for every sentence that has
+	 * already been read to be parsed and sent back.
+	 */
+	public void shutdown() throws InterruptedException {
+		if (isShuttingDown) return;
+		isShuttingDown = true;
+		closeQuietly(serverSocket);
+		for (Socket socket : openSockets) {
+			try {
+				socket.shutdownInput();
+			} catch (IOException ignored) { }
+		}
+		connectionPool.shutdown();
+		connectionPool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		workerPool.shutdown();
+		workerPool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Reads sentences from the client and hands them to the worker pool, while a separate writer thread sends the
+	 * results back in order. Returns once every result has been written.
+	 */
+	private void handleConnection(Socket clientSocket) throws IOException, InterruptedException {
+		// placeholders go on the queue in input order, so results stay in order
+		final BlockingQueue<Future<Optional<ParseOrError>>> results =
+				Queues.newLinkedBlockingDeque(MAX_PENDING_PER_CONNECTION);
+		final PrintWriter output =
+				new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), Charsets.UTF_8));
+		final Thread writer = new Thread(new Runnable() {
+			@Override public void run() {
+				while (true) {
+					final Optional<ParseOrError> oResult;
+					try {
+						oResult = getResult(results.take());
+					} catch (InterruptedException e) {
+						break;
+					}
+					if (!oResult.isPresent()) break; // got poison pill. we're done
+					try {
+						oResult.get().writeJson(output);
+						output.println();
+						output.flush();
+					} catch (IOException e) {
+						e.printStackTrace(System.err);
+						break;
+					}
 				}
-				closeQuietly(sentences);
-				closeQuietly(output);
-			} catch (Exception e) {
-				e.printStackTrace(System.err);
+			} });
+		writer.start();
+		final SentenceCodec.SentenceIterator sentences =
+				ConllCodec.readInput(new InputStreamReader(clientSocket.getInputStream(), Charsets.UTF_8));
+		try {
+			while (sentences.hasNext()) {
+				final Sentence sentence = sentences.next();
+				final FutureTask<Optional<ParseOrError>> result = new FutureTask<Optional<ParseOrError>>(
+						new Callable<Optional<ParseOrError>>() {
+							@Override public Optional<ParseOrError> call() throws Exception {
+								return Optional.of(parse(semafor, sentence));
+							} });
+				try {
+					workerPool.execute(result);
+				} catch (RejectedExecutionException e) {
+					// worker pool is shut down. parse this one ourselves, send back what we have, and stop reading
+					result.run();
+					Uninterruptibles.putUninterruptibly(results, result);
+					break;
+				}
+				// only queue results that are sure to be computed, or the writer would wait on them forever
+				results.put(result);
 			}
+		} finally {
+			// put a poison pill on the queue to signal that we're done
+			Uninterruptibles.putUninterruptibly(results, poisonPill());
+			Uninterruptibles.joinUninterruptibly(writer);
+			// closing either stream closes the socket, so only do it once everything's written
+			closeQuietly(output);
+			closeQuietly(sentences);
 		}
 	}
 
-	public static void processSentence(Semafor semafor, Sentence sentence, PrintWriter output)
-		throws IOException {
+	/**
+	 * Waits for a result. A task that was cancelled or threw becomes an error for its sentence, so one bad sentence
+	 * doesn't cut off the rest of the connection.
+	 */
+	private static Optional<ParseOrError> getResult(Future<Optional<ParseOrError>> future)
+			throws InterruptedException {
+		try {
+			return future.get();
+		} catch (CancellationException e) {
+			return Optional.of(ParseOrError.error("Parse was cancelled"));
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace(System.err);
+			return Optional.of(ParseOrError.error(e.getCause().toString()));
+		}
+	}
+
+	private static Future<Optional<ParseOrError>> poisonPill() {
+		final FutureTask<Optional<ParseOrError>> pill =
+				new FutureTask<Optional<ParseOrError>>(new Callable<Optional<ParseOrError>>() {
+					@Override public Optional<ParseOrError> call() { return Optional.absent(); }
+				});
+		pill.run();
+		return pill;
+	}
+
+	/** Either a parse, or the message of the exception we got trying to parse */
+	private static class ParseOrError {
+		private final Optional<SemaforParseResult> parse;
+		private final String error;
+
+		private ParseOrError(Optional<SemaforParseResult> parse, String error) {
+			this.parse = parse;
+			this.error = error;
+		}
+
+		private static ParseOrError error(String error) {
+			return new ParseOrError(Optional.<SemaforParseResult>absent(), error);
+		}
+
+		/** Streams the json parse, or a json error message, to output */
+		public void writeJson(Writer output) throws IOException {
+			if (parse.isPresent()) {
+				parse.get().writeJson(output);
+			} else {
+				output.write("{\"error\": " + jsonMapper.writeValueAsString(error) + "}");
+			}
+		}
+	}
+
+	private static ParseOrError parse(Semafor semafor, Sentence sentence) {
 		final long start = System.currentTimeMillis();
+		ParseOrError result;
 		try {
-			output.println(semafor.parseSentence(sentence).toJson());
+			result = new ParseOrError(Optional.of(semafor.parseSentence(sentence)), null);
 		} catch (Exception e) {
 			System.err.println("Error on parsing sentence:" + e);
 			e.printStackTrace(System.err);
-			String message = jsonMapper.writeValueAsString(e.toString());
-			output.println("{\"error\": "+message+"}");
+			result = ParseOrError.error(e.toString());
 		}
-		output.flush();
 		final long end = System.currentTimeMillis();
 		System.err.printf("parsed sentence with %d tokens in %d millis.%n", sentence.size(), end - start);
+		return result;
+	}
+
+	/** Parses the sentence, returning either its json parse or a json error message */
+	public static String parseToJson(Semafor semafor, Sentence sentence) throws IOException {
+		final StringWriter result = new StringWriter();
+		parse(semafor, sentence).writeJson(result);
+		return result.toString();
+	}
+
+	public static void processSentence(Semafor semafor, Sentence sentence, PrintWriter output)
+		throws IOException {
+		parse(semafor, sentence).writeJson(output);
+		output.println();
+		output.flush();
     }
 }
@@ -63,6 +63,9 @@ public class ConvertFormat {
 
 		@Parameter(names = {"-of", "--outputFormat"}, converter = CodecConverter.class, required = true)
 		public SentenceCodec outputCodec;
+
+		@Parameter(names = {"-t", "--threads"}, description = "number of threads to decode input with")
+		public int numThreads = 1;
 	}
 
 	/**
@@ -73,7 +76,7 @@ public class ConvertFormat {
 	public static void main(String[] args) throws IOException {
 		final ConvertOptions options = new ConvertOptions();
 		new JCommander(options, args);
-		convertStream(options.input, options.inputCodec, options.output, options.outputCodec);
+		convertStream(options.input, options.inputCodec, options.output, options.outputCodec, options.numThreads);
 	}
 
 	/**
@@ -83,11 +86,13 @@ public class ConvertFormat {
 	 * @param inputCodec Codec to parse input with
 	 * @param output Writer to write to
 	 * @param outputCodec Codec to format output with
+	 * @param numThreads number of threads to decode input with
 	 * @throws IOException
 	 */
 	private static void convertStream(Reader input, SentenceCodec inputCodec,
-									  Writer output, SentenceCodec outputCodec) throws IOException {
-		final SentenceIterator sentenceIterator = inputCodec.readInput(input);
+									  Writer output, SentenceCodec outputCodec,
+									  int numThreads) throws IOException {
+		final SentenceIterator sentenceIterator = inputCodec.readInput(input, numThreads);
 		try {
 			final SentenceWriter writer = new SentenceWriter(outputCodec, output);
 			try {
@@ -1,17 +1,21 @@
 package edu.cmu.cs.lti.ark.fn.data.prep.formats;
 
-import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Scanner;
+import java.util.*;
+import java.util.concurrent.*;
 
-import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 
 /**
- * Reads and writes annotated sentences in a few formats
+ * Reads and writes annotated sentences in a few formats.
+ * Input is split into sentences and tokens by scanning characters, not with regexes, and output is streamed
+ * one field at a time.
  * @author sthomson@cs.cmu.edu
  */
 public abstract class SentenceCodec {
@@ -23,19 +27,43 @@ public abstract class SentenceCodec {
 	public static final SentenceCodec ConllCodec = new SentenceCodec("\n\n", "\n") {
 		@Override public Token decodeToken(String tokenStr) { return Token.fromConll(tokenStr); }
 		@Override public String encodeToken(Token token) { return token.toConll(); }
+		@Override protected Token decodeToken(char[] chars, int start, int end) {
+			return Token.fromConll(chars, start, end);
+		}
+		@Override protected void encodeToken(Token token, Appendable output) throws IOException {
+			token.appendConll(output);
+		}
 	};
 	public static final SentenceCodec PosTaggedCodec = new SentenceCodec("\n", " ") {
 		@Override public Token decodeToken(String tokenStr) { return Token.fromPosTagged(tokenStr); }
 		@Override public String encodeToken(Token token) { return token.toPosTagged(); }
+		@Override protected Token decodeToken(char[] chars, int start, int end) {
+			return Token.fromPosTagged(chars, start, end);
+		}
+		@Override protected void encodeToken(Token token, Appendable output) throws IOException {
+			output.append(token.getForm()).append('_').append(token.getPostag());
+		}
 	};
 	// TODO: what is this number at the end of malt parses?
 	public static final SentenceCodec MaltCodec = new SentenceCodec("\t\\d*\n", "\t1\n", " ") {
 		@Override public Token decodeToken(String tokenStr) { return Token.fromMalt(tokenStr); }
 		@Override public String encodeToken(Token token) { return token.toMalt(); }
+		/** Drops the "\t\\d*" at the end of the line */
+		@Override protected int contentEnd(char[] chars, int start, int end) {
+			int i = end;
+			while (i > start && chars[i - 1] >= '0' && chars[i - 1] <= '9') i--;
+			return (i > start && chars[i - 1] == '\t') ? i - 1 : end;
+		}
 	};
 	public static final SentenceCodec TokenizedCodec = new SentenceCodec("\n", " ") {
 		@Override public Token decodeToken(String tokenStr) { return new Token(tokenStr); }
 		@Override public String encodeToken(Token token) { return token.getForm(); }
+		@Override protected Token decodeToken(char[] chars, int start, int end) {
+			return new Token(new String(chars, start, end - start));
+		}
+		@Override protected void encodeToken(Token token, Appendable output) throws IOException {
+			output.append(token.getForm());
+		}
 	};
 
 	protected SentenceCodec(String sentenceDelimiter, String tokenDelimiter) {
@@ -43,6 +71,8 @@ public abstract class SentenceCodec {
 	}
 
 	protected SentenceCodec(String sentenceDelimiterPattern, String sentenceDelimiter, String tokenDelimiter) {
+		checkArgument(tokenDelimiter.length() == 1, "tokenDelimiter must be a single character");
+		checkArgument(sentenceDelimiter.endsWith("\n"), "sentenceDelimiter must end in a newline");
 		this.sentenceDelimiterPattern = sentenceDelimiterPattern;
 		this.sentenceDelimiter = sentenceDelimiter;
 		this.tokenDelimiter = tokenDelimiter;
@@ -52,6 +82,26 @@ public abstract class SentenceCodec {
 
 	public abstract Token decodeToken(String tokenStr);
 
+	/** Decodes the token in chars[start, end). Override to skip building the intermediate String */
+	protected Token decodeToken(char[] chars, int start, int end) {
+		return decodeToken(new String(chars, start, end - start));
+	}
+
+	/** Writes the encoded token to output. Override to skip building the intermediate String */
+	protected void encodeToken(Token token, Appendable output) throws IOException {
+		output.append(encodeToken(token));
+	}
+
+	/** The end of the tokens of the sentence in chars[start, end), i.e. before any sentence trailer */
+	protected int contentEnd(char[] chars, int start, int end) {
+		return end;
+	}
+
+	/** Whether sentences are separated by blank lines (otherwise there is one sentence per line) */
+	private boolean isTokenPerLine() {
+		return tokenDelimiter.charAt(0) == '\n';
+	}
+
 	/**
 	 * Encodes a Sentence as a String
 	 *
@@ -59,11 +109,22 @@ public abstract class SentenceCodec {
 	 * @return a the Sentence encoded as a String
 	 */
 	public String encode(Sentence sentence) {
-		ArrayList<String> tokenStrs = Lists.newArrayList();
-		for(Token token : sentence.getTokens()) {
-			tokenStrs.add(encodeToken(token));
+		final StringBuilder result = new StringBuilder();
+		try {
+			encode(sentence, result);
+		} catch (IOException e) { throw new AssertionError(e); } // StringBuilders don't throw
+		return result.toString();
+	}
+
+	/** Writes the same thing as {@link #encode(Sentence)} to output */
+	public void encode(Sentence sentence, Appendable output) throws IOException {
+		boolean isFirst = true;
+		for (Token token : sentence.getTokens()) {
+			if (!isFirst) output.append(tokenDelimiter);
+			encodeToken(token, output);
+			isFirst = false;
 		}
-		return Joiner.on(tokenDelimiter).join(tokenStrs) + sentenceDelimiter;
+		output.append(sentenceDelimiter);
 	}
 
 	/**
@@ -72,15 +133,34 @@ public abstract class SentenceCodec {
 	 * @return a new Sentence
 	 */
 	public Sentence decode(String sentenceStr) {
-		ArrayList<Token> tokens = Lists.newArrayList();
-		final String[] tokenStrs = sentenceStr.split(tokenDelimiter);
-		for(int i : xrange(tokenStrs.length)) {
-			try {
-				final Token token = decodeToken(tokenStrs[i]);
-				//indexed starting at 1!
-				tokens.add(token.withIndex(i + 1));
-			} catch (IllegalArgumentException e) {
-				throw new IllegalArgumentException(tokenStrs[i], e);
+		return decode(sentenceStr.toCharArray(), 0, sentenceStr.length());
+	}
+
+	/**
+	 * Converts the sentence encoded in chars[start, end) into a Sentence.
+	 * Tokens are split the way <code>String.split(tokenDelimiter)</code> would split them (so trailing empty
+	 * tokens are dropped), but by scanning for the delimiter rather than with a regex.
+	 */
+	public Sentence decode(char[] chars, int start, int end) {
+		end = contentEnd(chars, start, end);
+		final char delimiter = tokenDelimiter.charAt(0);
+		// drop trailing empty tokens, unless the whole sentence is empty
+		if (end > start) {
+			while (end > start && chars[end - 1] == delimiter) end--;
+			if (end == start) return new Sentence(Lists.<Token>newArrayList());
+		}
+		final ArrayList<Token> tokens = Lists.newArrayList();
+		int tokenStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || chars[i] == delimiter) {
+				try {
+					final Token token = decodeToken(chars, tokenStart, i);
+					//indexed starting at 1!
+					tokens.add(token.withIndex(tokens.size() + 1));
+				} catch (IllegalArgumentException e) {
+					throw new IllegalArgumentException(new String(chars, tokenStart, i - tokenStart), e);
+				}
+				tokenStart = i + 1;
 			}
 		}
 		return new Sentence(tokens);
@@ -90,6 +170,15 @@ public abstract class SentenceCodec {
 		return new SentenceIterator(this, input);
 	}
 
+	/**
+	 * Like {@link #readInput(Readable)}, but hands off chunks of sentences to numThreads threads to decode.
+	 * Sentences come out in the same order as they do from {@link #readInput(Readable)}.
+	 */
+	public SentenceIterator readInput(Readable input, int numThreads) {
+		if (numThreads <= 1) return readInput(input);
+		return new ParallelSentenceIterator(this, input, numThreads);
+	}
+
 	public SentenceWriter getFileWriter(File file) throws IOException {
 		return new SentenceWriter(this, file);
 	}
@@ -98,12 +187,12 @@ public abstract class SentenceCodec {
 	 * Slurp a File or input stream as an Iterator of Sentences
 	 */
 	public static class SentenceIterator extends AbstractIterator<Sentence> implements Closeable {
-		private final Scanner scanner;
-		private final SentenceCodec codec;
+		final SentenceScanner scanner;
+		final SentenceCodec codec;
 
 		public SentenceIterator(SentenceCodec codec, Readable input)  {
 			this.codec = codec;
-			this.scanner = new Scanner(input).useDelimiter(codec.sentenceDelimiter);
+			this.scanner = new SentenceScanner(input, codec.isTokenPerLine());
 		}
 
 		public SentenceIterator(SentenceCodec codec, File file) throws FileNotFoundException {
@@ -112,7 +201,11 @@ public abstract class SentenceCodec {
 
 		@Override
 		protected Sentence computeNext() {
-			if(scanner.hasNext()) return codec.decode(scanner.next());
+			try {
+				if (scanner.next()) return codec.decode(scanner.text(), 0, scanner.length());
+			} catch (IOException e) {
+				throw Throwables.propagate(e);
+			}
 			return endOfData();
 		}
 
@@ -122,6 +215,84 @@ public abstract class SentenceCodec {
 		}
 	}
 
+	/**
+	 * Reads the raw text of chunks of sentences in the calling thread, and decodes them in a pool of threads
+	 */
+	public static class ParallelSentenceIterator extends SentenceIterator {
+		private static final int CHUNK_SIZE = 256;
+
+		private final ExecutorService pool;
+		private final int maxPendingChunks;
+		private final Deque<Future<List<Sentence>>> pendingChunks = new ArrayDeque<Future<List<Sentence>>>();
+		private Iterator<Sentence> currentChunk = Iterators.emptyIterator();
+		private boolean isInputExhausted = false;
+
+		public ParallelSentenceIterator(SentenceCodec codec, Readable input, int numThreads) {
+			super(codec, input);
+			this.pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+				private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+				@Override public Thread newThread(Runnable runnable) {
+					final Thread thread = defaultFactory.newThread(runnable);
+					thread.setDaemon(true);
+					return thread;
+				} });
+			this.maxPendingChunks = 2 * numThreads;
+		}
+
+		@Override
+		protected Sentence computeNext() {
+			try {
+				while (!currentChunk.hasNext()) {
+					while (!isInputExhausted && pendingChunks.size() < maxPendingChunks) submitChunk();
+					if (pendingChunks.isEmpty()) return endOfData();
+					currentChunk = getUninterruptibly(pendingChunks.removeFirst()).iterator();
+				}
+				return currentChunk.next();
+			} catch (IOException e) {
+				throw Throwables.propagate(e);
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			}
+		}
+
+		/** Copies the raw text of the next CHUNK_SIZE sentences, and submits a task to decode them */
+		private void submitChunk() throws IOException {
+			char[] chars = new char[1 << 12];
+			final int[] ends = new int[CHUNK_SIZE];
+			int numSentences = 0;
+			int length = 0;
+			while (numSentences < CHUNK_SIZE && scanner.next()) {
+				final int sentenceLength = scanner.length();
+				if (length + sentenceLength > chars.length) {
+					chars = Arrays.copyOf(chars, Math.max(length + sentenceLength, 2 * chars.length));
+				}
+				System.arraycopy(scanner.text(), 0, chars, length, sentenceLength);
+				length += sentenceLength;
+				ends[numSentences++] = length;
+			}
+			if (numSentences < CHUNK_SIZE) isInputExhausted = true;
+			if (numSentences == 0) return;
+			final char[] chunkChars = chars;
+			final int chunkSize = numSentences;
+			pendingChunks.addLast(pool.submit(new Callable<List<Sentence>>() {
+				@Override public List<Sentence> call() {
+					final List<Sentence> sentences = Lists.newArrayListWithCapacity(chunkSize);
+					int start = 0;
+					for (int i = 0; i < chunkSize; i++) {
+						sentences.add(codec.decode(chunkChars, start, ends[i]));
+						start = ends[i];
+					}
+					return sentences;
+				} }));
+		}
+
+		@Override
+		public void close() throws IOException {
+			pool.shutdownNow();
+			super.close();
+		}
+	}
+
 	/**
 	 * Write sentences to a File or Writer
 	 */
@@ -138,8 +309,13 @@ public abstract class SentenceCodec {
 			this(codec, new BufferedWriter(new FileWriter(file)));
 		}
 
+		/** Streams the sentence to the underlying Writer, one field at a time */
 		public void write(Sentence sentence) throws IOException {
-			stream.write(codec.encode(sentence));
+			codec.encode(sentence, stream);
+		}
+
+		public void flush() throws IOException {
+			stream.flush();
 		}
 
 		@Override
@@ -0,0 +1,132 @@
+package edu.cmu.cs.lti.ark.fn.data.prep.formats;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits character input into the raw text of each sentence, by scanning for newlines in a reused buffer.
+ * Either every line is a sentence, or sentences are runs of non-blank lines separated by blank lines.
+ * Trailing '\r's are dropped, and each line of a multi-line sentence ends in '\n'.
+ */
+class SentenceScanner implements Closeable {
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private final Readable input;
+	private final boolean blankLineSeparated;
+	private char[] buffer = new char[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private boolean isEof = false;
+	// the current line is buffer[lineStart, lineEnd)
+	private int lineStart;
+	private int lineEnd;
+	// the current sentence is text[0, length)
+	private char[] text = new char[256];
+	private int length = 0;
+
+	SentenceScanner(Readable input, boolean blankLineSeparated) {
+		this.input = input;
+		this.blankLineSeparated = blankLineSeparated;
+	}
+
+	/** Advances to the next sentence. Returns false at the end of the input */
+	boolean next() throws IOException {
+		length = 0;
+		if (!blankLineSeparated) {
+			if (!nextLine()) return false;
+			append(buffer, lineStart, lineEnd);
+			return true;
+		}
+		while (nextLine()) {
+			if (isBlankLine()) {
+				if (length > 0) return true;
+			} else {
+				append(buffer, lineStart, lineEnd);
+				append('\n');
+			}
+		}
+		return length > 0;
+	}
+
+	/** The raw text of the current sentence, in text()[0, length()). Only valid until the next call to next() */
+	char[] text() { return text; }
+
+	int length() { return length; }
+
+	private boolean isBlankLine() {
+		for (int i = lineStart; i < lineEnd; i++) {
+			if (buffer[i] > ' ') return false;
+		}
+		return true;
+	}
+
+	private boolean nextLine() throws IOException {
+		int scan = position;
+		while (true) {
+			for (; scan < limit; scan++) {
+				if (buffer[scan] == '\n') {
+					setLine(position, scan);
+					position = scan + 1;
+					return true;
+				}
+			}
+			if (isEof) {
+				if (position == limit) return false;
+				setLine(position, limit);
+				position = limit;
+				return true;
+			}
+			scan -= position;
+			fill();
+		}
+	}
+
+	private void setLine(int start, int end) {
+		lineStart = start;
+		lineEnd = (end > start && buffer[end - 1] == '\r') ? end - 1 : end;
+	}
+
+	/** Moves the unread part of the buffer to the front (growing it if it's full) and reads more input */
+	private void fill() throws IOException {
+		final int remaining = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		position = 0;
+		limit = remaining;
+		if (limit == buffer.length) buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+		final int numRead = read(buffer, limit, buffer.length - limit);
+		if (numRead < 0) {
+			isEof = true;
+		} else {
+			limit += numRead;
+		}
+	}
+
+	private int read(char[] chars, int offset, int count) throws IOException {
+		if (input instanceof Reader) return ((Reader) input).read(chars, offset, count);
+		return input.read(CharBuffer.wrap(chars, offset, count));
+	}
+
+	private void append(char[] chars, int start, int end) {
+		final int count = end - start;
+		ensureCapacity(length + count);
+		System.arraycopy(chars, start, text, length, count);
+		length += count;
+	}
+
+	private void append(char c) {
+		ensureCapacity(length + 1);
+		text[length++] = c;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > text.length) text = Arrays.copyOf(text, Math.max(capacity, 2 * text.length));
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (input instanceof Closeable) ((Closeable) input).close();
+	}
+}
@@ -4,6 +4,7 @@ import com.google.common.base.*;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
@@ -208,18 +209,25 @@ public class Token {
 	}
 
 	public String toConll() {
-		return Joiner.on("\t").join(
-				fieldToConll(id),
-				fieldToConll(form),
-				fieldToConll(lemma),
-				fieldToConll(cpostag),
-				fieldToConll(postag),
-				fieldToConll(feats),
-				fieldToConll(head),
-				fieldToConll(deprel),
-				fieldToConll(phead),
-				fieldToConll(pdeprel)
-		);
+		final StringBuilder result = new StringBuilder();
+		try {
+			appendConll(result);
+		} catch (IOException e) { throw new AssertionError(e); } // StringBuilders don't throw
+		return result.toString();
+	}
+
+	/** Writes the same thing as {@link #toConll()}, without building the intermediate String */
+	public void appendConll(Appendable output) throws IOException {
+		output.append(fieldToConll(id)).append('\t')
+				.append(fieldToConll(form)).append('\t')
+				.append(fieldToConll(lemma)).append('\t')
+				.append(fieldToConll(cpostag)).append('\t')
+				.append(fieldToConll(postag)).append('\t')
+				.append(fieldToConll(feats)).append('\t')
+				.append(fieldToConll(head)).append('\t')
+				.append(fieldToConll(deprel)).append('\t')
+				.append(fieldToConll(phead)).append('\t')
+				.append(fieldToConll(pdeprel));
 	}
 
 	@Nullable
@@ -228,19 +236,75 @@ public class Token {
 	}
 
 	public static Token fromConll(String line) {
-		final String[] fields = line.trim().split("\t");
-		checkArgument(fields.length == 10, "ConllToken must have 10 \"\\t\"-separated fields");
+		return fromConll(line.toCharArray(), 0, line.length());
+	}
+
+	/**
+	 * Parses the Conll line in chars[start, end), scanning for tabs rather than splitting with a regex.
+	 * Missing fields and numbers are read in place, so only the present string fields are copied out.
+	 */
+	public static Token fromConll(char[] chars, int start, int end) {
+		// trim
+		while (start < end && chars[start] <= ' ') start++;
+		while (end > start && chars[end - 1] <= ' ') end--;
+		final int[] fieldStarts = new int[11];
+		int numFields = 1;
+		fieldStarts[0] = start;
+		for (int i = start; i < end; i++) {
+			if (chars[i] == '\t') {
+				checkArgument(numFields < 10, "ConllToken must have 10 \"\\t\"-separated fields");
+				fieldStarts[numFields++] = i + 1;
+			}
+		}
+		checkArgument(numFields == 10, "ConllToken must have 10 \"\\t\"-separated fields");
+		fieldStarts[10] = end + 1;
+		final String cpostag = parseConllString(chars, fieldStarts, 3);
+		final String postag = parseConllString(chars, fieldStarts, 4);
 		return new Token(
-				parseConllField(fields[0], parseInt),  // id
-				fields[1],  // form
-				parseConllField(fields[2], parseStr),  // lemma
-				parseConllField(fields[3], parseStr),  // cpostag
-				parseConllField(fields[4], parseStr),  // postag
-				parseConllField(fields[5], parseStr),  // feats
-				parseConllField(fields[6], parseInt),  // head
-				parseConllField(fields[7], parseStr),  // deprel
-				parseConllField(fields[8], parseInt),  // phead
-				parseConllField(fields[9], parseStr)); // pdeprel
+				parseConllInt(chars, fieldStarts, 0),  // id
+				fieldString(chars, fieldStarts, 1),  // form
+				parseConllString(chars, fieldStarts, 2),  // lemma
+				cpostag,
+				// usually the same as cpostag, so share it
+				postag != null && postag.equals(cpostag) ? cpostag : postag,
+				parseConllString(chars, fieldStarts, 5),  // feats
+				parseConllInt(chars, fieldStarts, 6),  // head
+				parseConllString(chars, fieldStarts, 7),  // deprel
+				parseConllInt(chars, fieldStarts, 8),  // phead
+				parseConllString(chars, fieldStarts, 9)); // pdeprel
+	}
+
+	private static String fieldString(char[] chars, int[] fieldStarts, int field) {
+		final int start = fieldStarts[field];
+		return new String(chars, start, fieldStarts[field + 1] - 1 - start);
+	}
+
+	private static boolean isMissing(char[] chars, int[] fieldStarts, int field) {
+		final int start = fieldStarts[field];
+		return fieldStarts[field + 1] - 1 - start == 1 && chars[start] == '_';
+	}
+
+	@Nullable
+	private static String parseConllString(char[] chars, int[] fieldStarts, int field) {
+		return isMissing(chars, fieldStarts, field) ? null : fieldString(chars, fieldStarts, field);
+	}
+
+	@Nullable
+	private static Integer parseConllInt(char[] chars, int[] fieldStarts, int field) {
+		if (isMissing(chars, fieldStarts, field)) return null;
+		final int start = fieldStarts[field];
+		final int end = fieldStarts[field + 1] - 1;
+		int i = start;
+		final boolean isNegative = i < end && chars[i] == '-';
+		if (i < end && (chars[i] == '-' || chars[i] == '+')) i++;
+		if (i == end || end - i > 9) return parseInt.apply(new String(chars, start, end - start));
+		int result = 0;
+		for (; i < end; i++) {
+			final int digit = chars[i] - '0';
+			if (digit < 0 || digit > 9) return parseInt.apply(new String(chars, start, end - start));
+			result = 10 * result + digit;
+		}
+		return isNegative ? -result : result;
 	}
 
 	public static PosToken fromPosTagged(String tokenStr) {
@@ -251,6 +315,15 @@ public class Token {
 		return new PosToken(token, pos);
 	}
 
+	/** Parses the token in chars[start, end), like {@link #fromPosTagged(String)} */
+	public static PosToken fromPosTagged(char[] chars, int start, int end) {
+		int splitPoint = end - 1;
+		while (splitPoint >= start && chars[splitPoint] != '_') splitPoint--;
+		checkArgument(splitPoint >= start, "PosToken must have 2 \"_\"-separated fields");
+		return new PosToken(new String(chars, start, splitPoint - start),
+				new String(chars, splitPoint + 1, end - splitPoint - 1));
+	}
+
 	public String toPosTagged() {
 		return form + "_" + postag;
 	}
@@ -0,0 +1,314 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.*;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * An immutable, compact form of {@link SmoothedGraph}, for looking up the candidate frames of a target.
+ *
+ * Each frame name is stored once, and referred to by its index in the sorted frame dictionary. The predicates of
+ * the fine and coarse maps are each kept in a sorted array, and predicate i's frames are the frame ids at
+ * [offsets[i], offsets[i+1]) of a single shared int[]. Lookups canonicalize the key into a reused per-thread
+ * buffer and binary search the predicates, so they don't build any intermediate strings.
+ */
+public class CompactGraph {
+	public static final String COMPACT_GRAPH_FILENAME = "sparsegraph.compact";
+	private static final int MAGIC = 0x53454d47; // "SEMG"
+	private static final int VERSION = 2;
+	/** magic, version, and the length of the whole file */
+	private static final int HEADER_SIZE = 16;
+	private static final int LENGTH_OFFSET = 8;
+
+	private static final ThreadLocal<StringBuilder> keyBuffer = new ThreadLocal<StringBuilder>() {
+		@Override protected StringBuilder initialValue() { return new StringBuilder(); }
+	};
+
+	/** sorted */
+	private final String[] frames;
+	private final PredicateTable fine;
+	private final PredicateTable coarse;
+
+	/** Sorted predicates, each with a sorted list of frame ids */
+	private static class PredicateTable {
+		final String[] predicates;
+		final int[] offsets;
+		final int[] frameIds;
+
+		PredicateTable(String[] predicates, int[] offsets, int[] frameIds) {
+			this.predicates = predicates;
+			this.offsets = offsets;
+			this.frameIds = frameIds;
+		}
+
+		static PredicateTable fromMap(Map<String, Set<String>> map, Map<String, Integer> frameIdsByName) {
+			final String[] predicates = map.keySet().toArray(new String[map.size()]);
+			Arrays.sort(predicates);
+			final int[] offsets = new int[predicates.length + 1];
+			final List<Integer> frameIds = Lists.newArrayList();
+			for (int i = 0; i < predicates.length; i++) {
+				final int[] ids = new int[map.get(predicates[i]).size()];
+				int j = 0;
+				for (String frame : map.get(predicates[i])) ids[j++] = frameIdsByName.get(frame);
+				Arrays.sort(ids);
+				frameIds.addAll(Ints.asList(ids));
+				offsets[i + 1] = frameIds.size();
+			}
+			return new PredicateTable(predicates, offsets, Ints.toArray(frameIds));
+		}
+
+		/** @return the index of key in predicates, or -1 */
+		int find(CharSequence key) {
+			int low = 0;
+			int high = predicates.length - 1;
+			while (low <= high) {
+				final int mid = (low + high) >>> 1;
+				final int comparison = compare(predicates[mid], key);
+				if (comparison < 0) {
+					low = mid + 1;
+				} else if (comparison > 0) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+
+		/** Same order as String.compareTo */
+		private static int compare(String a, CharSequence b) {
+			final int length = Math.min(a.length(), b.length());
+			for (int i = 0; i < length; i++) {
+				final char ca = a.charAt(i);
+				final char cb = b.charAt(i);
+				if (ca != cb) return ca - cb;
+			}
+			return a.length() - b.length();
+		}
+	}
+
+	/** An unmodifiable view of a row of frame ids, as a set of frame names */
+	private class FrameSet extends AbstractSet<String> {
+		private final int[] frameIds;
+		private final int start;
+		private final int end;
+
+		FrameSet(int[] frameIds, int start, int end) {
+			this.frameIds = frameIds;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override public Iterator<String> iterator() {
+			return new Iterator<String>() {
+				private int i = start;
+				@Override public boolean hasNext() { return i < end; }
+				@Override public String next() {
+					if (i >= end) throw new NoSuchElementException();
+					return frames[frameIds[i++]];
+				}
+				@Override public void remove() { throw new UnsupportedOperationException(); }
+			};
+		}
+
+		@Override public int size() { return end - start; }
+
+		@Override public boolean contains(Object o) {
+			if (!(o instanceof String)) return false;
+			final int frameId = Arrays.binarySearch(frames, o);
+			return frameId >= 0 && Arrays.binarySearch(frameIds, start, end, frameId) >= 0;
+		}
+	}
+
+	private CompactGraph(String[] frames, PredicateTable fine, PredicateTable coarse) {
+		this.frames = frames;
+		this.fine = fine;
+		this.coarse = coarse;
+	}
+
+	public static CompactGraph fromSmoothedGraph(SmoothedGraph graph) {
+		final Set<String> allFrames = Sets.newTreeSet();
+		for (Set<String> frames : graph.getFineMap().values()) allFrames.addAll(frames);
+		for (Set<String> frames : graph.getCoarseMap().values()) allFrames.addAll(frames);
+		final String[] frames = allFrames.toArray(new String[allFrames.size()]);
+		final Map<String, Integer> frameIdsByName = new HashMap<String, Integer>();
+		for (int i = 0; i < frames.length; i++) frameIdsByName.put(frames[i], i);
+		return new CompactGraph(frames,
+				PredicateTable.fromMap(graph.getFineMap(), frameIdsByName),
+				PredicateTable.fromMap(graph.getCoarseMap(), frameIdsByName));
+	}
+
+	public int numFinePredicates() { return fine.predicates.length; }
+
+	public int numCoarsePredicates() { return coarse.predicates.length; }
+
+	/** The frames of the single-word predicate "lemma.pos", e.g. "run.v" */
+	public Optional<Set<String>> getFineFrames(String lemma, String pos) {
+		final StringBuilder key = startKey();
+		appendCanonicalForm(key, lemma);
+		key.append('.');
+		appendCanonicalForm(key, pos);
+		return lookUp(fine, key);
+	}
+
+	/** The frames of the given word */
+	public Optional<Set<String>> getCoarseFrames(String word) {
+		final StringBuilder key = startKey();
+		appendCanonicalForm(key, word);
+		return lookUp(coarse, key);
+	}
+
+	/** The frames of the multiword predicate made of the given words, separated by spaces */
+	public Optional<Set<String>> getCoarseFrames(List<String> words) {
+		final StringBuilder key = startKey();
+		for (int i = 0; i < words.size(); i++) {
+			if (i > 0) key.append(' ');
+			appendCanonicalForm(key, words.get(i));
+		}
+		return lookUp(coarse, key);
+	}
+
+	private static StringBuilder startKey() {
+		final StringBuilder key = keyBuffer.get();
+		key.setLength(0);
+		return key;
+	}
+
+	/** Lowercases, and replaces digits with '@' */
+	static void appendCanonicalForm(StringBuilder result, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			final char c = word.charAt(i);
+			result.append(Character.isDigit(c) ? '@' : Character.toLowerCase(c));
+		}
+	}
+
+	private Optional<Set<String>> lookUp(PredicateTable table, CharSequence key) {
+		final int i = table.find(key);
+		if (i < 0) return Optional.absent();
+		return Optional.<Set<String>>of(new FrameSet(table.frameIds, table.offsets[i], table.offsets[i + 1]));
+	}
+
+	/* reading and writing */
+
+	/**
+	 * Writes the graph to a temp file next to <code>file</code>, then renames it into place, so a concurrent reader
+	 * never sees a partly written graph.
+	 */
+	public void write(File file) throws IOException {
+		final File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			final DataOutputStream output =
+					new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeLong(0L); // the length, filled in below
+				writeStrings(output, frames);
+				writeTable(output, fine);
+				writeTable(output, coarse);
+			} finally {
+				closeQuietly(output);
+			}
+			final RandomAccessFile lengthOutput = new RandomAccessFile(tempFile, "rw");
+			try {
+				lengthOutput.seek(LENGTH_OFFSET);
+				lengthOutput.writeLong(lengthOutput.length());
+			} finally {
+				closeQuietly(lengthOutput);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	/**
+	 * Reads a graph written by {@link #write(File)}, by memory-mapping it.
+	 *
+	 * @throws IOException if the file isn't a complete compact graph file of this version
+	 */
+	public static CompactGraph read(File file) throws IOException {
+		final FileInputStream input = new FileInputStream(file);
+		try {
+			final FileChannel channel = input.getChannel();
+			final long size = channel.size();
+			if (size < HEADER_SIZE) throw new IOException(file + " is too short to be a compact graph file");
+			final MappedByteBuffer buffer = channel.map(READ_ONLY, 0, size);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				throw new IOException(file + " is not a compact graph file, or is from a different version");
+			}
+			final long length = buffer.getLong();
+			if (length != size) {
+				throw new IOException(file + " should be " + length + " bytes long, but is " + size);
+			}
+			try {
+				final String[] frames = readStrings(buffer);
+				final PredicateTable fine = readTable(buffer);
+				final PredicateTable coarse = readTable(buffer);
+				return new CompactGraph(frames, fine, coarse);
+			} catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException e) {
+				throw new IOException(file + " is corrupt", e);
+			}
+		} finally {
+			closeQuietly(input);
+		}
+	}
+
+	private static void writeTable(DataOutputStream output, PredicateTable table) throws IOException {
+		writeStrings(output, table.predicates);
+		writeInts(output, table.offsets);
+		writeInts(output, table.frameIds);
+	}
+
+	private static PredicateTable readTable(ByteBuffer buffer) {
+		return new PredicateTable(readStrings(buffer), readInts(buffer), readInts(buffer));
+	}
+
+	private static void writeStrings(DataOutputStream output, String[] strings) throws IOException {
+		output.writeInt(strings.length);
+		for (String string : strings) {
+			final byte[] bytes = string.getBytes(Charsets.UTF_8);
+			output.writeInt(bytes.length);
+			output.write(bytes);
+		}
+	}
+
+	private static String[] readStrings(ByteBuffer buffer) {
+		final String[] strings = new String[buffer.getInt()];
+		byte[] bytes = new byte[64];
+		for (int i = 0; i < strings.length; i++) {
+			final int length = buffer.getInt();
+			if (length > bytes.length) bytes = new byte[Math.max(length, 2 * bytes.length)];
+			buffer.get(bytes, 0, length);
+			strings[i] = new String(bytes, 0, length, Charsets.UTF_8);
+		}
+		return strings;
+	}
+
+	private static void writeInts(DataOutputStream output, int[] ints) throws IOException {
+		output.writeInt(ints.length);
+		for (int i : ints) output.writeInt(i);
+	}
+
+	private static int[] readInts(ByteBuffer buffer) {
+		final int[] ints = new int[buffer.getInt()];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + 4 * ints.length);
+		return ints;
+	}
+}
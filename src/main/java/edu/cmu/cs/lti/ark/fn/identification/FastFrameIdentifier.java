@@ -24,17 +24,19 @@ package edu.cmu.cs.lti.ark.fn.identification;
 
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TObjectDoubleHashMap;
 
 import java.util.*;
 
+import static com.google.common.base.Suppliers.memoize;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags.readLine;
 
 /**
@@ -50,6 +52,11 @@ public class FastFrameIdentifier {
 	// map from lemmas to frames
 	private THashMap<String, THashSet<String>> framesByLemma;
 	public final IdFeatureExtractor featureExtractor;
+	// compiled from params the first time we need it
+	private final Supplier<IndexedFrameScorer> scorer = memoize(new Supplier<IndexedFrameScorer>() {
+		@Override public IndexedFrameScorer get() {
+			return new IndexedFrameScorer(params, allFrames, featureExtractor);
+		} });
 
 	public FastFrameIdentifier(IdFeatureExtractor featureExtractor,
 							   TObjectDoubleHashMap<String> params,
@@ -69,13 +76,15 @@ public class FastFrameIdentifier {
 	 * @param tokenIndices the token indexes that the frame spans
 	 * @return the highest scoring frame
 	 */
-	protected String pickBestFrame(Set<String> frames, Sentence sentence, int[] tokenIndices) {
-		final Map<String, Map<String, Double>> featuresByFrame =
-				featureExtractor.extractFeaturesByName(frames, tokenIndices, sentence);
+	protected String pickBestFrame(Set<String> frames, SentenceAnalysis sentence, int[] tokenIndices) {
+		final IndexedFrameScorer frameScorer = scorer.get();
+		// base features are the same for every frame, so only extract them once
+		final IndexedFrameScorer.TargetFeatures targetFeatures =
+				frameScorer.lookUpBaseFeatures(featureExtractor.getBaseFeatures(tokenIndices, sentence));
 		String result = null;
 		double maxVal = Double.NEGATIVE_INFINITY;
 		for (String frame : frames) {
-			double val = getValueForFrame(featuresByFrame.get(frame));
+			double val = frameScorer.score(frame, targetFeatures);
 			if (val >= maxVal) {
 				maxVal = val;
 				result = frame;
@@ -84,19 +93,6 @@ public class FastFrameIdentifier {
 		return result;
 	}
 
-	/**
-	 * Applies the log-linear model to frame
-	 * @return the log score of the frame
-	 */
-	protected double getValueForFrame(Map<String, Double> features) {
-		Preconditions.checkArgument(features.size() > 0);
-		double featSum = 0.0;
-		for (String feat : features.keySet()) {
-			featSum += features.get(feat) * params.get(feat);
-		}
-		return featSum;
-	}
-
 	protected Optional<THashSet<String>> checkPresenceOfTokensInMap(int[] intTokNums, Sentence sentence) {
 		final List<Token> tokens = sentence.getTokens();
 		final List<String> lemmatizedTokens = Lists.newArrayList();
@@ -115,11 +111,19 @@ public class FastFrameIdentifier {
 		return getBestFrame(Ints.toArray(indices), sentence);
 	}
 
+	public String getBestFrame(Collection<Integer> indices, SentenceAnalysis analysis) {
+		return getBestFrame(Ints.toArray(indices), analysis);
+	}
+
 	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Optional<THashSet<String>> oFrames = checkPresenceOfTokensInMap(tokenIndices, sentence);
+		return getBestFrame(tokenIndices, new SentenceAnalysis(sentence));
+	}
+
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Optional<THashSet<String>> oFrames = checkPresenceOfTokensInMap(tokenIndices, analysis.getSentence());
 		// fall back to all frames if lemmas aren't in the map.
 		final Set<String> frames = oFrames.isPresent() ? oFrames.get() : allFrames;
-		return pickBestFrame(frames, sentence, tokenIndices);
+		return pickBestFrame(frames, analysis, tokenIndices);
 	}
 
 	private int[] getTargetTokenIdxs(String frameLine) {
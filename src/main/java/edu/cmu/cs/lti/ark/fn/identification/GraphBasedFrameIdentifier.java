@@ -1,15 +1,16 @@
 package edu.cmu.cs.lti.ark.fn.identification;
 
-import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
 import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
 import edu.cmu.cs.lti.ark.fn.Semafor;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.fn.wordnet.CachedRelations;
 import edu.cmu.cs.lti.ark.fn.wordnet.Relations;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.nlp.CachingLemmatizer;
 import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
@@ -18,7 +19,6 @@ import gnu.trove.TObjectDoubleHashMap;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import static com.google.common.base.Strings.nullToEmpty;
@@ -34,27 +34,39 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 	public static final String GRAPH_FILENAME = "sparsegraph.gz";
 	public static final String ID_MODEL_FILE = "idmodel.dat";
 
-	final protected SmoothedGraph graph;
+	final protected CompactGraph graph;
 
 	public GraphBasedFrameIdentifier(IdFeatureExtractor featureExtractor,
 									 Set<String> allFrames,
 									 THashMap<String, THashSet<String>> framesByLemma,
 									 TObjectDoubleHashMap<String> params,
-									 SmoothedGraph graph) {
+									 CompactGraph graph) {
 		super(featureExtractor, params, allFrames, framesByLemma);
 		this.graph = graph;
 	}
 
+	public GraphBasedFrameIdentifier(IdFeatureExtractor featureExtractor,
+									 Set<String> allFrames,
+									 THashMap<String, THashSet<String>> framesByLemma,
+									 TObjectDoubleHashMap<String> params,
+									 SmoothedGraph graph) {
+		this(featureExtractor, allFrames, framesByLemma, params, CompactGraph.fromSmoothedGraph(graph));
+	}
+
 	public static GraphBasedFrameIdentifier getInstance(String modelDirectory) throws IOException, ClassNotFoundException {
-		final String graphFilename = new File(modelDirectory, GRAPH_FILENAME).getAbsolutePath();
-		final String idParamsFile = new File(modelDirectory, ID_MODEL_FILE).getAbsolutePath();
 		final String requiredDataFilename = new File(modelDirectory, Semafor.REQUIRED_DATA_FILENAME).getAbsolutePath();
-		System.err.println("Initializing frame identification model...");
 		System.err.println("Reading serialized required data");
 		final RequiredDataForFrameIdentification r = readObject(requiredDataFilename);
 		System.err.println("Done reading serialized required data");
-		System.err.println("Reading graph from: " + graphFilename + "...");
-		final SmoothedGraph graph = readObject(graphFilename);
+		return getInstance(modelDirectory, r);
+	}
+
+	/** Like {@link #getInstance(String)}, for when the caller has already read the required data */
+	public static GraphBasedFrameIdentifier getInstance(String modelDirectory, RequiredDataForFrameIdentification r)
+			throws IOException, ClassNotFoundException {
+		final String idParamsFile = new File(modelDirectory, ID_MODEL_FILE).getAbsolutePath();
+		System.err.println("Initializing frame identification model...");
+		final CompactGraph graph = readGraph(new File(modelDirectory));
 		System.err.println("Read graph successfully.");
 		System.err.println("Reading model parameters...");
 		try {
@@ -76,7 +88,7 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 			final Relations wnRelations =
 					new CachedRelations(r.getRevisedRelMap(), r.getRelatedWordsForWord());
 			final LatentFeatureExtractor latentFeatureExtractor =
-					new LatentFeatureExtractor(wnRelations, new MorphaLemmatizer());
+					new LatentFeatureExtractor(wnRelations, new CachingLemmatizer(new MorphaLemmatizer()));
 			return new LatentGraphBasedFrameIdentifier(
 					latentFeatureExtractor,
 					r.getFrameMap(),
@@ -86,10 +98,38 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 		}
 	}
 
+	/**
+	 * Reads the compact graph in modelDirectory, if it is newer than the serialized SmoothedGraph.
+	 * Otherwise (or if the compact graph can't be read) reads and converts the SmoothedGraph, and tries to save the
+	 * compact graph for next time.
+	 */
+	public static CompactGraph readGraph(File modelDirectory) throws IOException, ClassNotFoundException {
+		final File graphFile = new File(modelDirectory, GRAPH_FILENAME);
+		final File compactGraphFile = new File(modelDirectory, CompactGraph.COMPACT_GRAPH_FILENAME);
+		if (compactGraphFile.isFile() && compactGraphFile.lastModified() >= graphFile.lastModified()) {
+			System.err.println("Reading graph from: " + compactGraphFile + "...");
+			try {
+				return CompactGraph.read(compactGraphFile);
+			} catch (IOException e) {
+				System.err.println("Warning: could not read compact graph, falling back to " + graphFile + ": " +
+						e.getMessage());
+			}
+		}
+		System.err.println("Reading graph from: " + graphFile + "...");
+		final SmoothedGraph smoothedGraph = readObject(graphFile.getAbsolutePath());
+		final CompactGraph graph = CompactGraph.fromSmoothedGraph(smoothedGraph);
+		try {
+			graph.write(compactGraphFile);
+		} catch (IOException e) {
+			System.err.println("Warning: could not write compact graph to " + compactGraphFile + ": " + e.getMessage());
+		}
+		return graph;
+	}
+
 	@Override
-	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, sentence);
-		return pickBestFrame(candidateFrames, sentence, tokenIndices);
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, analysis.getSentence());
+		return pickBestFrame(candidateFrames, analysis, tokenIndices);
 	}
 
 	protected Set<String> getCandidateFrames(int[] tokenIndices, Sentence sentence) {
@@ -97,46 +137,25 @@ public class GraphBasedFrameIdentifier extends FastFrameIdentifier {
 		final Optional<THashSet<String>> frames = checkPresenceOfTokensInMap(tokenIndices, sentence);
 		if (frames.isPresent()) return frames.get();
 
-		final List<Token> frameTokens = Lists.newArrayList();
-		final List<String> lowerCaseForms = Lists.newArrayList();
-		for (int tokNum : tokenIndices) {
-			final Token token = sentenceTokens.get(tokNum);
-			frameTokens.add(token);
-			lowerCaseForms.add(token.getForm().toLowerCase());
-		}
-		final Map<String, Set<String>> coarseMap = graph.getCoarseMap();
-		if (frameTokens.size() > 1) {
-			final String coarseToken = getCanonicalForm(Joiner.on(" ").join(lowerCaseForms));
-			if (coarseMap.containsKey(coarseToken)) return coarseMap.get(coarseToken);
+		if (tokenIndices.length > 1) {
+			final List<String> forms = Lists.newArrayListWithCapacity(tokenIndices.length);
+			for (int tokNum : tokenIndices) forms.add(sentenceTokens.get(tokNum).getForm());
+			final Optional<Set<String>> coarseFrames = graph.getCoarseFrames(forms);
+			if (coarseFrames.isPresent()) return coarseFrames.get();
 		} else {
-			final Token token = frameTokens.get(0);
+			final Token token = sentenceTokens.get(tokenIndices[0]);
 			final String lemma = token.getLemma();
 			final String pos = convertPostag(token.getPostag());
 			if (pos != null) {
-				final String fineToken = getCanonicalForm(lemma + "." + pos);
-				final Map<String, Set<String>> fineMap = graph.getFineMap();
-				if (fineMap.containsKey(fineToken)) return fineMap.get(fineToken);
+				final Optional<Set<String>> fineFrames = graph.getFineFrames(lemma, pos);
+				if (fineFrames.isPresent()) return fineFrames.get();
 			}
-			final String coarseToken = getCanonicalForm(lemma);
-			if (coarseMap.containsKey(coarseToken)) return coarseMap.get(coarseToken);
+			final Optional<Set<String>> coarseFrames = graph.getCoarseFrames(lemma);
+			if (coarseFrames.isPresent()) return coarseFrames.get();
 		}
 		return allFrames;
 	}
 
-	private static String getCanonicalForm(String word) {
-		int len = word.length();
-		String ans = "";
-		for (int i = 0; i < len; i ++) {
-			char c = word.charAt(i);
-			if (Character.isDigit(c)) {
-				ans += "@";
-			} else {
-				ans += c;
-			}
-		}
-		return ans.toLowerCase();
-	}
-
 	/* convert from PTB postags to FrameNet postags */
 	private String convertPostag(String postag) {
 		final String postagUpper = nullToEmpty(postag).toUpperCase();
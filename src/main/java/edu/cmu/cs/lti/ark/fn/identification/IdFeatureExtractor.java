@@ -9,6 +9,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 import gnu.trove.TIntDoubleHashMap;
@@ -55,6 +56,11 @@ public class IdFeatureExtractor {
 	}
 
 	public Map<String, Double> getBaseFeatures(int[] targetTokenIdxs, Sentence sentence) {
+		return getBaseFeatures(targetTokenIdxs, new SentenceAnalysis(sentence));
+	}
+
+	public Map<String, Double> getBaseFeatures(int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		final Sentence sentence = analysis.getSentence();
 		Arrays.sort(targetTokenIdxs);
 		final Map<String, Double> results = Maps.newHashMap();
 		// Get lemmas and postags for target
@@ -63,9 +69,9 @@ public class IdFeatureExtractor {
 			results.putAll(getSentenceContextFeatures(sentence));
 		}
 		// syntactic features
-		results.putAll(getSyntacticFeatures(targetTokenIdxs, sentence));
+		results.putAll(getSyntacticFeatures(targetTokenIdxs, analysis));
 		if (sennaFeatureExtractor.isPresent()) {
-			results.putAll(sennaFeatureExtractor.get().getSennaFeatures(targetTokenIdxs, sentence));
+			results.putAll(sennaFeatureExtractor.get().getSennaFeatures(targetTokenIdxs, analysis));
 		}
 		// add homogenous/bias feature
 		results.put("bias", 1.0);
@@ -102,9 +108,8 @@ public class IdFeatureExtractor {
 		return featureMap.scaleBy(1.0);
 	}
 
-	protected Map<String, Double> getSyntacticFeatures(int[] targetTokenIdxs, Sentence sentence) {
-		final DependencyParse parse = DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0);
-		final DependencyParse head = DependencyParse.getHeuristicHead(parse.getIndexSortedListOfNodes(), targetTokenIdxs);
+	protected Map<String, Double> getSyntacticFeatures(int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		final DependencyParse head = DependencyParse.getHeuristicHead(analysis.getNodes(), targetTokenIdxs);
 		final String headCpostag = getCpostag(head.getPOS());
 
 		final List<DependencyParse> children = head.getChildren();
@@ -161,7 +166,13 @@ public class IdFeatureExtractor {
 	public Map<String, Map<String, Double>> extractFeaturesByName(Iterable<String> frameNames,
 																  int[] targetTokenIdxs,
 																  Sentence sentence) {
-		return frameFeatureExtractor.conjoinAll(frameNames, getBaseFeatures(targetTokenIdxs, sentence));
+		return extractFeaturesByName(frameNames, targetTokenIdxs, new SentenceAnalysis(sentence));
+	}
+
+	public Map<String, Map<String, Double>> extractFeaturesByName(Iterable<String> frameNames,
+																  int[] targetTokenIdxs,
+																  SentenceAnalysis analysis) {
+		return frameFeatureExtractor.conjoinAll(frameNames, getBaseFeatures(targetTokenIdxs, analysis));
 	}
 
 	public Map<String, TIntDoubleHashMap> extractFeaturesByIndex(Iterable<String> frames,
@@ -171,6 +182,11 @@ public class IdFeatureExtractor {
 		return convertToIndexes(extractFeaturesByName(frames, targetTokenIdxs, sentence), alphabet);
 	}
 
+	/** The names of the features of the given frame that base features get conjoined with */
+	public Set<String> getFrameFeatureNames(String frameName) {
+		return frameFeatureExtractor.extractFeatures(frameName).keySet();
+	}
+
 	public Set<String> getConjoinedFeatureNames(Iterable<String> frameNames, String feature) {
 		return frameFeatureExtractor.getAllConjoinedFeatureNames(frameNames, feature);
 	}
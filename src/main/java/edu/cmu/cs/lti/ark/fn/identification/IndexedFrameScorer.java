@@ -0,0 +1,115 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.Maps;
+import gnu.trove.TLongDoubleHashMap;
+import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectDoubleIterator;
+import gnu.trove.TObjectIntHashMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Scores frames with the frame identification model without building conjoined feature names.
+ *
+ * The model's features are a frame feature (e.g. "f:Motion", or "af:Motion" for an ancestor) conjoined with a base
+ * feature of the target (e.g. "aP:V"), named "f:Motion aP:V". This compiles the weights into a map from
+ * (frame feature id, base feature id) to weight, so that a target's base features are looked up once, and each
+ * candidate frame is scored with a primitive dot product.
+ *
+ * Every weight is indexed under every split of its name at a space, so (frame feature, base feature) is found if and
+ * only if frameFeature + " " + baseFeature is in the model, and scores are the same as conjoining by name would give
+ * (up to the order of floating-point addition).
+ */
+@Immutable
+public class IndexedFrameScorer {
+	public static final int NOT_FOUND = -1;
+
+	private final IdFeatureExtractor featureExtractor;
+	private final TObjectIntHashMap<String> frameFeatureIds = new TObjectIntHashMap<String>();
+	private final TObjectIntHashMap<String> baseIds = new TObjectIntHashMap<String>();
+	/** map from (frameFeatureId, baseId) to weight */
+	private final TLongDoubleHashMap weights = new TLongDoubleHashMap();
+	/** the ids of the frame features of each frame we know about ahead of time */
+	private final Map<String, int[]> frameFeatureIdsByFrame = Maps.newHashMap();
+
+	/** The base features of a target, with the ones the model has never seen dropped */
+	public static class TargetFeatures {
+		private final int[] baseIds;
+		private final double[] values;
+
+		private TargetFeatures(int[] baseIds, double[] values) {
+			this.baseIds = baseIds;
+			this.values = values;
+		}
+	}
+
+	public IndexedFrameScorer(TObjectDoubleHashMap<String> params,
+							  Collection<String> frames,
+							  IdFeatureExtractor featureExtractor) {
+		this.featureExtractor = featureExtractor;
+		for (TObjectDoubleIterator<String> it = params.iterator(); it.hasNext(); ) {
+			it.advance();
+			final String feature = it.key();
+			for (int i = feature.indexOf(' '); i >= 0; i = feature.indexOf(' ', i + 1)) {
+				final int frameFeatureId = intern(frameFeatureIds, feature.substring(0, i));
+				final int baseId = intern(baseIds, feature.substring(i + 1));
+				weights.put(key(frameFeatureId, baseId), it.value());
+			}
+		}
+		frameFeatureIds.trimToSize();
+		baseIds.trimToSize();
+		weights.trimToSize();
+		for (String frame : frames) {
+			frameFeatureIdsByFrame.put(frame, lookUpFrameFeatureIds(frame));
+		}
+	}
+
+	private static int intern(TObjectIntHashMap<String> ids, String name) {
+		if (!ids.containsKey(name)) ids.put(name, ids.size());
+		return ids.get(name);
+	}
+
+	private static long key(int frameFeatureId, int baseId) {
+		return ((long) frameFeatureId << 32) | baseId;
+	}
+
+	private int[] lookUpFrameFeatureIds(String frame) {
+		final Collection<String> frameFeatures = featureExtractor.getFrameFeatureNames(frame);
+		final int[] ids = new int[frameFeatures.size()];
+		int n = 0;
+		for (String frameFeature : frameFeatures) {
+			if (frameFeatureIds.containsKey(frameFeature)) ids[n++] = frameFeatureIds.get(frameFeature);
+		}
+		return n == ids.length ? ids : Arrays.copyOf(ids, n);
+	}
+
+	/** Looks up the ids of a target's base features, as given by {@link IdFeatureExtractor#getBaseFeatures} */
+	public TargetFeatures lookUpBaseFeatures(Map<String, Double> baseFeatures) {
+		final int[] ids = new int[baseFeatures.size()];
+		final double[] values = new double[baseFeatures.size()];
+		int n = 0;
+		for (Map.Entry<String, Double> feature : baseFeatures.entrySet()) {
+			if (!baseIds.containsKey(feature.getKey())) continue;
+			ids[n] = baseIds.get(feature.getKey());
+			values[n] = feature.getValue();
+			n++;
+		}
+		return new TargetFeatures(Arrays.copyOf(ids, n), Arrays.copyOf(values, n));
+	}
+
+	/** The log score of the given frame for a target */
+	public double score(String frame, TargetFeatures target) {
+		int[] frameFeatures = frameFeatureIdsByFrame.get(frame);
+		if (frameFeatures == null) frameFeatures = lookUpFrameFeatureIds(frame);
+		double result = 0.0;
+		for (int frameFeatureId : frameFeatures) {
+			for (int i = 0; i < target.baseIds.length; i++) {
+				result += weights.get(key(frameFeatureId, target.baseIds[i])) * target.values[i];
+			}
+		}
+		return result;
+	}
+}
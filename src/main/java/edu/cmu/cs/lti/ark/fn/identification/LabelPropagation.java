@@ -0,0 +1,504 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * Graph-based label propagation, for expanding the frame lexicon to predicates that aren't in the training data
+ * (Das and Smith, 2011, "Semi-Supervised Frame-Semantic Parsing for Unknown Predicates").
+ *
+ * Vertices are predicates ("word.pos"), connected by a symmetric similarity graph (e.g. from
+ * {@link NormalizeLinDekNeighbors}), and labels are frames. Seed vertices start with the frame distributions seen
+ * in training (e.g. from {@link ProduceLargerFrameDistribution}). Each Jacobi iteration sets, for every vertex i,
+ *
+ *   q_i(y) = (r_i(y) + mu * sum_j w_ij q_j(y) + nu / |Y|) / (isSeed_i + mu * sum_j w_ij + nu)
+ *
+ * where r_i is the seed distribution of i (0 if i isn't a seed). Only the <code>maxLabelsPerVertex</code> most
+ * likely labels of each vertex are kept, renormalized, so memory is linear in the number of vertices. The uniform
+ * term is the same for every label, so it only matters through the normalizer.
+ *
+ * The graph and the distributions are stored in compressed-sparse-row primitive arrays, indexed by vertex id.
+ */
+public class LabelPropagation {
+	/** number of vertices updated by a single task */
+	private static final int CHUNK_SIZE = 4096;
+
+	private final TObjectIntHashMap<String> vertexIds;
+	private final List<String> vertexNames;
+	private final List<String> labelNames;
+	/* the similarity graph. the neighbors of vertex i are at [graphOffsets[i], graphOffsets[i+1]) */
+	private final int[] graphOffsets;
+	private final int[] neighbors;
+	private final double[] edgeWeights;
+	/* the seed distributions. the seed labels of vertex i are at [seedOffsets[i], seedOffsets[i+1]) */
+	private final int[] seedOffsets;
+	private final int[] seedLabels;
+	private final double[] seedProbs;
+
+	/** Collects edges and seeds, then indexes them */
+	public static class Builder {
+		private final TObjectIntHashMap<String> vertexIds = new TObjectIntHashMap<String>();
+		private final List<String> vertexNames = Lists.newArrayList();
+		private final TObjectIntHashMap<String> labelIds = new TObjectIntHashMap<String>();
+		private final List<String> labelNames = Lists.newArrayList();
+		private final TIntArrayList edgeSources = new TIntArrayList();
+		private final TIntArrayList edgeTargets = new TIntArrayList();
+		private final TDoubleArrayList edgeWeights = new TDoubleArrayList();
+		private final TIntArrayList seedVertices = new TIntArrayList();
+		private final TIntArrayList seedLabels = new TIntArrayList();
+		private final TDoubleArrayList seedProbs = new TDoubleArrayList();
+
+		/** Adds an edge in both directions. Edges added more than once have their weights summed */
+		public Builder addEdge(String vertex, String neighbor, double weight) {
+			final int source = index(vertex, vertexIds, vertexNames);
+			final int target = index(neighbor, vertexIds, vertexNames);
+			if (source == target) return this;
+			edgeSources.add(source); edgeTargets.add(target); edgeWeights.add(weight);
+			edgeSources.add(target); edgeTargets.add(source); edgeWeights.add(weight);
+			return this;
+		}
+
+		public Builder addSeed(String vertex, String label, double prob) {
+			seedVertices.add(index(vertex, vertexIds, vertexNames));
+			seedLabels.add(index(label, labelIds, labelNames));
+			seedProbs.add(prob);
+			return this;
+		}
+
+		/**
+		 * Reads lines of "vertex \t neighbor \t weight \t neighbor \t weight ...", keeping the k heaviest neighbors
+		 * of each vertex (before symmetrizing)
+		 */
+		public Builder readNeighborFile(File neighborFile, int k) throws IOException {
+			final BufferedReader reader = Files.newReader(neighborFile, Charsets.UTF_8);
+			try {
+				final TopK topK = new TopK(k);
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] fields = line.trim().split("\t");
+					if (fields.length < 3) continue;
+					topK.clear();
+					for (int i = 1; i + 1 < fields.length; i += 2) {
+						topK.offer(i, Double.parseDouble(fields[i + 1]));
+					}
+					for (int r = 0; r < topK.size; r++) {
+						addEdge(fields[0], fields[topK.ids[r]], topK.values[r]);
+					}
+				}
+			} finally {
+				closeQuietly(reader);
+			}
+			return this;
+		}
+
+		/** Reads lines of "vertex \t label prob label prob ..." */
+		public Builder readSeedFile(File seedFile) throws IOException {
+			final BufferedReader reader = Files.newReader(seedFile, Charsets.UTF_8);
+			try {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] fields = line.trim().split("\t");
+					if (fields.length < 2) continue;
+					final String[] labelsAndProbs = fields[1].trim().split(" ");
+					for (int i = 0; i + 1 < labelsAndProbs.length; i += 2) {
+						addSeed(fields[0], labelsAndProbs[i], Double.parseDouble(labelsAndProbs[i + 1]));
+					}
+				}
+			} finally {
+				closeQuietly(reader);
+			}
+			return this;
+		}
+
+		public LabelPropagation build() {
+			final int numVertices = vertexNames.size();
+			final int[] graphOffsets = new int[numVertices + 1];
+			final int[] neighbors = new int[edgeSources.size()];
+			final double[] weights = new double[edgeSources.size()];
+			bucket(edgeSources, edgeTargets, edgeWeights, graphOffsets, neighbors, weights);
+			final int numEdges = mergeDuplicates(graphOffsets, neighbors, weights);
+			final int[] seedOffsets = new int[numVertices + 1];
+			final int[] seedLabelArr = new int[seedVertices.size()];
+			final double[] seedProbArr = new double[seedVertices.size()];
+			bucket(seedVertices, seedLabels, seedProbs, seedOffsets, seedLabelArr, seedProbArr);
+			final int numSeedLabels = mergeDuplicates(seedOffsets, seedLabelArr, seedProbArr);
+			return new LabelPropagation(
+					vertexIds.clone(),
+					ImmutableList.copyOf(vertexNames),
+					ImmutableList.copyOf(labelNames),
+					graphOffsets,
+					trim(neighbors, numEdges),
+					trim(weights, numEdges),
+					seedOffsets,
+					trim(seedLabelArr, numSeedLabels),
+					trim(seedProbArr, numSeedLabels));
+		}
+
+		/** Counting sort of (row, column, value) triples into compressed-sparse-row arrays */
+		private static void bucket(TIntArrayList rows, TIntArrayList columns, TDoubleArrayList values,
+								   int[] offsets, int[] columnsOut, double[] valuesOut) {
+			for (int i = 0; i < rows.size(); i++) offsets[rows.get(i) + 1]++;
+			for (int r = 0; r + 1 < offsets.length; r++) offsets[r + 1] += offsets[r];
+			final int[] next = offsets.clone();
+			for (int i = 0; i < rows.size(); i++) {
+				final int position = next[rows.get(i)]++;
+				columnsOut[position] = columns.get(i);
+				valuesOut[position] = values.get(i);
+			}
+		}
+
+		/**
+		 * Sums the values of repeated columns within each row, compacting the arrays in place
+		 *
+		 * @return the new number of entries
+		 */
+		private static int mergeDuplicates(int[] offsets, int[] columns, double[] values) {
+			final TIntIntHashMap positionOfColumn = new TIntIntHashMap();
+			int size = 0;
+			for (int r = 0; r + 1 < offsets.length; r++) {
+				final int rowStart = size;
+				positionOfColumn.clear();
+				for (int i = offsets[r]; i < offsets[r + 1]; i++) {
+					if (positionOfColumn.containsKey(columns[i])) {
+						values[positionOfColumn.get(columns[i])] += values[i];
+					} else {
+						positionOfColumn.put(columns[i], size);
+						columns[size] = columns[i];
+						values[size] = values[i];
+						size++;
+					}
+				}
+				offsets[r] = rowStart;
+			}
+			offsets[offsets.length - 1] = size;
+			return size;
+		}
+	}
+
+	/** Keeps the entries with the k largest values offered, sorted in decreasing order of value */
+	private static class TopK {
+		final int[] ids;
+		final double[] values;
+		int size = 0;
+
+		TopK(int k) {
+			ids = new int[k];
+			values = new double[k];
+		}
+
+		void clear() { size = 0; }
+
+		void offer(int id, double value) {
+			if (ids.length == 0) return;
+			if (size == ids.length && value <= values[size - 1]) return;
+			int position = size < ids.length ? size++ : size - 1;
+			while (position > 0 && values[position - 1] < value) {
+				ids[position] = ids[position - 1];
+				values[position] = values[position - 1];
+				position--;
+			}
+			ids[position] = id;
+			values[position] = value;
+		}
+	}
+
+	/** The label distribution of every vertex, as the <code>maxLabels</code> most likely labels, most likely first */
+	public class Distributions {
+		private final int maxLabels;
+		final int[] sizes;
+		final int[] labels;
+		final double[] probs;
+
+		private Distributions(int maxLabels) {
+			this.maxLabels = maxLabels;
+			this.sizes = new int[numVertices()];
+			this.labels = new int[numVertices() * maxLabels];
+			this.probs = new double[numVertices() * maxLabels];
+		}
+
+		/** The (label, prob) pairs of the given vertex, most likely first */
+		public List<Pair<String, Double>> get(int vertex) {
+			final List<Pair<String, Double>> result = Lists.newArrayListWithCapacity(sizes[vertex]);
+			for (int r = 0; r < sizes[vertex]; r++) {
+				final int i = vertex * maxLabels + r;
+				result.add(Pair.of(labelNames.get(labels[i]), probs[i]));
+			}
+			return result;
+		}
+
+		/**
+		 * Writes lines of "vertex \t label prob label prob ...", the format read by {@link SmoothedGraph}.
+		 * A vertex with few seeds or neighbors can have fewer than <code>maxLabels</code> labels, so lines can have
+		 * fewer than <code>t</code> pairs; SmoothedGraph reads all the pairs of such lines.
+		 */
+		public void write(File outputFile) throws IOException {
+			final BufferedWriter output = Files.newWriter(outputFile, Charsets.UTF_8);
+			try {
+				for (int v = 0; v < numVertices(); v++) {
+					if (sizes[v] == 0) continue;
+					output.write(vertexNames.get(v));
+					output.write('\t');
+					for (int r = 0; r < sizes[v]; r++) {
+						final int i = v * maxLabels + r;
+						if (r > 0) output.write(' ');
+						output.write(labelNames.get(labels[i]) + " " + probs[i]);
+					}
+					output.write('\n');
+				}
+			} finally {
+				closeQuietly(output);
+			}
+		}
+
+		/**
+		 * The graph used by frame identification: each vertex ("word.pos") maps to its <code>t</code> most likely
+		 * frames, and each word maps to the union of the frames of its vertices
+		 */
+		public SmoothedGraph toSmoothedGraph(int t) {
+			final Map<String, Set<String>> fineMap = new THashMap<String, Set<String>>();
+			final Map<String, Set<String>> coarseMap = new THashMap<String, Set<String>>();
+			for (int v = 0; v < numVertices(); v++) {
+				if (sizes[v] == 0) continue;
+				final String predicate = vertexNames.get(v);
+				final int lastDot = predicate.lastIndexOf('.');
+				final String coarsePredicate = lastDot < 0 ? predicate : predicate.substring(0, lastDot);
+				final Set<String> fineSet = new THashSet<String>();
+				Set<String> coarseSet = coarseMap.get(coarsePredicate);
+				if (coarseSet == null) {
+					coarseSet = new THashSet<String>();
+					coarseMap.put(coarsePredicate, coarseSet);
+				}
+				for (int r = 0; r < Math.min(t, sizes[v]); r++) {
+					final String frame = labelNames.get(labels[v * maxLabels + r]);
+					fineSet.add(frame);
+					coarseSet.add(frame);
+				}
+				fineMap.put(predicate, fineSet);
+			}
+			return new SmoothedGraph(fineMap, coarseMap);
+		}
+	}
+
+	private LabelPropagation(TObjectIntHashMap<String> vertexIds,
+							 List<String> vertexNames,
+							 List<String> labelNames,
+							 int[] graphOffsets,
+							 int[] neighbors,
+							 double[] edgeWeights,
+							 int[] seedOffsets,
+							 int[] seedLabels,
+							 double[] seedProbs) {
+		this.vertexIds = vertexIds;
+		this.vertexNames = vertexNames;
+		this.labelNames = labelNames;
+		this.graphOffsets = graphOffsets;
+		this.neighbors = neighbors;
+		this.edgeWeights = edgeWeights;
+		this.seedOffsets = seedOffsets;
+		this.seedLabels = seedLabels;
+		this.seedProbs = seedProbs;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	public int numVertices() { return vertexNames.size(); }
+
+	public int numLabels() { return labelNames.size(); }
+
+	public int numEdges() { return neighbors.length; }
+
+	/** @return the id of the given vertex, or -1 if it's not in the graph */
+	public int getVertexId(String vertex) { return vertexIds.containsKey(vertex) ? vertexIds.get(vertex) : -1; }
+
+	/**
+	 * Runs <code>numIterations</code> Jacobi iterations, starting from the seed distributions
+	 *
+	 * @param mu the weight of agreeing with neighbors
+	 * @param nu the weight of the uniform distribution
+	 * @param maxLabelsPerVertex the number of labels kept for each vertex after each iteration
+	 * @param numThreads the number of threads to update vertices with
+	 */
+	public Distributions propagate(int numIterations, double mu, double nu, int maxLabelsPerVertex, int numThreads)
+			throws InterruptedException {
+		Distributions current = new Distributions(maxLabelsPerVertex);
+		initializeFromSeeds(current);
+		Distributions next = new Distributions(maxLabelsPerVertex);
+		final ExecutorService threadPool = newFixedThreadPool(numThreads);
+		try {
+			for (int iteration = 0; iteration < numIterations; iteration++) {
+				final long startTime = System.currentTimeMillis();
+				final List<Callable<Void>> tasks = Lists.newArrayList();
+				for (int start = 0; start < numVertices(); start += CHUNK_SIZE) {
+					tasks.add(updateTask(start, Math.min(start + CHUNK_SIZE, numVertices()), mu, nu, current, next));
+				}
+				for (Future<Void> result : threadPool.invokeAll(tasks)) {
+					try {
+						result.get();
+					} catch (ExecutionException e) {
+						throw new RuntimeException(e.getCause());
+					}
+				}
+				final Distributions swap = current; current = next; next = swap;
+				System.err.printf("Finished label propagation iteration %d in %d millis.%n",
+						iteration, System.currentTimeMillis() - startTime);
+			}
+		} finally {
+			threadPool.shutdown();
+		}
+		return current;
+	}
+
+	private void initializeFromSeeds(Distributions distributions) {
+		final TopK topK = new TopK(distributions.maxLabels);
+		for (int v = 0; v < numVertices(); v++) {
+			topK.clear();
+			for (int i = seedOffsets[v]; i < seedOffsets[v + 1]; i++) topK.offer(seedLabels[i], seedProbs[i]);
+			store(distributions, v, topK);
+		}
+	}
+
+	/** Writes the updated distributions of vertices [start, end) of <code>current</code> to <code>next</code> */
+	private Callable<Void> updateTask(final int start,
+									  final int end,
+									  final double mu,
+									  final double nu,
+									  final Distributions current,
+									  final Distributions next) {
+		return new Callable<Void>() {
+			@Override public Void call() {
+				final double[] scores = new double[numLabels()];
+				final boolean[] isTouched = new boolean[numLabels()];
+				final TIntArrayList touched = new TIntArrayList();
+				final TopK topK = new TopK(current.maxLabels);
+				for (int v = start; v < end; v++) {
+					// accumulate the unnormalized new distribution in scores
+					final boolean isSeed = seedOffsets[v] < seedOffsets[v + 1];
+					for (int i = seedOffsets[v]; i < seedOffsets[v + 1]; i++) {
+						touch(seedLabels[i], isTouched, touched);
+						scores[seedLabels[i]] += seedProbs[i];
+					}
+					double totalWeight = 0.0;
+					for (int e = graphOffsets[v]; e < graphOffsets[v + 1]; e++) {
+						final int neighbor = neighbors[e];
+						final double weight = mu * edgeWeights[e];
+						totalWeight += edgeWeights[e];
+						for (int r = 0; r < current.sizes[neighbor]; r++) {
+							final int i = neighbor * current.maxLabels + r;
+							touch(current.labels[i], isTouched, touched);
+							scores[current.labels[i]] += weight * current.probs[i];
+						}
+					}
+					final double normalizer = (isSeed ? 1 : 0) + mu * totalWeight + nu;
+					final double uniform = numLabels() == 0 ? 0 : nu / numLabels();
+					topK.clear();
+					for (int j = 0; j < touched.size(); j++) {
+						final int label = touched.get(j);
+						topK.offer(label, (scores[label] + uniform) / normalizer);
+						scores[label] = 0.0;
+						isTouched[label] = false;
+					}
+					touched.resetQuick();
+					store(next, v, topK);
+				}
+				return null;
+			}
+		};
+	}
+
+	private static void touch(int label, boolean[] isTouched, TIntArrayList touched) {
+		if (isTouched[label]) return;
+		isTouched[label] = true;
+		touched.add(label);
+	}
+
+	/** Stores the kept labels of vertex v, renormalized */
+	private static void store(Distributions distributions, int v, TopK topK) {
+		double total = 0.0;
+		for (int r = 0; r < topK.size; r++) total += topK.values[r];
+		distributions.sizes[v] = topK.size;
+		for (int r = 0; r < topK.size; r++) {
+			final int i = v * distributions.maxLabels + r;
+			distributions.labels[i] = topK.ids[r];
+			distributions.probs[i] = total > 0 ? topK.values[r] / total : 1.0 / topK.size;
+		}
+	}
+
+	private static int index(String name, TObjectIntHashMap<String> ids, List<String> names) {
+		if (ids.containsKey(name)) return ids.get(name);
+		final int id = names.size();
+		ids.put(name, id);
+		names.add(name);
+		return id;
+	}
+
+	private static int[] trim(int[] array, int size) {
+		return size == array.length ? array : Arrays.copyOf(array, size);
+	}
+
+	private static double[] trim(double[] array, int size) {
+		return size == array.length ? array : Arrays.copyOf(array, size);
+	}
+
+	/**
+	 * Builds the smoothed graph used by frame identification.
+	 *
+	 * usage: neighborFile seedFile k mu nu numIterations maxLabelsPerVertex t numThreads outputPrefix
+	 *
+	 * Writes the propagated distributions to outputPrefix, in the format read by
+	 * {@link SmoothedGraph#SmoothedGraph(String, int)}, and the SmoothedGraph with the top t frames of each
+	 * predicate to outputPrefix.t.[t].jobj.gz
+	 */
+	public static void main(String[] args) throws Exception {
+		final File neighborFile = new File(args[0]);
+		final File seedFile = new File(args[1]);
+		final int k = Integer.parseInt(args[2]);
+		final double mu = Double.parseDouble(args[3]);
+		final double nu = Double.parseDouble(args[4]);
+		final int numIterations = Integer.parseInt(args[5]);
+		final int maxLabelsPerVertex = Integer.parseInt(args[6]);
+		final int t = Integer.parseInt(args[7]);
+		checkArgument(t <= maxLabelsPerVertex,
+				"t (%s) can't be more than maxLabelsPerVertex (%s)", t, maxLabelsPerVertex);
+		final int numThreads = Integer.parseInt(args[8]);
+		final String outputPrefix = args[9];
+		final LabelPropagation propagation = builder()
+				.readSeedFile(seedFile)
+				.readNeighborFile(neighborFile, k)
+				.build();
+		System.err.printf("Read graph with %d vertices, %d edges and %d labels.%n",
+				propagation.numVertices(), propagation.numEdges(), propagation.numLabels());
+		final Distributions distributions =
+				propagation.propagate(numIterations, mu, nu, maxLabelsPerVertex, numThreads);
+		distributions.write(new File(outputPrefix));
+		SerializedObjects.writeSerializedObject(distributions.toSmoothedGraph(t), outputPrefix + ".t." + t + ".jobj.gz");
+	}
+}
@@ -0,0 +1,198 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
+import gnu.trove.TLongDoubleHashMap;
+import gnu.trove.TObjectDoubleHashMap;
+import gnu.trove.TObjectDoubleIterator;
+import gnu.trove.TObjectIntHashMap;
+import gnu.trove.TObjectIntIterator;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor.HiddenUnit;
+import static edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor.Target;
+
+/**
+ * Scores frames with the latent-unit frame identification model, where the score of a frame is the log of the sum,
+ * over the frame's hidden l.u.s, of the exponentiated feature sums.
+ *
+ * Every feature is a base feature conjoined with the frame name (e.g. "hT:run_V_f:Self_motion"), and the base
+ * features split into three parts (see {@link LatentFeatureExtractor}):
+ * <ul>
+ *     <li>target features, which are the same for every hidden l.u., so they're scored once per (target, frame)
+ *     and factored out of the sum,</li>
+ *     <li>hidden l.u. features, which don't depend on the target, so they're scored once per (frame, hidden l.u.)
+ *     for the life of the model,</li>
+ *     <li>pair features (WordNet relations and matches), which most (target, hidden l.u.) pairs don't have, and
+ *     which are only extracted for the ones that do.</li>
+ * </ul>
+ * Weights are compiled into a map from (base feature id, frame id), indexed under every split of their name at
+ * "_f:", so lookups give exactly the weights that conjoining by name would.
+ */
+@ThreadSafe
+public class LatentFrameScorer {
+	public static final int NOT_FOUND = -1;
+	private static final String FRAME_PREFIX = "_f:";
+
+	private final LatentFeatureExtractor featureExtractor;
+	private final Map<String, ? extends Set<String>> hiddenUnitsByFrame;
+	private final TObjectIntHashMap<String> baseIds = new TObjectIntHashMap<String>();
+	private final TObjectIntHashMap<String> frameIds = new TObjectIntHashMap<String>();
+	/** map from (baseId, frameId) to weight */
+	private final TLongDoubleHashMap weights = new TLongDoubleHashMap();
+	/** the hidden l.u.s of each frame, and the scores of their hidden l.u. features. filled in as frames come up */
+	private final ConcurrentMap<String, ScoredHiddenUnits> hiddenUnitsCache =
+			new ConcurrentHashMap<String, ScoredHiddenUnits>();
+
+	private static class ScoredHiddenUnits {
+		private final HiddenUnit[] units;
+		private final double[] scores;
+
+		private ScoredHiddenUnits(HiddenUnit[] units, double[] scores) {
+			this.units = units;
+			this.scores = scores;
+		}
+	}
+
+	/** The parts of a target's features that are shared by every frame and hidden l.u. */
+	public static class TargetFeatures {
+		private final Target target;
+		private final int[] baseIds;
+		private final int[] counts;
+
+		private TargetFeatures(Target target, int[] baseIds, int[] counts) {
+			this.target = target;
+			this.baseIds = baseIds;
+			this.counts = counts;
+		}
+	}
+
+	public LatentFrameScorer(LatentFeatureExtractor featureExtractor,
+							 Map<String, ? extends Set<String>> hiddenUnitsByFrame,
+							 TObjectDoubleHashMap<String> params) {
+		this.featureExtractor = featureExtractor;
+		this.hiddenUnitsByFrame = hiddenUnitsByFrame;
+		for (TObjectDoubleIterator<String> it = params.iterator(); it.hasNext(); ) {
+			it.advance();
+			final String feature = it.key();
+			for (int i = feature.indexOf(FRAME_PREFIX); i >= 0; i = feature.indexOf(FRAME_PREFIX, i + 1)) {
+				final int baseId = intern(baseIds, feature.substring(0, i));
+				final int frameId = intern(frameIds, feature.substring(i + FRAME_PREFIX.length()));
+				weights.put(key(baseId, frameId), it.value());
+			}
+		}
+		baseIds.trimToSize();
+		frameIds.trimToSize();
+		weights.trimToSize();
+	}
+
+	private static int intern(TObjectIntHashMap<String> ids, String name) {
+		if (!ids.containsKey(name)) ids.put(name, ids.size());
+		return ids.get(name);
+	}
+
+	private static long key(int baseId, int frameId) {
+		return ((long) baseId << 32) | frameId;
+	}
+
+	private static int getId(TObjectIntHashMap<String> ids, String name) {
+		return ids.containsKey(name) ? ids.get(name) : NOT_FOUND;
+	}
+
+	private double getWeight(int baseId, int frameId) {
+		if (baseId == NOT_FOUND || frameId == NOT_FOUND) return 0.0;
+		return weights.get(key(baseId, frameId));
+	}
+
+	/** Sums the weights of the given base features conjoined with the given frame */
+	private double score(IntCounter<String> baseFeatures, int frameId) {
+		double result = 0.0;
+		for (TObjectIntIterator<String> it = baseFeatures.getIterator(); it.hasNext(); ) {
+			it.advance();
+			result += it.value() * getWeight(getId(baseIds, it.key()), frameId);
+		}
+		return result;
+	}
+
+	/** Extracts the features of a target that every frame and hidden l.u. share. Sorts targetTokenIdxs. */
+	public TargetFeatures extractTargetFeatures(int[] targetTokenIdxs, SentenceAnalysis sentence) {
+		final String[][] allLemmaTags = sentence.getAllLemmaTags();
+		final IntCounter<String> features =
+				featureExtractor.extractTargetFeatures(targetTokenIdxs, allLemmaTags, sentence.getParse(), true);
+		final int[] ids = new int[features.size()];
+		final int[] counts = new int[features.size()];
+		int n = 0;
+		for (TObjectIntIterator<String> it = features.getIterator(); it.hasNext(); ) {
+			it.advance();
+			final int baseId = getId(baseIds, it.key());
+			if (baseId == NOT_FOUND) continue;
+			ids[n] = baseId;
+			counts[n] = it.value();
+			n++;
+		}
+		final Target target = featureExtractor.parseTarget(targetTokenIdxs, allLemmaTags, true);
+		return new TargetFeatures(target, Arrays.copyOf(ids, n), Arrays.copyOf(counts, n));
+	}
+
+	/**
+	 * The log score of the given frame for a target.
+	 *
+	 * @return the log of the sum over hidden l.u.s of exp(score), or negative infinity if the frame is unknown
+	 */
+	public double score(String frame, TargetFeatures target) {
+		final ScoredHiddenUnits hiddenUnits = getHiddenUnits(frame);
+		if (hiddenUnits == null) return Double.NEGATIVE_INFINITY;
+		final int frameId = getId(frameIds, frame);
+		double targetScore = 0.0;
+		for (int i = 0; i < target.baseIds.length; i++) {
+			targetScore += target.counts[i] * getWeight(target.baseIds[i], frameId);
+		}
+		final double[] scores = new double[hiddenUnits.units.length];
+		for (int i = 0; i < scores.length; i++) {
+			final HiddenUnit hidden = hiddenUnits.units[i];
+			scores[i] = hiddenUnits.scores[i];
+			final Set<String> relations = featureExtractor.getRelations(target.target, hidden);
+			if (LatentFeatureExtractor.hasPairFeatures(target.target, hidden, relations)) {
+				scores[i] += score(featureExtractor.extractPairFeatures(target.target, hidden, relations), frameId);
+			}
+		}
+		return targetScore + logSumExp(scores);
+	}
+
+	private ScoredHiddenUnits getHiddenUnits(String frame) {
+		final ScoredHiddenUnits cached = hiddenUnitsCache.get(frame);
+		if (cached != null) return cached;
+		final Set<String> hiddenLexUnits = hiddenUnitsByFrame.get(frame);
+		if (hiddenLexUnits == null) return null;
+		final int frameId = getId(frameIds, frame);
+		final HiddenUnit[] units = new HiddenUnit[hiddenLexUnits.size()];
+		final double[] scores = new double[units.length];
+		int i = 0;
+		for (String hiddenLexUnit : hiddenLexUnits) {
+			units[i] = featureExtractor.parseHiddenUnit(hiddenLexUnit);
+			scores[i] = score(featureExtractor.extractHiddenUnitFeatures(units[i]), frameId);
+			i++;
+		}
+		final ScoredHiddenUnits scored = new ScoredHiddenUnits(units, scores);
+		// if another thread beat us to it, the results are the same
+		hiddenUnitsCache.putIfAbsent(frame, scored);
+		return scored;
+	}
+
+	/** Computes log(sum(exp(xs))) without overflowing or underflowing */
+	static double logSumExp(double[] xs) {
+		double max = Double.NEGATIVE_INFINITY;
+		for (double x : xs) max = Math.max(max, x);
+		if (Double.isInfinite(max)) return max;
+		double sum = 0.0;
+		for (double x : xs) sum += Math.exp(x - max);
+		return max + Math.log(sum);
+	}
+}
@@ -1,36 +1,50 @@
 package edu.cmu.cs.lti.ark.fn.identification;
 
-import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import com.google.common.base.Supplier;
 import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
-import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
-import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TObjectDoubleHashMap;
 
 import java.util.Set;
 
+import static com.google.common.base.Suppliers.memoize;
+
 /**
  * @author sthomson@cs.cmu.edu
  */
 public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
 	private final LatentFeatureExtractor featureExtractor;
 	private final THashMap<String, THashSet<String>> hiddenUnitsByFrame;
+	// compiled from params the first time we need it
+	private final Supplier<LatentFrameScorer> scorer = memoize(new Supplier<LatentFrameScorer>() {
+		@Override public LatentFrameScorer get() {
+			return new LatentFrameScorer(featureExtractor, hiddenUnitsByFrame, params);
+		} });
 
 	public LatentGraphBasedFrameIdentifier(LatentFeatureExtractor featureExtractor,
 										   THashMap<String, THashSet<String>> hiddenUnitsByFrame,
 										   THashMap<String, THashSet<String>> framesByLemma,
 										   TObjectDoubleHashMap<String> params,
-										   SmoothedGraph graph) {
+										   CompactGraph graph) {
 		super(null, hiddenUnitsByFrame.keySet(), framesByLemma, params, graph);
 		this.featureExtractor = featureExtractor;
 		this.hiddenUnitsByFrame = hiddenUnitsByFrame;
 	}
 
+	public LatentGraphBasedFrameIdentifier(LatentFeatureExtractor featureExtractor,
+										   THashMap<String, THashSet<String>> hiddenUnitsByFrame,
+										   THashMap<String, THashSet<String>> framesByLemma,
+										   TObjectDoubleHashMap<String> params,
+										   SmoothedGraph graph) {
+		this(featureExtractor, hiddenUnitsByFrame, framesByLemma, params, CompactGraph.fromSmoothedGraph(graph));
+	}
+
 	@Override
-	public String getBestFrame(int[] tokenIndices, Sentence sentence) {
-		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, sentence);
-		return pickBestFrame(candidateFrames, sentence, tokenIndices);
+	public String getBestFrame(int[] tokenIndices, SentenceAnalysis analysis) {
+		final Set<String> candidateFrames = getCandidateFrames(tokenIndices, analysis.getSentence());
+		return pickBestFrame(candidateFrames, analysis, tokenIndices);
 	}
 
 	/**
@@ -42,11 +56,15 @@ public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
 	 * @return the highest scoring frame
 	 */
 	@Override
-	protected String pickBestFrame(Set<String> frames, Sentence sentence, int[] targetTokenIdxs) {
+	protected String pickBestFrame(Set<String> frames, SentenceAnalysis sentence, int[] targetTokenIdxs) {
+		final LatentFrameScorer frameScorer = scorer.get();
+		// target features are the same for every frame, so only extract them once
+		final LatentFrameScorer.TargetFeatures targetFeatures =
+				frameScorer.extractTargetFeatures(targetTokenIdxs, sentence);
 		String result = null;
 		double maxVal = Double.NEGATIVE_INFINITY;
 		for (String frame : frames) {
-			double val = getValueForFrame(frame, targetTokenIdxs, sentence);
+			double val = frameScorer.score(frame, targetFeatures);
 			if (val >= maxVal) {
 				maxVal = val;
 				result = frame;
@@ -54,35 +72,4 @@ public class LatentGraphBasedFrameIdentifier extends GraphBasedFrameIdentifier {
 		}
 		return result;
 	}
-
-	/**
-	 * Applies the log-linear model to frame
-	 * @param frame the frames to score
-	 * @param sentence the dependency parse of the sentence, needed to extract features
-	 * @param targetTokenIdxs the token indexes that the frame spans
-	 * @return the score of the frame
-	 */
-	protected double getValueForFrame(String frame, int[] targetTokenIdxs, Sentence sentence) {
-		if (!allFrames.contains(frame)) return Double.NEGATIVE_INFINITY;
-		final THashSet<String> hiddenUnits = hiddenUnitsByFrame.get(frame);
-		final String[][] allLemmaTags = sentence.toAllLemmaTagsArray();
-		final DependencyParse parse = DependencyParse.processFN(allLemmaTags, 0.0);
-		double result = 0.0;
-		for (String hiddenLexUnit : hiddenUnits) {
-			final IntCounter<String> features =
-					featureExtractor.extractFeatures(
-							frame,
-							targetTokenIdxs,
-							hiddenLexUnit,
-							allLemmaTags,
-							parse,
-							true);
-			double featSum = 0.0;
-			for (String feat : features.keySet()) {
-				featSum += features.get(feat) * params.get(feat);
-			}
-			result += Math.exp(featSum);
-		}
-		return result;
-	}
 }
@@ -4,6 +4,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Maps;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 
 import java.io.IOException;
@@ -30,10 +31,13 @@ public class SennaFeatureExtractor {
 	}
 
 	public Map<String, Double> getSennaFeatures(int[] targetTokenIdxs, Sentence sentence) {
-		final Map<String, Double> features = Maps.newHashMap();
+		return getSennaFeatures(targetTokenIdxs, new SentenceAnalysis(sentence));
+	}
 
-		final DependencyParse parse = DependencyParse.processFN(sentence.toAllLemmaTagsArray(), 0.0);
-		final int headIdx = getHeuristicHead(parse.getIndexSortedListOfNodes(), targetTokenIdxs).getIndex() - 1;
+	public Map<String, Double> getSennaFeatures(int[] targetTokenIdxs, SentenceAnalysis analysis) {
+		final Map<String, Double> features = Maps.newHashMap();
+		final Sentence sentence = analysis.getSentence();
+		final int headIdx = getHeuristicHead(analysis.getNodes(), targetTokenIdxs).getIndex() - 1;
 		final List<Token> tokens = sentence.getTokens();
 		// add senna features for five-word window around target head
 		for (int i : xrange(FIVE_WORD_WINDOW_NAMES.length)) {
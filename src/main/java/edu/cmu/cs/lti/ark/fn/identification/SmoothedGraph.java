@@ -54,6 +54,11 @@ public class SmoothedGraph implements Serializable {
 	
 	private Map<String, Set<String>> coarseMap;
 	
+	public SmoothedGraph(Map<String, Set<String>> fineMap, Map<String, Set<String>> coarseMap) {
+		this.fineMap = fineMap;
+		this.coarseMap = coarseMap;
+	}
+
 	public SmoothedGraph (String file, int t) {
 		fineMap = new THashMap<String, Set<String>>();
 		coarseMap = new THashMap<String, Set<String>>();
@@ -68,7 +73,8 @@ public class SmoothedGraph implements Serializable {
 				int li = pred.lastIndexOf(".");
 				String coarsepred = pred.substring(0, li);
 				String[] frames = toks[1].split(" ");
-				for (int i = 0 ; i < 2*t; i = i + 2) {
+				// a vertex can have fewer than t frames
+				for (int i = 0 ; i < Math.min(2*t, frames.length); i = i + 2) {
 					String frame = frames[i];
 					if (fineMap.containsKey(pred)) {
 						Set<String> fineSet = fineMap.get(pred);
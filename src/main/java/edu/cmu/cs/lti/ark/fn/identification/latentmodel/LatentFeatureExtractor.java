@@ -53,9 +53,44 @@ public class LatentFeatureExtractor {
 		this.lemmatizer = lemmatizer;
 	}
 
+	/** The strings of a hidden l.u. that its features are built from */
+	public static class HiddenUnit {
+		/** space-separated forms, for looking up WordNet relations */
+		public final String tokens;
+		public final String tokenAndCpostags;
+		public final String cpostags;
+		public final String lemmaAndCpostags;
+
+		private HiddenUnit(String tokens, String tokenAndCpostags, String cpostags, String lemmaAndCpostags) {
+			this.tokens = tokens;
+			this.tokenAndCpostags = tokenAndCpostags;
+			this.cpostags = cpostags;
+			this.lemmaAndCpostags = lemmaAndCpostags;
+		}
+	}
+
+	/** The strings of a target that its features are built from */
+	public static class Target {
+		/** space-separated forms, for looking up WordNet relations */
+		public final String tokens;
+		public final String tokenAndCpostags;
+		public final String cpostags;
+		public final String lemmaAndCpostags;
+
+		private Target(String tokens, String tokenAndCpostags, String cpostags, String lemmaAndCpostags) {
+			this.tokens = tokens;
+			this.tokenAndCpostags = tokenAndCpostags;
+			this.cpostags = cpostags;
+			this.lemmaAndCpostags = lemmaAndCpostags;
+		}
+	}
+
 	/**
 	 * Extract features for a (frame, target, hidden l.u.) tuple
 	 *
+	 * The features are the union of {@link #extractTargetFeatures}, {@link #extractHiddenUnitFeatures} and
+	 * {@link #extractPairFeatures}, each conjoined with the frame name.
+	 *
 	 * @param frameName the name of the candidate frame
 	 * @param targetTokenIdxs the token indexes (0-indexed) of the target
 	 * @param hiddenLexUnit the latent l.u.
@@ -70,8 +105,22 @@ public class LatentFeatureExtractor {
 											  String[][] allLemmaTags,
 											  DependencyParse parse,
 											  boolean parseHasLemmas) {
-		// Get lemmas and postags for prototype
-		// hiddenLexUnit is in format: "form1_pos1 form2_pos2 ... formn_posn"
+		final HiddenUnit hidden = parseHiddenUnit(hiddenLexUnit);
+		final Target target = parseTarget(targetTokenIdxs, allLemmaTags, parseHasLemmas);
+		final IntCounter<String> baseFeatures = extractTargetFeatures(targetTokenIdxs, allLemmaTags, parse, parseHasLemmas);
+		baseFeatures.incrementAllBy(extractHiddenUnitFeatures(hidden));
+		baseFeatures.incrementAllBy(extractPairFeatures(target, hidden, getRelations(target, hidden)));
+		// every feature is conjoined with the frame name
+		final String frameFtr = "f:" + frameName;
+		final IntCounter<String> featureMap = new IntCounter<String>();
+		for (String feature : baseFeatures.keySet()) {
+			featureMap.incrementBy(UNDERSCORE.join(feature, frameFtr), baseFeatures.getT(feature));
+		}
+		return featureMap;
+	}
+
+	/** @param hiddenLexUnit a latent l.u., in the format "form1_pos1 form2_pos2 ... formn_posn" */
+	public HiddenUnit parseHiddenUnit(String hiddenLexUnit) {
 		final String[] hiddenTokenAndPos = hiddenLexUnit.split(" ");
 		final List<String> hiddenTokenAndCpostags = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
 		final List<String> hiddenTokens = Lists.newArrayListWithExpectedSize(hiddenTokenAndPos.length);
@@ -88,11 +137,15 @@ public class LatentFeatureExtractor {
 			hiddenTokenAndCpostags.add(form + "_" + cpostag);
 			hiddenLemmaAndCpostags.add(lemma + "_" + cpostag);
 		}
-		final String hiddenTokenAndCpostagsStr = UNDERSCORE.join(hiddenTokenAndCpostags);
-		final String hiddenCpostagsStr = UNDERSCORE.join(hiddenCpostags);
-		final String hiddenLemmaAndCpostagsStr = UNDERSCORE.join(hiddenLemmaAndCpostags);
+		return new HiddenUnit(
+				SPACE.join(hiddenTokens),
+				UNDERSCORE.join(hiddenTokenAndCpostags),
+				UNDERSCORE.join(hiddenCpostags),
+				UNDERSCORE.join(hiddenLemmaAndCpostags));
+	}
 
-		// Get lemmas and postags for target
+	/** Gets lemmas and postags for the target. Sorts targetTokenIdxs. */
+	public Target parseTarget(int[] targetTokenIdxs, String[][] allLemmaTags, boolean parseHasLemmas) {
 		final List<String> actualTokenAndCpostags = Lists.newArrayListWithExpectedSize(targetTokenIdxs.length);
 		final List<String> actualTokens = Lists.newArrayListWithExpectedSize(targetTokenIdxs.length);
 		final List<String> actualCpostags = Lists.newArrayListWithExpectedSize(targetTokenIdxs.length);
@@ -109,25 +162,27 @@ public class LatentFeatureExtractor {
 			actualCpostags.add(cpostag);
 			actualLemmaAndCpostags.add(lemma + "_" + cpostag);
 		}
-		final String actualTokenAndCpostagsStr = UNDERSCORE.join(actualTokenAndCpostags);
-		final String actualCpostagsStr = UNDERSCORE.join(actualCpostags);
-		final String actualLemmaAndCpostagsStr = UNDERSCORE.join(actualLemmaAndCpostags);
+		return new Target(
+				SPACE.join(actualTokens),
+				UNDERSCORE.join(actualTokenAndCpostags),
+				UNDERSCORE.join(actualCpostags),
+				UNDERSCORE.join(actualLemmaAndCpostags));
+	}
 
-		final Set<String> relations = wnRelations.getRelations(SPACE.join(actualTokens), SPACE.join(hiddenTokens));
+	/** The WordNet relations by which the target and hidden l.u. are connected */
+	public Set<String> getRelations(Target target, HiddenUnit hidden) {
+		return wnRelations.getRelations(target.tokens, hidden.tokens);
+	}
 
+	/**
+	 * Features that depend only on the target and the sentence (not yet conjoined with the frame name)
+	 * Sorts targetTokenIdxs.
+	 */
+	public IntCounter<String> extractTargetFeatures(int[] targetTokenIdxs,
+													String[][] allLemmaTags,
+													DependencyParse parse,
+													boolean parseHasLemmas) {
 		final IntCounter<String> featureMap = new IntCounter<String>();
-		/*
-		 * base features
-		 * will be conjoined in various ways
-		 * (always conjoined with the frame name)
-		 */
-		final String frameFtr = "f:" + frameName;
-		final String actualCpostagsFtr = "aP:" + actualCpostagsStr;
-		final String actualLemmaAndCpostagsFtr = "aLP:" + actualLemmaAndCpostagsStr;
-		final String hiddenTokenAndCpostagsFtr = "hT:" + hiddenTokenAndCpostagsStr;
-		final String hiddenCpostagsFtr = "hP:" + hiddenCpostagsStr;
-		final String hiddenLemmaAndCpostagsFtr = "hLP:" + hiddenLemmaAndCpostagsStr;
-
 		// add a feature for each word in the sentence
 		for (int tokenIdx : xrange(allLemmaTags[0].length)) {
 			final String form = allLemmaTags[PARSE_TOKEN_ROW][tokenIdx];
@@ -135,124 +190,121 @@ public class LatentFeatureExtractor {
 			final String cpostag = getCpostag(postag);
 			final String lemma = parseHasLemmas ? allLemmaTags[PARSE_LEMMA_ROW][tokenIdx]
 					: lemmatizer.getLemma(form, postag);
-			featureMap.increment(UNDERSCORE.join(
-					"sTP:" + form + "_" + cpostag,
-					frameFtr));
-			featureMap.increment(UNDERSCORE.join(
-					"sLP:" + lemma + "_" + cpostag,
-					frameFtr));
+			featureMap.increment("sTP:" + form + "_" + cpostag);
+			featureMap.increment("sLP:" + lemma + "_" + cpostag);
+		}
+
+		/*
+		 * syntactic features
+		 */
+		Arrays.sort(targetTokenIdxs);
+		final DependencyParse[] sortedNodes = parse.getIndexSortedListOfNodes();
+		final DependencyParse head = DependencyParse.getHeuristicHead(sortedNodes, targetTokenIdxs);
+		final String headCpostag = getCpostag(head.getPOS());
+
+		final List<DependencyParse> children = head.getChildren();
+
+		final SortedSet<String> depLabels = Sets.newTreeSet(); // unordered set of arc labels of children
+		for (DependencyParse child : children) {
+			depLabels.add(child.getLabelType().toUpperCase());
+		}
+		featureMap.increment("d:" + UNDERSCORE.join(depLabels));
+
+		if (headCpostag.equals("V")) {
+			final List<String> subcat = Lists.newArrayListWithExpectedSize(children.size()); // ordered arc labels of children
+			for (DependencyParse child : children) {
+				final String labelType = child.getLabelType().toUpperCase();
+				if (!labelType.equals("SUB") && !labelType.equals("P") && !labelType.equals("CC")) {
+					// TODO(smt): why exclude "sub"?
+					subcat.add(labelType);
+				}
+			}
+			featureMap.increment("sC:" + UNDERSCORE.join(subcat));
+		}
+
+		final DependencyParse parent = head.getParent();
+		featureMap.increment("pP:" + ((parent == null) ? "NULL" : parent.getPOS().toUpperCase()));
+		featureMap.increment("pL:" + ((parent == null) ? "NULL" : parent.getLabelType().toUpperCase()));
+		return featureMap;
+	}
+
+	/** Features that depend only on the hidden l.u. (not yet conjoined with the frame name) */
+	public IntCounter<String> extractHiddenUnitFeatures(HiddenUnit hidden) {
+		final IntCounter<String> featureMap = new IntCounter<String>();
+		featureMap.increment("hT:" + hidden.tokenAndCpostags);
+		featureMap.increment("hLP:" + hidden.lemmaAndCpostags);
+		return featureMap;
+	}
+
+	/**
+	 * Whether {@link #extractPairFeatures} would return any features. Most (target, hidden l.u.) pairs have none.
+	 */
+	public static boolean hasPairFeatures(Target target, HiddenUnit hidden, Set<String> relations) {
+		for (String relation : relations) {
+			if (!relation.equals(WordNetRelations.NO_RELATION)) return true;
 		}
+		return hidden.tokenAndCpostags.equals(target.tokenAndCpostags)
+				|| hidden.lemmaAndCpostags.equals(target.lemmaAndCpostags);
+	}
 
-		featureMap.increment(UNDERSCORE.join(
-				hiddenTokenAndCpostagsFtr,
-				frameFtr));
-		featureMap.increment(UNDERSCORE.join(
-				hiddenLemmaAndCpostagsFtr,
-				frameFtr));
+	/**
+	 * Features that depend on how the target and hidden l.u. are related (not yet conjoined with the frame name)
+	 *
+	 * @param relations the WordNet relations between them, as given by {@link #getRelations}
+	 */
+	public IntCounter<String> extractPairFeatures(Target target, HiddenUnit hidden, Set<String> relations) {
+		final IntCounter<String> featureMap = new IntCounter<String>();
+		final String actualCpostagsFtr = "aP:" + target.cpostags;
+		final String actualLemmaAndCpostagsFtr = "aLP:" + target.lemmaAndCpostags;
+		final String hiddenTokenAndCpostagsFtr = "hT:" + hidden.tokenAndCpostags;
+		final String hiddenCpostagsFtr = "hP:" + hidden.cpostags;
+		final String hiddenLemmaAndCpostagsFtr = "hLP:" + hidden.lemmaAndCpostags;
 
 		// extract features for each WordNet relation by which the target and prototype are connected
 		for (String relation : relations) {
 			if (relation.equals(WordNetRelations.NO_RELATION)) continue;
 			final String relationFeature = "tRLn:" + relation;
+			featureMap.increment(relationFeature);
 			featureMap.increment(UNDERSCORE.join(
 					relationFeature,
-					frameFtr));
-			featureMap.increment(UNDERSCORE.join(
-					relationFeature,
-					hiddenTokenAndCpostagsStr,
-					frameFtr));
+					hidden.tokenAndCpostags));
 			featureMap.increment(UNDERSCORE.join(
 					relationFeature,
-					hiddenTokenAndCpostagsStr,
+					hidden.tokenAndCpostags,
 					hiddenCpostagsFtr,
-					actualCpostagsFtr,
-					frameFtr));
+					actualCpostagsFtr));
 		}
 
-		if (hiddenTokenAndCpostagsStr.equals(actualTokenAndCpostagsStr)) {
+		if (hidden.tokenAndCpostags.equals(target.tokenAndCpostags)) {
 			final String tokenMatchFtr = "sTs";
+			featureMap.increment(tokenMatchFtr);
 			featureMap.increment(UNDERSCORE.join(
 					tokenMatchFtr,
-					frameFtr));
-			featureMap.increment(UNDERSCORE.join(
-					tokenMatchFtr,
-					hiddenTokenAndCpostagsFtr,
-					frameFtr));
+					hiddenTokenAndCpostagsFtr));
 			featureMap.increment(UNDERSCORE.join(
 					tokenMatchFtr,
 					actualCpostagsFtr,
-					hiddenCpostagsFtr,
-					frameFtr));
+					hiddenCpostagsFtr));
 			featureMap.increment(UNDERSCORE.join(
 					tokenMatchFtr,
 					actualLemmaAndCpostagsFtr,
-					hiddenLemmaAndCpostagsFtr,
-					frameFtr));
+					hiddenLemmaAndCpostagsFtr));
 		}
-		if (hiddenLemmaAndCpostagsStr.equals(actualLemmaAndCpostagsStr)) {
+		if (hidden.lemmaAndCpostags.equals(target.lemmaAndCpostags)) {
 			final String lemmaMatchFtr = "sLs";
+			featureMap.increment(lemmaMatchFtr);
 			featureMap.increment(UNDERSCORE.join(
 					lemmaMatchFtr,
-					frameFtr));
-			featureMap.increment(UNDERSCORE.join(
-					lemmaMatchFtr,
-					hiddenTokenAndCpostagsFtr,
-					frameFtr));
+					hiddenTokenAndCpostagsFtr));
 			featureMap.increment(UNDERSCORE.join(
 					lemmaMatchFtr,
 					actualCpostagsFtr,
-					hiddenCpostagsFtr,
-					frameFtr));
+					hiddenCpostagsFtr));
 			featureMap.increment(UNDERSCORE.join(
 					lemmaMatchFtr,
 					actualLemmaAndCpostagsFtr,
-					hiddenLemmaAndCpostagsFtr,
-					frameFtr));
-		}
-
-		/*
-		 * syntactic features
-		 */
-		final DependencyParse[] sortedNodes = parse.getIndexSortedListOfNodes();
-		final DependencyParse head = DependencyParse.getHeuristicHead(sortedNodes, targetTokenIdxs);
-		final String headCpostag = getCpostag(head.getPOS());
-
-		final List<DependencyParse> children = head.getChildren();
-
-		final SortedSet<String> depLabels = Sets.newTreeSet(); // unordered set of arc labels of children
-		for (DependencyParse child : children) {
-			depLabels.add(child.getLabelType().toUpperCase());
+					hiddenLemmaAndCpostagsFtr));
 		}
-		final String dependencyFtr = "d:" + UNDERSCORE.join(depLabels);
-		featureMap.increment(UNDERSCORE.join(
-				dependencyFtr,
-				frameFtr));
-
-		if (headCpostag.equals("V")) {
-			final List<String> subcat = Lists.newArrayListWithExpectedSize(children.size()); // ordered arc labels of children
-			for (DependencyParse child : children) {
-				final String labelType = child.getLabelType().toUpperCase();
-				if (!labelType.equals("SUB") && !labelType.equals("P") && !labelType.equals("CC")) {
-					// TODO(smt): why exclude "sub"?
-					subcat.add(labelType);
-				}
-			}
-			final String subcatFtr = "sC:" + UNDERSCORE.join(subcat);
-			featureMap.increment(UNDERSCORE.join(
-					subcatFtr,
-					frameFtr));
-		}
-
-		final DependencyParse parent = head.getParent();
-		final String parentPosFtr = "pP:" + ((parent == null) ? "NULL" : parent.getPOS().toUpperCase());
-		featureMap.increment(UNDERSCORE.join(
-				parentPosFtr,
-				frameFtr));
-		final String parentLabelFtr = "pL:" + ((parent == null) ? "NULL" : parent.getLabelType().toUpperCase());
-		featureMap.increment(UNDERSCORE.join(
-				parentLabelFtr,
-				frameFtr));
-
 		return featureMap;
 	}
 }
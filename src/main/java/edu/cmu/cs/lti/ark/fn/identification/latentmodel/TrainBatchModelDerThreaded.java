@@ -22,6 +22,7 @@
 package edu.cmu.cs.lti.ark.fn.identification.latentmodel;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -29,10 +30,13 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
 import edu.cmu.cs.lti.ark.fn.optimization.Lbfgs;
+import edu.cmu.cs.lti.ark.fn.optimization.LbfgsOptimizer;
+import edu.cmu.cs.lti.ark.fn.optimization.TrainingExecutor;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
-import edu.cmu.cs.lti.ark.fn.utils.ThreadPool;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
 
 import java.io.*;
 import java.util.Arrays;
@@ -76,8 +80,6 @@ public class TrainBatchModelDerThreaded {
 	private final int numThreads;
 	private final double lambda;
 	private double[] gradients;
-	private double[][] tGradients;
-	private double[] tValues;
 	// only used if CACHE_FEATURES is true
 	private final LoadingCache<Integer, int[][][]> featuresByTargetIdx =
 			CacheBuilder.newBuilder()
@@ -128,81 +130,52 @@ public class TrainBatchModelDerThreaded {
 	}
 
 	public void trainModel() throws Exception {
-		// minimum verbosity
-		int[] iprint = new int[] {Lbfgs.DEBUG ? 1 : -1, 0};
-		// lbfgs sets this flag to zero when it has converged
-		int[] iflag = new int[] { 0 };
-		tGradients = new double[numThreads][modelSize];  // gradients for each batch/thread
-		gradients = new double[modelSize];  // gradients of all threads added together
-		tValues = new double[numThreads];
-		int iteration = 0;
-		do {
-			logger.info("Starting iteration:" + iteration);
-			Arrays.fill(gradients, 0.0);
-			double m_value = getValuesAndGradients();
-			logger.info("Function value:" + m_value);
-			riso.numerical.LBFGS.lbfgs(modelSize,
-					Lbfgs.NUM_CORRECTIONS,
-					params,
-					m_value,
-					gradients,
-					false,
-					new double[modelSize],
-					iprint,
-					Lbfgs.STOPPING_THRESHOLD,
-					Lbfgs.XTOL,
-					iflag
-			);
-			logger.info("Finished iteration:" + iteration);
-			iteration++;
-			if (iteration % Lbfgs.SAVE_EVERY_K == 0) {
-				saveModel(params, modelFile + "_" + iteration);
-			}
-		} while (iteration <= Lbfgs.MAX_ITERATIONS && iflag[0] != 0);
+		gradients = new double[modelSize];  // gradients of all batches added together
+		final TrainingExecutor executor = new TrainingExecutor(numThreads, modelSize);
+		final LbfgsOptimizer optimizer = Lbfgs.newOptimizer()
+				.addIterationListener(new LbfgsOptimizer.IterationListener() {
+					@Override public void iterationFinished(int iteration, double value, double[] currentParams)
+							throws IOException {
+						logger.info("Finished iteration:" + iteration);
+						if (iteration % Lbfgs.SAVE_EVERY_K == 0) {
+							saveModel(currentParams, modelFile + "_" + iteration);
+						}
+					} })
+				.build();
+		try {
+			final double[] result = optimizer.minimize(new Function<double[], Pair<Double, double[]>>() {
+				@Override public Pair<Double, double[]> apply(double[] currentParams) {
+					// the batches read the current params from the params field
+					System.arraycopy(currentParams, 0, params, 0, modelSize);
+					final double value = getValuesAndGradients(executor);
+					logger.info("Function value:" + value);
+					return Pair.of(value, gradients);
+				} }, params);
+			System.arraycopy(result, 0, params, 0, modelSize);
+		} finally {
+			executor.shutdown();
+		}
 		saveModel(params, modelFile);
 	}
 
-	private double getValuesAndGradients() {
-		double value = 0.0;
-		for (double[] tGradient : tGradients) Arrays.fill(tGradient, 0.0);
-		Arrays.fill(tValues, 0.0);
-
-		final ThreadPool threadPool = new ThreadPool(numThreads);
-		int task = 0;
-		for (int i = 0; i < eventFiles.size(); i += BATCH_SIZE) {
-			final int taskId = task;
-			final int start = i;
-			final int end = Math.min(i + BATCH_SIZE, eventFiles.size());
-			threadPool.runTask(new Runnable() {
-				public void run() {
-					logger.info("Task " + taskId + " : start");
-					try {
-						processBatch(taskId, start, end);
-					} catch (Exception e) {
-						throw new RuntimeException(e);
-					}
-					logger.info("Task " + taskId + " : end");
-				}
-			});
-			task++;
-		}
-		threadPool.join();
-		// merge the calculated tValues and gradients together
-		Arrays.fill(gradients, 0.0);
-		for (int i = 0; i < numThreads; i++) {
-			value += tValues[i];
-			for (int j = 0; j < modelSize; j++) {
-				gradients[j] += tGradients[i][j];
-			}
-		}
+	/** Fills in gradients, and returns the function value */
+	private double getValuesAndGradients(TrainingExecutor executor) {
+		final int numBatches = (eventFiles.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+		// each shard is one batch, so that the regularization below is added once per batch, as before
+		final double value = executor.computeValueAndGradient(numBatches, 1, new TrainingExecutor.Loss() {
+			@Override public double addLossAndGradient(int batchIdx, GradientAccumulator gradient) throws Exception {
+				final int start = batchIdx * BATCH_SIZE;
+				return processBatch(start, Math.min(start + BATCH_SIZE, eventFiles.size()), gradient);
+			} }, gradients);
 		System.out.println("Finished value and gradient computation.");
 		return value;
 	}
 
-	public void processBatch(int taskId, int start, int end)
+	/** Adds the gradient of targets [start, end) to <code>gradient</code>, and returns their loss */
+	public double processBatch(int start, int end, GradientAccumulator gradient)
 			throws ExecutionException, IOException, ClassNotFoundException {
-		int threadId = taskId % numThreads;
-		logger.info("Processing batch:" + taskId + " thread ID:" + threadId);
+		logger.info("Processing batch:" + (start / BATCH_SIZE));
+		double value = 0.0;
 		for (int targetIdx = start; targetIdx < end; targetIdx++) {
 			int[][][] featureArray = getFeaturesForTarget(targetIdx);
 			int featArrLen = featureArray.length;
@@ -223,7 +196,7 @@ public class TrainBatchModelDerThreaded {
 				}
 				totalExp += sumExp[i];
 			}
-			tValues[threadId] -= Math.log(sumExp[0]) - Math.log(totalExp);
+			value -= Math.log(sumExp[0]) - Math.log(totalExp);
 			for (int i = 0; i < featArrLen; i++) {
 				for (int j = 0; j < exp[i].length; j++) {
 					double Y = 0.0;
@@ -234,7 +207,7 @@ public class TrainBatchModelDerThreaded {
 					double YMinusP = Y - (exp[i][j] / totalExp);
 					int[] feats = featureArray[i][j];
 					for (int feat : feats) {
-						tGradients[threadId][feat] -= YMinusP;
+						gradient.add(feat, -YMinusP);
 					}
 				}
 			}
@@ -246,10 +219,11 @@ public class TrainBatchModelDerThreaded {
 		if (useL2Regularization) {
 			for (int i = 0; i < params.length; ++i) {
 				final double weight = Math.log(params[i]);
-				tValues[threadId] += lambda * (weight * weight);
-				tGradients[threadId][i] += 2 * lambda * weight;
+				value += lambda * (weight * weight);
+				gradient.add(i, 2 * lambda * weight);
 			}
 		}
+		return value;
 	}
 
 	private int[][][] getFeaturesForTarget(int targetIdx) throws ExecutionException, IOException, ClassNotFoundException {
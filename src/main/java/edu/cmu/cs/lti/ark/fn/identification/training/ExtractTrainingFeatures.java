@@ -22,6 +22,7 @@
 package edu.cmu.cs.lti.ark.fn.identification.training;
 
 import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
@@ -30,6 +31,7 @@ import edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor;
 import edu.cmu.cs.lti.ark.fn.identification.RequiredDataForFrameIdentification;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
 import gnu.trove.THashMap;
 import gnu.trove.THashSet;
 import gnu.trove.TIntDoubleHashMap;
@@ -40,12 +42,16 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
 
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static edu.cmu.cs.lti.ark.fn.identification.training.AlphabetCreationThreaded.readAlphabetFile;
 import static edu.cmu.cs.lti.ark.fn.identification.training.TrainBatch.FEATURE_FILENAME_PREFIX;
 import static edu.cmu.cs.lti.ark.fn.identification.training.TrainBatch.FEATURE_FILENAME_SUFFIX;
@@ -86,6 +92,7 @@ public class ExtractTrainingFeatures {
 		logger.info("Reading alphabet");
 		final Map<String, Integer> alphabet = readAlphabetFile(new File(options.modelFile.get()));
 		logger.info("Done reading alphabet");
+		final boolean factored = !options.factoredEvents.present() || options.factoredEvents.get().equals("true");
 		final ExtractTrainingFeatures events =
 				new ExtractTrainingFeatures(alphabet,
 						new File(options.eventsFile.get()),
@@ -97,7 +104,11 @@ public class ExtractTrainingFeatures {
 						endIndex,
 						options.numThreads.get(),
 						featureExtractor);
-		events.createEvents();
+		if (factored) {
+			events.createFactoredEvents();
+		} else {
+			events.createEvents();
+		}
 	}
 
 	public ExtractTrainingFeatures(Map<String, Integer> alphabet,
@@ -121,12 +132,20 @@ public class ExtractTrainingFeatures {
 		this.featureExtractor = featureExtractor;
 	}
 
+	/**
+	 * Writes one <code>feats_N.jobj.gz</code> file per target, holding the conjoined features of every frame
+	 */
 	public void createEvents() throws IOException {
 		final List<String> frameLines =
 				Files.readLines(new File(frameElementsFile), Charsets.UTF_8)
 						.subList(startIndex, endIndex);
 		final List<String> parseLines = Files.readLines(new File(parseFile), Charsets.UTF_8);
 		final int dataCount = endIndex - startIndex;
+		// TrainBatch prefers factored events, so don't leave stale ones around
+		final File factoredFile = new File(eventDir, FactoredEvents.FACTORED_EVENTS_FILENAME);
+		if (factoredFile.exists() && !factoredFile.delete()) {
+			throw new IOException("Unable to delete stale factored events: " + factoredFile);
+		}
 
 		final ExecutorService threadPool = newFixedThreadPool(numThreads);
 		for (int i = 0; i < dataCount; i++) {
@@ -145,30 +164,85 @@ public class ExtractTrainingFeatures {
 		threadPool.shutdown();
 	}
 
+	/**
+	 * Writes a single {@link FactoredEvents#FACTORED_EVENTS_FILENAME} file, holding just the base features and gold
+	 * frame of each target.
+	 * The file holds every target, so startIndex and endIndex must cover the whole frame elements file. (Shard with
+	 * <code>factoredevents:false</code> instead, which writes one file per target.)
+	 */
+	public void createFactoredEvents() throws IOException {
+		final List<String> frameLines = Files.readLines(new File(frameElementsFile), Charsets.UTF_8);
+		if (startIndex != 0 || endIndex != frameLines.size()) {
+			throw new IllegalArgumentException(String.format(
+					"Factored events must cover all %d targets, but got startindex:%d endindex:%d. " +
+							"Pass factoredevents:false to extract a range of targets.",
+					frameLines.size(), startIndex, endIndex));
+		}
+		final List<String> parseLines = Files.readLines(new File(parseFile), Charsets.UTF_8);
+		final FactoredEvents.Builder builder =
+				new FactoredEvents.Builder(Lists.newArrayList(frameMap.keySet()), featureExtractor, alphabet, costs);
+		final ExecutorService threadPool = newFixedThreadPool(numThreads);
+		try {
+			final List<Future<Pair<String, Map<String, Double>>>> results = Lists.newArrayList();
+			for (final String frameLine : frameLines) {
+				results.add(threadPool.submit(new Callable<Pair<String, Map<String, Double>>>() {
+					@Override public Pair<String, Map<String, Double>> call() {
+						final Target target = new Target(frameLine, parseLines);
+						return Pair.of(target.goldFrame,
+								featureExtractor.getBaseFeatures(target.targetTokenIdxs, target.sentence));
+					} }));
+			}
+			for (int i = 0; i < results.size(); i++) {
+				final Pair<String, Map<String, Double>> goldFrameAndFeatures = getUninterruptibly(results.get(i));
+				builder.addTarget(goldFrameAndFeatures.second, goldFrameAndFeatures.first);
+				if (i % 1000 == 0) logger.info(String.format("Extracted %d of %d targets", i, results.size()));
+			}
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			threadPool.shutdownNow();
+		}
+		final File factoredFile = new File(eventDir, FactoredEvents.FACTORED_EVENTS_FILENAME);
+		final FactoredEvents events = builder.build();
+		events.write(factoredFile);
+		logger.info(String.format("Wrote %d targets to %s", events.numTargets(), factoredFile));
+	}
+
+	/** A target, as read from a line of the frame elements file */
+	private static class Target {
+		final String goldFrame;
+		final int[] targetTokenIdxs;
+		final Sentence sentence;
+
+		Target(String frameLine, List<String> parseLines) {
+			// Parse the frameLine
+			final String[] toks = frameLine.split("\t");
+			// throw out first two fields
+			final List<String> tokens = Arrays.asList(toks).subList(2, toks.length);
+			goldFrame = tokens.get(1);
+			final String[] targetIdxsStr = tokens.get(3).split("_");
+			targetTokenIdxs = new int[targetIdxsStr.length];
+			for (int j = 0; j < targetIdxsStr.length; j++)
+				targetTokenIdxs[j] = Integer.parseInt(targetIdxsStr[j]);
+			Arrays.sort(targetTokenIdxs);
+			final int sentNum = Integer.parseInt(tokens.get(5));
+
+			// Parse the parse line
+			sentence = Sentence.fromAllLemmaTagsArray(AllLemmaTags.readLine(parseLines.get(sentNum)));
+		}
+	}
+
 	private FeaturesAndCost[] processLine(String frameLine, List<String> parseLines) {
-		// Parse the frameLine
-		final String[] toks = frameLine.split("\t");
-		// throw out first two fields
-		final List<String> tokens = Arrays.asList(toks).subList(2, toks.length);
-		final String goldFrame = tokens.get(1);
-		final String[] targetIdxsStr = tokens.get(3).split("_");
-		final int[] targetTokenIdxs = new int[targetIdxsStr.length];
-		for (int j = 0; j < targetIdxsStr.length; j++)
-			targetTokenIdxs[j] = Integer.parseInt(targetIdxsStr[j]);
-		Arrays.sort(targetTokenIdxs);
-		final int sentNum = Integer.parseInt(tokens.get(5));
-
-		// Parse the parse line
-
-		final Sentence sentence = Sentence.fromAllLemmaTagsArray(AllLemmaTags.readLine(parseLines.get(sentNum)));
+		final Target target = new Target(frameLine, parseLines);
+		final String goldFrame = target.goldFrame;
 
 		// extract features for every frame
 		final Set<String> frames = frameMap.keySet();
 		final FeaturesAndCost[] allFeatures = new FeaturesAndCost[frames.size()];
 		final Map<String, TIntDoubleHashMap> allFeaturesMap = featureExtractor.extractFeaturesByIndex(
 				frames,
-				targetTokenIdxs,
-				sentence,
+				target.targetTokenIdxs,
+				target.sentence,
 				alphabet
 		);
 		// put the correct frame first
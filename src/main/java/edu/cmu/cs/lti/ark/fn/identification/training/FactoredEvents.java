@@ -0,0 +1,382 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import edu.cmu.cs.lti.ark.fn.identification.FrameCosts;
+import edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
+import edu.cmu.cs.lti.ark.fn.optimization.TrainingExecutor;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TObjectIntHashMap;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static edu.cmu.cs.lti.ark.fn.identification.training.PackedEvents.readDoubles;
+import static edu.cmu.cs.lti.ark.fn.identification.training.PackedEvents.readFloats;
+import static edu.cmu.cs.lti.ark.fn.identification.training.PackedEvents.readInts;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * The frame identification training events, stored factored rather than conjoined.
+ *
+ * Every feature of the frame identification model is a base feature of the target (e.g. "aP:V") conjoined with a
+ * feature of the frame (e.g. "f:Motion", or "af:Motion" for an ancestor). Instead of storing every frame's
+ * conjoined features for every target, as the <code>feats_N.jobj.gz</code> files do, this stores:
+ * <ul>
+ *     <li>for each frame, the ids of its frame features,</li>
+ *     <li>for each base feature, the (frame feature id, feature index) of each of its conjunctions that's in the
+ *     alphabet (in compressed-sparse-row layout, like {@link PackedEvents}),</li>
+ *     <li>for each target, just its base features and its gold frame,</li>
+ *     <li>for each gold frame, the cost of predicting each frame instead.</li>
+ * </ul>
+ * Frame scores and gradients are computed from the base features directly, a frame feature at a time, so each
+ * target costs a pass over its base features' conjunctions rather than over every frame's conjoined features.
+ */
+public class FactoredEvents {
+	public static final String FACTORED_EVENTS_FILENAME = "events.factored";
+	private static final int MAGIC = 0x53454D46; // "SEMF"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 10;
+
+	/** frame features of frame f are frameFeatureIds[frameOffsets[f], frameOffsets[f+1]) */
+	private final int[] frameOffsets;
+	private final int[] frameFeatureIds;
+	private final int numFrameFeatures;
+	/** conjunctions of base feature b are [baseOffsets[b], baseOffsets[b+1]) */
+	private final int[] baseOffsets;
+	private final int[] conjunctionFrameFeatureIds;
+	private final int[] conjunctionFeatureIdxs;
+	/** base features of target t are [targetOffsets[t], targetOffsets[t+1]) */
+	private final int[] targetOffsets;
+	private final int[] targetBaseIds;
+	private final double[] targetBaseValues;
+	private final int[] goldFrames;
+	/** costs for gold frame g are costs[costRows[g] * numFrames, (costRows[g] + 1) * numFrames) */
+	private final int[] costRows;
+	private final float[] costs;
+
+	public FactoredEvents(int[] frameOffsets,
+						  int[] frameFeatureIds,
+						  int numFrameFeatures,
+						  int[] baseOffsets,
+						  int[] conjunctionFrameFeatureIds,
+						  int[] conjunctionFeatureIdxs,
+						  int[] targetOffsets,
+						  int[] targetBaseIds,
+						  double[] targetBaseValues,
+						  int[] goldFrames,
+						  int[] costRows,
+						  float[] costs) {
+		this.frameOffsets = frameOffsets;
+		this.frameFeatureIds = frameFeatureIds;
+		this.numFrameFeatures = numFrameFeatures;
+		this.baseOffsets = baseOffsets;
+		this.conjunctionFrameFeatureIds = conjunctionFrameFeatureIds;
+		this.conjunctionFeatureIdxs = conjunctionFeatureIdxs;
+		this.targetOffsets = targetOffsets;
+		this.targetBaseIds = targetBaseIds;
+		this.targetBaseValues = targetBaseValues;
+		this.goldFrames = goldFrames;
+		this.costRows = costRows;
+		this.costs = costs;
+	}
+
+	/**
+	 * Compiles the (base feature, frame feature) to feature index table from the alphabet, and then collects
+	 * targets one at a time.
+	 */
+	public static class Builder {
+		private final List<String> frames;
+		private final FrameCosts frameCosts;
+		private final TObjectIntHashMap<String> frameIdxs = new TObjectIntHashMap<String>();
+		private final TObjectIntHashMap<String> frameFeatureIds = new TObjectIntHashMap<String>();
+		private final int[] frameOffsets;
+		private final int[] frameFeatureIdsByFrame;
+		private final TObjectIntHashMap<String> baseIds = new TObjectIntHashMap<String>();
+		private final int[] baseOffsets;
+		private final int[] conjunctionFrameFeatureIds;
+		private final int[] conjunctionFeatureIdxs;
+		private final TIntArrayList targetOffsets = new TIntArrayList();
+		private final TIntArrayList targetBaseIds = new TIntArrayList();
+		private final TDoubleArrayList targetBaseValues = new TDoubleArrayList();
+		private final TIntArrayList goldFrames = new TIntArrayList();
+
+		public Builder(List<String> frames,
+					   IdFeatureExtractor featureExtractor,
+					   Map<String, Integer> alphabet,
+					   FrameCosts frameCosts) {
+			this.frames = frames;
+			this.frameCosts = frameCosts;
+			final TIntArrayList ffIdsByFrame = new TIntArrayList();
+			frameOffsets = new int[frames.size() + 1];
+			for (int f = 0; f < frames.size(); f++) {
+				frameIdxs.put(frames.get(f), f);
+				frameOffsets[f] = ffIdsByFrame.size();
+				for (String frameFeature : featureExtractor.getFrameFeatureNames(frames.get(f))) {
+					if (!frameFeatureIds.containsKey(frameFeature)) {
+						frameFeatureIds.put(frameFeature, frameFeatureIds.size());
+					}
+					ffIdsByFrame.add(frameFeatureIds.get(frameFeature));
+				}
+			}
+			frameOffsets[frames.size()] = ffIdsByFrame.size();
+			frameFeatureIdsByFrame = ffIdsByFrame.toNativeArray();
+			// index every conjoined feature under every split "frameFeature base" where frameFeature is known,
+			// so (frameFeature, base) is found if and only if frameFeature + " " + base is in the alphabet
+			final TIntArrayList conjunctionBaseIds = new TIntArrayList();
+			final TIntArrayList ffIds = new TIntArrayList();
+			final TIntArrayList featureIdxs = new TIntArrayList();
+			for (Map.Entry<String, Integer> entry : alphabet.entrySet()) {
+				final String feature = entry.getKey();
+				for (int i = feature.indexOf(' '); i >= 0; i = feature.indexOf(' ', i + 1)) {
+					final String frameFeature = feature.substring(0, i);
+					if (!frameFeatureIds.containsKey(frameFeature)) continue;
+					final String base = feature.substring(i + 1);
+					if (!baseIds.containsKey(base)) baseIds.put(base, baseIds.size());
+					conjunctionBaseIds.add(baseIds.get(base));
+					ffIds.add(frameFeatureIds.get(frameFeature));
+					featureIdxs.add(entry.getValue());
+				}
+			}
+			// sort the conjunctions by base id
+			baseOffsets = new int[baseIds.size() + 1];
+			for (int i = 0; i < conjunctionBaseIds.size(); i++) baseOffsets[conjunctionBaseIds.get(i) + 1]++;
+			for (int b = 0; b < baseIds.size(); b++) baseOffsets[b + 1] += baseOffsets[b];
+			final int[] next = Arrays.copyOf(baseOffsets, baseIds.size());
+			conjunctionFrameFeatureIds = new int[conjunctionBaseIds.size()];
+			conjunctionFeatureIdxs = new int[conjunctionBaseIds.size()];
+			for (int i = 0; i < conjunctionBaseIds.size(); i++) {
+				final int position = next[conjunctionBaseIds.get(i)]++;
+				conjunctionFrameFeatureIds[position] = ffIds.get(i);
+				conjunctionFeatureIdxs[position] = featureIdxs.get(i);
+			}
+		}
+
+		/**
+		 * Adds a target, keeping only the base features that have some conjunction in the alphabet
+		 *
+		 * @param baseFeatures the target's base features, as given by {@link IdFeatureExtractor#getBaseFeatures}
+		 */
+		public Builder addTarget(Map<String, Double> baseFeatures, String goldFrame) {
+			if (!frameIdxs.containsKey(goldFrame)) throw new IllegalArgumentException("Unknown frame: " + goldFrame);
+			targetOffsets.add(targetBaseIds.size());
+			for (Map.Entry<String, Double> feature : baseFeatures.entrySet()) {
+				if (!baseIds.containsKey(feature.getKey())) continue;
+				targetBaseIds.add(baseIds.get(feature.getKey()));
+				targetBaseValues.add(feature.getValue());
+			}
+			goldFrames.add(frameIdxs.get(goldFrame));
+			return this;
+		}
+
+		public FactoredEvents build() {
+			final int numFrames = frames.size();
+			final int[] offsets = Arrays.copyOf(targetOffsets.toNativeArray(), targetOffsets.size() + 1);
+			offsets[targetOffsets.size()] = targetBaseIds.size();
+			// one row of costs for each frame that's gold for some target
+			final int[] costRows = new int[numFrames];
+			Arrays.fill(costRows, -1);
+			int numRows = 0;
+			for (int i = 0; i < goldFrames.size(); i++) {
+				if (costRows[goldFrames.get(i)] == -1) costRows[goldFrames.get(i)] = numRows++;
+			}
+			final float[] costs = new float[numRows * numFrames];
+			for (int gold = 0; gold < numFrames; gold++) {
+				if (costRows[gold] == -1) continue;
+				for (int f = 0; f < numFrames; f++) {
+					costs[costRows[gold] * numFrames + f] =
+							f == gold ? 0f : frameCosts.getCost(frames.get(gold), frames.get(f));
+				}
+			}
+			return new FactoredEvents(
+					frameOffsets,
+					frameFeatureIdsByFrame,
+					frameFeatureIds.size(),
+					baseOffsets,
+					conjunctionFrameFeatureIds,
+					conjunctionFeatureIdxs,
+					offsets,
+					targetBaseIds.toNativeArray(),
+					targetBaseValues.toNativeArray(),
+					goldFrames.toNativeArray(),
+					costRows,
+					costs);
+		}
+	}
+
+	public int numTargets() { return goldFrames.length; }
+
+	public int numFrames() { return frameOffsets.length - 1; }
+
+	/** The number of distinct frame features, i.e. the size of the scratch arrays that scoring needs */
+	public int numFrameFeatures() { return numFrameFeatures; }
+
+	public int getGoldFrame(int targetIdx) { return goldFrames[targetIdx]; }
+
+	/** The cost of predicting the given frame for the given target */
+	public float getCost(int targetIdx, int frameIdx) {
+		return costs[costRows[goldFrames[targetIdx]] * numFrames() + frameIdx];
+	}
+
+	/**
+	 * Computes the dot product of weights and the features of every frame for the given target.
+	 *
+	 * @param frameFeatureScores scratch space, of length {@link #numFrameFeatures()}
+	 * @param frameScores where the scores are written, of length {@link #numFrames()}
+	 */
+	public void score(double[] weights, int targetIdx, double[] frameFeatureScores, double[] frameScores) {
+		Arrays.fill(frameFeatureScores, 0.0);
+		for (int i = targetOffsets[targetIdx]; i < targetOffsets[targetIdx + 1]; i++) {
+			final int baseId = targetBaseIds[i];
+			final double value = targetBaseValues[i];
+			for (int j = baseOffsets[baseId]; j < baseOffsets[baseId + 1]; j++) {
+				frameFeatureScores[conjunctionFrameFeatureIds[j]] += weights[conjunctionFeatureIdxs[j]] * value;
+			}
+		}
+		for (int f = 0; f < frameScores.length; f++) {
+			double score = 0.0;
+			for (int k = frameOffsets[f]; k < frameOffsets[f + 1]; k++) {
+				score += frameFeatureScores[frameFeatureIds[k]];
+			}
+			frameScores[f] = score;
+		}
+	}
+
+	/**
+	 * Adds the sum over frames of <code>frameScales[f]</code> times the features of frame f for the given target
+	 * to the dense vector <code>vector</code>.
+	 *
+	 * @param frameFeatureScales scratch space, of length {@link #numFrameFeatures()}
+	 */
+	public void addTo(double[] vector, int targetIdx, double[] frameScales, double[] frameFeatureScales) {
+		sumFrameScales(frameScales, frameFeatureScales);
+		for (int i = targetOffsets[targetIdx]; i < targetOffsets[targetIdx + 1]; i++) {
+			final int baseId = targetBaseIds[i];
+			final double value = targetBaseValues[i];
+			for (int j = baseOffsets[baseId]; j < baseOffsets[baseId + 1]; j++) {
+				vector[conjunctionFeatureIdxs[j]] += frameFeatureScales[conjunctionFrameFeatureIds[j]] * value;
+			}
+		}
+	}
+
+	/**
+	 * Like {@link #addTo(double[], int, double[], double[])}, for a gradient being accumulated by a
+	 * {@link TrainingExecutor}
+	 */
+	public void addTo(GradientAccumulator gradient, int targetIdx, double[] frameScales, double[] frameFeatureScales) {
+		sumFrameScales(frameScales, frameFeatureScales);
+		for (int i = targetOffsets[targetIdx]; i < targetOffsets[targetIdx + 1]; i++) {
+			final int baseId = targetBaseIds[i];
+			final double value = targetBaseValues[i];
+			for (int j = baseOffsets[baseId]; j < baseOffsets[baseId + 1]; j++) {
+				gradient.add(conjunctionFeatureIdxs[j], frameFeatureScales[conjunctionFrameFeatureIds[j]] * value);
+			}
+		}
+	}
+
+	/** Sets the scale of each frame feature to the sum of the scales of the frames that fire it */
+	private void sumFrameScales(double[] frameScales, double[] frameFeatureScales) {
+		Arrays.fill(frameFeatureScales, 0.0);
+		for (int f = 0; f < frameScales.length; f++) {
+			for (int k = frameOffsets[f]; k < frameOffsets[f + 1]; k++) {
+				frameFeatureScales[frameFeatureIds[k]] += frameScales[f];
+			}
+		}
+	}
+
+	/**
+	 * Writes the events to a temp file next to <code>file</code>, then renames it into place, so TrainBatch never
+	 * sees a partly written file.
+	 */
+	public void write(File file) throws IOException {
+		final File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			final DataOutputStream output =
+					new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(frameOffsets.length);
+				output.writeInt(frameFeatureIds.length);
+				output.writeInt(numFrameFeatures);
+				output.writeInt(baseOffsets.length);
+				output.writeInt(conjunctionFeatureIdxs.length);
+				output.writeInt(targetBaseIds.length);
+				output.writeInt(goldFrames.length);
+				output.writeInt(costs.length);
+				writeInts(output, frameOffsets);
+				writeInts(output, frameFeatureIds);
+				writeInts(output, baseOffsets);
+				writeInts(output, conjunctionFrameFeatureIds);
+				writeInts(output, conjunctionFeatureIdxs);
+				writeInts(output, targetOffsets);
+				writeInts(output, targetBaseIds);
+				for (double value : targetBaseValues) output.writeDouble(value);
+				writeInts(output, goldFrames);
+				writeInts(output, costRows);
+				for (float cost : costs) output.writeFloat(cost);
+				output.close();
+			} finally {
+				closeQuietly(output);
+			}
+			Files.move(tempFile.toPath(), file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+		} finally {
+			tempFile.delete();
+		}
+	}
+
+	private static void writeInts(DataOutputStream output, int[] values) throws IOException {
+		for (int value : values) output.writeInt(value);
+	}
+
+	/** Reads factored events written by {@link #write(java.io.File)}, using a memory-mapped channel */
+	public static FactoredEvents read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer header = channel.map(READ_ONLY, 0, HEADER_INTS * 4);
+			if (header.getInt() != MAGIC) throw new IOException(file + " is not a factored events file");
+			final int version = header.getInt();
+			if (version != VERSION) throw new IOException("Unsupported factored events version: " + version);
+			final int[] frameOffsets = new int[header.getInt()];
+			final int[] frameFeatureIds = new int[header.getInt()];
+			final int numFrameFeatures = header.getInt();
+			final int[] baseOffsets = new int[header.getInt()];
+			final int numConjunctions = header.getInt();
+			final int[] conjunctionFrameFeatureIds = new int[numConjunctions];
+			final int[] conjunctionFeatureIdxs = new int[numConjunctions];
+			final int numTargetBases = header.getInt();
+			final int[] targetBaseIds = new int[numTargetBases];
+			final double[] targetBaseValues = new double[numTargetBases];
+			final int[] goldFrames = new int[header.getInt()];
+			final int[] targetOffsets = new int[goldFrames.length + 1];
+			final float[] costs = new float[header.getInt()];
+			final int[] costRows = new int[frameOffsets.length - 1];
+			long position = header.capacity();
+			position = readInts(channel, position, frameOffsets);
+			position = readInts(channel, position, frameFeatureIds);
+			position = readInts(channel, position, baseOffsets);
+			position = readInts(channel, position, conjunctionFrameFeatureIds);
+			position = readInts(channel, position, conjunctionFeatureIdxs);
+			position = readInts(channel, position, targetOffsets);
+			position = readInts(channel, position, targetBaseIds);
+			position = readDoubles(channel, position, targetBaseValues);
+			position = readInts(channel, position, goldFrames);
+			position = readInts(channel, position, costRows);
+			readFloats(channel, position, costs);
+			return new FactoredEvents(frameOffsets, frameFeatureIds, numFrameFeatures, baseOffsets,
+					conjunctionFrameFeatureIds, conjunctionFeatureIdxs, targetOffsets, targetBaseIds, targetBaseValues,
+					goldFrames, costRows, costs);
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+}
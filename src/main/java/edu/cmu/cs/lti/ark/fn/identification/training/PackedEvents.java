@@ -0,0 +1,291 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
+import edu.cmu.cs.lti.ark.fn.optimization.TrainingExecutor;
+import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
+import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import gnu.trove.TDoubleArrayList;
+import gnu.trove.TFloatArrayList;
+import gnu.trove.TIntArrayList;
+import gnu.trove.TIntDoubleHashMap;
+import gnu.trove.TIntDoubleIterator;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * The frame identification training events (one <code>feats_N.jobj.gz</code> file per target), packed into
+ * contiguous primitive arrays in compressed-sparse-row layout:
+ * <pre>
+ *   targets  --targetOffsets-->  frames (costs)  --frameOffsets-->  features (featureIdxs, featureValues)
+ * </pre>
+ * Frames of target <code>t</code> are <code>[targetOffsets[t], targetOffsets[t+1])</code>, with the gold frame
+ * first, as in the event files. Features of frame <code>f</code> are
+ * <code>[frameOffsets[f], frameOffsets[f+1])</code>.
+ *
+ * The packed events can be written to a single file and read back through a memory-mapped channel, which is
+ * much faster than deserializing the individual event files.
+ */
+public class PackedEvents {
+	private static final Logger logger = Logger.getLogger(PackedEvents.class.getCanonicalName());
+
+	public static final String PACKED_EVENTS_FILENAME = "events.packed";
+	private static final int MAGIC = 0x53454D50; // "SEMP"
+	private static final int VERSION = 1;
+	/** max number of bytes to map at once */
+	private static final int MAX_MAPPED_BYTES = 1 << 28;
+
+	private final int[] targetOffsets;
+	private final float[] costs;
+	private final int[] frameOffsets;
+	private final int[] featureIdxs;
+	private final double[] featureValues;
+
+	public PackedEvents(int[] targetOffsets, float[] costs, int[] frameOffsets, int[] featureIdxs, double[] featureValues) {
+		this.targetOffsets = targetOffsets;
+		this.costs = costs;
+		this.frameOffsets = frameOffsets;
+		this.featureIdxs = featureIdxs;
+		this.featureValues = featureValues;
+	}
+
+	/** Packs the events of a single target */
+	public static PackedEvents of(FeaturesAndCost[] featuresByFrame) {
+		return pack(Lists.<FeaturesAndCost[]>newArrayList(featuresByFrame));
+	}
+
+	/** Packs the events of several targets, in order */
+	public static PackedEvents pack(List<FeaturesAndCost[]> featuresByTarget) {
+		final Builder builder = new Builder();
+		for (FeaturesAndCost[] featuresByFrame : featuresByTarget) builder.add(featuresByFrame);
+		return builder.build();
+	}
+
+	/**
+	 * Packs targets one at a time into growable primitive buffers, so callers can drop each target's
+	 * <code>FeaturesAndCost</code> objects as soon as it's added.
+	 */
+	public static class Builder {
+		private final TIntArrayList targetOffsets = new TIntArrayList();
+		private final TFloatArrayList costs = new TFloatArrayList();
+		private final TIntArrayList frameOffsets = new TIntArrayList();
+		private final TIntArrayList featureIdxs = new TIntArrayList();
+		private final TDoubleArrayList featureValues = new TDoubleArrayList();
+
+		/** Appends the events of the next target */
+		public Builder add(FeaturesAndCost[] featuresByFrame) {
+			long numFeatures = featureIdxs.size();
+			for (FeaturesAndCost frame : featuresByFrame) numFeatures += frame.features.size();
+			if (numFeatures > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(
+						"Too many features to pack into memory. Pass storeinmemory:false instead.");
+			}
+			targetOffsets.add(costs.size());
+			for (FeaturesAndCost frame : featuresByFrame) {
+				costs.add(frame.cost);
+				frameOffsets.add(featureIdxs.size());
+				for (TIntDoubleIterator it = frame.features.iterator(); it.hasNext(); ) {
+					it.advance();
+					featureIdxs.add(it.key());
+					featureValues.add(it.value());
+				}
+			}
+			return this;
+		}
+
+		/** The packed events of every target added so far. Empties the builder. */
+		public PackedEvents build() {
+			targetOffsets.add(costs.size());
+			frameOffsets.add(featureIdxs.size());
+			// copy out and release one buffer at a time, so we never hold two copies of everything
+			final int[] targetOffsetsArray = targetOffsets.toNativeArray();
+			targetOffsets.clear();
+			final float[] costsArray = costs.toNativeArray();
+			costs.clear();
+			final int[] frameOffsetsArray = frameOffsets.toNativeArray();
+			frameOffsets.clear();
+			final int[] featureIdxsArray = featureIdxs.toNativeArray();
+			featureIdxs.clear();
+			final double[] featureValuesArray = featureValues.toNativeArray();
+			featureValues.clear();
+			return new PackedEvents(targetOffsetsArray, costsArray, frameOffsetsArray, featureIdxsArray,
+					featureValuesArray);
+		}
+	}
+
+	/**
+	 * Reads and packs all the given event files, in order, using <code>numThreads</code> threads to deserialize
+	 * them. Only a few files are read ahead at a time, and each is packed and dropped before the next, so the
+	 * deserialized events never all have to fit in memory at once.
+	 */
+	public static PackedEvents fromEventFiles(final List<String> eventFiles, int numThreads)
+			throws IOException, InterruptedException {
+		final int maxInFlight = 2 * numThreads;
+		final ExecutorService threadPool = Executors.newFixedThreadPool(numThreads);
+		try {
+			final Queue<Future<FeaturesAndCost[]>> inFlight = new ArrayDeque<Future<FeaturesAndCost[]>>(maxInFlight);
+			final Builder builder = new Builder();
+			int numSubmitted = 0;
+			for (int i = 0; i < eventFiles.size(); i++) {
+				while (numSubmitted < eventFiles.size() && numSubmitted < i + maxInFlight) {
+					final String eventFile = eventFiles.get(numSubmitted++);
+					inFlight.add(threadPool.submit(new Callable<FeaturesAndCost[]>() {
+						@Override public FeaturesAndCost[] call() throws Exception {
+							return SerializedObjects.readObject(eventFile);
+						}
+					}));
+				}
+				try {
+					builder.add(inFlight.remove().get());
+				} catch (ExecutionException e) {
+					throw new IOException("Unable to read " + eventFiles.get(i), e.getCause());
+				}
+				if (i % 1000 == 0) logger.info(String.format("Read %d of %d event files", i, eventFiles.size()));
+			}
+			return builder.build();
+		} finally {
+			threadPool.shutdownNow();
+		}
+	}
+
+	public int numTargets() { return targetOffsets.length - 1; }
+
+	public int numFrames(int targetIdx) { return targetOffsets[targetIdx + 1] - targetOffsets[targetIdx]; }
+
+	/** The global index of the <code>frameNum</code>th frame of the given target */
+	public int getFrameIdx(int targetIdx, int frameNum) { return targetOffsets[targetIdx] + frameNum; }
+
+	public float getCost(int frameIdx) { return costs[frameIdx]; }
+
+	/** Performs a dot product of the dense vector <code>weights</code> and the features of the given frame */
+	public double dotProduct(double[] weights, int frameIdx) {
+		double result = 0.0;
+		for (int i = frameOffsets[frameIdx]; i < frameOffsets[frameIdx + 1]; i++) {
+			result += weights[featureIdxs[i]] * featureValues[i];
+		}
+		return result;
+	}
+
+	/** Adds <code>scale</code> times the features of the given frame to the dense vector <code>vector</code> */
+	public void addTo(double[] vector, int frameIdx, double scale) {
+		for (int i = frameOffsets[frameIdx]; i < frameOffsets[frameIdx + 1]; i++) {
+			vector[featureIdxs[i]] += scale * featureValues[i];
+		}
+	}
+
+	/** Like {@link #addTo(double[], int, double)}, for a gradient being accumulated by a {@link TrainingExecutor} */
+	public void addTo(GradientAccumulator gradient, int frameIdx, double scale) {
+		for (int i = frameOffsets[frameIdx]; i < frameOffsets[frameIdx + 1]; i++) {
+			gradient.add(featureIdxs[i], scale * featureValues[i]);
+		}
+	}
+
+	/** Unpacks the features of the given frame into a map from feature index to feature value */
+	public TIntDoubleHashMap getFeatures(int frameIdx) {
+		final TIntDoubleHashMap features = new TIntDoubleHashMap(frameOffsets[frameIdx + 1] - frameOffsets[frameIdx]);
+		for (int i = frameOffsets[frameIdx]; i < frameOffsets[frameIdx + 1]; i++) {
+			features.put(featureIdxs[i], featureValues[i]);
+		}
+		return features;
+	}
+
+	public void write(File file) throws IOException {
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(targetOffsets.length);
+			output.writeInt(costs.length);
+			output.writeInt(featureIdxs.length);
+			for (int offset : targetOffsets) output.writeInt(offset);
+			for (float cost : costs) output.writeFloat(cost);
+			for (int offset : frameOffsets) output.writeInt(offset);
+			for (int featIdx : featureIdxs) output.writeInt(featIdx);
+			for (double value : featureValues) output.writeDouble(value);
+		} finally {
+			closeQuietly(output);
+		}
+	}
+
+	/** Reads packed events written by {@link #write(java.io.File)}, using a memory-mapped channel */
+	public static PackedEvents read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final MappedByteBuffer header = channel.map(READ_ONLY, 0, 5 * 4);
+			if (header.getInt() != MAGIC) throw new IOException(file + " is not a packed events file");
+			final int version = header.getInt();
+			if (version != VERSION) throw new IOException("Unsupported packed events version: " + version);
+			final int[] targetOffsets = new int[header.getInt()];
+			final float[] costs = new float[header.getInt()];
+			final int[] frameOffsets = new int[costs.length + 1];
+			final int[] featureIdxs = new int[header.getInt()];
+			final double[] featureValues = new double[featureIdxs.length];
+			long position = header.capacity();
+			position = readInts(channel, position, targetOffsets);
+			position = readFloats(channel, position, costs);
+			position = readInts(channel, position, frameOffsets);
+			position = readInts(channel, position, featureIdxs);
+			readDoubles(channel, position, featureValues);
+			return new PackedEvents(targetOffsets, costs, frameOffsets, featureIdxs, featureValues);
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	static long readInts(FileChannel channel, long position, int[] dest) throws IOException {
+		final int chunkSize = MAX_MAPPED_BYTES / 4;
+		for (int start = 0; start < dest.length; start += chunkSize) {
+			final int length = Math.min(chunkSize, dest.length - start);
+			channel.map(READ_ONLY, position, length * 4L).asIntBuffer().get(dest, start, length);
+			position += length * 4L;
+		}
+		return position;
+	}
+
+	static long readFloats(FileChannel channel, long position, float[] dest) throws IOException {
+		final int chunkSize = MAX_MAPPED_BYTES / 4;
+		for (int start = 0; start < dest.length; start += chunkSize) {
+			final int length = Math.min(chunkSize, dest.length - start);
+			channel.map(READ_ONLY, position, length * 4L).asFloatBuffer().get(dest, start, length);
+			position += length * 4L;
+		}
+		return position;
+	}
+
+	static long readDoubles(FileChannel channel, long position, double[] dest) throws IOException {
+		final int chunkSize = MAX_MAPPED_BYTES / 8;
+		for (int start = 0; start < dest.length; start += chunkSize) {
+			final int length = Math.min(chunkSize, dest.length - start);
+			channel.map(READ_ONLY, position, length * 8L).asDoubleBuffer().get(dest, start, length);
+			position += length * 8L;
+		}
+		return position;
+	}
+
+	/**
+	 * One-time conversion of an events directory into a single packed events file.
+	 * Usage: eventsfile:&lt;events dir&gt; [numthreads:&lt;n&gt;]
+	 */
+	public static void main(String[] args) throws Exception {
+		final FNModelOptions options = new FNModelOptions(args);
+		final File eventsDir = new File(options.eventsFile.get());
+		final int numThreads = options.numThreads.present() ?
+				options.numThreads.get() :
+				Runtime.getRuntime().availableProcessors();
+		final PackedEvents events = fromEventFiles(TrainBatch.getEventFiles(eventsDir), numThreads);
+		final File outFile = new File(eventsDir, PACKED_EVENTS_FILENAME);
+		events.write(outFile);
+		logger.info(String.format("Wrote %d targets to %s", events.numTargets(), outFile));
+	}
+}
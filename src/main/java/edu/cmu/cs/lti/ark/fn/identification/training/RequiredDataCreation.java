@@ -105,36 +105,9 @@ public class RequiredDataCreation {
 			Map<String, THashMap<String, Set<String>>> relMap, FNModelOptions options) {
 		Map<String, Map<String, Set<String>>> revisedMap =
 				new HashMap<String, Map<String, Set<String>>>();
-		Set<String> keys = relMap.keySet();
-		for (String key : keys) {
-			THashMap<String, Set<String>> rels = relMap.get(key);
-			Set<String> relations = rels.keySet();
-			for (String rel : relations) {
-				Set<String> words = rels.get(rel);
-				for (String word : words) {
-					if (!revisedMap.containsKey(key)) {
-						Map<String, Set<String>> map =
-								new THashMap<String, Set<String>>();
-						Set<String> rRels = new THashSet<String>();
-						rRels.add(rel);
-						map.put(word, rRels);
-						revisedMap.put(key, map);
-					} else {
-						Map<String, Set<String>> map = revisedMap.get(key);
-						if (map.containsKey(word)) {
-							Set<String> rRels = map.get(word);
-							rRels.add(rel);
-							map.put(word, rRels);
-							revisedMap.put(key, map);
-						} else {
-							Set<String> rRels = new THashSet<String>();
-							rRels.add(rel);
-							map.put(word, rRels);
-							revisedMap.put(key, map);
-						}
-					}
-				}
-			}
+		for (String key : relMap.keySet()) {
+			Map<String, Set<String>> relationsByWord = WordNetRelations.getRelationsByWord(relMap.get(key));
+			if (!relationsByWord.isEmpty()) revisedMap.put(key, relationsByWord);
 		}
 		String revisedRelFile = options.revisedMapFile.get();
 		SerializedObjects.writeSerializedObject(revisedMap, revisedRelFile);
@@ -24,15 +24,16 @@ package edu.cmu.cs.lti.ark.fn.identification.training;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
 import edu.cmu.cs.lti.ark.fn.optimization.Lbfgs;
+import edu.cmu.cs.lti.ark.fn.optimization.TrainingExecutor;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
-import edu.cmu.cs.lti.ark.fn.utils.ThreadPool;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
-import gnu.trove.TIntDoubleHashMap;
 
 import java.io.File;
 import java.io.FilenameFilter;
@@ -69,17 +70,22 @@ public class TrainBatch {
 		}
 	};
 	private static float DEFAULT_COST_MULTIPLE = 5f;
+	/** number of targets processed by a worker at a time */
+	private static final int SHARD_SIZE = 100;
 
 	private final double[] params;
 	private final List<String> eventFiles;
+	/** all events, packed into memory. absent if we're reading events from disk on every pass */
+	private final Optional<PackedEvents> packedEvents;
+	/** all events, in the factored format. if present, we use these instead of the event files */
+	private final Optional<FactoredEvents> factoredEvents;
+	private final int numTargets;
 	private final String modelFile;
 	private final boolean useL1Regularization;
 	private final boolean useL2Regularization;
 	private final int numThreads;
 	private final double lambda;
 	final double[] gradients;
-	final double[][] tGradients;
-	final double[] tValues;
 	private final boolean usePartialCreditCosts;
 	private float costMultiple;
 
@@ -103,7 +109,8 @@ public class TrainBatch {
 				restartFile.equals("null") ? Optional.<String>absent() : Optional.of(restartFile),
 				numThreads,
 				options.usePartialCredit.get(),
-				options.costMultiple.present() ? (float) options.costMultiple.get() : DEFAULT_COST_MULTIPLE);
+				options.costMultiple.present() ? (float) options.costMultiple.get() : DEFAULT_COST_MULTIPLE,
+				!options.storeInMemory.present() || options.storeInMemory.get().equals("true"));
 		tbm.trainModel();
 	}
 
@@ -115,11 +122,27 @@ public class TrainBatch {
 					  Optional<String> restartFile,
 					  int numThreads,
 					  boolean usePartialCreditCosts,
-					  float costMultiple) throws IOException {
+					  float costMultiple,
+					  boolean storeInMemory) throws IOException, InterruptedException {
 		final int modelSize = AlphabetCreationThreaded.getAlphabetSize(alphabetFile);
 		logger.info(String.format("Number of features: %d", modelSize));
 		this.modelFile = modelFile;
-		this.eventFiles = getEventFiles(new File(eventsDir));
+		final File factoredFile = new File(eventsDir, FactoredEvents.FACTORED_EVENTS_FILENAME);
+		if (factoredFile.exists()) {
+			logger.info("Reading factored events from " + factoredFile);
+			this.factoredEvents = Optional.of(FactoredEvents.read(factoredFile));
+			this.eventFiles = ImmutableList.of();
+			this.packedEvents = Optional.absent();
+			this.numTargets = factoredEvents.get().numTargets();
+			logger.info(String.format("Total number of datapoints: %d", numTargets));
+		} else {
+			this.factoredEvents = Optional.absent();
+			this.eventFiles = getEventFiles(new File(eventsDir));
+			this.packedEvents = storeInMemory ?
+					Optional.of(loadPackedEvents(new File(eventsDir), eventFiles, numThreads)) :
+					Optional.<PackedEvents>absent();
+			this.numTargets = eventFiles.size();
+		}
 		this.useL1Regularization = reg.toLowerCase().equals("l1");
 		this.useL2Regularization = reg.toLowerCase().equals("l2");
 		this.lambda = lambda;
@@ -129,58 +152,40 @@ public class TrainBatch {
 		this.params = restartFile.isPresent() ? loadModel(restartFile.get()) : new double[modelSize];
 
 		gradients = new double[modelSize];
-		tGradients = new double[numThreads][modelSize];
-		tValues = new double[numThreads];
 	}
 
 	public double[] trainModel() throws Exception {
-		final Function<double[], Pair<Double, double[]>> valueAndGradientFunction =
-				new Function<double[], Pair<Double, double[]>>() {
-					@Override public Pair<Double, double[]> apply(double[] currentParams) {
-						return getValuesAndGradientsThreaded(currentParams);
-					}
-				};
-		return Lbfgs.trainAndSaveModel(params, valueAndGradientFunction, modelFile);
+		// one pool of workers for the whole run, rather than one per evaluation
+		final TrainingExecutor executor = new TrainingExecutor(numThreads, gradients.length);
+		try {
+			final Function<double[], Pair<Double, double[]>> valueAndGradientFunction =
+					new Function<double[], Pair<Double, double[]>>() {
+						@Override public Pair<Double, double[]> apply(double[] currentParams) {
+							return getValuesAndGradientsThreaded(executor, currentParams);
+						}
+					};
+			// the L1 penalty isn't differentiable, so it's left to the optimizer (OWL-QN) rather than added here
+			return Lbfgs.trainAndSaveModel(params, valueAndGradientFunction, modelFile,
+					useL1Regularization ? lambda : 0.0);
+		} finally {
+			executor.shutdown();
+		}
 	}
 
-	private Pair<Double, double[]> getValuesAndGradientsThreaded(final double[] currentParams) {
+	private Pair<Double, double[]> getValuesAndGradientsThreaded(TrainingExecutor executor,
+																 final double[] currentParams) {
 		final long startTime = System.currentTimeMillis();
-		final int batchSize = (int) Math.ceil(eventFiles.size() / (double) numThreads);
-		final ThreadPool threadPool = new ThreadPool(numThreads);
-		int task = 0;
-		for (int start = 0; start < eventFiles.size(); start += batchSize) {
-			final int taskId = task;
-			final Iterable<Integer> targetIdxs = xrange(start, Math.min(start + batchSize, eventFiles.size()));
-			threadPool.runTask(new Runnable() {
-				public void run() {
-					logger.info(String.format("Task %d : start", taskId));
-					try {
-						tValues[taskId] = processBatch(targetIdxs, currentParams, tGradients[taskId]);
-					} catch (Exception e) { throw new RuntimeException(e); }
-					logger.info(String.format("Task %d : end", taskId));
-				}
-			});
-			task++;
-		}
-		threadPool.join();
-		// merge the calculated tValues and gradients together
-		double logLikelihood = sum(tValues);
-		Arrays.fill(gradients, 0.0);
-		for (double[] tGrad : tGradients) {
-			plusEquals(gradients, tGrad);
-		}
+		final double logLikelihood = executor.computeValueAndGradient(numTargets, SHARD_SIZE,
+				new TrainingExecutor.Loss() {
+					@Override public double addLossAndGradient(int targetIdx, GradientAccumulator gradient)
+							throws Exception {
+						return addLogLossAndGradientForTarget(targetIdx, currentParams, gradient);
+					} },
+				gradients);
 		// LBGFS always minimizes, so objective is -log(likelihood)
 		double negLogLikelihood = -logLikelihood; // * oneOverN;
 		timesEquals(gradients, -1.0); //oneOverN);
-		// add the regularization penalty
-		if (useL1Regularization) {
-			double penalty = 0.0;
-			for (double param : currentParams) penalty += Math.abs(param);
-			negLogLikelihood += lambda * penalty;
-			for (int i = 0; i < currentParams.length; ++i) {
-				gradients[i] += lambda * currentParams[i];
-			}
-		}
+		// add the L2 penalty. the L1 penalty is handled by the optimizer
 		if (useL2Regularization) {
 			negLogLikelihood += lambda * dotProduct(currentParams, currentParams);
 			for (int i = 0; i < currentParams.length; ++i) {
@@ -192,59 +197,81 @@ public class TrainBatch {
 		return Pair.of(negLogLikelihood, gradients);
 	}
 
-	/** Writes gradients to tGradients as a side-effect */
-	private double processBatch(Iterable<Integer> targetIdxs,
-								double[] currentParams,
-								double[] tGradients) throws Exception {
-		Arrays.fill(tGradients, 0.0);
-		double logLikelihood = 0.0;
-		for (int targetIdx : targetIdxs) {
-			if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
-			logLikelihood +=
-					addLogLossAndGradientForExample(getFeaturesForTarget(targetIdx), currentParams, tGradients);
-			if (targetIdx % 100 == 0) logger.info(String.format("target idx: %d", targetIdx));
+	/** Writes to gradient as a side-effect */
+	private double addLogLossAndGradientForTarget(int targetIdx,
+												  double[] currentParams,
+												  GradientAccumulator gradient) throws Exception {
+		if (Thread.currentThread().isInterrupted()) throw new InterruptedException();
+		if (targetIdx % 100 == 0) logger.info(String.format("target idx: %d", targetIdx));
+		if (factoredEvents.isPresent()) {
+			return addLogLossAndGradientForExample(factoredEvents.get(), targetIdx, currentParams, gradient);
+		} else if (packedEvents.isPresent()) {
+			return addLogLossAndGradientForExample(packedEvents.get(), targetIdx, currentParams, gradient);
+		} else {
+			return addLogLossAndGradientForExample(
+					PackedEvents.of(getFeaturesForTarget(targetIdx)), 0, currentParams, gradient);
 		}
-		return logLikelihood;
 	}
 
 	/** Writes to gradients as a side-effect */
-	private double addLogLossAndGradientForExample(FeaturesAndCost[] featuresByFrame,
+	private double addLogLossAndGradientForExample(PackedEvents events,
+												   int targetIdx,
 												   double[] currentParams,
-												   double[] gradient) {
-		int numFrames = featuresByFrame.length;
+												   GradientAccumulator gradient) {
+		int numFrames = events.numFrames(targetIdx);
 		double frameScore[] = new double[numFrames];
 		double expdFrameScore[] = new double[numFrames];
-		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
-			final TIntDoubleHashMap frameFeatures = featuresByFrame[frameIdx].features;
-			frameScore[frameIdx] = dotProduct(currentParams, frameFeatures);
+		for (int frameNum = 0; frameNum < numFrames; frameNum++) {
+			final int frameIdx = events.getFrameIdx(targetIdx, frameNum);
+			frameScore[frameNum] = events.dotProduct(currentParams, frameIdx);
 			if (usePartialCreditCosts) {
 				// softmax-margin
-				frameScore[frameIdx] += costMultiple * featuresByFrame[frameIdx].cost;
+				frameScore[frameNum] += costMultiple * events.getCost(frameIdx);
 			}
-			expdFrameScore[frameIdx] = Math.exp(frameScore[frameIdx]);
+			expdFrameScore[frameNum] = Math.exp(frameScore[frameNum]);
 		}
 		final double logPartitionFn = Math.log(sum(expdFrameScore));
 
 		// the correct frame is always first
-		final int correctFrameIdx = 0;
-		plusEquals(gradient, featuresByFrame[correctFrameIdx].features);
-		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
+		final int correctFrameNum = 0;
+		events.addTo(gradient, events.getFrameIdx(targetIdx, correctFrameNum), 1.0);
+		for (int frameNum = 0; frameNum < numFrames; frameNum++) {
 			// estimate of P(y | x) * cost(y, y*) under the current parameters
-			double prob = Math.exp(frameScore[frameIdx] - logPartitionFn);
-			for (int featIdx : featuresByFrame[frameIdx].features.keys()) {
-				gradient[featIdx] -= prob * featuresByFrame[frameIdx].features.get(featIdx);
-			}
+			double prob = Math.exp(frameScore[frameNum] - logPartitionFn);
+			events.addTo(gradient, events.getFrameIdx(targetIdx, frameNum), -prob);
 		}
-		return frameScore[correctFrameIdx] - logPartitionFn;
+		return frameScore[correctFrameNum] - logPartitionFn;
 	}
 
-	/** Performs a dot product of the dense vector a and the sparse vector b (encoded as a map from index to value). */
-	private static double dotProduct(double[] a, TIntDoubleHashMap b) {
-		double result = 0.0;
-		for (int featureIdx : b.keys()) {
-			result += a[featureIdx] * b.get(featureIdx);
+	/** Like {@link #addLogLossAndGradientForExample(PackedEvents, int, double[], GradientAccumulator)}, for factored events */
+	private double addLogLossAndGradientForExample(FactoredEvents events,
+												   int targetIdx,
+												   double[] currentParams,
+												   GradientAccumulator gradient) {
+		final int numFrames = events.numFrames();
+		final double[] frameFeatureScratch = new double[events.numFrameFeatures()];
+		final double[] frameScore = new double[numFrames];
+		final double[] expdFrameScore = new double[numFrames];
+		events.score(currentParams, targetIdx, frameFeatureScratch, frameScore);
+		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
+			if (usePartialCreditCosts) {
+				// softmax-margin
+				frameScore[frameIdx] += costMultiple * events.getCost(targetIdx, frameIdx);
+			}
+			expdFrameScore[frameIdx] = Math.exp(frameScore[frameIdx]);
 		}
-		return result;
+		final double logPartitionFn = Math.log(sum(expdFrameScore));
+
+		final int correctFrameIdx = events.getGoldFrame(targetIdx);
+		// reuse expdFrameScore for the scale of each frame's features in the gradient
+		final double[] frameScales = expdFrameScore;
+		for (int frameIdx = 0; frameIdx < numFrames; frameIdx++) {
+			// estimate of P(y | x) * cost(y, y*) under the current parameters
+			frameScales[frameIdx] = -Math.exp(frameScore[frameIdx] - logPartitionFn);
+		}
+		frameScales[correctFrameIdx] += 1.0;
+		events.addTo(gradient, targetIdx, frameScales, frameFeatureScratch);
+		return frameScore[correctFrameIdx] - logPartitionFn;
 	}
 
 	/** Performs a dot product of the two dense vectors a and b. */
@@ -256,20 +283,6 @@ public class TrainBatch {
 		return result;
 	}
 
-	/** Adds the sparse vector rhs to the dense vector lhs **/
-	private static void plusEquals(double[] lhs, TIntDoubleHashMap rhs) {
-		for (int i : rhs.keys()) {
-			lhs[i] += rhs.get(i);
-		}
-	}
-
-	/** Adds the dense vector rhs to the dense vector lhs **/
-	private static void plusEquals(double[] lhs, double[] rhs) {
-		for (int i = 0; i < lhs.length; i++) {
-			lhs[i] += rhs[i];
-		}
-	}
-
 	/** Multiplies the dense vector <code>vector</code> by the scalar <code>scalar</code> **/
 	private static void timesEquals(double[] vector, double scalar) {
 		for (int i = 0; i < vector.length; i++) {
@@ -287,6 +300,38 @@ public class TrainBatch {
 		return SerializedObjects.readObject(eventFiles.get(targetIdx));
 	}
 
+	/**
+	 * Reads the packed events file from eventsDir if it is present and up to date. Otherwise packs eventFiles and
+	 * tries to write the packed events file, so the next run can skip deserializing the individual event files.
+	 */
+	private static PackedEvents loadPackedEvents(File eventsDir, List<String> eventFiles, int numThreads)
+			throws IOException, InterruptedException {
+		final File packedFile = new File(eventsDir, PackedEvents.PACKED_EVENTS_FILENAME);
+		if (packedFile.exists() && isUpToDate(packedFile, eventFiles)) {
+			logger.info("Reading packed events from " + packedFile);
+			final PackedEvents events = PackedEvents.read(packedFile);
+			if (events.numTargets() == eventFiles.size()) return events;
+			logger.warning(String.format("%s has %d targets, expected %d. Repacking.",
+					packedFile, events.numTargets(), eventFiles.size()));
+		}
+		logger.info("Packing events into memory");
+		final PackedEvents events = PackedEvents.fromEventFiles(eventFiles, numThreads);
+		try {
+			events.write(packedFile);
+		} catch (IOException e) {
+			logger.warning("Unable to write packed events to " + packedFile + ": " + e.getMessage());
+		}
+		return events;
+	}
+
+	private static boolean isUpToDate(File packedFile, List<String> eventFiles) {
+		final long packedTime = packedFile.lastModified();
+		for (String eventFile : eventFiles) {
+			if (new File(eventFile).lastModified() > packedTime) return false;
+		}
+		return true;
+	}
+
 	/**
 	 * Reads parameters from modelFile, one param per line.
 	 *
@@ -302,7 +347,7 @@ public class TrainBatch {
 	}
 
 	/** Gets the list of all feature files */
-	private static List<String> getEventFiles(File eventsDir) {
+	static List<String> getEventFiles(File eventsDir) {
 		final String[] files = eventsDir.list(featureFilenameFilter);
 		Arrays.sort(files, featureFilenameComparator);
 		final List<String> eventFiles = Lists.newArrayListWithExpectedSize(files.length);
@@ -0,0 +1,45 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A dense gradient vector that remembers which chunks of it have been written to, so that summing and clearing
+ * a set of them (see {@link TrainingExecutor}) only has to touch the chunks some example actually updated.
+ */
+@NotThreadSafe
+public class GradientAccumulator {
+	/** chunks are 2^CHUNK_BITS entries long */
+	static final int CHUNK_BITS = 12;
+	static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	final double[] values;
+	final boolean[] isTouched;
+
+	public GradientAccumulator(int size) {
+		this(new double[size]);
+	}
+
+	/** Accumulates into the given vector */
+	public GradientAccumulator(double[] values) {
+		this.values = values;
+		this.isTouched = new boolean[numChunks(values.length)];
+	}
+
+	static int numChunks(int size) {
+		return (size + CHUNK_SIZE - 1) >>> CHUNK_BITS;
+	}
+
+	public int size() { return values.length; }
+
+	/** Adds value to the idx'th entry */
+	public void add(int idx, double value) {
+		values[idx] += value;
+		isTouched[idx >>> CHUNK_BITS] = true;
+	}
+
+	/** Adds scale times the dense vector <code>vector</code> */
+	public void addAll(double[] vector, double scale) {
+		for (int i = 0; i < vector.length; i++) values[i] += scale * vector[i];
+		for (int c = 0; c < isTouched.length; c++) isTouched[c] = true;
+	}
+}
@@ -4,7 +4,6 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.io.OutputSupplier;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
-import riso.numerical.LBFGS;
 
 import java.io.File;
 import java.io.IOException;
@@ -16,7 +15,7 @@ import static com.google.common.io.Files.newWriterSupplier;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 
 /**
- * Convenience functions for riso.numerical.LBFGS. Calls with reasonable defaults.
+ * Convenience functions for {@link LbfgsOptimizer}. Calls with reasonable defaults.
  *
  * @author sthomson@cs.cmu.edu
  */
@@ -29,6 +28,7 @@ public class Lbfgs {
 	public static int MAX_ITERATIONS = 2000;
 	// we've converged when ||gradient step|| <= STOPPING_THRESHOLD * max(||parameters||, 1)
     public static double STOPPING_THRESHOLD = 1.0e-4;
+	// only used by the remaining callers of riso.numerical.LBFGS
 	public static double XTOL = calculateMachineEpsilon(); //estimate of machine precision.  ~= 2.220446049250313E-16
 	// number of corrections, between 3 and 7
     // a higher number means more computation per iteration, but possibly less iterations until convergence
@@ -36,57 +36,60 @@ public class Lbfgs {
 	public static boolean DEBUG = true;
 	public static int SAVE_EVERY_K = 10;
 
-	public static double[] trainAndSaveModel(double[] startingParams,
-											 Function<double[], Pair<Double, double[]>> valueAndGradientProvider,
-											 String modelFilePrefix) throws Exception {
-		int iteration = 0;
-		// parameters needed for lbfgs
-		double[] currentParams = startingParams.clone();
-		int modelSize = currentParams.length;
-		// Output every iteration:
-		// iteration count, number of function evaluations, function value, norm of the gradient, and steplength
-		int[] iprint = new int[] {DEBUG ? 1 : -1, 0};
-		// lbfgs sets this flag to zero when it has converged
-		final int[] iflag = { 0 };
-		// unused
-		final double[] diag = new double[modelSize];
-		final boolean diagco = false;
-		try {
-			do {
-				Pair<Double, double[]> valueAndGradient =
-						valueAndGradientProvider.apply(currentParams);
-				double value = valueAndGradient.first;
-				double[] gradients = valueAndGradient.second;
-					final long startTime = System.currentTimeMillis();
-					riso.numerical.LBFGS.lbfgs(modelSize,
-							NUM_CORRECTIONS,
-							currentParams,
-							value,
-							gradients,
-							diagco,
-							diag,
-							iprint,
-							STOPPING_THRESHOLD,
-							XTOL,
-							iflag
-					);
-					final long endTime = System.currentTimeMillis();
-					logger.info(String.format("Finished LBFGS step. Took %s seconds.", (endTime - startTime) / 1000.0));
-				iteration++;
+	/** An optimizer with the default settings above, and a listener that logs each iteration if DEBUG is set */
+	public static LbfgsOptimizer.Builder newOptimizer() {
+		final LbfgsOptimizer.Builder builder = LbfgsOptimizer.builder()
+				.numCorrections(NUM_CORRECTIONS)
+				.maxIterations(MAX_ITERATIONS)
+				.convergenceCriterion(LbfgsOptimizer.gradientNormBelow(STOPPING_THRESHOLD));
+		if (DEBUG) {
+			builder.addIterationListener(new LbfgsOptimizer.IterationListener() {
+				@Override public void iterationFinished(int iteration, double value, double[] params) {
+					logger.info(String.format("Finished LBFGS iteration %d. Function value: %s", iteration, value));
+				} });
+		}
+		return builder;
+	}
+
+	/** A listener that writes the params to <code>modelFilePrefix_iteration</code> every SAVE_EVERY_K iterations */
+	public static LbfgsOptimizer.IterationListener saveEveryK(final String modelFilePrefix) {
+		return new LbfgsOptimizer.IterationListener() {
+			@Override public void iterationFinished(int iteration, double value, double[] params) throws IOException {
 				if (iteration % SAVE_EVERY_K == 0) {
 					final String modelFilename = String.format("%s_%05d", modelFilePrefix, iteration);
-					saveModel(riso.numerical.LBFGS.solution_cache, newWriterSupplier(new File(modelFilename), Charsets.UTF_8));
+					saveModel(params, newWriterSupplier(new File(modelFilename), Charsets.UTF_8));
 				}
-			} while (iteration <= MAX_ITERATIONS && iflag[0] != 0);
-		} catch (LBFGS.ExceptionWithIflag e) {
-			// these exceptions happen sometimes even though the training was successful
-			// we still want to save the most recent model
-			// TODO: separate out the ok exceptions from the bad exceptions
-			e.printStackTrace();
-		}
-		final String modelFilename = String.format("%s_%05d", modelFilePrefix, iteration);
-		saveModel(riso.numerical.LBFGS.solution_cache, newWriterSupplier(new File(modelFilename), Charsets.UTF_8));
-		return currentParams;
+			} };
+	}
+
+	public static double[] trainAndSaveModel(double[] startingParams,
+											 Function<double[], Pair<Double, double[]>> valueAndGradientProvider,
+											 String modelFilePrefix) throws Exception {
+		return trainAndSaveModel(startingParams, valueAndGradientProvider, modelFilePrefix, 0.0);
+	}
+
+	/**
+	 * Minimizes the function given by valueAndGradientProvider, plus <code>l1Weight * ||params||_1</code>,
+	 * saving a snapshot of the params every SAVE_EVERY_K iterations, and the final params to
+	 * <code>modelFilePrefix_numIterations</code>.
+	 */
+	public static double[] trainAndSaveModel(double[] startingParams,
+											 Function<double[], Pair<Double, double[]>> valueAndGradientProvider,
+											 String modelFilePrefix,
+											 double l1Weight) throws Exception {
+		final int[] numIterations = { 0 };
+		final LbfgsOptimizer optimizer = newOptimizer()
+				.l1Weight(l1Weight)
+				.addIterationListener(saveEveryK(modelFilePrefix))
+				.addIterationListener(new LbfgsOptimizer.IterationListener() {
+					@Override public void iterationFinished(int iteration, double value, double[] params) {
+						numIterations[0] = iteration;
+					} })
+				.build();
+		final double[] params = optimizer.minimize(valueAndGradientProvider, startingParams);
+		final String modelFilename = String.format("%s_%05d", modelFilePrefix, numIterations[0]);
+		saveModel(params, newWriterSupplier(new File(modelFilename), Charsets.UTF_8));
+		return params;
 	}
 
 	/**
@@ -94,7 +97,7 @@ public class Lbfgs {
 	 *
 	 * @param outputSupplier the output to write to
 	 */
-	private static void saveModel(double[] params, OutputSupplier<OutputStreamWriter> outputSupplier)
+	public static void saveModel(double[] params, OutputSupplier<OutputStreamWriter> outputSupplier)
 			throws IOException {
 		final OutputStreamWriter output = outputSupplier.getOutput();
 		try {
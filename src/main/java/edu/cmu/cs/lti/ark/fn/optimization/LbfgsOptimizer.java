@@ -0,0 +1,330 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Limited-memory BFGS minimization, with an optional L1 penalty handled by OWL-QN (Andrew and Gao, 2007,
+ * "Scalable Training of L1-Regularized Log-Linear Models").
+ *
+ * Unlike riso.numerical.LBFGS, all of the state of a run lives in its call to {@link #minimize}, so a single
+ * optimizer can be used for any number of runs at once, from any number of threads.
+ *
+ * The function to minimize maps parameters to (value, gradient). It should not include the L1 penalty; that's
+ * added here. It may reuse its gradient array between calls, but must not hold on to the parameters it was given.
+ */
+public class LbfgsOptimizer {
+	private static final Logger logger = Logger.getLogger(LbfgsOptimizer.class.getCanonicalName());
+	/** sufficient decrease constant for the backtracking line search */
+	private static final double ARMIJO_CONSTANT = 1e-4;
+	private static final double BACKTRACK_RATE = 0.5;
+	private static final int MAX_LINE_SEARCH_STEPS = 50;
+
+	/** Decides when to stop */
+	public interface ConvergenceCriterion {
+		/**
+		 * @param gradient the gradient of the objective, or for OWL-QN its pseudo-gradient
+		 */
+		boolean hasConverged(int iteration, double previousValue, double value, double[] params, double[] gradient);
+	}
+
+	/** Called after every iteration, e.g. to log progress or save a snapshot of the model */
+	public interface IterationListener {
+		/** <code>params</code> belongs to the optimizer, and must not be modified or kept */
+		void iterationFinished(int iteration, double value, double[] params) throws IOException;
+	}
+
+	/** The test used by riso.numerical.LBFGS: ||gradient|| <= epsilon * max(||params||, 1) */
+	public static ConvergenceCriterion gradientNormBelow(final double epsilon) {
+		return new ConvergenceCriterion() {
+			@Override public boolean hasConverged(int iteration, double previousValue, double value,
+												  double[] params, double[] gradient) {
+				return Math.sqrt(dot(gradient, gradient)) <= epsilon * Math.max(Math.sqrt(dot(params, params)), 1.0);
+			} };
+	}
+
+	/** Stops once an iteration improves the objective by less than <code>tolerance</code>, relatively */
+	public static ConvergenceCriterion relativeImprovementBelow(final double tolerance) {
+		return new ConvergenceCriterion() {
+			@Override public boolean hasConverged(int iteration, double previousValue, double value,
+												  double[] params, double[] gradient) {
+				return (previousValue - value) <= tolerance * Math.max(Math.abs(value), 1.0);
+			} };
+	}
+
+	/** Stops as soon as any of the given criteria says to */
+	public static ConvergenceCriterion anyOf(final ConvergenceCriterion... criteria) {
+		return new ConvergenceCriterion() {
+			@Override public boolean hasConverged(int iteration, double previousValue, double value,
+												  double[] params, double[] gradient) {
+				for (ConvergenceCriterion criterion : criteria) {
+					if (criterion.hasConverged(iteration, previousValue, value, params, gradient)) return true;
+				}
+				return false;
+			} };
+	}
+
+	public static class Builder {
+		private int numCorrections = 6;
+		private int maxIterations = 2000;
+		private double l1Weight = 0.0;
+		private ConvergenceCriterion convergenceCriterion = gradientNormBelow(1e-4);
+		private final ImmutableList.Builder<IterationListener> listeners = ImmutableList.builder();
+
+		/** number of (step, gradient change) pairs used to approximate the inverse Hessian */
+		public Builder numCorrections(int numCorrections) {
+			checkArgument(numCorrections > 0, "numCorrections must be positive");
+			this.numCorrections = numCorrections;
+			return this;
+		}
+
+		public Builder maxIterations(int maxIterations) {
+			this.maxIterations = maxIterations;
+			return this;
+		}
+
+		/** adds <code>l1Weight * ||params||_1</code> to the objective, and minimizes it with OWL-QN */
+		public Builder l1Weight(double l1Weight) {
+			checkArgument(l1Weight >= 0, "l1Weight must be non-negative");
+			this.l1Weight = l1Weight;
+			return this;
+		}
+
+		public Builder convergenceCriterion(ConvergenceCriterion convergenceCriterion) {
+			this.convergenceCriterion = convergenceCriterion;
+			return this;
+		}
+
+		public Builder addIterationListener(IterationListener listener) {
+			listeners.add(listener);
+			return this;
+		}
+
+		public LbfgsOptimizer build() {
+			return new LbfgsOptimizer(numCorrections, maxIterations, l1Weight, convergenceCriterion, listeners.build());
+		}
+	}
+
+	private final int numCorrections;
+	private final int maxIterations;
+	private final double l1Weight;
+	private final ConvergenceCriterion convergenceCriterion;
+	private final List<IterationListener> listeners;
+
+	private LbfgsOptimizer(int numCorrections,
+						   int maxIterations,
+						   double l1Weight,
+						   ConvergenceCriterion convergenceCriterion,
+						   List<IterationListener> listeners) {
+		this.numCorrections = numCorrections;
+		this.maxIterations = maxIterations;
+		this.l1Weight = l1Weight;
+		this.convergenceCriterion = convergenceCriterion;
+		this.listeners = listeners;
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Minimizes <code>function</code> (plus the L1 penalty, if any), starting from <code>startingParams</code>.
+	 * If a line search fails to make progress, gives up and returns the best parameters found so far.
+	 *
+	 * @return the parameters found. <code>startingParams</code> is left unchanged
+	 */
+	public double[] minimize(Function<double[], Pair<Double, double[]>> function, double[] startingParams)
+			throws IOException {
+		final int n = startingParams.length;
+		double[] params = startingParams.clone();
+		double[] gradient = new double[n];
+		double[] newParams = new double[n];
+		double[] newGradient = new double[n];
+		final double[] pseudoGradient = new double[n];
+		final double[] direction = new double[n];
+		final double[] orthant = new double[n];
+		final History history = new History(numCorrections, n);
+
+		double value = evaluate(function, params, gradient);
+		for (int iteration = 1; iteration <= maxIterations; iteration++) {
+			computePseudoGradient(params, gradient, pseudoGradient);
+			history.computeDirection(pseudoGradient, direction);
+			if (l1Weight > 0) constrainDirection(direction, pseudoGradient);
+			double directionalDerivative = dot(direction, pseudoGradient);
+			if (directionalDerivative >= 0) {
+				// not a descent direction. start over from steepest descent
+				history.clear();
+				for (int i = 0; i < n; i++) direction[i] = -pseudoGradient[i];
+				directionalDerivative = -dot(pseudoGradient, pseudoGradient);
+				if (directionalDerivative == 0) break;  // we're at a minimum
+			}
+			if (l1Weight > 0) chooseOrthant(params, pseudoGradient, orthant);
+			// the first step is scaled like riso does, later ones are scaled by the Hessian approximation
+			double step = history.isEmpty() ? 1.0 / Math.sqrt(-directionalDerivative) : 1.0;
+			double newValue = Double.NaN;
+			boolean isAccepted = false;
+			for (int lineSearchStep = 0; lineSearchStep < MAX_LINE_SEARCH_STEPS; lineSearchStep++) {
+				for (int i = 0; i < n; i++) newParams[i] = params[i] + step * direction[i];
+				if (l1Weight > 0) projectOntoOrthant(newParams, orthant);
+				newValue = evaluate(function, newParams, newGradient);
+				double decrease = 0.0;
+				for (int i = 0; i < n; i++) decrease += pseudoGradient[i] * (newParams[i] - params[i]);
+				if (newValue <= value + ARMIJO_CONSTANT * decrease) {
+					isAccepted = true;
+					break;
+				}
+				step *= BACKTRACK_RATE;
+			}
+			if (!isAccepted) {
+				logger.warning(String.format("Line search failed on iteration %d. Stopping.", iteration));
+				break;
+			}
+			history.add(params, newParams, gradient, newGradient);
+			final double previousValue = value;
+			value = newValue;
+			double[] swap = params; params = newParams; newParams = swap;
+			swap = gradient; gradient = newGradient; newGradient = swap;
+			for (IterationListener listener : listeners) listener.iterationFinished(iteration, value, params);
+			computePseudoGradient(params, gradient, pseudoGradient);
+			if (convergenceCriterion.hasConverged(iteration, previousValue, value, params, pseudoGradient)) break;
+		}
+		return params;
+	}
+
+	/** Evaluates the objective, including the L1 penalty, at params, and copies the smooth part's gradient */
+	private double evaluate(Function<double[], Pair<Double, double[]>> function, double[] params, double[] gradient) {
+		final Pair<Double, double[]> valueAndGradient = function.apply(params);
+		System.arraycopy(valueAndGradient.second, 0, gradient, 0, gradient.length);
+		double value = valueAndGradient.first;
+		if (l1Weight > 0) {
+			for (double param : params) value += l1Weight * Math.abs(param);
+		}
+		return value;
+	}
+
+	/**
+	 * The gradient of the objective, if there's no L1 penalty. Otherwise, the direction of steepest descent
+	 * (negated), picking the one-sided derivative of |param| that decreases the objective where param is 0
+	 */
+	private void computePseudoGradient(double[] params, double[] gradient, double[] pseudoGradient) {
+		if (l1Weight == 0) {
+			System.arraycopy(gradient, 0, pseudoGradient, 0, gradient.length);
+			return;
+		}
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] < 0) {
+				pseudoGradient[i] = gradient[i] - l1Weight;
+			} else if (params[i] > 0) {
+				pseudoGradient[i] = gradient[i] + l1Weight;
+			} else if (gradient[i] + l1Weight < 0) {
+				pseudoGradient[i] = gradient[i] + l1Weight;
+			} else if (gradient[i] - l1Weight > 0) {
+				pseudoGradient[i] = gradient[i] - l1Weight;
+			} else {
+				pseudoGradient[i] = 0.0;
+			}
+		}
+	}
+
+	/** Zeros out the components of the direction that disagree in sign with steepest descent */
+	private static void constrainDirection(double[] direction, double[] pseudoGradient) {
+		for (int i = 0; i < direction.length; i++) {
+			if (direction[i] * pseudoGradient[i] >= 0) direction[i] = 0.0;
+		}
+	}
+
+	/** The orthant the line search stays in: the sign of each param, or of steepest descent if it's 0 */
+	private static void chooseOrthant(double[] params, double[] pseudoGradient, double[] orthant) {
+		for (int i = 0; i < params.length; i++) {
+			orthant[i] = params[i] != 0 ? Math.signum(params[i]) : -Math.signum(pseudoGradient[i]);
+		}
+	}
+
+	/** Zeros out the params that left their orthant */
+	private static void projectOntoOrthant(double[] params, double[] orthant) {
+		for (int i = 0; i < params.length; i++) {
+			if (params[i] * orthant[i] <= 0) params[i] = 0.0;
+		}
+	}
+
+	static double dot(double[] a, double[] b) {
+		double result = 0.0;
+		for (int i = 0; i < a.length; i++) result += a[i] * b[i];
+		return result;
+	}
+
+	/** The most recent (step, gradient change) pairs, in a ring buffer */
+	private static class History {
+		private final double[][] steps;
+		private final double[][] gradientChanges;
+		/** 1 / (step . gradientChange) */
+		private final double[] rhos;
+		private final double[] alphas;
+		private int start = 0;
+		private int size = 0;
+
+		History(int numCorrections, int n) {
+			steps = new double[numCorrections][n];
+			gradientChanges = new double[numCorrections][n];
+			rhos = new double[numCorrections];
+			alphas = new double[numCorrections];
+		}
+
+		boolean isEmpty() { return size == 0; }
+
+		void clear() { size = 0; }
+
+		/** Adds a pair, dropping the oldest if full. Skips pairs that would make the approximation indefinite */
+		void add(double[] params, double[] newParams, double[] gradient, double[] newGradient) {
+			double curvature = 0.0;
+			for (int i = 0; i < params.length; i++) {
+				curvature += (newParams[i] - params[i]) * (newGradient[i] - gradient[i]);
+			}
+			if (curvature <= 0) return;
+			final int k = (start + size) % steps.length;
+			for (int i = 0; i < params.length; i++) {
+				steps[k][i] = newParams[i] - params[i];
+				gradientChanges[k][i] = newGradient[i] - gradient[i];
+			}
+			rhos[k] = 1.0 / curvature;
+			if (size < steps.length) {
+				size++;
+			} else {
+				start = (start + 1) % steps.length;
+			}
+		}
+
+		/** Sets direction to -H * gradient, by the two-loop recursion */
+		void computeDirection(double[] gradient, double[] direction) {
+			for (int i = 0; i < direction.length; i++) direction[i] = -gradient[i];
+			for (int j = size - 1; j >= 0; j--) {
+				final int k = (start + j) % steps.length;
+				alphas[k] = rhos[k] * dot(steps[k], direction);
+				addTo(direction, gradientChanges[k], -alphas[k]);
+			}
+			if (size > 0) {
+				// scale by the most recent curvature estimate
+				final int last = (start + size - 1) % steps.length;
+				final double[] gradientChange = gradientChanges[last];
+				final double scale = 1.0 / (rhos[last] * dot(gradientChange, gradientChange));
+				for (int i = 0; i < direction.length; i++) direction[i] *= scale;
+			}
+			for (int j = 0; j < size; j++) {
+				final int k = (start + j) % steps.length;
+				final double beta = rhos[k] * dot(gradientChanges[k], direction);
+				addTo(direction, steps[k], alphas[k] - beta);
+			}
+		}
+
+		private static void addTo(double[] lhs, double[] rhs, double scale) {
+			for (int i = 0; i < lhs.length; i++) lhs[i] += scale * rhs[i];
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import com.google.common.base.Throwables;
+
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Computes the value and gradient of a sum of per-example losses in parallel, for batch trainers.
+ *
+ * One executor is meant to live for a whole training run. Each evaluation splits the examples into shards of
+ * <code>shardSize</code>, which are spread over a work-stealing pool. Each running shard adds to a
+ * {@link GradientAccumulator} of its own (there are never more than one per worker thread), and the accumulators
+ * are then summed into the result in parallel, chunk by chunk, skipping the chunks no shard touched. Summing also
+ * clears the accumulators for the next evaluation, again only where they were touched.
+ */
+public class TrainingExecutor {
+	/** The examples whose losses get summed */
+	public interface Loss {
+		/**
+		 * Adds the gradient of the loss of the given example to <code>gradient</code>.
+		 *
+		 * @return the loss of the example
+		 */
+		double addLossAndGradient(int exampleIdx, GradientAccumulator gradient) throws Exception;
+	}
+
+	private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+	private final ForkJoinPool pool;
+	private final int modelSize;
+	/** accumulators not in use by a shard */
+	private final Queue<GradientAccumulator> idleAccumulators = new ConcurrentLinkedQueue<GradientAccumulator>();
+	/** every accumulator ever created */
+	private final Queue<GradientAccumulator> allAccumulators = new ConcurrentLinkedQueue<GradientAccumulator>();
+
+	public TrainingExecutor(int numThreads, int modelSize) {
+		this.pool = new ForkJoinPool(numThreads);
+		this.modelSize = modelSize;
+	}
+
+	/**
+	 * Computes the sum over examples of their losses and gradients.
+	 *
+	 * @param gradient where the summed gradient is written. every entry is overwritten
+	 * @return the summed loss
+	 */
+	public double computeValueAndGradient(int numExamples, int shardSize, Loss loss, double[] gradient) {
+		final int numShards = (numExamples + shardSize - 1) / shardSize;
+		final double[] shardValues = new double[numShards];
+		// shards record their failure here instead of throwing, so that every shard is done when invoke returns
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		pool.invoke(new ShardTask(0, numShards, numExamples, shardSize, loss, shardValues, failure));
+		if (failure.get() != null) {
+			// don't leave partial gradients behind for the next evaluation
+			for (GradientAccumulator accumulator : allAccumulators) clear(accumulator);
+			throw Throwables.propagate(failure.get());
+		}
+		pool.invoke(new ReduceTask(0, GradientAccumulator.numChunks(modelSize), gradient));
+		// sum in shard order, so the value doesn't depend on scheduling
+		double value = 0.0;
+		for (double shardValue : shardValues) value += shardValue;
+		return value;
+	}
+
+	public void shutdown() throws InterruptedException {
+		pool.shutdown();
+		pool.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+	}
+
+	private GradientAccumulator borrowAccumulator() {
+		final GradientAccumulator accumulator = idleAccumulators.poll();
+		if (accumulator != null) return accumulator;
+		final GradientAccumulator created = new GradientAccumulator(modelSize);
+		allAccumulators.add(created);
+		return created;
+	}
+
+	private static void clear(GradientAccumulator accumulator) {
+		Arrays.fill(accumulator.values, 0.0);
+		Arrays.fill(accumulator.isTouched, false);
+	}
+
+	/** Processes shards [start, end), splitting them in half until there's only one */
+	private class ShardTask extends RecursiveAction {
+		private final int start;
+		private final int end;
+		private final int numExamples;
+		private final int shardSize;
+		private final Loss loss;
+		private final double[] shardValues;
+		private final AtomicReference<Exception> failure;
+
+		private ShardTask(int start,
+						  int end,
+						  int numExamples,
+						  int shardSize,
+						  Loss loss,
+						  double[] shardValues,
+						  AtomicReference<Exception> failure) {
+			this.start = start;
+			this.end = end;
+			this.numExamples = numExamples;
+			this.shardSize = shardSize;
+			this.loss = loss;
+			this.shardValues = shardValues;
+			this.failure = failure;
+		}
+
+		@Override protected void compute() {
+			if (end - start > 1) {
+				final int mid = (start + end) >>> 1;
+				invokeAll(new ShardTask(start, mid, numExamples, shardSize, loss, shardValues, failure),
+						new ShardTask(mid, end, numExamples, shardSize, loss, shardValues, failure));
+				return;
+			}
+			if (end == start || failure.get() != null) return;
+			final GradientAccumulator accumulator = borrowAccumulator();
+			try {
+				double value = 0.0;
+				for (int i = start * shardSize; i < Math.min((start + 1) * shardSize, numExamples); i++) {
+					value += loss.addLossAndGradient(i, accumulator);
+				}
+				shardValues[start] = value;
+			} catch (Exception e) {
+				failure.compareAndSet(null, e);
+			} finally {
+				idleAccumulators.add(accumulator);
+			}
+		}
+	}
+
+	/** Sums chunks [start, end) of every accumulator into the result, and clears them */
+	private class ReduceTask extends RecursiveAction {
+		/** number of chunks to sum in a single task */
+		private static final int CHUNKS_PER_TASK = 16;
+		private final int start;
+		private final int end;
+		private final double[] result;
+
+		private ReduceTask(int start, int end, double[] result) {
+			this.start = start;
+			this.end = end;
+			this.result = result;
+		}
+
+		@Override protected void compute() {
+			if (end - start > CHUNKS_PER_TASK) {
+				final int mid = (start + end) >>> 1;
+				invokeAll(new ReduceTask(start, mid, result), new ReduceTask(mid, end, result));
+				return;
+			}
+			for (int chunk = start; chunk < end; chunk++) {
+				final int from = chunk << GradientAccumulator.CHUNK_BITS;
+				final int to = Math.min(from + GradientAccumulator.CHUNK_SIZE, result.length);
+				Arrays.fill(result, from, to, 0.0);
+				for (GradientAccumulator accumulator : allAccumulators) {
+					if (!accumulator.isTouched[chunk]) continue;
+					final double[] values = accumulator.values;
+					for (int i = from; i < to; i++) {
+						result[i] += values[i];
+						values[i] = 0.0;
+					}
+					accumulator.isTouched[chunk] = false;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import edu.cmu.cs.lti.ark.util.ds.Range0Based;
+import edu.cmu.cs.lti.ark.util.ds.Range1Based;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParses;
+import gnu.trove.TLongIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.CandidateFrameElementFilters.createSpanRange;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.NON_BREAKING_LEFT_CONSTITUENT_POS;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx.EMPTY_SPAN_AND_PARSE_IDX;
+
+/**
+ * The candidate argument spans of a sentence: the constituents of its best dependency parse, with their heads.
+ * Built once per sentence in time linear in its length, and shared by all of its targets.
+ *
+ * Spans are kept as sorted keys (start * length + end), so they're listed in the same (start, end) order
+ * as the length x length matrix they replace. A target's gold spans are candidates too, and they can make the
+ * heuristic in {@link #findConstituents} split more constituents, so targets with gold spans that aren't already
+ * candidates get their own (still linear) pass.
+ */
+public class CandidateSpanIndex {
+	private final int length;
+	/** left[i] and right[i] are the first and last tokens of the subtree headed by token i */
+	private final int[] left;
+	private final int[] right;
+	private final String[] postags;
+	/** sorted */
+	private final long[] spans;
+	private final int[] heads;
+	/** the candidates of a target with no gold spans, followed by the null span */
+	private final ImmutableList<SpanAndParseIdx> candidates;
+
+	private CandidateSpanIndex(int[] left, int[] right, String[] postags) {
+		this.length = left.length;
+		this.left = left;
+		this.right = right;
+		this.postags = postags;
+		final TLongIntHashMap headsBySpan = findConstituents(ImmutableList.<Range0Based>of());
+		this.spans = sortedKeys(headsBySpan);
+		this.heads = new int[spans.length];
+		for (int i = 0; i < spans.length; i++) heads[i] = headsBySpan.get(spans[i]);
+		this.candidates = toCandidates(spans, new TLongIntHashMap());
+	}
+
+	public static CandidateSpanIndex fromParse(DependencyParse parse) {
+		final DependencyParse[] nodes = parse.getIndexSortedListOfNodes();
+		// nodes includes a dummy head node
+		final int length = nodes.length - 1;
+		final int[] parent = new int[length];
+		final String[] postags = new String[length];
+		for (int i = 0; i < length; i++) {
+			// translate parent indices from 1-based to 0-based
+			parent[i] = nodes[i + 1].getParentIndex() - 1;
+			postags[i] = nodes[i + 1].getPOS();
+		}
+		final int[] left = new int[length];
+		final int[] right = new int[length];
+		findYields(parent, left, right);
+		return new CandidateSpanIndex(left, right, postags);
+	}
+
+	/** The number of constituents (not counting gold spans or the null span) */
+	public int size() { return spans.length; }
+
+	public Range0Based getSpan(int i) {
+		return createSpanRange(getStart(spans[i]), getEnd(spans[i]));
+	}
+
+	/** The index of the token that heads the i'th constituent */
+	public int getHead(int i) { return heads[i]; }
+
+	/**
+	 * The candidate spans for the arguments of the data point's target: the constituents, the data point's gold
+	 * spans, and the null span. Gold spans come from the k-best parse they're a constituent of, if kBestParses > 1.
+	 * The returned list is shared, and can't be modified.
+	 */
+	public List<SpanAndParseIdx> getCandidates(DataPointWithFrameElements dataPoint, int kBestParses) {
+		final List<Range0Based> goldSpans = dataPoint.getOvertFrameElementFillerSpans();
+		if (goldSpans.isEmpty()) return candidates;
+		final TLongIntHashMap parseIdxs = new TLongIntHashMap();
+		if (kBestParses > 1) {
+			final DependencyParses parses = dataPoint.getParses();
+			for (Range0Based span : goldSpans) {
+				final Optional<Pair<Integer, DependencyParse>> indexAndParse =
+						parses.matchesSomeConstituent(new Range1Based(span));
+				parseIdxs.put(getKey(span.start, span.end), indexAndParse.isPresent() ? indexAndParse.get().first : 0);
+			}
+		}
+		for (Range0Based span : goldSpans) {
+			if (Arrays.binarySearch(spans, getKey(span.start, span.end)) < 0) {
+				return toCandidates(sortedKeys(findConstituents(goldSpans)), parseIdxs);
+			}
+		}
+		if (parseIdxs.isEmpty()) return candidates;
+		return toCandidates(spans, parseIdxs);
+	}
+
+	/**
+	 * Finds the constituents of the parse, and the token that heads each one. Single tokens are always constituents,
+	 * as is each token's subtree. When a token has dependents on both sides, it and its right (left) dependents
+	 * are also a constituent if its left (right) dependents are.
+	 *
+	 * @param goldSpans spans that count as constituents for the heuristic. Their head is -1 unless they're also a
+	 *                  constituent
+	 * @return the head of each span, by key
+	 */
+	private TLongIntHashMap findConstituents(List<Range0Based> goldSpans) {
+		final TLongIntHashMap headsBySpan = new TLongIntHashMap(4 * length + goldSpans.size());
+		for (Range0Based span : goldSpans) headsBySpan.put(getKey(span.start, span.end), -1);
+		for (int i = 0; i < length; i++) headsBySpan.put(getKey(left[i], right[i]), i);
+		for (int i = 0; i < length; i++) headsBySpan.put(getKey(i, i), i);
+		// heuristics to try to recover finer-grained constituents when a node has multiple descendants
+		for (int i = 0; i < length; i++) {
+			if (!(left[i] < i && right[i] > i)) continue;
+			final int justLeft = i - 1;
+			if (headsBySpan.containsKey(getKey(left[i], justLeft))
+					&& !(justLeft == left[i] && NON_BREAKING_LEFT_CONSTITUENT_POS.contains(postags[justLeft]))) {
+				headsBySpan.put(getKey(i, right[i]), i);
+			}
+			final int justRight = i + 1;
+			if (headsBySpan.containsKey(getKey(justRight, right[i]))) {
+				headsBySpan.put(getKey(left[i], i), i);
+			}
+		}
+		return headsBySpan;
+	}
+
+	private ImmutableList<SpanAndParseIdx> toCandidates(long[] keys, TLongIntHashMap parseIdxs) {
+		final ImmutableList.Builder<SpanAndParseIdx> candidates = ImmutableList.builder();
+		for (long key : keys) {
+			final Range0Based span = createSpanRange(getStart(key), getEnd(key));
+			candidates.add(new SpanAndParseIdx(span, parseIdxs.containsKey(key) ? parseIdxs.get(key) : 0));
+		}
+		// null span is always a candidate
+		candidates.add(EMPTY_SPAN_AND_PARSE_IDX);
+		return candidates.build();
+	}
+
+	/**
+	 * Sets left[i] and right[i] to the first and last tokens of the subtree headed by token i, by visiting
+	 * tokens in order of decreasing depth, so each token's subtree is done before it's added to its parent's.
+	 */
+	private static void findYields(int[] parent, int[] left, int[] right) {
+		final int length = parent.length;
+		final int[] depth = new int[length];
+		Arrays.fill(depth, -1);
+		final int[] path = new int[length];
+		int maxDepth = 0;
+		for (int i = 0; i < length; i++) {
+			// walk up to the first token whose depth we know, then fill in the depths on the way back down
+			int pathLength = 0;
+			int node = i;
+			while (node >= 0 && depth[node] < 0) {
+				if (pathLength == length) throw new IllegalArgumentException("Dependency parse has a cycle");
+				path[pathLength++] = node;
+				node = parent[node];
+			}
+			int nodeDepth = node < 0 ? -1 : depth[node];
+			while (pathLength > 0) depth[path[--pathLength]] = ++nodeDepth;
+			maxDepth = Math.max(maxDepth, depth[i]);
+		}
+		// bucket the tokens by depth
+		final int[] starts = new int[maxDepth + 2];
+		for (int i = 0; i < length; i++) starts[depth[i] + 1]++;
+		for (int d = 1; d < starts.length; d++) starts[d] += starts[d - 1];
+		final int[] byDepth = new int[length];
+		for (int i = 0; i < length; i++) byDepth[starts[depth[i]]++] = i;
+		for (int i = 0; i < length; i++) {
+			left[i] = i;
+			right[i] = i;
+		}
+		for (int j = length - 1; j >= 0; j--) {
+			final int i = byDepth[j];
+			final int p = parent[i];
+			if (p < 0) continue;
+			left[p] = Math.min(left[p], left[i]);
+			right[p] = Math.max(right[p], right[i]);
+		}
+	}
+
+	private long getKey(int start, int end) { return (long) start * length + end; }
+
+	private int getStart(long key) { return (int) (key / length); }
+
+	private int getEnd(long key) { return (int) (key % length); }
+
+	private static long[] sortedKeys(TLongIntHashMap map) {
+		final long[] keys = map.keys();
+		Arrays.sort(keys);
+		return keys;
+	}
+}
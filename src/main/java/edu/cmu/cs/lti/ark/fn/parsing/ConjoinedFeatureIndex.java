@@ -0,0 +1,144 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.Arrays;
+import java.util.Map;
+
+import static edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor.BaseFeatures;
+import static edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor.ConjoinLevel;
+
+/**
+ * Looks up the index of a conjoined argument identification feature (e.g. "headPOS_NN_Agent") from the id of its
+ * base feature ("headPOS_NN") and the id of what it's conjoined with ("Agent", or "Frame.Agent"), so that conjoined
+ * feature names never need to be built at inference time.
+ *
+ * Compiled once from the feature alphabet: every alphabet entry is indexed under its own name, and under every split
+ * "base_suffix" where suffix is a known role or frame.role name. So (base, suffix) is found if and only if
+ * base + "_" + suffix is in the alphabet, and lookups give exactly the indexes that
+ * {@link FeatureExtractor#extractFeatures} followed by an alphabet lookup would.
+ */
+@Immutable
+public class ConjoinedFeatureIndex {
+	public static final int NOT_FOUND = -1;
+	/** the conjunction id of unconjoined features */
+	public static final int NO_CONJUNCTION = 0;
+
+	private final TObjectIntHashMap<String> baseIds = new TObjectIntHashMap<String>();
+	private final TObjectIntHashMap<String> conjunctionIds = new TObjectIntHashMap<String>();
+	/** map from (baseId, conjunctionId) to the index of the conjoined feature */
+	private final TLongIntHashMap featureIdxs = new TLongIntHashMap();
+
+	public ConjoinedFeatureIndex(Map<String, Integer> featureIndex, FEDict frameElementsForFrame) {
+		for (String frame : frameElementsForFrame.getFrames()) {
+			for (String role : frameElementsForFrame.lookupFrameElements(frame)) {
+				internConjunction(role);
+				internConjunction(frame + "." + role);
+			}
+		}
+		for (Map.Entry<String, Integer> entry : featureIndex.entrySet()) {
+			final String feature = entry.getKey();
+			final int idx = entry.getValue();
+			featureIdxs.put(key(internBase(feature), NO_CONJUNCTION), idx);
+			for (int i = feature.indexOf('_'); i >= 0; i = feature.indexOf('_', i + 1)) {
+				final String suffix = feature.substring(i + 1);
+				if (conjunctionIds.containsKey(suffix)) {
+					featureIdxs.put(key(internBase(feature.substring(0, i)), conjunctionIds.get(suffix)), idx);
+				}
+			}
+		}
+		baseIds.trimToSize();
+		featureIdxs.trimToSize();
+	}
+
+	private void internConjunction(String conjunction) {
+		if (!conjunctionIds.containsKey(conjunction)) conjunctionIds.put(conjunction, conjunctionIds.size() + 1);
+	}
+
+	private int internBase(String base) {
+		if (!baseIds.containsKey(base)) baseIds.put(base, baseIds.size());
+		return baseIds.get(base);
+	}
+
+	private static long key(int baseId, int conjunctionId) {
+		return ((long) baseId << 32) | conjunctionId;
+	}
+
+	/** @return the id of the given base feature, or NOT_FOUND if no conjunction of it is in the alphabet */
+	public int getBaseId(String baseFeature) {
+		return baseIds.containsKey(baseFeature) ? baseIds.get(baseFeature) : NOT_FOUND;
+	}
+
+	/** @return the id of the given role or frame.role name, or NOT_FOUND if it's unknown */
+	public int getConjunctionId(String conjunction) {
+		return conjunctionIds.containsKey(conjunction) ? conjunctionIds.get(conjunction) : NOT_FOUND;
+	}
+
+	/** @return the index of baseFeature conjoined with conjunction, or NOT_FOUND if it's not in the alphabet */
+	public int getFeatureIdx(int baseId, int conjunctionId) {
+		if (baseId == NOT_FOUND || conjunctionId == NOT_FOUND) return NOT_FOUND;
+		final long key = key(baseId, conjunctionId);
+		return featureIdxs.containsKey(key) ? featureIdxs.get(key) : NOT_FOUND;
+	}
+
+	/** Looks up the ids of all the given base features */
+	public int[] getBaseIds(BaseFeatures baseFeatures) {
+		final int[] ids = new int[baseFeatures.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = getBaseId(baseFeatures.names.get(i));
+		}
+		return ids;
+	}
+
+	/**
+	 * Conjoins base features with the given frame and role, and looks up the indexes of the results.
+	 * Equivalent to conjoining by name and keeping the distinct features that are in the alphabet.
+	 *
+	 * @param baseFeatures the base features of a span
+	 * @param baseIds their ids, as given by {@link #getBaseIds}
+	 * @return the sorted, distinct feature indexes
+	 */
+	public int[] getFeatureIdxs(BaseFeatures baseFeatures, int[] baseIds, String frameName, String roleName) {
+		final int frameAndRoleId = getConjunctionId(frameName + "." + roleName);
+		final int roleId = getConjunctionId(roleName);
+		final int[] result = new int[3 * baseIds.length];
+		int n = 0;
+		for (int i = 0; i < baseIds.length; i++) {
+			final int baseId = baseIds[i];
+			if (baseId == NOT_FOUND) continue;
+			final ConjoinLevel level = baseFeatures.levels.get(i);
+			switch (level) {
+				case FRAME_AND_ROLE_NAME:
+					n = addIfFound(getFeatureIdx(baseId, frameAndRoleId), result, n);
+					//intentional fall through
+				case ROLE_NAME:
+					n = addIfFound(getFeatureIdx(baseId, roleId), result, n);
+				case NO_CONJOIN:
+					n = addIfFound(getFeatureIdx(baseId, NO_CONJUNCTION), result, n);
+				default:
+					break;
+			}
+		}
+		return distinct(result, n);
+	}
+
+	private static int addIfFound(int featureIdx, int[] result, int n) {
+		if (featureIdx == NOT_FOUND) return n;
+		result[n] = featureIdx;
+		return n + 1;
+	}
+
+	/** Sorts the first n elements of values and removes duplicates */
+	private static int[] distinct(int[] values, int n) {
+		Arrays.sort(values, 0, n);
+		int numDistinct = 0;
+		for (int i = 0; i < n; i++) {
+			if (numDistinct == 0 || values[i] != values[numDistinct - 1]) {
+				values[numDistinct++] = values[i];
+			}
+		}
+		return Arrays.copyOf(values, numDistinct);
+	}
+}
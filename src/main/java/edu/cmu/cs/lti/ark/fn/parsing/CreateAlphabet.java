@@ -24,87 +24,210 @@ package edu.cmu.cs.lti.ark.fn.parsing;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import edu.cmu.cs.lti.ark.util.FileUtil;
+import edu.cmu.cs.lti.ark.util.SerializedObjects;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.io.Files.readLines;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static edu.cmu.cs.lti.ark.fn.utils.BitOps.writeInt;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 
+/**
+ * Extracts the argument identification training features of every frame element line, in parallel, and writes
+ * the events, .spans and alphabet files, and optionally the frame features cache that
+ * {@link FrameFeaturesCache} would make from them, serialized and/or as {@link PackedFrameFeatures}.
+ *
+ * The frame element lines are split into consecutive shards, and each shard gets its own {@link DataPrep}.
+ * When generating an alphabet, each shard numbers features in the order it first sees them, and the shards'
+ * alphabets are merged in order at the end, so every feature gets the same index it would if one thread did
+ * all the lines.
+ */
 public class CreateAlphabet {
-	public static void main(String[] args) throws IOException {
-		FEFileName.feFilename = args[0];
-		FEFileName.tagFilename =  args[1];
-		FEFileName.eventFilename =  args[2];
-		FEFileName.alphafilename = args[3];
-		FEFileName.spanfilename = args[4];
-		boolean genAlpha = Boolean.parseBoolean(args[5]);
-		FEFileName.KBestParse = Integer.parseInt(args[6]);
-		FEFileName.KBestParseDirectory = args[7];
+	/** shards per thread, so a shard of long sentences doesn't hold everything up */
+	private static final int SHARDS_PER_THREAD = 4;
 
-		if(genAlpha) System.out.println("Generating alphabet too...");
+	private final List<String> tagLines;
+	private final List<String> feLines;
+	private final FEDict frameElementDict;
+	private final int kBestParses;
+	private final int numThreads;
 
-		final List<String> feLines = readLines(new File(FEFileName.feFilename), UTF_8);
-		final List<String> tagLines = readLines(new File(FEFileName.tagFilename), UTF_8);
-		run(genAlpha, tagLines, feLines);
-	}	
-	
-	// Used during testing with minimal IO
-	public static void setDataFileNames(String alphafilename,
-										String eventsFile,
-										String spansFile) throws FileNotFoundException {
-		FEFileName.alphafilename = alphafilename;
-		FEFileName.spanfilename = spansFile;
-		FEFileName.eventFilename = eventsFile;
-		DataPrep.featureIndex = DataPrep.readFeatureIndex(new File(FEFileName.alphafilename));
-		DataPrep.genAlpha = false;
-	}
+	/**
+	 * Usage: CreateAlphabet feFile tagFile eventsFile alphabetFile spansFile genAlpha kBestParses kBestParseDirectory
+	 *     [numThreads [frameFeaturesCacheFile [packedFeaturesFile]]]
+	 * Either cache file can be "null" to skip it.
+	 */
+	public static void main(String[] args) throws IOException, ExecutionException {
+		final String feFilename = args[0];
+		final String tagFilename = args[1];
+		final String eventFilename = args[2];
+		final String alphabetFilename = args[3];
+		final String spanFilename = args[4];
+		final boolean genAlpha = Boolean.parseBoolean(args[5]);
+		final int kBestParses = Integer.parseInt(args[6]);
+		// args[7], the directory of k-best parses, is unused
+		final int numThreads = args.length > 8 ? Integer.parseInt(args[8]) : Runtime.getRuntime().availableProcessors();
+		final String frameFeaturesCacheFilename = args.length > 9 && !args[9].equals("null") ? args[9] : null;
+		final String packedFeaturesFilename = args.length > 10 && !args[10].equals("null") ? args[10] : null;
+
+		if(genAlpha) System.out.println("Generating alphabet too...");
 
-	public static void run(boolean doGenerateAlphabet,
-						   List<String> tagLines,
-						   List<String> frameElementLines) throws IOException {
-		DataPrep.genAlpha = doGenerateAlphabet;
-		if(doGenerateAlphabet){
-			DataPrep.featureIndex = Maps.newHashMap();
-		} else if(DataPrep.featureIndex == null){
+		final List<String> feLines = readLines(new File(feFilename), UTF_8);
+		final List<String> tagLines = readLines(new File(tagFilename), UTF_8);
+		final CreateAlphabet createAlphabet =
+				new CreateAlphabet(tagLines, feLines, FEDict.getInstance(), kBestParses, numThreads);
+		final Map<String, Integer> featureIndex;
+		if (genAlpha) {
+			featureIndex = Maps.newHashMap();
+		} else {
 			System.err.println("Reading alphabet...");
 			long time = System.currentTimeMillis();
-			DataPrep.featureIndex = DataPrep.readFeatureIndex(new File(FEFileName.alphafilename));
+			featureIndex = DataPrep.readFeatureIndex(new File(alphabetFilename));
 			System.err.println("Read alphabet in "+(System.currentTimeMillis()-time) + " millis.");
 		}
-		final List<int[][][]> dataPoints = getDataPoints(tagLines, frameElementLines);
+		final List<Pair<FrameFeatures, List<String>>> trainData = createAlphabet.extract(featureIndex, genAlpha);
 		final long time = System.currentTimeMillis();
-		writeEvents(dataPoints, FEFileName.eventFilename);
+		writeEvents(trainData, eventFilename);
+		writeSpans(trainData, spanFilename);
 		System.err.println("Wrote events in " + (System.currentTimeMillis() - time) + " millis.");
-		if(doGenerateAlphabet){
-			DataPrep.writeFeatureIndex(FEFileName.alphafilename);
+		if (genAlpha) {
+			DataPrep.writeFeatureIndex(featureIndex, alphabetFilename);
+		}
+		if (frameFeaturesCacheFilename != null || packedFeaturesFilename != null) {
+			final ArrayList<FrameFeatures> frameFeaturesList = toFrameFeatures(trainData);
+			if (frameFeaturesCacheFilename != null) {
+				SerializedObjects.writeSerializedObject(frameFeaturesList, frameFeaturesCacheFilename);
+			}
+			if (packedFeaturesFilename != null) {
+				PackedFrameFeatures.write(frameFeaturesList, new File(packedFeaturesFilename));
+			}
+		}
+	}
+
+	/**
+	 * @param tagLines the parsed sentences
+	 * @param feLines the frame element lines to extract features for
+	 * @param frameElementDict the frame elements of each frame
+	 * @param kBestParses the number of parses to look for gold spans in
+	 * @param numThreads the number of threads to extract features with
+	 */
+	public CreateAlphabet(List<String> tagLines,
+						  List<String> feLines,
+						  FEDict frameElementDict,
+						  int kBestParses,
+						  int numThreads) {
+		this.tagLines = tagLines;
+		this.feLines = feLines;
+		this.frameElementDict = frameElementDict;
+		this.kBestParses = kBestParses;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Extracts the features of every frame element line.
+	 *
+	 * @param featureIndex the alphabet. If genAlpha is true, unseen features are added to it, otherwise they
+	 *                     get index 0
+	 * @return the features and .spans lines of each frame element line, from {@link DataPrep#getNextTrainData}
+	 */
+	public List<Pair<FrameFeatures, List<String>>> extract(Map<String, Integer> featureIndex, boolean genAlpha)
+			throws ExecutionException {
+		final int numShards = Math.max(1, Math.min(feLines.size(), numThreads * SHARDS_PER_THREAD));
+		final int shardSize = Math.max(1, (int) Math.ceil(feLines.size() / (double) numShards));
+		final List<List<String>> shards = Lists.partition(feLines, shardSize);
+		final ExecutorService threadPool = newFixedThreadPool(numThreads);
+		try {
+			final List<Future<Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>>>> results =
+					Lists.newArrayList();
+			for (int i = 0; i < shards.size(); i++) {
+				// shards share a fixed alphabet, but each grows its own
+				final Map<String, Integer> shardIndex = genAlpha ? Maps.<String, Integer>newHashMap() : featureIndex;
+				results.add(threadPool.submit(newJob(shards.get(i), i * shardSize, shardIndex, genAlpha)));
+			}
+			final List<Pair<FrameFeatures, List<String>>> trainData = Lists.newArrayListWithCapacity(feLines.size());
+			for (Future<Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>>> result : results) {
+				final Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>> shard =
+						getUninterruptibly(result);
+				if (genAlpha) mergeFeatureIndex(shard.first, shard.second, featureIndex);
+				trainData.addAll(shard.first);
+				System.err.println("Extracted features for " + trainData.size() + " of " + feLines.size() + " lines");
+			}
+			return trainData;
+		} finally {
+			threadPool.shutdownNow();
+		}
+	}
+
+	private Callable<Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>>> newJob(
+			final List<String> shard,
+			final int firstFeIndex,
+			final Map<String, Integer> featureIndex,
+			final boolean genAlpha) {
+		return new Callable<Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>>>() {
+			@Override public Pair<List<Pair<FrameFeatures, List<String>>>, Map<String, Integer>> call() {
+				final DataPrep dataPrep =
+						new DataPrep(tagLines, shard, firstFeIndex, frameElementDict, kBestParses, featureIndex, genAlpha);
+				final List<Pair<FrameFeatures, List<String>>> trainData = Lists.newArrayListWithCapacity(shard.size());
+				while (dataPrep.hasNext()) {
+					trainData.add(dataPrep.getNextTrainData());
+				}
+				return Pair.of(trainData, featureIndex);
+			}
+		};
+	}
+
+	/**
+	 * Adds the features of a shard's alphabet to featureIndex, in the shard's order, and renumbers the shard's
+	 * features to match
+	 */
+	private static void mergeFeatureIndex(List<Pair<FrameFeatures, List<String>>> shardData,
+										  Map<String, Integer> shardIndex,
+										  Map<String, Integer> featureIndex) {
+		final String[] features = new String[shardIndex.size() + 1];
+		for (Map.Entry<String, Integer> entry : shardIndex.entrySet()) features[entry.getValue()] = entry.getKey();
+		final int[] newIndex = new int[features.length];
+		for (int i = 1; i < features.length; i++) {
+			DataPrep.addFeature(features[i], featureIndex);
+			newIndex[i] = featureIndex.get(features[i]);
+		}
+		for (Pair<FrameFeatures, List<String>> frameFeaturesAndSpanLines : shardData) {
+			for (SpanAndCorrespondingFeatures[] spans : frameFeaturesAndSpanLines.first.fElementSpansAndFeatures) {
+				for (SpanAndCorrespondingFeatures span : spans) {
+					for (int i = 0; i < span.features.length; i++) span.features[i] = newIndex[span.features[i]];
+				}
+			}
 		}
 	}
 
-	public static void writeEvents(List<int[][][]> dataPoints, String eventFilename) {
+	/** Writes the features of each role's candidate spans, gold span first, as ints separated by -1s */
+	public static void writeEvents(List<Pair<FrameFeatures, List<String>>> trainData, String eventFilename) {
 		BufferedOutputStream eventOutputStream = new BufferedOutputStream(FileUtil.openOutFile(eventFilename));
 		try  {
-			int fCount = 0;
-			for(int[][][] dataPoint : dataPoints) {
-				System.err.print(".");
-				if(fCount % 100 == 0){
-					System.err.println(fCount);
-				}
-				for (int[][] aDataPoint : dataPoint) {
-					for (int[] anADataPoint : aDataPoint) {
-						for (int anAnADataPoint : anADataPoint) {
-							writeInt(anAnADataPoint, eventOutputStream);
+			for (Pair<FrameFeatures, List<String>> frameFeaturesAndSpanLines : trainData) {
+				for (SpanAndCorrespondingFeatures[] spans : frameFeaturesAndSpanLines.first.fElementSpansAndFeatures) {
+					for (SpanAndCorrespondingFeatures span : spans) {
+						for (int feature : span.features) {
+							writeInt(feature, eventOutputStream);
 						}
 						writeInt(-1, eventOutputStream);
 					}
 					writeInt(-1, eventOutputStream);
 				}
-				fCount++;
 			}
 			writeInt(-1, eventOutputStream);
 		} finally {
@@ -112,13 +235,33 @@ public class CreateAlphabet {
 		}
 	}
 
-	public static List<int[][][]> getDataPoints(List<String> tagLines, List<String> frameElementLines)
-			throws IOException {
-		final DataPrep dataPrep = new DataPrep(tagLines, frameElementLines);
-		final List<int[][][]> dataPoints = Lists.newArrayList();
-		while(dataPrep.hasNext()){
-			dataPoints.add(dataPrep.getNextTrainData());
+	/** Writes the .spans file, which is later used to recover frame parse after prediction */
+	public static void writeSpans(List<Pair<FrameFeatures, List<String>>> trainData, String spanFilename) {
+		final PrintStream ps = FileUtil.openOutFile(spanFilename);
+		try {
+			for (Pair<FrameFeatures, List<String>> frameFeaturesAndSpanLines : trainData) {
+				for (String spanLine : frameFeaturesAndSpanLines.second) ps.println(spanLine);
+			}
+		} finally {
+			closeQuietly(ps);
+		}
+	}
+
+	/**
+	 * Sorts each role's candidate spans and records where its gold span ended up, like {@link LocalFeatureReading}
+	 * does when it reads the events and .spans files back in. Sorts in place, so write the events first.
+	 */
+	public static ArrayList<FrameFeatures> toFrameFeatures(List<Pair<FrameFeatures, List<String>>> trainData) {
+		final ArrayList<FrameFeatures> frameFeaturesList = Lists.newArrayListWithCapacity(trainData.size());
+		for (Pair<FrameFeatures, List<String>> frameFeaturesAndSpanLines : trainData) {
+			final FrameFeatures frameFeatures = frameFeaturesAndSpanLines.first;
+			for (SpanAndCorrespondingFeatures[] spans : frameFeatures.fElementSpansAndFeatures) {
+				final SpanAndCorrespondingFeatures goldSpan = spans[0];
+				Arrays.sort(spans);
+				frameFeatures.goldSpanIdxs.add(Arrays.binarySearch(spans, goldSpan));
+			}
+			frameFeaturesList.add(frameFeatures);
 		}
-		return dataPoints;
+		return frameFeaturesList;
 	}
 }
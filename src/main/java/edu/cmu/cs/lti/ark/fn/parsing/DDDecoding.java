@@ -624,16 +624,12 @@ public class DDDecoding implements JDecoding {
 		double dualObjBest = Double.MAX_VALUE;
 		double primalRelObjBest = -Double.MAX_VALUE;
 				
+		// each slave only reads and writes its own parts of its rows
 		double[][] zs = new double[slavelen][len];
 		double[][] lambdas = new double[slavelen][len];
 		double[] u = new double[len];
+		double[] oldus = new double[len];
 		Arrays.fill(u, 0.5);
-		for (int i = 0; i < slavelen; i++) {
-			lambdas[i] = new double[len];
-			Arrays.fill(lambdas[i], 0.0);
-			zs[i] = new double[len];
-			Arrays.fill(zs[i], 0.0);
-		}			
 		double rho = RHO_START;
 		for (int itr = 0; itr < niters; itr++) {
 			// System.out.println("Rho: " + rho);
@@ -641,10 +637,10 @@ public class DDDecoding implements JDecoding {
 			// System.out.println("Eta: " + eta);
 			// making z-update
 			for (int s = 0; s < slavelen; s++) {
-				zs[s] = slaves[s].makeZUpdate(thetas, rho, u, lambdas[s], zs[s]);
+				slaves[s].makeZUpdate(thetas, rho, u, lambdas[s], zs[s]);
 			}
 			// making u update
-			double[] oldus = Arrays.copyOf(u, u.length);
+			System.arraycopy(u, 0, oldus, 0, len);
 			for (int i = 0; i < len; i++) {
 				double sum = 0.0;
 				for (int j = 0; j < partslaves[i].length; j++) {
@@ -811,6 +807,10 @@ public class DDDecoding implements JDecoding {
 		}
 	}
 
+	public boolean isWritingFactors() {
+		return WRITE_FACTORS_TO_FILE;
+	}
+
 	@Override
 	public void setFlag(String flag) {
 		// TODO Auto-generated method stub
@@ -23,6 +23,7 @@ package edu.cmu.cs.lti.ark.fn.parsing;
 
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Throwables;
 import com.google.common.collect.*;
 import edu.cmu.cs.lti.ark.util.FileUtil;
 import edu.cmu.cs.lti.ark.util.ds.Scored;
@@ -30,9 +31,11 @@ import org.pcollections.HashTreePMap;
 import org.pcollections.PMap;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static com.google.common.collect.ImmutableList.copyOf;
 import static com.google.common.collect.Iterables.transform;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
 import static edu.cmu.cs.lti.ark.util.ds.Scored.scored;
 import static java.lang.Integer.parseInt;
 import static java.lang.Math.min;
@@ -109,7 +112,8 @@ public class Decoding {
 			}
 		}
 
-		private Map<String, Span> getNonNullAssignments() {
+		/** The roles that are filled, and their spans */
+		public Map<String, Span> getNonNullAssignments() {
 			return nonNullAssignments;
 		}
 
@@ -144,6 +148,10 @@ public class Decoding {
 		return new Decoding(readModel(modelFile, alphabetFile));
 	}
 
+	public double[] getModelWeights() {
+		return modelWeights;
+	}
+
 	protected static double[] readModel(String modelFile, String alphabetFile) {
 		final Scanner localsc = FileUtil.openInFile(alphabetFile);
 		final int numLocalFeatures;
@@ -167,19 +175,112 @@ public class Decoding {
 	public List<String> decodeAll(List<FrameFeatures> frameFeaturesList, List<String> frameLines, int offset, int kBestOutput) {
 		final ArrayList<String> results = new ArrayList<String>();
 		for(int i = 0; i < frameFeaturesList.size(); i++) {
-			final FrameFeatures frameFeatures = frameFeaturesList.get(i);
-			final String initialDecisionLine = getInitialDecisionLine(frameLines.get(i), offset);
-			final List<Scored<RoleAssignments>> predictions = getPredictions(frameFeatures, kBestOutput);
-			final List<String> predictionLines = Lists.newArrayList();
-			for(int j = 0; j < predictions.size(); j++) {
-				final Scored<RoleAssignments> prediction = predictions.get(j);
-				predictionLines.add(formatPrediction(j, initialDecisionLine, prediction.value, prediction.score));
+			results.add(decode(frameFeaturesList.get(i), frameLines.get(i), offset, kBestOutput));
+		}
+		return results;
+	}
+
+	/**
+	 * Like {@link #decodeAll(java.util.List, java.util.List, int, int)}, but decodes the frames in parallel on
+	 * <code>executor</code>. Results are in the same order as <code>frameFeaturesList</code>.
+	 * The calling thread decodes any frames that the executor hasn't gotten to yet, so this is safe to call from
+	 * one of <code>executor</code>'s own threads.
+	 */
+	public List<String> decodeAll(final List<FrameFeatures> frameFeaturesList,
+								  final List<String> frameLines,
+								  final int offset,
+								  final int kBestOutput,
+								  Executor executor) {
+		if (frameFeaturesList.size() < 2 || !canDecodeInParallel()) {
+			return decodeAll(frameFeaturesList, frameLines, offset, kBestOutput);
+		}
+		final List<Callable<String>> tasks = Lists.newArrayListWithExpectedSize(frameFeaturesList.size());
+		for (int i = 0; i < frameFeaturesList.size(); i++) {
+			final int index = i;
+			tasks.add(new Callable<String>() {
+				@Override public String call() {
+					return decode(frameFeaturesList.get(index), frameLines.get(index), offset, kBestOutput);
+				} });
+		}
+		return callAll(tasks, executor);
+	}
+
+	/**
+	 * Finds the k-best role assignments of each frame, without formatting them as prediction lines.
+	 * Results are in the same order as <code>frameFeaturesList</code>.
+	 */
+	public List<List<Scored<RoleAssignments>>> getAllPredictions(List<FrameFeatures> frameFeaturesList,
+																 int kBestOutput) {
+		final List<List<Scored<RoleAssignments>>> results = Lists.newArrayListWithExpectedSize(frameFeaturesList.size());
+		for (FrameFeatures frameFeatures : frameFeaturesList) {
+			results.add(getPredictions(frameFeatures, kBestOutput));
+		}
+		return results;
+	}
+
+	/**
+	 * Like {@link #getAllPredictions(java.util.List, int)}, but decodes the frames in parallel on
+	 * <code>executor</code>, the same way {@link #decodeAll(List, List, int, int, Executor)} does.
+	 */
+	public List<List<Scored<RoleAssignments>>> getAllPredictions(final List<FrameFeatures> frameFeaturesList,
+																 final int kBestOutput,
+																 Executor executor) {
+		if (frameFeaturesList.size() < 2 || !canDecodeInParallel()) {
+			return getAllPredictions(frameFeaturesList, kBestOutput);
+		}
+		final List<Callable<List<Scored<RoleAssignments>>>> tasks =
+				Lists.newArrayListWithExpectedSize(frameFeaturesList.size());
+		for (final FrameFeatures frameFeatures : frameFeaturesList) {
+			tasks.add(new Callable<List<Scored<RoleAssignments>>>() {
+				@Override public List<Scored<RoleAssignments>> call() {
+					return getPredictions(frameFeatures, kBestOutput);
+				} });
+		}
+		return callAll(tasks, executor);
+	}
+
+	/** Runs the tasks on executor, helping out from the calling thread, and returns their results in order */
+	private static <T> List<T> callAll(List<Callable<T>> callables, Executor executor) {
+		final List<FutureTask<T>> tasks = Lists.newArrayListWithExpectedSize(callables.size());
+		for (Callable<T> callable : callables) {
+			final FutureTask<T> task = new FutureTask<T>(callable);
+			tasks.add(task);
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException e) {
+				// executor is full or shut down. we'll run it ourselves below
+			}
+		}
+		// help out instead of just waiting. running a task that's already started or finished is a no-op
+		for (FutureTask<T> task : tasks) task.run();
+		final ArrayList<T> results = new ArrayList<T>(tasks.size());
+		for (FutureTask<T> task : tasks) {
+			try {
+				results.add(getUninterruptibly(task));
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
 			}
-			results.add(Joiner.on("\n").join(predictionLines));
 		}
 		return results;
 	}
 
+	/** Whether frames can safely be decoded concurrently by {@link #decode} */
+	protected boolean canDecodeInParallel() {
+		return true;
+	}
+
+	/** Decodes a single frame, returning its k-best prediction lines joined by newlines */
+	public String decode(FrameFeatures frameFeatures, String frameLine, int offset, int kBestOutput) {
+		final String initialDecisionLine = getInitialDecisionLine(frameLine, offset);
+		final List<Scored<RoleAssignments>> predictions = getPredictions(frameFeatures, kBestOutput);
+		final List<String> predictionLines = Lists.newArrayList();
+		for(int j = 0; j < predictions.size(); j++) {
+			final Scored<RoleAssignments> prediction = predictions.get(j);
+			predictionLines.add(formatPrediction(j, initialDecisionLine, prediction.value, prediction.score));
+		}
+		return Joiner.on("\n").join(predictionLines);
+	}
+
 	private String formatPrediction(int rank, String initialDecisionLine, RoleAssignments assignments, double score) {
 		return TAB_JOINER.join(
 				rank,
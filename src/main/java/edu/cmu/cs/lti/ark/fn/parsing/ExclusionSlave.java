@@ -22,28 +22,32 @@
 
 package edu.cmu.cs.lti.ark.fn.parsing;
 
-import java.util.Arrays;
-import java.util.Collections;
-
 import edu.cmu.cs.lti.ark.fn.utils.BitOps;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 
 public class ExclusionSlave implements Slave {
-
 	public double[] mObjVals;
 	public int[] mIndices;
 	public double[] oldAs;
 	public double[] oldZs;
-	
+	private boolean hasCache;
+	// scratch space, reused on every iteration
+	private final double[] as;
+	private final double[] localZs;
+	private final double[] sorted;
 	
 	public ExclusionSlave(double[] objVals, 
 						  int[] indices) {
 		mObjVals = objVals;
 		mIndices = indices;
-		oldAs = null;
-		oldZs = null;
+		oldAs = new double[indices.length];
+		oldZs = new double[indices.length];
+		hasCache = false;
+		as = new double[indices.length];
+		localZs = new double[indices.length];
+		sorted = new double[indices.length];
 	}
-
+	
 	@Override
 	public void setObjVals(double[] objVals) {
 		mObjVals = objVals;
@@ -60,77 +64,50 @@ public class ExclusionSlave implements Slave {
 		}	
 		return value;
 	}
-	
+
 	// OR factor
-	public double[] makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas,
+	public void makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas,
 			double[] zs) {
 		setObjVals(objVals);
-		double[] as = new double[mIndices.length];
-		for (int i = 0; i < as.length; i++) {
-			double a = us[mIndices[i]] + 
-					   (1.0 / rho) * (mObjVals[mIndices[i]] + lambdas[mIndices[i]]);
-			as[i] = a;
+		for (int i = 0; i < mIndices.length; i++) {
+			as[i] = us[mIndices[i]] + (1.0 / rho) * (mObjVals[mIndices[i]] + lambdas[mIndices[i]]);
 		}
 		if (checkEquals(as)) {
-			return oldZs;
+			scatter(oldZs, zs);
+			return;
 		}
-		double[] updZs = new double[mObjVals.length];
-		Arrays.fill(updZs, 0);
 		double sum = 0.0;
 		for (int i = 0; i < mIndices.length; i++) {
-			updZs[mIndices[i]] = Math.min(1.0, Math.max(as[i], 0));
-			sum += updZs[mIndices[i]];
+			localZs[i] = Math.min(1.0, Math.max(as[i], 0));
+			sum += localZs[i];
 		}
 		if (sum >= 1.0) {
-			return updZs;
-		}		
-		Double[] bs = new Double[as.length];
-		for (int i = 0; i < bs.length; i++) {
-			bs[i] = as[i];
+			scatter(localZs, zs);
+			return;
 		}
-		Arrays.sort(bs, Collections.reverseOrder());
-		double[] sums = new double[as.length];
-		Arrays.fill(sums, 0);
-		sums[0] = bs[0];
-		for (int i = 1; i < as.length; i++) {
-			sums[i] = sums[i-1] + bs[i];
-		}
-		int tempRho = -1;
-		for (int i = 0; i < as.length; i++) {
-			double temp = bs[i] - (1.0 / (double)(i+1)) * (sums[i] - 1.0);
-			if (temp > 0) {
-				if (i > tempRho) {
-					tempRho = i;
-				}
-			}
-		}
-		if (tempRho == -1) {
-			System.out.println("Problem. tempRho is -1");
-			System.exit(-1);
+		final double tau = SimplexProjection.threshold(as, sorted);
+		for (int i = 0; i < mIndices.length; i++) {
+			localZs[i] = Math.max(as[i] - tau, 0);
 		}
-		double tau = (1.0 / (double)(tempRho+1)) * (sums[tempRho] - 1.0);
-		Arrays.fill(updZs, 0);
-		sum = 0.0;
+		cache(as, localZs);
+		scatter(localZs, zs);
+	}
+
+	private void scatter(double[] local, double[] zs) {
 		for (int i = 0; i < mIndices.length; i++) {
-			updZs[mIndices[i]] = Math.max(as[i] - tau, 0);
-			sum += updZs[mIndices[i]];
+			zs[mIndices[i]] = local[i];
 		}
-		cache(as, updZs);
-		return updZs;
 	}
-	
+
 	@Override
 	public void cache(double[] as, double[] zs) {
-		oldAs = Arrays.copyOf(as, as.length);
-		oldZs = Arrays.copyOf(zs, zs.length);
+		System.arraycopy(as, 0, oldAs, 0, oldAs.length);
+		System.arraycopy(zs, 0, oldZs, 0, oldZs.length);
+		hasCache = true;
 	}
 	
 	@Override
 	public boolean checkEquals(double[] as) {
-		// TODO Auto-generated method stub
-		if (oldAs == null) {
-			return false;
-		}
-		return BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
+		return hasCache && BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
 	}
-}
\ No newline at end of file
+}
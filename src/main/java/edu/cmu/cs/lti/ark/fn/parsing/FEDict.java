@@ -28,6 +28,7 @@ import gnu.trove.THashSet;
 
 import java.io.*;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A map from frames to their frame elements
@@ -84,6 +85,11 @@ public class FEDict {
 		} catch (Exception e) { throw new LoadingException(e); }
 	}
 
+	/** Get all the frames that have frame elements */
+	public Set<String> getFrames() {
+		return frameElementsForFrame.keySet();
+	}
+
 	/**
 	 * Get the frame elements for the given frame
 	 * @param frame the frame to look up
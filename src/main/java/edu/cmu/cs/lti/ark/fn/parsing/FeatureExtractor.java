@@ -23,6 +23,7 @@ package edu.cmu.cs.lti.ark.fn.parsing;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multiset;
 import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
@@ -93,20 +94,55 @@ public class FeatureExtractor {
 		}
 	}
 
+	/**
+	 * Features of a candidate span that have not yet been conjoined with frame and role names, each with the
+	 * level at which it should be conjoined.
+	 * None of them depend on the role, so they can be extracted once per span and conjoined for each role.
+	 */
+	public static class BaseFeatures {
+		final List<String> names = Lists.newArrayList();
+		final List<ConjoinLevel> levels = Lists.newArrayList();
+
+		void add(String featureName, ConjoinLevel level) {
+			names.add(featureName);
+			levels.add(level);
+		}
+
+		public int size() {
+			return names.size();
+		}
+
+		/** Conjoins every feature with the frame and role names, as {@link #conjoinAndAdd} does */
+		public Multiset<String> conjoin(String frameName, String roleName) {
+			final Multiset<String> featureMap = HashMultiset.create();
+			final String frameAndRoleName = frameName + "." + roleName;
+			for (int i = 0; i < names.size(); i++) {
+				conjoinAndAdd(names.get(i), frameAndRoleName, roleName, levels.get(i), featureMap);
+			}
+			return featureMap;
+		}
+	}
+
 	public Multiset<String> extractFeatures(DataPointWithFrameElements dp,
 											String frameName,
 											String roleName,
 											final Range0Based fillerSpanRange,
 											DependencyParse parse) {
-		final Multiset<String> featureMap = HashMultiset.create();
-		final String frameAndRoleName = frameName + "." + roleName;
+		return extractBaseFeatures(dp, fillerSpanRange, parse).conjoin(frameName, roleName);
+	}
+
+	/** Extracts the features of the given candidate span, before conjoining them with frame and role names */
+	public BaseFeatures extractBaseFeatures(DataPointWithFrameElements dp,
+											final Range0Based fillerSpanRange,
+											DependencyParse parse) {
+		final BaseFeatures features = new BaseFeatures();
 		int[] targetTokenNums = dp.getTargetTokenIdxs();
 		final DependencyParse[] nodes = parse.getIndexSortedListOfNodes();
 		final DependencyParse targetHeadNode = DependencyParse.getHeuristicHead(nodes, targetTokenNums);
 
 		final boolean isEmpty = isEmptySpan(fillerSpanRange);
 		String overtness = isEmpty ? "NULL" : "OVERT";
-		conjoinAndAdd(overtness, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);	// overtness of the role
+		features.add(overtness, FRAME_AND_ROLE_NAME);	// overtness of the role
 		
 		String nullness = isEmpty ? "NULL_" : "";
 		for (int targetTokenNum : targetTokenNums) {
@@ -114,28 +150,28 @@ public class FeatureExtractor {
 			final Voice voice = findVoice(node);
 			final String lemma = node.getLemma();
 			final String feature = nullness + "targetLemma_" + lemma;
-			conjoinAndAdd(feature, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
-			conjoinAndAdd(UNDERSCORE.join(feature, voice.name), frameAndRoleName, roleName, ROLE_NAME, featureMap);
-			conjoinAndAdd(nullness + "targetPOS_" + node.getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+			features.add(feature, FRAME_AND_ROLE_NAME);
+			features.add(UNDERSCORE.join(feature, voice.name), ROLE_NAME);
+			features.add(nullness + "targetPOS_" + node.getPOS(), FRAME_AND_ROLE_NAME);
 		}
 
 		final List<DependencyParse> tgtChildren = targetHeadNode.getChildren();
-		conjoinAndAdd(nullness + "NCHILDREN_" + tgtChildren.size(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);	// number of children
+		features.add(nullness + "NCHILDREN_" + tgtChildren.size(), FRAME_AND_ROLE_NAME);	// number of children
 
 		// Dependency subcategorization
 		String dsubcat = "";
 		if (tgtChildren.size() > 0) {
 			for (DependencyParse dpn : tgtChildren) {
 				dsubcat += dpn.getLabelType() + "_";
-				conjoinAndAdd(nullness + "SUBCAT_" + dpn.getLabelType(), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				features.add(nullness + "SUBCAT_" + dpn.getLabelType(), ROLE_NAME);
 			}
-			conjoinAndAdd(nullness + "SUBCATSEQ" + dsubcat, frameAndRoleName, roleName, ROLE_NAME, featureMap);
+			features.add(nullness + "SUBCATSEQ" + dsubcat, ROLE_NAME);
 		}
 
 		if (!isEmpty) { // null span
 			 // lemma, POS tag, voice, and relative position (with respect to target)
 			 // of each word in the candidate span
-			extractChildPOSFeatures(featureMap, dp, nodes, fillerSpanRange, frameAndRoleName, roleName);
+			extractChildPOSFeatures(features, dp, nodes, fillerSpanRange);
 			final DependencyParse fillerHeadNode = DependencyParse.getHeuristicHead(
 					nodes, fillerSpanRange);
 			final List<Pair<String, DependencyParse>> targetToFillerPath =
@@ -159,19 +195,19 @@ public class FeatureExtractor {
 				//relative position of the span with respect to the target
 				
 				//does the span overlap with target
-				conjoinAndAdd("O_W_T", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+				features.add("O_W_T", FRAME_AND_ROLE_NAME);
 				if (targetTokenNums.length > 1) {
 					if ((spanStart < targetStart && spanEnd < targetEnd)
 							|| (spanStart > targetStart && spanEnd > targetEnd)) {
 						//does the span cross the target
-						conjoinAndAdd("CROS_TAR", frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+						features.add("CROS_TAR", NO_CONJOIN);
 					}
 				}
 			} else {
 				// distance between nearest words of span and target
 				String dist = getDistToTarget(targetStart, targetEnd, spanStart, spanEnd);
 				String feature = "dist_" + dist;
-				conjoinAndAdd(feature, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+				features.add(feature, NO_CONJOIN);
 				if (dist.charAt(0) == '-') {
 					//span is left to target
 					feature = "LEFTTAR";
@@ -179,13 +215,13 @@ public class FeatureExtractor {
 					//span is right to target
 					feature = "RIGHTTAR";
 				}
-				conjoinAndAdd(feature, frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+				features.add(feature, FRAME_AND_ROLE_NAME);
 				int targetMidpoint = (targetStart + targetEnd) / 2;
 				int feMidpoint = (spanStart + spanEnd) / 2;
 				//distance between words in the middle
 				//of target span and candidate span
 				feature = "midDist_" + getDistToTarget(targetMidpoint, targetMidpoint, feMidpoint, feMidpoint);
-				conjoinAndAdd(feature, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+				features.add(feature, NO_CONJOIN);
 			}
 
 			if (pathSize <= 7) {
@@ -214,22 +250,22 @@ public class FeatureExtractor {
 						+ targetToFillerPath.get(0).second.getPOS()
 						+ "> ...";
 			}
-			conjoinAndAdd("depPath_" + depTypePath, frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("pathLength_" + quantizeLength(pathSize), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			features.add("depPath_" + depTypePath, NO_CONJOIN);
+			features.add("pathLength_" + quantizeLength(pathSize), NO_CONJOIN);
 
 			// head word
 			// left and right most dependents
 			List<DependencyParse> children = fillerHeadNode.getChildren();
-			conjoinAndAdd("headLemma_" + fillerHeadNode.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("headPOS_" + fillerHeadNode.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-			conjoinAndAdd("headLabel_" + fillerHeadNode.getLabelType(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			features.add("headLemma_" + fillerHeadNode.getLemma(), NO_CONJOIN);
+			features.add("headPOS_" + fillerHeadNode.getPOS(), NO_CONJOIN);
+			features.add("headLabel_" + fillerHeadNode.getLabelType(), NO_CONJOIN);
 			if (children.size() > 0) {
 				final DependencyParse firstChild = children.get(0);
 				final DependencyParse lastChild = children.get(children.size() - 1);
-				conjoinAndAdd("leftLemma_" + firstChild.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("leftPOS_" + firstChild.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("rightLemma_" + lastChild.getLemma(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
-				conjoinAndAdd("rightPOS_" + lastChild.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+				features.add("leftLemma_" + firstChild.getLemma(), NO_CONJOIN);
+				features.add("leftPOS_" + firstChild.getPOS(), NO_CONJOIN);
+				features.add("rightLemma_" + lastChild.getLemma(), NO_CONJOIN);
+				features.add("rightPOS_" + lastChild.getPOS(), NO_CONJOIN);
 			}
 			
 			// word/POS/dependency type of 1st,  FrameAndRoleNamend, last word in the span
@@ -237,33 +273,30 @@ public class FeatureExtractor {
 			int endNode = new Range1Based(fillerSpanRange).end;
 
 			if (isClosedClass(nodes[startNode].getPOS()))
-				conjoinAndAdd("w[0]pos[0]_" + nodes[startNode].getWord()
-						+ " " + nodes[startNode].getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
-			conjoinAndAdd("dep[0]_" + nodes[startNode].getLabelType(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+				features.add("w[0]pos[0]_" + nodes[startNode].getWord()
+						+ " " + nodes[startNode].getPOS(), FRAME_AND_ROLE_NAME);
+			features.add("dep[0]_" + nodes[startNode].getLabelType(), FRAME_AND_ROLE_NAME);
 
 			if (endNode - startNode > 0) {
 				if (isClosedClass(nodes[startNode + 1].getPOS()))
-					conjoinAndAdd("w[1]pos[1]_"
+					features.add("w[1]pos[1]_"
 							+ nodes[startNode + 1].getWord() + " "
-							+ nodes[startNode + 1].getPOS(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-					);
-				conjoinAndAdd("dep[1]_" + nodes[startNode + 1].getLabelType(), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+							+ nodes[startNode + 1].getPOS(), FRAME_AND_ROLE_NAME);
+				features.add("dep[1]_" + nodes[startNode + 1].getLabelType(), FRAME_AND_ROLE_NAME);
 				if (endNode - startNode > 1) {
 					if (isClosedClass(nodes[endNode].getPOS()))
-						conjoinAndAdd("w[-1]pos[-1]_"
+						features.add("w[-1]pos[-1]_"
 								+ nodes[endNode].getWord() + " "
-								+ nodes[endNode].getPOS() + "_", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-						);
-					conjoinAndAdd("dep[-1]_"
-							+ nodes[endNode].getLabelType() + "_", frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap
-					);
+								+ nodes[endNode].getPOS() + "_", FRAME_AND_ROLE_NAME);
+					features.add("dep[-1]_"
+							+ nodes[endNode].getLabelType() + "_", FRAME_AND_ROLE_NAME);
 				}
 			}
 			
 			// length of the filler span
-			conjoinAndAdd("len_" + quantizeLength(endNode - startNode + 1), frameAndRoleName, roleName, FRAME_AND_ROLE_NAME, featureMap);
+			features.add("len_" + quantizeLength(endNode - startNode + 1), FRAME_AND_ROLE_NAME);
 		}
-		return featureMap;
+		return features;
 	}
 
 	public static String quantizeLength(int numWords) {
@@ -315,12 +348,10 @@ public class FeatureExtractor {
 	 * lemma ,POS tag ,voice and relative position(with respect to target)
 	 * of each word in the candidate span
 	 */
-	private void extractChildPOSFeatures(Multiset<String> featureMap,
+	private void extractChildPOSFeatures(BaseFeatures features,
 										 DataPointWithFrameElements dp,
 										 DependencyParse[] nodes,
-										 final Range0Based fillerSpanRange,
-										 String frameAndRoleName,
-										 String roleName) {
+										 final Range0Based fillerSpanRange) {
 		int targetStart = dp.getTargetTokenIdxs()[0];
 		int targetEnd = dp.getTargetTokenIdxs()[dp.getTargetTokenIdxs().length - 1];
 		//for each word in the frame element span
@@ -331,12 +362,12 @@ public class FeatureExtractor {
 			final Voice voice = findVoice(node);
 			//lemma of the word
 			final String lemma = node.getLemma();
-			conjoinAndAdd("ltok_" + lemma, frameAndRoleName, roleName, ROLE_NAME, featureMap);
+			features.add("ltok_" + lemma, ROLE_NAME);
 			//POS tag of the word
-			conjoinAndAdd("POS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			features.add("POS_" + node.getPOS(), NO_CONJOIN);
 			if (!voice.equals(Voice.NO_VOICE)) {
 				//lemma and voice of the token
-				conjoinAndAdd(UNDERSCORE.join("Voice", lemma, voice.name), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				features.add(UNDERSCORE.join("Voice", lemma, voice.name), ROLE_NAME);
 				String before;
 				if (i < targetStart) {
 					before = "B4_TARGET";
@@ -347,20 +378,20 @@ public class FeatureExtractor {
 				}
 				//is the word before or after the frame evoking word
 				//+ voice + lemma of the word
-				conjoinAndAdd(UNDERSCORE.join("Voice", lemma, voice.name, before), frameAndRoleName, roleName, ROLE_NAME, featureMap);
+				features.add(UNDERSCORE.join("Voice", lemma, voice.name, before), ROLE_NAME);
 			}
 		}
 		// up to 3 preceding POS tags
 		for (int i = max(0, start - 3); i < start; i++) {
 			final DependencyParse node = nodes[i + 1];
-			conjoinAndAdd("pPOS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			features.add("pPOS_" + node.getPOS(), NO_CONJOIN);
 		}
 		// up to 3 following POS tags
 		for (int i = end +  1; i <= end + 3; i++) {
 			if (i >= nodes.length - 1)
 				break;
 			final DependencyParse node = nodes[i + 1];
-			conjoinAndAdd("nPOS_" + node.getPOS(), frameAndRoleName, roleName, NO_CONJOIN, featureMap);
+			features.add("nPOS_" + node.getPOS(), NO_CONJOIN);
 		}
 	}
 
@@ -40,6 +40,11 @@ public class FrameFeaturesCache {
 		final List<String> frameLines = Files.readLines(new File(frFile), Charsets.UTF_8);
 		final LocalFeatureReading lfr = new LocalFeatureReading(eventsFile, spanFile, frameLines);
 		final List<FrameFeatures> frameFeaturesList = lfr.readLocalFeatures();
-		SerializedObjects.writeSerializedObject(frameFeaturesList, opts.frameFeaturesCacheFile.get());
+		if (opts.frameFeaturesCacheFile.present()) {
+			SerializedObjects.writeSerializedObject(frameFeaturesList, opts.frameFeaturesCacheFile.get());
+		}
+		if (opts.packedFeaturesFile.present()) {
+			PackedFrameFeatures.write(frameFeaturesList, new File(opts.packedFeaturesFile.get()));
+		}
 	}	
 }
@@ -74,6 +74,17 @@ public class JointDecoding extends Decoding {
 		return result;
 	}
 
+	@Override
+	public String decode(FrameFeatures frameFeatures, String frameLine, int offset, int kBestOutput) {
+		return getNonOverlappingDecision(frameFeatures, frameLine, offset, false);
+	}
+
+	/** Factors are written to a single file as they're decoded, so that has to happen one frame at a time */
+	@Override
+	protected boolean canDecodeInParallel() {
+		return jd == null || !jd.isWritingFactors();
+	}
+
 	public String decode(List<FrameFeatures> frameFeaturesList, List<String> frameLines, int index, int offset, boolean returnScores) {
 		FrameFeatures f = frameFeaturesList.get(index);
 		return getNonOverlappingDecision(f, frameLines.get(index), offset, returnScores);
@@ -0,0 +1,271 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static org.apache.commons.io.IOUtils.closeQuietly;
+
+/**
+ * The argument identification training events, in compressed-sparse-row layout:
+ * <pre>
+ *   frames  --frameOffsets-->  roles (goldSpanIdxs)  --roleOffsets-->  spans  --spanOffsets-->  features
+ * </pre>
+ * Roles of frame <code>f</code> are <code>[frameOffsets[f], frameOffsets[f+1])</code>, candidate spans of role
+ * <code>r</code> are <code>[roleOffsets[r], roleOffsets[r+1])</code>, in the order of
+ * {@link FrameFeatures#fElementSpansAndFeatures}, and features of span <code>s</code> are
+ * <code>[spanOffsets[s], spanOffsets[s+1])</code>.
+ *
+ * {@link #read} memory-maps a file written by {@link #write}, and reads straight from the mapped buffers, so the
+ * events take up page cache rather than heap, and aren't copied or deserialized into objects. Reads are absolute,
+ * so any number of threads can share one instance.
+ */
+public class PackedFrameFeatures {
+	private static final int MAGIC = 0x53454D41; // "SEMA"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 6 * 4 + 8;
+	/** features are mapped in chunks of 2^CHUNK_SHIFT ints, since a buffer can't hold more than 2^31 bytes */
+	private static final int CHUNK_SHIFT = 26;
+	private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+	private final int numFrames;
+	private final IntBuffer frameOffsets;
+	private final IntBuffer goldSpanIdxs;
+	private final IntBuffer roleOffsets;
+	private final LongBuffer spanOffsets;
+	/** features of span s are features[spanOffsets[s] >> CHUNK_SHIFT], starting at spanOffsets[s] & CHUNK_MASK */
+	private final IntBuffer[] features;
+
+	private PackedFrameFeatures(int numFrames,
+								IntBuffer frameOffsets,
+								IntBuffer goldSpanIdxs,
+								IntBuffer roleOffsets,
+								LongBuffer spanOffsets,
+								IntBuffer[] features) {
+		this.numFrames = numFrames;
+		this.frameOffsets = frameOffsets;
+		this.goldSpanIdxs = goldSpanIdxs;
+		this.roleOffsets = roleOffsets;
+		this.spanOffsets = spanOffsets;
+		this.features = features;
+	}
+
+	/** Packs frame features (with their gold span indexes) into memory */
+	public static PackedFrameFeatures pack(List<FrameFeatures> frameFeaturesList) {
+		final Offsets offsets = new Offsets(frameFeaturesList);
+		if (offsets.numFeatures > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException(String.format(
+					"Too many features to pack into memory (%d). Write them to a file instead.", offsets.numFeatures));
+		}
+		final int[] frameOffsets = new int[offsets.numFrames + 1];
+		final int[] goldSpanIdxs = new int[offsets.numRoles];
+		final int[] roleOffsets = new int[offsets.numRoles + 1];
+		final long[] spanOffsets = new long[offsets.numSpans + 1];
+		final int[] features = new int[(int) offsets.numFeatures];
+		int roleIdx = 0;
+		int spanIdx = 0;
+		int featIdx = 0;
+		for (int frameIdx = 0; frameIdx < offsets.numFrames; frameIdx++) {
+			final FrameFeatures frameFeatures = frameFeaturesList.get(frameIdx);
+			frameOffsets[frameIdx] = roleIdx;
+			for (int r = 0; r < frameFeatures.fElementSpansAndFeatures.size(); r++) {
+				goldSpanIdxs[roleIdx] = frameFeatures.goldSpanIdxs.get(r);
+				roleOffsets[roleIdx] = spanIdx;
+				for (SpanAndCorrespondingFeatures span : frameFeatures.fElementSpansAndFeatures.get(r)) {
+					spanOffsets[spanIdx] = featIdx;
+					System.arraycopy(span.features, 0, features, featIdx, span.features.length);
+					featIdx += span.features.length;
+					spanIdx++;
+				}
+				roleIdx++;
+			}
+		}
+		frameOffsets[offsets.numFrames] = roleIdx;
+		roleOffsets[offsets.numRoles] = spanIdx;
+		spanOffsets[offsets.numSpans] = featIdx;
+		final IntBuffer[] featureChunks = new IntBuffer[numChunks(features.length)];
+		for (int c = 0; c < featureChunks.length; c++) {
+			final int start = c << CHUNK_SHIFT;
+			featureChunks[c] = IntBuffer.wrap(features, start, Math.min(1 << CHUNK_SHIFT, features.length - start)).slice();
+		}
+		return new PackedFrameFeatures(offsets.numFrames, IntBuffer.wrap(frameOffsets), IntBuffer.wrap(goldSpanIdxs),
+				IntBuffer.wrap(roleOffsets), LongBuffer.wrap(spanOffsets), featureChunks);
+	}
+
+	/** Writes frame features (with their gold span indexes) to a file that {@link #read} can map */
+	public static void write(List<FrameFeatures> frameFeaturesList, File file) throws IOException {
+		final Offsets offsets = new Offsets(frameFeaturesList);
+		final DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(offsets.numFrames);
+			output.writeInt(offsets.numRoles);
+			output.writeInt(offsets.numSpans);
+			output.writeInt(0); // padding, so the long sections are 8-byte aligned
+			output.writeLong(offsets.numFeatures);
+			// frameOffsets
+			int roleIdx = 0;
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				output.writeInt(roleIdx);
+				roleIdx += frameFeatures.fElementSpansAndFeatures.size();
+			}
+			output.writeInt(roleIdx);
+			// goldSpanIdxs
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				for (int goldSpanIdx : frameFeatures.goldSpanIdxs) output.writeInt(goldSpanIdx);
+			}
+			// roleOffsets
+			int spanIdx = 0;
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				for (SpanAndCorrespondingFeatures[] spans : frameFeatures.fElementSpansAndFeatures) {
+					output.writeInt(spanIdx);
+					spanIdx += spans.length;
+				}
+			}
+			output.writeInt(spanIdx);
+			if (offsets.numFrames % 2 != 0) output.writeInt(0); // padding
+			// spanOffsets
+			long featIdx = 0;
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				for (SpanAndCorrespondingFeatures[] spans : frameFeatures.fElementSpansAndFeatures) {
+					for (SpanAndCorrespondingFeatures span : spans) {
+						output.writeLong(featIdx);
+						featIdx += span.features.length;
+					}
+				}
+			}
+			output.writeLong(featIdx);
+			// features
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				for (SpanAndCorrespondingFeatures[] spans : frameFeatures.fElementSpansAndFeatures) {
+					for (SpanAndCorrespondingFeatures span : spans) {
+						for (int feature : span.features) output.writeInt(feature);
+					}
+				}
+			}
+		} finally {
+			closeQuietly(output);
+		}
+	}
+
+	/** Memory-maps a file written by {@link #write} */
+	public static PackedFrameFeatures read(File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer header = channel.map(READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC) throw new IOException(file + " is not a packed frame features file");
+			final int version = header.getInt();
+			if (version != VERSION) throw new IOException("Unsupported packed frame features version: " + version);
+			final int numFrames = header.getInt();
+			final int numRoles = header.getInt();
+			final int numSpans = header.getInt();
+			header.getInt();
+			final long numFeatures = header.getLong();
+			long position = HEADER_BYTES;
+			final IntBuffer frameOffsets = channel.map(READ_ONLY, position, (numFrames + 1) * 4L).asIntBuffer();
+			position += (numFrames + 1) * 4L;
+			final IntBuffer goldSpanIdxs = channel.map(READ_ONLY, position, numRoles * 4L).asIntBuffer();
+			position += numRoles * 4L;
+			final IntBuffer roleOffsets = channel.map(READ_ONLY, position, (numRoles + 1) * 4L).asIntBuffer();
+			position += (numRoles + 1) * 4L;
+			if (numFrames % 2 != 0) position += 4;
+			final LongBuffer spanOffsets = channel.map(READ_ONLY, position, (numSpans + 1) * 8L).asLongBuffer();
+			position += (numSpans + 1) * 8L;
+			if (channel.size() != position + numFeatures * 4) throw new IOException(file + " is truncated");
+			final IntBuffer[] features = new IntBuffer[numChunks(numFeatures)];
+			for (int c = 0; c < features.length; c++) {
+				final long length = Math.min(1L << CHUNK_SHIFT, numFeatures - ((long) c << CHUNK_SHIFT));
+				features[c] = channel.map(READ_ONLY, position, length * 4).asIntBuffer();
+				position += length * 4;
+			}
+			// the mappings stay valid after the channel is closed
+			return new PackedFrameFeatures(numFrames, frameOffsets, goldSpanIdxs, roleOffsets, spanOffsets, features);
+		} finally {
+			closeQuietly(raf);
+		}
+	}
+
+	public int numFrames() { return numFrames; }
+
+	/** The global index of the first role of the given frame */
+	public int getFirstRole(int frameIdx) { return frameOffsets.get(frameIdx); }
+
+	public int numRoles(int frameIdx) { return frameOffsets.get(frameIdx + 1) - frameOffsets.get(frameIdx); }
+
+	/** The global index of the first candidate span of the given role */
+	public int getFirstSpan(int roleIdx) { return roleOffsets.get(roleIdx); }
+
+	public int numSpans(int roleIdx) { return roleOffsets.get(roleIdx + 1) - roleOffsets.get(roleIdx); }
+
+	/** The index of the gold span of the given role, among its candidate spans */
+	public int getGoldSpanIdx(int roleIdx) { return goldSpanIdxs.get(roleIdx); }
+
+	/** Sums the weights of the features of the given span, skipping unknown features (index 0) */
+	public double dotProduct(double[] weights, int spanIdx) {
+		double result = 0.0;
+		for (long i = spanOffsets.get(spanIdx), end = spanOffsets.get(spanIdx + 1); i < end; i++) {
+			final int feature = getFeature(i);
+			if (feature != 0) result += weights[feature];
+		}
+		return result;
+	}
+
+	/** Adds <code>scale</code> for each feature of the given span to the gradient being accumulated */
+	public void addTo(GradientAccumulator gradient, int spanIdx, double scale) {
+		for (long i = spanOffsets.get(spanIdx), end = spanOffsets.get(spanIdx + 1); i < end; i++) {
+			gradient.add(getFeature(i), scale);
+		}
+	}
+
+	/** The number of features of the given span */
+	public int numFeatures(int spanIdx) {
+		return (int) (spanOffsets.get(spanIdx + 1) - spanOffsets.get(spanIdx));
+	}
+
+	/** The <code>k</code>th feature of the given span */
+	public int getFeature(int spanIdx, int k) {
+		return getFeature(spanOffsets.get(spanIdx) + k);
+	}
+
+	private int getFeature(long i) {
+		return features[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+	}
+
+	private static int numChunks(long numFeatures) {
+		return (int) ((numFeatures + CHUNK_MASK) >>> CHUNK_SHIFT);
+	}
+
+	/** The sizes of each level */
+	private static class Offsets {
+		final int numFrames;
+		int numRoles = 0;
+		int numSpans = 0;
+		long numFeatures = 0;
+
+		Offsets(List<FrameFeatures> frameFeaturesList) {
+			numFrames = frameFeaturesList.size();
+			long numSpans = 0;
+			for (FrameFeatures frameFeatures : frameFeaturesList) {
+				if (frameFeatures.goldSpanIdxs.size() != frameFeatures.fElementSpansAndFeatures.size()) {
+					throw new IllegalArgumentException("Every role of frame " + frameFeatures.frameName +
+							" needs a gold span");
+				}
+				numRoles += frameFeatures.fElementSpansAndFeatures.size();
+				for (SpanAndCorrespondingFeatures[] spans : frameFeatures.fElementSpansAndFeatures) {
+					numSpans += spans.length;
+					for (SpanAndCorrespondingFeatures span : spans) numFeatures += span.features.length;
+				}
+			}
+			if (numSpans >= Integer.MAX_VALUE) throw new IllegalArgumentException("Too many spans: " + numSpans);
+			this.numSpans = (int) numSpans;
+		}
+	}
+}
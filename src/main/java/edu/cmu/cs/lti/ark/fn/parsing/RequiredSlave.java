@@ -22,9 +22,6 @@
 
 package edu.cmu.cs.lti.ark.fn.parsing;
 
-import java.util.Arrays;
-import java.util.Collections;
-
 import edu.cmu.cs.lti.ark.fn.utils.BitOps;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 
@@ -33,13 +30,24 @@ public class RequiredSlave implements Slave {
 	public int[] mIndices;
 	public double[] oldAs;
 	public double[] oldZs;
+	private boolean hasCache;
+	// scratch space, reused on every iteration
+	private final double[] as;
+	private final double[] aprimes;
+	private final double[] localZs;
+	private final double[] sorted;
 	
 	public RequiredSlave(double[] objVals, 
 						  int[] indices) {
 		mObjVals = objVals;
 		mIndices = indices;
-		oldAs = null;
-		oldZs = null;
+		oldAs = new double[indices.length];
+		oldZs = new double[indices.length];
+		hasCache = false;
+		as = new double[indices.length];
+		aprimes = new double[indices.length];
+		localZs = new double[indices.length];
+		sorted = new double[indices.length];
 	}
 	
 	@Override
@@ -60,69 +68,37 @@ public class RequiredSlave implements Slave {
 	}
 	
 	// XOR with output, last variable is negated
-	public double[] makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas,
+	public void makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas,
 			double[] zs) {
 		setObjVals(objVals);
-		double[] as = new double[mIndices.length];
-		for (int i = 0; i < as.length; i++) {
-			double a = us[mIndices[i]] + 
-					   (1.0 / rho) * (mObjVals[mIndices[i]] + lambdas[mIndices[i]]);
-			as[i] = a;
-		}		
-		if (checkEquals(as)) {
-			return oldZs;
-		}
-		double[] aprimes = Arrays.copyOf(as, as.length);
-		aprimes[aprimes.length-1] = 1 - as[aprimes.length-1];		
-		
-		double[] updZs = new double[mObjVals.length];
-		Double[] bs = new Double[as.length];
-		for (int i = 0; i < bs.length; i++) {
-			bs[i] = aprimes[i];
-		}
-		Arrays.sort(bs, Collections.reverseOrder());
-		double[] sums = new double[as.length];
-		Arrays.fill(sums, 0);
-		sums[0] = bs[0];
-		for (int i = 1; i < as.length; i++) {
-			sums[i] = sums[i-1] + bs[i];
+		for (int i = 0; i < mIndices.length; i++) {
+			as[i] = us[mIndices[i]] + (1.0 / rho) * (mObjVals[mIndices[i]] + lambdas[mIndices[i]]);
 		}
-		int tempRho = -1;
-		for (int i = 0; i < as.length; i++) {
-			double temp = bs[i] - (1.0 / (double)(i+1)) * (sums[i] - 1.0);
-			if (temp > 0) {
-				if (i > tempRho) {
-					tempRho = i;
-				}
+		if (!checkEquals(as)) {
+			final int last = mIndices.length - 1;
+			System.arraycopy(as, 0, aprimes, 0, last);
+			aprimes[last] = 1 - as[last];
+			final double tau = SimplexProjection.threshold(aprimes, sorted);
+			for (int i = 0; i < mIndices.length; i++) {
+				localZs[i] = Math.max(aprimes[i] - tau, 0);
 			}
+			localZs[last] = 1 - localZs[last];
+			cache(as, localZs);
 		}
-		if (tempRho == -1) {
-			System.out.println("Problem. tempRho is -1");
-			System.exit(-1);
-		}
-		double tau = (1.0 / (double)(tempRho+1)) * (sums[tempRho] - 1.0);
-		Arrays.fill(updZs, 0);
 		for (int i = 0; i < mIndices.length; i++) {
-			updZs[mIndices[i]] = Math.max(aprimes[i] - tau, 0);
+			zs[mIndices[i]] = oldZs[i];
 		}
-		double lastZ = updZs[mIndices[mIndices.length-1]];
-		updZs[mIndices[mIndices.length-1]] = 1 - lastZ;
-		cache(as, updZs);
-		return updZs;
 	}
-	
+
 	@Override
 	public void cache(double[] as, double[] zs) {
-		oldAs = Arrays.copyOf(as, as.length);
-		oldZs = Arrays.copyOf(zs, zs.length);
+		System.arraycopy(as, 0, oldAs, 0, oldAs.length);
+		System.arraycopy(zs, 0, oldZs, 0, oldZs.length);
+		hasCache = true;
 	}
 	
 	@Override
 	public boolean checkEquals(double[] as) {
-		// TODO Auto-generated method stub
-		if (oldAs == null) {
-			return false;
-		}
-		return BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
+		return hasCache && BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
 	}
-}
\ No newline at end of file
+}
@@ -2,10 +2,13 @@ package edu.cmu.cs.lti.ark.fn.parsing;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import javax.annotation.concurrent.Immutable;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 
 /**
@@ -15,7 +18,9 @@ import java.util.List;
  */
 @Immutable
 public class SemaforParseResult {
-	private static final ObjectMapper jsonMapper = new ObjectMapper();
+	// leaves the Writer open after writeJson, so more results can go to it
+	private static final ObjectMapper jsonMapper =
+			new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
 
 	/** The list of predicted frames **/
 	final public List<Frame> frames;
@@ -96,4 +101,12 @@ public class SemaforParseResult {
 	public String toJson() throws JsonProcessingException {
 		return jsonMapper.writeValueAsString(this);
 	}
+
+	/**
+	 * Writes the same json as {@link #toJson()} straight to output, without building the String first.
+	 * Flushes, but doesn't close, output.
+	 */
+	public void writeJson(Writer output) throws IOException {
+		jsonMapper.writeValue(output, this);
+	}
 }
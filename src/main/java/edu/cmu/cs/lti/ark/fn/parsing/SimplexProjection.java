@@ -0,0 +1,37 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import java.util.Arrays;
+
+/**
+ * Euclidean projection onto the probability simplex, shared by the AD3 slaves.
+ * Works in caller-owned scratch buffers, so it doesn't allocate on each AD3 iteration.
+ */
+final class SimplexProjection {
+	private SimplexProjection() { }
+
+	/**
+	 * Returns the threshold <code>tau</code> such that <code>max(as[i] - tau, 0)</code> is the projection of
+	 * <code>as</code> onto the simplex. <code>sorted</code> is scratch space at least as long as <code>as</code>.
+	 */
+	static double threshold(double[] as, double[] sorted) {
+		final int n = as.length;
+		System.arraycopy(as, 0, sorted, 0, n);
+		Arrays.sort(sorted, 0, n);
+		// walk the values in descending order, keeping the last point where the running threshold is still positive
+		double sum = 0.0;
+		double sumAtRho = 0.0;
+		int rho = -1;
+		for (int i = 0; i < n; i++) {
+			final double b = sorted[n - 1 - i];
+			sum += b;
+			if (b - (1.0 / (double) (i + 1)) * (sum - 1.0) > 0) {
+				rho = i;
+				sumAtRho = sum;
+			}
+		}
+		if (rho == -1) {
+			throw new IllegalStateException("Unable to project onto simplex: " + Arrays.toString(as));
+		}
+		return (1.0 / (double) (rho + 1)) * (sumAtRho - 1.0);
+	}
+}
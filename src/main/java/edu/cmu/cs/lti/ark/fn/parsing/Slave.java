@@ -22,9 +22,16 @@
 
 package edu.cmu.cs.lti.ark.fn.parsing;
 
+/**
+ * A subproblem in AD3 dual decomposition. Slaves own their local parts (a subset of the variable indices), and
+ * only ever read or write those entries of the full-length arrays passed to them.
+ */
 public interface Slave {
-	public double[] makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas, double[] zs);
+	/** Updates this slave's parts of <code>zs</code> in place. Entries of other parts are left untouched. */
+	public void makeZUpdate(double[] objVals, double rho, double[] us, double[] lambdas, double[] zs);
+	/** Remembers the local <code>as</code> and the local <code>zs</code> computed from them */
 	public void cache(double[] as, double[] zs);
+	/** Whether the local <code>as</code> are (nearly) the cached ones, so the cached local zs can be reused */
 	public boolean checkEquals(double[] as);
 	public void setObjVals(double[] objVals);
 	public double computeDual(double[] objVals, double rho, double[] us, double[] lambdas, double[] zs);
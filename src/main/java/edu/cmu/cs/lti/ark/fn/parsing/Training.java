@@ -21,22 +21,27 @@
  ******************************************************************************/
 package edu.cmu.cs.lti.ark.fn.parsing;
 
+import com.google.common.base.Function;
 import edu.cmu.cs.lti.ark.fn.data.prep.ParsePreparation;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
 import edu.cmu.cs.lti.ark.fn.optimization.Lbfgs;
+import edu.cmu.cs.lti.ark.fn.optimization.LbfgsOptimizer;
 import edu.cmu.cs.lti.ark.fn.optimization.SGA;
-import edu.cmu.cs.lti.ark.fn.utils.ThreadPool;
+import edu.cmu.cs.lti.ark.fn.optimization.TrainingExecutor;
 import edu.cmu.cs.lti.ark.util.FileUtil;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
-import riso.numerical.LBFGS;
 
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
 
 public class Training {
+	/** number of samples processed by a worker at a time */
+	private static final int SHARD_SIZE = 10;
+
 	private String mModelFile;
 	private String mAlphabetFile;
-	private ArrayList<FrameFeatures> mFrameList; 
+	private PackedFrameFeatures mFrames;
 	private double[] W;
 	private double[] mGradients;
 	private int numFeatures;
@@ -45,8 +50,8 @@ public class Training {
 	private double mLambda;
 	private int numDataPoints;
 	private int mNumThreads;
-	private double[][] tGradients;
-	private double[] tValues;
+	/** created on the first evaluation, and kept until training is done */
+	private TrainingExecutor executor;
 	
 	public Training()
 	{
@@ -57,14 +62,21 @@ public class Training {
 					 String alphabetFile,
 					 ArrayList<FrameFeatures> list,
 					 String frFile) throws IOException {
+		init(modelFile, alphabetFile, PackedFrameFeatures.pack(list), frFile);
+	}
+
+	public void init(String modelFile,
+					 String alphabetFile,
+					 PackedFrameFeatures frames,
+					 String frFile) throws IOException {
 		mModelFile = modelFile;
 		mAlphabetFile = alphabetFile;
 		initModel();
-		mFrameList = list;
+		mFrames = frames;
 		mFrameLines = ParsePreparation.readLines(frFile);
 		rand = new Random(new Date().getTime());
 		mLambda = 0.0;
-		numDataPoints = mFrameList.size();
+		numDataPoints = mFrames.numFrames();
 		mNumThreads = 1;
 	}
 
@@ -75,14 +87,24 @@ public class Training {
 					 String reg,
 					 double lambda,
 					 int numThreads) throws IOException {
+		init(modelFile, alphabetFile, PackedFrameFeatures.pack(list), frFile, reg, lambda, numThreads);
+	}
+
+	public void init(String modelFile,
+					 String alphabetFile,
+					 PackedFrameFeatures frames,
+					 String frFile,
+					 String reg,
+					 double lambda,
+					 int numThreads) throws IOException {
 		mModelFile = modelFile;
 		mAlphabetFile = alphabetFile;
 		initModel();
-		mFrameList = list;
+		mFrames = frames;
 		mFrameLines = ParsePreparation.readLines(frFile);
 		rand = new Random(new Date().getTime());
 		mLambda = lambda;
-		numDataPoints = mFrameList.size();
+		numDataPoints = mFrames.numFrames();
 		mNumThreads = numThreads;
 	}
 	
@@ -98,74 +120,64 @@ public class Training {
 		}
 	}
 
-	public Pair<Double, double[]> getDerivativesOfSample(double[] sumDers, int index) {
-		FrameFeatures f = mFrameList.get(index);
-		List<SpanAndCorrespondingFeatures[]> featsList = f.fElementSpansAndFeatures;
-		List<Integer> goldSpans = f.goldSpanIdxs;
-		double[] gradients = new double[sumDers.length];
-		for(int i = 0; i < gradients.length; i ++)
-			gradients[i] = 0.0;		
+	/**
+	 * Adds the gradient of the negative log-likelihood of the given sample to <code>gradient</code>.
+	 * Only touches the entries of features that fire for the sample. Regularization is not included, see
+	 * {@link #addRegularization(double[], double)}.
+	 *
+	 * @return the negative log-likelihood of the sample
+	 */
+	public double addLossAndGradientOfSample(double[] gradient, int index) {
+		return addLossAndGradientOfSample(new GradientAccumulator(gradient), index);
+	}
+
+	/** Like {@link #addLossAndGradientOfSample(double[], int)}, for a gradient accumulated by a worker */
+	public double addLossAndGradientOfSample(GradientAccumulator gradient, int index) {
 		double value = 0.0;
-		for(int i = 0; i < featsList.size(); i ++) {
-			SpanAndCorrespondingFeatures[] featureArray = featsList.get(i);
-			int goldSpan = goldSpans.get(i);
-			int featArrLen = featureArray.length;
-			double weiFeatSum[] = new double[featArrLen];
+		final int firstRole = mFrames.getFirstRole(index);
+		for(int roleIdx = firstRole; roleIdx < firstRole + mFrames.numRoles(index); roleIdx ++) {
+			int goldSpan = mFrames.getGoldSpanIdx(roleIdx);
+			int firstSpan = mFrames.getFirstSpan(roleIdx);
+			int featArrLen = mFrames.numSpans(roleIdx);
 			double exp[] = new double[featArrLen];
 			double sumExp = 0.0;
 			for(int j = 0; j < featArrLen; j ++)
 			{
-				weiFeatSum[j] = W[0];
-				int[] feats = featureArray[j].features;
-				for (int k = 0; k < feats.length; k++) {
-					double weight = 0;
-					try {
-						weight = W[feats[k]];
-					} catch (Exception e) {
-						System.out.println(e.getMessage() + W.length + "|"
-								+ numFeatures);
-					}
-					if (feats[k] == 0) {
-						continue;
-					}
-					weiFeatSum[j] += weight;
-				//	System.out.println("k = "+k);
-				}
-				exp[j] = Math.exp(weiFeatSum[j]);
+				exp[j] = Math.exp(W[0] + mFrames.dotProduct(W, firstSpan + j));
 				sumExp += exp[j];
-				//System.out.println("j = "+j);
 			}
 			value -= Math.log(exp[goldSpan] / sumExp);
-			double YMinusP[] = new double[featureArray.length];
 			for(int j = 0; j < featArrLen; j ++)
 			{
 				int Y = 0;
 				if (j == goldSpan)
 					Y = 1;
-				int[] feats = featureArray[j].features;
-				YMinusP[j] = Y - exp[j]/sumExp;
-				gradients[0] -= YMinusP[j];
-				for(int k = 0; k < feats.length; k ++)
-				{
-					gradients[feats[k]] -= YMinusP[j];
-					//System.out.println("k = "+j);
-				}
-			//	System.out.println("j = "+j);
+				double yMinusP = Y - exp[j]/sumExp;
+				gradient.add(0, -yMinusP);
+				mFrames.addTo(gradient, firstSpan + j, -yMinusP);
 			}
-		}		
-		double lambda = mLambda / numDataPoints;
-		for(int i = 0; i < sumDers.length; i ++)
+		}
+		return value;
+	}
+
+	/**
+	 * Adds the gradient of the L2 penalty <code>lambda * ||W||^2</code> to <code>gradient</code>.
+	 *
+	 * @return the penalty
+	 */
+	public double addRegularization(double[] gradient, double lambda) {
+		double value = 0.0;
+		for(int i = 0; i < gradient.length; i ++)
 		{
-			sumDers[i] += (gradients[i] + 2*lambda*W[i]);
+			gradient[i] += 2*lambda*W[i];
 			value += lambda * W[i] * W[i];
 		}
-		return new Pair<Double, double[]>(value, sumDers);
+		return value;
 	}
-	
-	
+
 	public void trainSGA(int TOTAL_PASSES, int batchsize)
 	{
-		int sizeOfData = mFrameList.size();
+		int sizeOfData = numDataPoints;
 		int maxUpdates = (int)(((double)TOTAL_PASSES*(double)sizeOfData)/(double)batchsize);
 		int totalUpdates=0;
 		int countPasses = 0;
@@ -180,9 +192,10 @@ public class Training {
 			{
 				int sampleIndex = arr[j];
 				System.out.println("Sample index:"+sampleIndex);
-				Pair<Double, double[]> p = getDerivativesOfSample(sumDers,sampleIndex);
-				sumDers = p.second;
+				addLossAndGradientOfSample(sumDers, sampleIndex);
 			}
+			// each sample carries 1/numDataPoints of the penalty
+			addRegularization(sumDers, arr.length * mLambda / numDataPoints);
 			countDataEncountered+=batchsize;
 			W = SGA.updateGradient(W, sumDers,0.1);
 			System.out.println("Performed update number:"+totalUpdates);
@@ -212,103 +225,56 @@ public class Training {
 	}
 	
 	
-	public void processBatch(int taskID, int start, int end) {
-		int threadID = taskID % mNumThreads;
-		System.out.println("Processing batch:" + taskID + " thread ID:" + threadID);
-		if (end > mFrameList.size()) {
-			end = mFrameList.size();
-		}
-		double[] sumDers = new double[W.length];
-		Arrays.fill(sumDers, 0.0);
-		for (int index = start; index < end; index ++) {
-			Pair<Double, double[]> p = getDerivativesOfSample(sumDers, index);
-			sumDers = p.second;
-			tValues[threadID] += p.first;
-		}
-		for (int i = 0; i < W.length; i++) {
-			tGradients[threadID][i] += sumDers[i];
-		}
-	}
-	
-	
-	public Runnable createTask(final int count, final int start, final int end)
-	{
-		return new Runnable() {
-		      public void run() {
-		        System.out.println("Task " + count + " : start");
-		        processBatch(count, start, end);
-		        System.out.println("Task " + count + " : end");
-		      }
-		};
-	}
-
 	/**
 	 * @return the value of the function. fills out mGradients as a side-effect
 	 */
-	private double getValuesAndGradients() {
-		double value = 0.0;
-		Arrays.fill(mGradients, 0.0);
-		for (int i = 0; i < mNumThreads; i++) {
-			Arrays.fill(tGradients[i], 0.0);
-		}
-		Arrays.fill(tValues, 0.0);
-		ThreadPool threadPool = new ThreadPool(mNumThreads);
-		int batchSize = 10;
-		int count = 0;
-		for (int i = 0; i < mFrameList.size(); i = i + batchSize) {
-			threadPool.runTask(createTask(count, i, i + batchSize));
-			count++;
-		}
-		threadPool.join();		
-		for (int i = 0; i < mNumThreads; i++) {
-			value += tValues[i];
-			for (int j = 0; j < W.length; j++) {
-				mGradients[j] += tGradients[i][j];
-			}
-		}
+	double getValuesAndGradients() {
+		if (mGradients == null) mGradients = new double[W.length];
+		if (executor == null) executor = new TrainingExecutor(mNumThreads, W.length);
+		double value = executor.computeValueAndGradient(numDataPoints, SHARD_SIZE, new TrainingExecutor.Loss() {
+			@Override public double addLossAndGradient(int index, GradientAccumulator gradient) {
+				return addLossAndGradientOfSample(gradient, index);
+			} }, mGradients);
+		// regularize once per pass, rather than once per sample
+		value += addRegularization(mGradients, mLambda);
 		System.out.println("Finished value and gradient computation.");
 		return value;
 	}
-	
+
+	double[] getGradients() {
+		return mGradients;
+	}
+
+	double[] getWeights() {
+		return W;
+	}
+
 	public void runCustomLBFGS() throws Exception
-	{   
-		int modelSize = W.length;
-		double[] diagco = new double[modelSize];
-		int[] iprint = new int[2];
-		iprint[0] = Lbfgs.DEBUG ?1:-1;
-		iprint[1] = 0; //output the minimum level of info
-		int[] iflag = new int[1];
-		iflag[0] = 0;
-		mGradients = new double[modelSize];
-		tGradients =  new double[mNumThreads][modelSize];
-		tValues = new double[mNumThreads];
-		int iteration = 0;
-		do {
-			Arrays.fill(mGradients, 0.0);
-			System.out.println("Starting iteration:" + iteration);
-			double m_value = getValuesAndGradients();
-			System.out.println("Function value:"+m_value);
-			LBFGS.lbfgs(modelSize,
-					Lbfgs.NUM_CORRECTIONS,
-					W, 
-					m_value,
-					mGradients, 
-					false, //true if we're providing the diag of cov matrix Hk0 (?)
-					diagco, //the cov matrix
-					iprint, //type of output generated
-					Lbfgs.STOPPING_THRESHOLD,
-					Lbfgs.XTOL, //estimate of machine precision
-					iflag //i don't get what this is about
-			);
-			System.out.println("Finished iteration:"+iteration);
-			iteration++;
-			if (iteration% Lbfgs.SAVE_EVERY_K ==0)
-				writeModel(mModelFile+"_"+iteration);
-		} while (iteration <= Lbfgs.MAX_ITERATIONS &&iflag[0] != 0);
+	{
+		final LbfgsOptimizer optimizer = Lbfgs.newOptimizer()
+				.addIterationListener(new LbfgsOptimizer.IterationListener() {
+					@Override public void iterationFinished(int iteration, double value, double[] params) {
+						System.out.println("Finished iteration:" + iteration);
+						if (iteration % Lbfgs.SAVE_EVERY_K == 0) writeModel(params, mModelFile + "_" + iteration);
+					} })
+				.build();
+		try {
+			W = optimizer.minimize(new Function<double[], Pair<Double, double[]>>() {
+				@Override public Pair<Double, double[]> apply(double[] params) {
+					// the samples are scored with W
+					System.arraycopy(params, 0, W, 0, W.length);
+					final double value = getValuesAndGradients();
+					System.out.println("Function value:" + value);
+					return Pair.of(value, mGradients);
+				} }, W);
+		} finally {
+			if (executor != null) executor.shutdown();
+			executor = null;
+		}
 		writeModel(mModelFile);
-	}	
-	
-	
+	}
+
+
 	public static int[] getRandArray(int batchSize, int sizeOfData, Random rand) {
 		int count = 0;
 		ArrayList<Integer> list = new ArrayList<Integer>();
@@ -328,13 +294,14 @@ public class Training {
 	}
 	
 	public void writeModel(String modelFile) {
+		writeModel(W, modelFile);
+	}
+
+	private static void writeModel(double[] params, String modelFile) {
 		PrintStream ps = FileUtil.openOutFile(modelFile);
-		// ps.println(w[0]);
 		System.out.println("Writing Model... ...");
-		// for (String key : paramIndex.keySet()) {\
-		for (int i = 0; i < W.length; i++) {
-			// ps.println(key + "\t" + w[paramIndex.get(key)]);
-			ps.println(W[i]);
+		for (double param : params) {
+			ps.println(param);
 		}
 		System.out.println("Finished Writing Model");
 		ps.close();
@@ -24,6 +24,7 @@ package edu.cmu.cs.lti.ark.fn.parsing;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 import edu.cmu.cs.lti.ark.util.SerializedObjects;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 
@@ -34,6 +35,8 @@ public class TrainingBatchMain
 	 * @param args command-line arguments as follows:
 	 *             frameFeaturesCacheFile: path to file containing a serialized cache of all of the features
 	 *                 extracted from the training data
+	 *             packedFeaturesFile: path to a {@link PackedFrameFeatures} file of the same features, to
+	 *                 memory-map instead of frameFeaturesCacheFile
 	 *             alphabetFile: path to file containing the alphabet
 	 *             trainFrameFile: path to file containing ?
 	 *             reg: type of regularization to use (ignored?)
@@ -47,15 +50,23 @@ public class TrainingBatchMain
 		FNModelOptions opts = new FNModelOptions(args);
 		String modelFile = opts.modelFile.get();
 		String alphabetFile = opts.alphabetFile.get();
-		String frameFeaturesCacheFile = opts.frameFeaturesCacheFile.get();
 		String frFile = opts.trainFrameFile.get();
 		String reg = opts.reg.get();
 		double lambda = opts.lambda.get();
 		int numThreads = opts.numThreads.get();
 		String binaryFactorPresent = opts.binaryOverlapConstraint.get();
-		ArrayList<FrameFeatures> list = (ArrayList<FrameFeatures>)SerializedObjects.readSerializedObject(frameFeaturesCacheFile);
 		Training bpt = new Training();
-		bpt.init(modelFile, alphabetFile, list, frFile, reg, lambda, numThreads);
+		bpt.init(modelFile, alphabetFile, readFrameFeatures(opts), frFile, reg, lambda, numThreads);
 		bpt.trainBatch();
-	}	
+	}
+
+	/** Maps the packed features file if there is one, otherwise packs the frame features cache into memory */
+	static PackedFrameFeatures readFrameFeatures(FNModelOptions opts) throws IOException {
+		if (opts.packedFeaturesFile.present()) {
+			return PackedFrameFeatures.read(new File(opts.packedFeaturesFile.get()));
+		}
+		final ArrayList<FrameFeatures> list =
+				(ArrayList<FrameFeatures>) SerializedObjects.readSerializedObject(opts.frameFeaturesCacheFile.get());
+		return PackedFrameFeatures.pack(list);
+	}
 }
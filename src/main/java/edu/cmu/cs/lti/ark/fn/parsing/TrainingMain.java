@@ -22,10 +22,8 @@
 package edu.cmu.cs.lti.ark.fn.parsing;
 
 import java.io.IOException;
-import java.util.ArrayList;
 
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
-import edu.cmu.cs.lti.ark.util.SerializedObjects;
 
 public class TrainingMain
 {
@@ -33,7 +31,6 @@ public class TrainingMain
 		FNModelOptions opts = new FNModelOptions(args);
 		String modelFile = opts.modelFile.get();
 		String alphabetFile = opts.alphabetFile.get();
-		String frameFeaturesCacheFile = opts.frameFeaturesCacheFile.get();
 		String frFile = opts.trainFrameFile.get();
 		String lexiconObj = opts.lexiconDir.get();
 		int totalpasses = opts.totalPasses.get();
@@ -41,9 +38,8 @@ public class TrainingMain
 		String reg = opts.reg.get();
 		double lambda = opts.lambda.get();
 		String binaryFactorPresent = opts.binaryOverlapConstraint.get();
-		ArrayList<FrameFeatures> list = (ArrayList<FrameFeatures>)SerializedObjects.readSerializedObject(frameFeaturesCacheFile);
 		Training bpt = new Training();
-		bpt.init(modelFile, alphabetFile, list, frFile);
+		bpt.init(modelFile, alphabetFile, TrainingBatchMain.readFrameFeatures(opts), frFile);
 		bpt.trainSGA(totalpasses,batchsize);
 		bpt.writeModel();
 	}	
@@ -22,10 +22,6 @@
 
 package edu.cmu.cs.lti.ark.fn.parsing;
 
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
-
 import edu.cmu.cs.lti.ark.fn.utils.BitOps;
 import edu.cmu.cs.lti.ark.fn.utils.FNModelOptions;
 
@@ -36,26 +32,31 @@ public class UniqueSpanSlave implements Slave {
 	public int mTotLen;
 	public double[] oldAs;
 	public double[] oldZs;
+	private boolean hasCache;
+	// scratch space, reused on every iteration
+	private final double[] as;
+	private final double[] localZs;
+	private final double[] sorted;
 	
 	public UniqueSpanSlave(double[] objVals, 
 						   int start, 
 						   int end) {
 		mObjVals = new double[end-start];
-		for (int i = start; i < end; i++) {
-			mObjVals[i-start] = objVals[i];
-		}
 		mStart = start;
 		mEnd = end;
 		mTotLen = objVals.length;
-		oldAs = null;
-		oldZs = null;
+		setObjVals(objVals);
+		oldAs = new double[end-start];
+		oldZs = new double[end-start];
+		hasCache = false;
+		as = new double[end-start];
+		localZs = new double[end-start];
+		sorted = new double[end-start];
 	}
 	
 	@Override
 	public void setObjVals(double[] objVals) {
-		for (int i = mStart; i < mEnd; i++) {
-			mObjVals[i-mStart] = objVals[i];
-		}
+		System.arraycopy(objVals, mStart, mObjVals, 0, mEnd - mStart);
 	}
 	
 	@Override
@@ -73,65 +74,33 @@ public class UniqueSpanSlave implements Slave {
 	
 	@Override
 	// XOR factor
-	public double[] makeZUpdate(double[] objVals, double rho, 
+	public void makeZUpdate(double[] objVals, double rho, 
 						   double[] us, 
 						   double[] lambdas,
 						   double[] zs) {
 		setObjVals(objVals);
-		double[] as = new double[mEnd - mStart];
 		for (int i = mStart; i < mEnd; i++) {
-			double a = us[i] + (1.0 / rho) * (mObjVals[i-mStart] + lambdas[i]);
-			as[i-mStart] = a;
-		}
-		if (checkEquals(as)) {
-			return oldZs;
-		}
-		Double[] bs = new Double[as.length];
-		for (int i = 0; i < bs.length; i++) {
-			bs[i] = as[i];
-		}
-		Arrays.sort(bs, Collections.reverseOrder());
-		double[] sums = new double[bs.length];
-		Arrays.fill(sums, 0);
-		sums[0] = bs[0];
-		for (int i = 1; i < as.length; i++) {
-			sums[i] = sums[i-1] + bs[i];
+			as[i-mStart] = us[i] + (1.0 / rho) * (mObjVals[i-mStart] + lambdas[i]);
 		}
-		int tempRho = -1;
-		for (int i = 0; i < as.length; i++) {
-			double temp = bs[i] - (1.0 / (double)(i+1)) * (sums[i] - 1.0);
-			if (temp > 0) {
-				if (i > tempRho) {
-					tempRho = i;
-				}
-			}	
+		if (!checkEquals(as)) {
+			final double tau = SimplexProjection.threshold(as, sorted);
+			for (int i = 0; i < as.length; i++) {
+				localZs[i] = Math.max(as[i] - tau, 0);
+			}
+			cache(as, localZs);
 		}
-		if (tempRho == -1) {
-			System.out.println("Problem. tempRho is -1");
-			System.exit(-1);
-		}
-		double tau = (1.0 / (double)(tempRho+1)) * (sums[tempRho] - 1.0);
-		double[] updZs = new double[mTotLen];
-		Arrays.fill(updZs, 0);
-		for (int i = mStart; i < mEnd; i++) {
-			updZs[i] = Math.max(as[i-mStart] - tau, 0);
-		}
-		cache(as, updZs);
-		return updZs;
+		System.arraycopy(oldZs, 0, zs, mStart, oldZs.length);
 	}
-	
+
 	@Override
 	public void cache(double[] as, double[] zs) {
-		oldAs = Arrays.copyOf(as, as.length);
-		oldZs = Arrays.copyOf(zs, zs.length);
+		System.arraycopy(as, 0, oldAs, 0, oldAs.length);
+		System.arraycopy(zs, 0, oldZs, 0, oldZs.length);
+		hasCache = true;
 	}
-
+	
 	@Override
 	public boolean checkEquals(double[] as) {
-		// TODO Auto-generated method stub
-		if (oldAs == null) {
-			return false;
-		}
-		return BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
+		return hasCache && BitOps.nearlyEquals(as, oldAs, FNModelOptions.TOL);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,115 @@
+package edu.cmu.cs.lti.ark.fn.segmentation;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import gnu.trove.TLongIntHashMap;
+import gnu.trove.TObjectIntHashMap;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * A trie over the space-separated pieces of a set of phrases (e.g. "no_R longer_R"), for finding every phrase that
+ * starts at each token of a sentence without building a string per n-gram.
+ *
+ * Pieces are interned to ints, and the trie is a single map from (node, piece id) to child node, so it stays small
+ * for large lexicons. It's immutable once built, so it can be shared between threads.
+ */
+public class LexiconTrie {
+	private static final Splitter ON_SPACE = Splitter.on(' ');
+	private static final int ROOT = 0;
+	/** the id of a piece that isn't in any phrase */
+	private static final int UNKNOWN = -1;
+
+	private final int maxLength;
+	private final TObjectIntHashMap<String> pieceIds;
+	/** child node of (node, piece id), keyed by node << 32 | piece id */
+	private final TLongIntHashMap children;
+	/** nodes that end a phrase */
+	private final BitSet isPhrase;
+
+	private LexiconTrie(int maxLength, TObjectIntHashMap<String> pieceIds, TLongIntHashMap children, BitSet isPhrase) {
+		this.maxLength = maxLength;
+		this.pieceIds = pieceIds;
+		this.children = children;
+		this.isPhrase = isPhrase;
+	}
+
+	/**
+	 * Builds a trie over the given phrases. Phrases are split on every single space (keeping empty pieces), so
+	 * a sequence of tokens matches a phrase exactly when the tokens, joined with spaces, equal the phrase.
+	 *
+	 * @param maxLength the maximum number of tokens that will be matched against a phrase
+	 */
+	public static LexiconTrie fromPhrases(Iterable<String> phrases, int maxLength) {
+		final TObjectIntHashMap<String> pieceIds = new TObjectIntHashMap<String>();
+		final TLongIntHashMap children = new TLongIntHashMap();
+		final BitSet isPhrase = new BitSet();
+		int numNodes = 1;
+		for (String phrase : phrases) {
+			int node = ROOT;
+			for (String piece : ON_SPACE.split(phrase)) {
+				if (!pieceIds.containsKey(piece)) pieceIds.put(piece, pieceIds.size());
+				final long key = getKey(node, pieceIds.get(piece));
+				if (children.containsKey(key)) {
+					node = children.get(key);
+				} else {
+					children.put(key, numNodes);
+					node = numNodes++;
+				}
+			}
+			isPhrase.set(node);
+		}
+		return new LexiconTrie(maxLength, pieceIds, children, isPhrase);
+	}
+
+	/**
+	 * Finds the phrases that start at each token.
+	 *
+	 * @param tokens the strings that phrases are made of, one per token
+	 * @return for each token i, a bitmask whose bit n-1 is set if tokens [i, i+n) form a phrase, for n up to
+	 *     maxLength
+	 */
+	public int[] findMatchLengths(List<String> tokens) {
+		final int numTokens = tokens.size();
+		// a token can contain spaces, and so span several pieces
+		final int[][] tokenPieceIds = new int[numTokens][];
+		for (int i = 0; i < numTokens; i++) {
+			final String token = tokens.get(i);
+			if (token.indexOf(' ') < 0) {
+				tokenPieceIds[i] = new int[] { getPieceId(token) };
+			} else {
+				final List<String> pieces = Lists.newArrayList(ON_SPACE.split(token));
+				tokenPieceIds[i] = new int[pieces.size()];
+				for (int j = 0; j < pieces.size(); j++) tokenPieceIds[i][j] = getPieceId(pieces.get(j));
+			}
+		}
+		final int[] matchLengths = new int[numTokens];
+		for (int start = 0; start < numTokens; start++) {
+			int node = ROOT;
+			for (int n = 1; n <= maxLength && start + n <= numTokens && node >= 0; n++) {
+				for (int pieceId : tokenPieceIds[start + n - 1]) {
+					node = getChild(node, pieceId);
+					if (node < 0) break;
+				}
+				if (node >= 0 && isPhrase.get(node)) matchLengths[start] |= 1 << (n - 1);
+			}
+		}
+		return matchLengths;
+	}
+
+	private int getPieceId(String piece) {
+		return pieceIds.containsKey(piece) ? pieceIds.get(piece) : UNKNOWN;
+	}
+
+	/** The child of node along pieceId, or -1 if there isn't one */
+	private int getChild(int node, int pieceId) {
+		if (pieceId == UNKNOWN) return -1;
+		final long key = getKey(node, pieceId);
+		return children.containsKey(key) ? children.get(key) : -1;
+	}
+
+	private static long getKey(int node, int pieceId) {
+		return ((long) node << 32) | pieceId;
+	}
+}
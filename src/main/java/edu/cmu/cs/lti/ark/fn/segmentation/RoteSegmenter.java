@@ -22,17 +22,17 @@
 package edu.cmu.cs.lti.ark.fn.segmentation;
 
 import com.google.common.base.Function;
-import com.google.common.base.Joiner;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 
 import javax.annotation.Nullable;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Set;
 
@@ -40,7 +40,6 @@ import static com.google.common.base.Strings.nullToEmpty;
 import static com.google.common.collect.Iterables.any;
 import static com.google.common.primitives.Ints.min;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags.*;
-import static edu.cmu.cs.lti.ark.util.IntRanges.range;
 import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
 
 public class RoteSegmenter extends Segmenter {
@@ -75,34 +74,41 @@ public class RoteSegmenter extends Segmenter {
 	};
 
 	protected final Set<String> allRelatedWords;
+	/** allRelatedWords, split into tokens */
+	private final LexiconTrie lexicon;
 
 	public RoteSegmenter(Set<String> allRelatedWords) {
 		this.allRelatedWords = allRelatedWords;
+		this.lexicon = LexiconTrie.fromPhrases(allRelatedWords, MAX_LEN);
 	}
 
 	public List<List<Integer>> getSegmentation(Sentence sentence) {
+		return getSegmentation(new SentenceAnalysis(sentence));
+	}
+
+	public List<List<Integer>> getSegmentation(SentenceAnalysis analysis) {
+		final Sentence sentence = analysis.getSentence();
 		final int numTokens = sentence.getTokens().size();
 		// start indices that we haven't used yet
-		final Set<Integer> remainingStartIndices = Sets.newHashSet(xrange(numTokens));
+		final BitSet remainingStartIndices = new BitSet(numTokens);
+		remainingStartIndices.set(0, numTokens);
 		final ImmutableList.Builder<List<Integer>> allNgramIndices = ImmutableList.builder();  // results
 
-		final List<String> lemmas = getLemmasAndCoursePos(sentence);
+		// the lengths of the ngrams in allRelatedWords that start at each token
+		final int[] matchLengths = lexicon.findMatchLengths(getLemmasAndCoursePos(sentence));
 
 		// look for ngrams, backing off to smaller n
-		for(int n : range(1, MAX_LEN + 1).asList().reverse()) {
-			for(int start : xrange(numTokens - n + 1)) {
-				if(!remainingStartIndices.contains(start)) continue;
-				final int end = start + n;
-				final List<Integer> ngramIndices = ImmutableList.copyOf(xrange(start, end));
-				final String ngramLemmas = Joiner.on(" ").join(lemmas.subList(start, end));
-				if(allRelatedWords.contains(ngramLemmas)) {
+		for(int n = MAX_LEN; n >= 1; n--) {
+			for(int start = 0; start + n <= numTokens; start++) {
+				if(!remainingStartIndices.get(start)) continue;
+				if((matchLengths[start] & (1 << (n - 1))) != 0) {
 					// found a good ngram, add it to results, and remove it from startIndices so we don't overlap later
-					allNgramIndices.add(ngramIndices);
-					remainingStartIndices.removeAll(ngramIndices);
+					allNgramIndices.add(ImmutableList.copyOf(xrange(start, start + n)));
+					remainingStartIndices.clear(start, start + n);
 				}
 			}
 		}
-		return trimPrepositions(allNgramIndices.build(), sentence.toAllLemmaTagsArray());
+		return trimPrepositions(allNgramIndices.build(), analysis);
 	}
 
 	private List<String> getLemmasAndCoursePos(Sentence sentence) {
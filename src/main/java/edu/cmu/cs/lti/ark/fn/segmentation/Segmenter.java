@@ -2,6 +2,7 @@ package edu.cmu.cs.lti.ark.fn.segmentation;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
 
 import javax.annotation.Nullable;
@@ -19,7 +20,17 @@ public abstract class Segmenter {
 	 */
 	public static List<List<Integer>> trimPrepositions(List<List<Integer>> candidateTokens, final String[][] pData) {
 		final DependencyParse mParse = DependencyParse.processFN(pData, 0.0);
-		final DependencyParse[] mNodeList = mParse.getIndexSortedListOfNodes();
+		return trimPrepositions(candidateTokens, pData, mParse.getIndexSortedListOfNodes());
+	}
+
+	/** Like {@link #trimPrepositions(java.util.List, String[][])}, reusing the sentence's parse */
+	public static List<List<Integer>> trimPrepositions(List<List<Integer>> candidateTokens, SentenceAnalysis analysis) {
+		return trimPrepositions(candidateTokens, analysis.getAllLemmaTags(), analysis.getNodes());
+	}
+
+	private static List<List<Integer>> trimPrepositions(List<List<Integer>> candidateTokens,
+														final String[][] pData,
+														final DependencyParse[] mNodeList) {
 		final Iterable<List<Integer>> goodTokens = Iterables.filter(candidateTokens, new Predicate<List<Integer>>() {
 			@Override
 			public boolean apply(@Nullable List<Integer> input) {
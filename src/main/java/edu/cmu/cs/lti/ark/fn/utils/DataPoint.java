@@ -99,16 +99,22 @@ public class DataPoint {
 		// tokens[3]: target word(s), separated by " "
 		// tokens[4]: sentence number
 		final String[] tokens = frameLine.split("\t");
-		frameName = tokens[0].intern();
-		sentNum = parseInt(tokens[4]);
-		// The above 3 lines are duplicated in parseFrameNameAndSentenceNum()
-		lexicalUnitName = tokens[1].intern();
+		// The frame name and sentence number are parsed the same way in parseFrameNameAndSentenceNum()
 		String[] tokNums = tokens[2].split("_");
-		targetTokenIdxs = new int[tokNums.length];
+		final int[] tokenIdxs = new int[tokNums.length];
 		for(int j = 0; j < tokNums.length; j ++) {
-			targetTokenIdxs[j] = parseInt(tokNums[j]);
+			tokenIdxs[j] = parseInt(tokNums[j]);
 		}
-		Arrays.sort(targetTokenIdxs);
+		setFrame(tokens[0], tokens[1], tokenIdxs, parseInt(tokens[4]));
+	}
+
+	/** Sets the fields that {@link #processFrameLine(String)} would set, without going through a frame line */
+	protected void setFrame(String frameName, String lexicalUnitName, int[] targetTokenIdxs, int sentNum) {
+		this.frameName = frameName.intern();
+		this.lexicalUnitName = lexicalUnitName.intern();
+		this.targetTokenIdxs = targetTokenIdxs.clone();
+		Arrays.sort(this.targetTokenIdxs);
+		this.sentNum = sentNum;
 	}
 	
 	/**
@@ -25,7 +25,6 @@ import com.google.common.base.Function;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
-import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.parsing.CandidateFrameElementFilters;
 import edu.cmu.cs.lti.ark.util.ds.Pair;
@@ -86,7 +85,12 @@ public class DataPointWithFrameElements extends DataPoint {
 	}
 
 	public DataPointWithFrameElements(Sentence sentence, String frameElementsLine) {
-		this(AllLemmaTags.makeLine(sentence.toAllLemmaTagsArray()), frameElementsLine);
+		this(new SentenceAnalysis(sentence), frameElementsLine);
+	}
+
+	/** Shares <code>analysis</code>'s parses, so they're only built once per sentence */
+	public DataPointWithFrameElements(SentenceAnalysis analysis, String frameElementsLine) {
+		this(analysis.getParses(), frameElementsLine, null);
 	}
 
 	public DataPointWithFrameElements(DependencyParses parses, String frameElementsLine, String dataSet) {
@@ -99,6 +103,24 @@ public class DataPointWithFrameElements extends DataPoint {
 		frameElementsAndSpans = processFrameElements(parts.elements);
 	}
 
+	/**
+	 * A predicted target and frame, with no frame elements yet, as used for argument identification.
+	 * Equivalent to the frame elements line "0\t1.0\t1\t<frame>\t<lexicalUnit>\t<targetTokenIdxs>\t...\t<sentNum>",
+	 * but skips building and parsing it.
+	 */
+	public DataPointWithFrameElements(SentenceAnalysis analysis,
+									  String frame,
+									  String lexicalUnit,
+									  int[] targetTokenIdxs,
+									  int sentNum) {
+		super(analysis.getParses(), null);
+		numSpans = 1;
+		rank = 0;
+		score = 1.0;
+		setFrame(frame, lexicalUnit, targetTokenIdxs, sentNum);
+		frameElementsAndSpans = ImmutableList.of();
+	}
+
 	/**
 	 * @param frameElementsLine a string encoded in the frame.elements format
 	 * @return @code{(numSpans, (mainFramePortion, fePortion))}
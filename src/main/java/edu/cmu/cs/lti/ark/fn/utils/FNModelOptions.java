@@ -103,6 +103,7 @@ public final class FNModelOptions extends CommandLineOptions {
 	public StringOption spansFile = new StringOption("spansfile");
 	public StringOption lexiconDir = new StringOption("lexicondir");
 	public StringOption frameFeaturesCacheFile = new StringOption("localfeaturescache");
+	public StringOption packedFeaturesFile = new StringOption("packedfeatures");
 	public IntOption batchSize = new IntOption("batchsize");
 	public IntOption totalPasses = new IntOption("totalpasses");
 	public StringOption binaryOverlapConstraint = new StringOption("binaryoverlapfactor");
@@ -112,6 +113,7 @@ public final class FNModelOptions extends CommandLineOptions {
 	public StringOption lemmaCacheFile = new StringOption("lemmacachefile");
 	
 	public StringOption storeInMemory = new StringOption("storeinmemory");
+	public StringOption factoredEvents = new StringOption("factoredevents");
 	public IntOption clusterK = new IntOption("clusterk");
 	public StringOption revisedMapFile = new StringOption("revisedmapfile");
 	public StringOption useRelaxedSegmentation = new StringOption("userelaxed");
@@ -121,6 +123,9 @@ public final class FNModelOptions extends CommandLineOptions {
 	public StringOption mstServerName = new StringOption("mstserver");
 	public IntOption mstServerPort = new IntOption("mstport");
 	public IntOption port = new IntOption("port");
+	public IntOption maxConnections = new IntOption("max-connections");
+	public IntOption queueSize = new IntOption("queue-size");
+	public IntOption decodingThreads = new IntOption("decoding-threads");
 	public StringOption modelDirectory = new StringOption("model-dir");
 	public StringOption goldSegFile = new StringOption("goldsegfile");
 	public StringOption posTaggedFile = new StringOption("posfile");
@@ -0,0 +1,78 @@
+package edu.cmu.cs.lti.ark.fn.utils;
+
+import com.google.common.base.Supplier;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.CandidateSpanIndex;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParses;
+
+import static com.google.common.base.Suppliers.memoize;
+
+/**
+ * The representations of a sentence needed by target identification, frame identification and argument
+ * identification. Each one is built the first time it's asked for, and then shared by every target in the sentence.
+ *
+ * The returned arrays and parses are shared, so callers must not modify them.
+ */
+public class SentenceAnalysis {
+	private final Sentence sentence;
+	private final Supplier<String[][]> allLemmaTags = memoize(new Supplier<String[][]>() {
+		@Override public String[][] get() {
+			return sentence.toAllLemmaTagsArray();
+		} });
+	private final Supplier<String> allLemmaTagsLine = memoize(new Supplier<String>() {
+		@Override public String get() {
+			return AllLemmaTags.makeLine(getAllLemmaTags());
+		} });
+	private final Supplier<DependencyParse> parse = memoize(new Supplier<DependencyParse>() {
+		@Override public DependencyParse get() {
+			return DependencyParse.processFN(getAllLemmaTags(), 0.0);
+		} });
+	private final Supplier<DependencyParses> parses = memoize(new Supplier<DependencyParses>() {
+		@Override public DependencyParses get() {
+			return new DependencyParses(DataPoint.buildParsesForLine(getAllLemmaTagsLine()));
+		} });
+	private final Supplier<CandidateSpanIndex> candidateSpans = memoize(new Supplier<CandidateSpanIndex>() {
+		@Override public CandidateSpanIndex get() {
+			return CandidateSpanIndex.fromParse(getParses().getBestParse());
+		} });
+
+	public SentenceAnalysis(Sentence sentence) {
+		this.sentence = sentence;
+	}
+
+	public Sentence getSentence() {
+		return sentence;
+	}
+
+	/** @see Sentence#toAllLemmaTagsArray() */
+	public String[][] getAllLemmaTags() {
+		return allLemmaTags.get();
+	}
+
+	/** The sentence in the all.lemma.tags line format */
+	public String getAllLemmaTagsLine() {
+		return allLemmaTagsLine.get();
+	}
+
+	/** The dependency parse used by target and frame identification */
+	public DependencyParse getParse() {
+		return parse.get();
+	}
+
+	/** The parse nodes, sorted by token index. Node <code>i</code> is token <code>i-1</code>; node 0 is the root */
+	public DependencyParse[] getNodes() {
+		return getParse().getIndexSortedListOfNodes();
+	}
+
+	/** The dependency parses used by argument identification */
+	public DependencyParses getParses() {
+		return parses.get();
+	}
+
+	/** The candidate argument spans, from the best of {@link #getParses()} */
+	public CandidateSpanIndex getCandidateSpans() {
+		return candidateSpans.get();
+	}
+}
@@ -0,0 +1,138 @@
+package edu.cmu.cs.lti.ark.fn.wordnet;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.*;
+
+import static edu.cmu.cs.lti.ark.fn.wordnet.WordNetRelations.NO_RELATION;
+
+/**
+ * An immutable index of the WordNet relations between each hidden word and its related words.
+ *
+ * Each word is stored once, and referred to by its index in the sorted word dictionary. Hidden word i's related
+ * words are the word ids at [offsets[i], offsets[i+1]) of a single shared int[], sorted, and the relations
+ * between them are a bitmask over {@link #RELATIONS} at the same position of a parallel short[]. Lookups only
+ * read arrays, so one index can be shared by any number of threads without locking.
+ */
+public class RelationIndex implements Relations {
+	/** The relations between words, in the order of their bits in a relation mask */
+	public static final ImmutableList<String> RELATIONS = ImmutableList.of(
+			"identity", "synonym", "antonym", "hypernym", "hyponym", "derived-form", "morph", "verb-group",
+			"entailment", "entailed-by", "see-also", "causal-relation", "same-number");
+	private static final Set<String> NO_RELATIONS = ImmutableSet.of(NO_RELATION);
+
+	/** sorted */
+	private final String[] words;
+	/** which words have been looked up as hidden words */
+	private final BitSet isHidden;
+	private final int[] offsets;
+	private final int[] relatedIds;
+	private final short[] masks;
+	/** the set of relation names of each mask that occurs in the index */
+	private final Set<String>[] relationSets;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private RelationIndex(String[] words, BitSet isHidden, int[] offsets, int[] relatedIds, short[] masks) {
+		this.words = words;
+		this.isHidden = isHidden;
+		this.offsets = offsets;
+		this.relatedIds = relatedIds;
+		this.masks = masks;
+		this.relationSets = new Set[1 << RELATIONS.size()];
+		for (short mask : masks) {
+			if (relationSets[mask] == null) relationSets[mask] = getRelationNames(mask);
+		}
+	}
+
+	/**
+	 * Builds an index from the maps that {@link CachedRelations} is given: the relations between each hidden word
+	 * and the words it's related to, and the related words of each hidden word. Pairs that are in revisedRelationsMap
+	 * but not relatedWordsForWord aren't related, as in {@link CachedRelations}.
+	 */
+	public static RelationIndex fromMaps(Map<String, ? extends Map<String, ? extends Set<String>>> revisedRelationsMap,
+										 Map<String, ? extends Set<String>> relatedWordsForWord) {
+		final Set<String> allWords = Sets.newTreeSet();
+		for (Map.Entry<String, ? extends Set<String>> entry : relatedWordsForWord.entrySet()) {
+			allWords.add(entry.getKey());
+			allWords.addAll(entry.getValue());
+		}
+		final String[] words = allWords.toArray(new String[allWords.size()]);
+		final BitSet isHidden = new BitSet(words.length);
+		final int[] offsets = new int[words.length + 1];
+		int numPairs = 0;
+		for (Set<String> relatedWords : relatedWordsForWord.values()) numPairs += relatedWords.size();
+		final int[] relatedIds = new int[numPairs];
+		final short[] masks = new short[numPairs];
+		int pairIdx = 0;
+		for (int id = 0; id < words.length; id++) {
+			final Set<String> relatedWords = relatedWordsForWord.get(words[id]);
+			if (relatedWords != null) {
+				isHidden.set(id);
+				final Map<String, ? extends Set<String>> relationsByWord = revisedRelationsMap.get(words[id]);
+				final int start = pairIdx;
+				for (String relatedWord : relatedWords) relatedIds[pairIdx++] = Arrays.binarySearch(words, relatedWord);
+				Arrays.sort(relatedIds, start, pairIdx);
+				for (int i = start; i < pairIdx; i++) {
+					final Set<String> relations = relationsByWord == null ? null : relationsByWord.get(words[relatedIds[i]]);
+					masks[i] = relations == null ? 0 : getMask(relations);
+				}
+			}
+			offsets[id + 1] = pairIdx;
+		}
+		return new RelationIndex(words, isHidden, offsets, relatedIds, masks);
+	}
+
+	/**
+	 * The relations by which hiddenUnitTokens is related to actualTokens, or {@link WordNetRelations#NO_RELATION}
+	 * if they're not related. Case is ignored.
+	 *
+	 * @throws IllegalArgumentException if hiddenUnitTokens isn't a hidden word of this index
+	 */
+	@Override
+	public Set<String> getRelations(String actualTokens, String hiddenUnitTokens) {
+		final int mask = getRelationMask(actualTokens, hiddenUnitTokens);
+		return mask < 0 ? NO_RELATIONS : relationSets[mask];
+	}
+
+	/**
+	 * The relations by which hiddenUnitTokens is related to actualTokens, as a bitmask over {@link #RELATIONS},
+	 * or -1 if they're not related. Case is ignored.
+	 *
+	 * @throws IllegalArgumentException if hiddenUnitTokens isn't a hidden word of this index
+	 */
+	public int getRelationMask(String actualTokens, String hiddenUnitTokens) {
+		final String hiddenWord = hiddenUnitTokens.toLowerCase();
+		final int hiddenId = Arrays.binarySearch(words, hiddenWord);
+		if (hiddenId < 0 || !isHidden.get(hiddenId)) {
+			throw new IllegalArgumentException("Hidden word \"" + hiddenWord + "\" not contained in cache.");
+		}
+		final int relatedId = Arrays.binarySearch(words, actualTokens.toLowerCase());
+		if (relatedId < 0) return -1;
+		final int i = Arrays.binarySearch(relatedIds, offsets[hiddenId], offsets[hiddenId + 1], relatedId);
+		return i < 0 ? -1 : masks[i];
+	}
+
+	public int numHiddenWords() { return isHidden.cardinality(); }
+
+	public int numPairs() { return relatedIds.length; }
+
+	private static short getMask(Set<String> relations) {
+		int mask = 0;
+		for (String relation : relations) {
+			final int bit = RELATIONS.indexOf(relation);
+			if (bit < 0) throw new IllegalArgumentException("Unknown WordNet relation: " + relation);
+			mask |= 1 << bit;
+		}
+		return (short) mask;
+	}
+
+	private static Set<String> getRelationNames(int mask) {
+		final ImmutableSet.Builder<String> relations = ImmutableSet.builder();
+		for (int bit = 0; bit < RELATIONS.size(); bit++) {
+			if ((mask & (1 << bit)) != 0) relations.add(RELATIONS.get(bit));
+		}
+		return relations.build();
+	}
+}
@@ -63,20 +63,13 @@ public class WordNetRelations {
 		}
 	}
 
-	private String sourceWord = null;
-	private String targetWord = null;
 	private WordNetAPI mWN = null;
 	//contains all the relations for a word
 	private Map<String, THashMap<String, Set<String>>> wordNetMap =
 			new THashMap<String, THashMap<String, Set<String>>>(1000);
 	//for one word, contains the list of ALL related words
 	private Map<String, Set<String>> relatedWordsForWord = new THashMap<String,Set<String>>();
-	//mapping a pair of words to a set of relations
-	private Map<String, Set<String>> wordPairMap = new THashMap<String, Set<String>>();
 	private Set<String> stopwords = null;
-	public THashMap<String, Set<String>> workingRelationSet = null;
-	public Set<String> workingRelatedWords = null;
-	public Set<String> workingLSRelations = null;
 	private final LoadingCache<Pair<String, String>, String> lemmaCache =
 			CacheBuilder.newBuilder()
 					.maximumSize(LEMMA_CACHE_SIZE)
@@ -136,121 +129,86 @@ public class WordNetRelations {
 		return lemmaCache.getUnchecked(Pair.of(word.toLowerCase(), postag));
 	}
 
-	public THashMap<String, Set<String>> getAllRelationsMap(String sWord) {
-		/*
-		 * when sWord = sourceWord
-		 */
-		if(sWord.equals(sourceWord)) {
-			return workingRelationSet;
-		}
-		sourceWord = sWord;
-		/*
-		 * when sourceWord is contained in the memory 
-		 */
-		if(relatedWordsForWord.containsKey(sourceWord)) {
-			workingRelationSet = wordNetMap.get(sourceWord);
-			workingRelatedWords = relatedWordsForWord.get(sourceWord);
-		} else {
-			/*
-			 * when sourceWord is not contained in memory
-			 */
-			updateMapWithNewSourceWord();
-		}
-		targetWord=null;
-		workingLSRelations=null;
-		
-		return workingRelationSet;
+	/**
+	 * The related words of sWord, by relation. Looks them up in WordNet the first time sWord is seen.
+	 * Safe to call from multiple threads.
+	 */
+	public synchronized THashMap<String, Set<String>> getAllRelationsMap(String sWord) {
+		if (!relatedWordsForWord.containsKey(sWord)) lookUpSourceWord(sWord);
+		return wordNetMap.get(sWord);
 	}
 
-	public void updateMapWithNewSourceWord() {
+	/** Looks up the relations of a new source word, and adds them to the maps */
+	private void lookUpSourceWord(String sourceWord) {
 		final Map<RelationType, Set<String>> rel;
 		final Set<String> relatedWords;
-		if(stopwords.contains(sourceWord.toLowerCase())
-				|| PUNCTUATION_PATTERN.matcher(sourceWord.toLowerCase()).matches()) {
-			rel  = mWN.fillStopWord(sourceWord);
-			relatedWords = mWN.getRelatedWord();
-		} else if(isMoreThanThresh()) {
-			rel  = mWN.fillStopWord(sourceWord);
-			relatedWords = mWN.getRelatedWord();
-		} else {
-			rel = mWN.getAllRelatedWords(sourceWord);
+		// WordNetAPI is a singleton that leaves the results of each look up in static fields
+		synchronized (mWN) {
+			if(stopwords.contains(sourceWord.toLowerCase())
+					|| PUNCTUATION_PATTERN.matcher(sourceWord.toLowerCase()).matches()
+					|| isMoreThanThresh(sourceWord)) {
+				rel = mWN.fillStopWord(sourceWord);
+			} else {
+				rel = mWN.getAllRelatedWords(sourceWord);
+			}
 			relatedWords = mWN.getRelatedWord();
 		}
-		workingRelationSet = collapseFinerRelations(rel);
-		workingRelatedWords = refineRelatedWords(relatedWords);
-		wordNetMap.put(sourceWord, workingRelationSet);
-		relatedWordsForWord.put(sourceWord, workingRelatedWords);
+		wordNetMap.put(sourceWord, collapseFinerRelations(sourceWord, rel));
+		relatedWordsForWord.put(sourceWord, refineRelatedWords(sourceWord, relatedWords));
 	}
-	
-	public boolean isMoreThanThresh() {
+
+	private static boolean isMoreThanThresh(String sourceWord) {
 		return sourceWord.trim().split(" ").length > NUM_THRESHOLD;
 	}
-	
-	public Set<String> getRelations(String sWord, String tWord) {
-		/*
-		 * when sWord = sourceWord and tWord = targetWord
-		 */
-		if(sWord.equals(sourceWord)&&tWord.equals(targetWord)) {
-			return workingLSRelations;
+
+	/** The relations by which sWord is related to tWord, or {@link #NO_RELATION}. Safe to call from multiple threads */
+	public synchronized Set<String> getRelations(String sWord, String tWord) {
+		final THashMap<String, Set<String>> relationSet = getAllRelationsMap(sWord);
+		final THashSet<String> result = new THashSet<String>();
+		if(!relatedWordsForWord.get(sWord).contains(tWord)) {
+			result.add(NO_RELATION);
+			return result;
 		}
-		/*
-		 * when the pair is contained in the map
-		 * it is assumed that the source word's whole wordnet map is present in the memory
-		 */
-		final String pair = sWord+"-"+tWord;
-		final Set<String> relations = wordPairMap.get(pair);
-		if(relations != null) {
-			sourceWord = sWord;
-			targetWord = tWord;
-			workingRelationSet = wordNetMap.get(sourceWord);
-			workingRelatedWords = relatedWordsForWord.get(sourceWord);
-			workingLSRelations = relations;
-			return relations;
+		for (String key : relationSet.keySet()) {
+			if (relationSet.get(key).contains(tWord)) {
+				result.add(key);
+			}
 		}
-		/*
-		 * when sWord is the present sourceWord, workingRelatedWords & wordkingRelationSet need not be updated
-		 */
-		targetWord = tWord;
-		if(sWord.equals(sourceWord)) {
-			final Set<String> pairRelations = getRelationWN();
-			workingLSRelations = pairRelations;
-			wordPairMap.put(pair, pairRelations);
-			return pairRelations;
+		return result;
+	}
+
+	/**
+	 * An immutable index of the relations of every source word looked up so far, for sharing between threads
+	 * without this object
+	 */
+	public synchronized RelationIndex getRelationIndex() {
+		final Map<String, Map<String, Set<String>>> relationsByWord = new THashMap<String, Map<String, Set<String>>>();
+		for (Map.Entry<String, THashMap<String, Set<String>>> entry : wordNetMap.entrySet()) {
+			relationsByWord.put(entry.getKey(), getRelationsByWord(entry.getValue()));
 		}
-		sourceWord = sWord;
-		/*
-		 * when sourceWord is contained in the memory; workingLSRelations, workingRelatedWords & workingRelationSet
-		 * have to be updated
-		 */
-		if(relatedWordsForWord.containsKey(sourceWord)) {
-			workingRelationSet = wordNetMap.get(sourceWord);
-			workingRelatedWords = relatedWordsForWord.get(sourceWord);
-		} else {
-			/*
-			 * when sourceWord is not contained in the memory; workingLSRelations, workingRelatedWords & workingRelationSet
-			 * have to be updated
-			 */
-			updateMapWithNewSourceWord();
-		}	
-		THashSet<String> set = getRelationWN();
-		workingLSRelations = set;
-		wordPairMap.put(pair, set);
-		
-		return set;	
+		return RelationIndex.fromMaps(relationsByWord, relatedWordsForWord);
 	}
 
-	private Set<String> refineRelatedWords(Set<String> relatedWords) {
-		if(sourceWord == null) {
-			System.out.println("Problem. Source Word Null. Exiting");
-			System.exit(0);
+	/** Inverts a map from relation to words (as returned by {@link #getAllRelationsMap}) to one from word to relations */
+	public static Map<String, Set<String>> getRelationsByWord(Map<String, Set<String>> wordsByRelation) {
+		final Map<String, Set<String>> relationsByWord = new THashMap<String, Set<String>>();
+		for (Map.Entry<String, Set<String>> wordsForRelation : wordsByRelation.entrySet()) {
+			for (String word : wordsForRelation.getValue()) {
+				if (!relationsByWord.containsKey(word)) relationsByWord.put(word, new THashSet<String>());
+				relationsByWord.get(word).add(wordsForRelation.getKey());
+			}
 		}
+		return relationsByWord;
+	}
+
+	private Set<String> refineRelatedWords(String sourceWord, Set<String> relatedWords) {
 		if(sourceWord.charAt(0) >= '0' && sourceWord.charAt(0) <= '9') {
 			relatedWords.add(sourceWord);
 		}
 		return relatedWords;
 	}
 	
-	private THashMap<String, Set<String>> collapseFinerRelations(Map<RelationType, Set<String>> rel) {
+	private THashMap<String, Set<String>> collapseFinerRelations(String sourceWord, Map<RelationType, Set<String>> rel) {
 		THashMap<String,Set<String>> result = new THashMap<String,Set<String>>();
 		THashSet<String> identity = new THashSet<String>();
 		THashSet<String> synonym = new THashSet<String>();
@@ -278,10 +236,6 @@ public class WordNetRelations {
 		entailedBy.addAll(rel.get(RelationType.entlby));
 		seeAlso.addAll(rel.get(RelationType.alsoc));
 		causalRelation.addAll(rel.get(RelationType.cause));
-		if(sourceWord==null) {
-			System.out.println("Problem. Source Word Null. Exiting");
-			System.exit(0);
-		}
 		if(sourceWord.charAt(0)>='0'&&sourceWord.charAt(0)<='9') {
 			sameNumber.add(sourceWord);
 		}
@@ -302,18 +256,4 @@ public class WordNetRelations {
 		
 		return result;
 	}
-
-	private THashSet<String> getRelationWN() {
-		THashSet<String> result = new THashSet<String>();
-		if(!workingRelatedWords.contains(targetWord)) {
-			result.add(NO_RELATION);
-			return result;
-		}
-		for (String key : workingRelationSet.keySet()) {
-			if (workingRelationSet.get(key).contains(targetWord)) {
-				result.add(key);
-			}
-		}
-		return result;
-	}
 }
@@ -0,0 +1,72 @@
+package edu.cmu.cs.lti.ark.util.nlp;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A thread-safe, size-bounded cache in front of another Lemmatizer. Misses are lemmatized by the wrapped
+ * lemmatizer and remembered, least recently used first out.
+ *
+ * Unlike {@link CachedLemmatizer}, words that aren't in the cache still get lemmatized.
+ */
+public class CachingLemmatizer extends Lemmatizer {
+	public static final int DEFAULT_MAX_SIZE = 100000;
+
+	private final LoadingCache<Pair<String, String>, String> lemmaCache;
+
+	public CachingLemmatizer(Lemmatizer lemmatizer) {
+		this(lemmatizer, DEFAULT_MAX_SIZE);
+	}
+
+	public CachingLemmatizer(final Lemmatizer lemmatizer, int maxSize) {
+		this.lemmaCache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.recordStats()
+				.build(new CacheLoader<Pair<String, String>, String>() {
+					@Override public String load(Pair<String, String> wordAndPostag) {
+						return lemmatizer.getLemma(wordAndPostag.first, wordAndPostag.second);
+					} });
+	}
+
+	/**
+	 * Adds already-computed lemmas to the cache. Preloaded lemmas don't count as hits or misses.
+	 *
+	 * @param lemmas map from "word_postag" to lemma, in the format of
+	 *               {@link edu.cmu.cs.lti.ark.fn.identification.RequiredDataForFrameIdentification#getHvLemmaCache()}
+	 * @return this
+	 */
+	public CachingLemmatizer preload(Map<String, String> lemmas) {
+		for (Map.Entry<String, String> entry : lemmas.entrySet()) {
+			final String key = entry.getKey();
+			// postags don't have underscores, but words might
+			final int split = key.lastIndexOf('_');
+			if (split < 0) continue;
+			lemmaCache.put(Pair.of(key.substring(0, split), key.substring(split + 1)), entry.getValue());
+		}
+		return this;
+	}
+
+	@Override
+	public String getLemma(String word, String postag) {
+		checkNotNull(word);
+		checkNotNull(postag);
+		return lemmaCache.getUnchecked(Pair.of(word, postag));
+	}
+
+	/** Hits, misses and evictions since this was created */
+	public CacheStats stats() {
+		return lemmaCache.stats();
+	}
+
+	/** The number of lemmas currently cached */
+	public long size() {
+		return lemmaCache.size();
+	}
+}
@@ -18,7 +18,7 @@ public class MorphaLemmatizer extends Lemmatizer {
 		Preconditions.checkNotNull(postag);
 		if (word.isEmpty()) return "";
 		final String token = word.toLowerCase();
-		final String tokenAndPostag = String.format("%s_%s", token.replaceAll("_", "-"), postag.toUpperCase());
+		final String tokenAndPostag = token.replace('_', '-') + "_" + postag.toUpperCase();
 		try {
 			return new Morpha(new StringReader(tokenAndPostag), true).next();
 		} catch (IOException e) {
@@ -0,0 +1,158 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import edu.cmu.cs.lti.ark.fn.identification.LatentGraphBasedFrameIdentifier;
+import edu.cmu.cs.lti.ark.fn.identification.SmoothedGraph;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.Assert.*;
+
+public class ModelBundleTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static THashSet<String> set(String... values) {
+		return new THashSet<String>(Arrays.asList(values));
+	}
+
+	private static THashMap<String, THashSet<String>> frameMap() {
+		final THashMap<String, THashSet<String>> result = new THashMap<String, THashSet<String>>();
+		result.put("Motion", set("move.v", "go.v"));
+		result.put("Leadership", set("leader.n", "head.n", "führer.n"));
+		return result;
+	}
+
+	private static ModelBundle makeBundle(Optional<String> idFeatureExtractorName) {
+		final TObjectDoubleHashMap<String> idParams = new TObjectDoubleHashMap<String>();
+		idParams.put("w:go_f:Motion", 1.5);
+		idParams.put("w:head_f:Leadership", -0.25);
+		final Map<String, Set<String>> fineMap = Maps.newHashMap();
+		fineMap.put("go.v", ImmutableSet.of("Motion"));
+		final Map<String, Set<String>> coarseMap = Maps.newHashMap();
+		coarseMap.put("go", ImmutableSet.of("Motion"));
+		coarseMap.put("head", ImmutableSet.of("Leadership", "Motion"));
+		final Map<String, THashSet<String>> frameElements = Maps.newHashMap();
+		frameElements.put("Motion", set("Theme", "Goal"));
+		frameElements.put("Leadership", set("Leader"));
+		final Map<String, Integer> featureIndex = ImmutableMap.of("a_Theme", 1, "b", 2, "c_Motion.Goal", 3);
+		final Map<String, Map<String, Set<String>>> revisedRelMap = idFeatureExtractorName.isPresent() ?
+				Collections.<String, Map<String, Set<String>>>emptyMap() :
+				ImmutableMap.<String, Map<String, Set<String>>>of(
+						"go", ImmutableMap.<String, Set<String>>of("move", ImmutableSet.of("synonym")));
+		final Map<String, Set<String>> relatedWords = idFeatureExtractorName.isPresent() ?
+				Collections.<String, Set<String>>emptyMap() :
+				ImmutableMap.<String, Set<String>>of("go", ImmutableSet.of("move"));
+		return new ModelBundle(
+				set("go", "move", "head", "leader"),
+				frameMap(),
+				frameMap(),
+				new SmoothedGraph(fineMap, coarseMap),
+				idFeatureExtractorName,
+				idParams,
+				ImmutableMap.of("went_VBD", "go", "heads_NNS", "head"),
+				revisedRelMap,
+				relatedWords,
+				frameElements,
+				featureIndex,
+				new double[] { 0.5, -1.0, 2.0, 1e-300 });
+	}
+
+	private static void assertBundlesEqual(ModelBundle expected, ModelBundle actual) {
+		assertEquals(expected.allRelatedWords, actual.allRelatedWords);
+		assertEquals(expected.frameMap, actual.frameMap);
+		assertEquals(expected.cMap, actual.cMap);
+		assertEquals(expected.graph.getFineMap(), actual.graph.getFineMap());
+		assertEquals(expected.graph.getCoarseMap(), actual.graph.getCoarseMap());
+		assertEquals(expected.idFeatureExtractorName, actual.idFeatureExtractorName);
+		assertEquals(expected.idParams, actual.idParams);
+		assertEquals(expected.hvLemmaCache, actual.hvLemmaCache);
+		assertEquals(expected.revisedRelMap, actual.revisedRelMap);
+		assertEquals(expected.relatedWordsForWord, actual.relatedWordsForWord);
+		assertEquals(expected.frameElementsForFrame, actual.frameElementsForFrame);
+		assertEquals(expected.argIdFeatureIndex, actual.argIdFeatureIndex);
+		assertArrayEquals(expected.argModelWeights, actual.argModelWeights, 0.0);
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		final ModelBundle bundle = makeBundle(Optional.of("ancestor"));
+		final File file = folder.newFile(ModelBundle.BUNDLE_FILENAME);
+		bundle.write(file);
+		final ModelBundle read = ModelBundle.read(file);
+		assertBundlesEqual(bundle, read);
+		assertFalse(read.getFrameIdentifier() instanceof LatentGraphBasedFrameIdentifier);
+		assertArrayEquals(new String[] {"Leader"}, read.getFrameElementDict().lookupFrameElements("Leadership"));
+		// the hidden unit lemmas are preloaded, like when loading from the individual model files
+		final Semafor semafor = Semafor.fromBundle(read, Optional.<ExecutorService>absent());
+		assertEquals(2, semafor.lemmatizer.size());
+		assertEquals(0, semafor.lemmatizer.stats().requestCount());
+		// the temporary file holding the body is cleaned up
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+
+	@Test
+	public void testRoundTripLatentModel() throws Exception {
+		final ModelBundle bundle = makeBundle(Optional.<String>absent());
+		final File file = folder.newFile(ModelBundle.BUNDLE_FILENAME);
+		bundle.write(file);
+		final ModelBundle read = ModelBundle.read(file);
+		assertBundlesEqual(bundle, read);
+		assertTrue(read.getFrameIdentifier() instanceof LatentGraphBasedFrameIdentifier);
+	}
+
+	@Test
+	public void testHasUpToDateBundle() throws Exception {
+		final File modelDirectory = folder.getRoot();
+		assertFalse(ModelBundle.hasUpToDateBundle(modelDirectory));
+		final File bundleFile = new File(modelDirectory, ModelBundle.BUNDLE_FILENAME);
+		makeBundle(Optional.of("basic")).write(bundleFile);
+		assertTrue(ModelBundle.hasUpToDateBundle(modelDirectory));
+		final File alphabet = new File(modelDirectory, Semafor.ALPHABET_FILENAME);
+		assertTrue(alphabet.createNewFile());
+		assertTrue(alphabet.setLastModified(bundleFile.lastModified() + 10000));
+		assertFalse(ModelBundle.hasUpToDateBundle(modelDirectory));
+	}
+
+	@Test
+	public void testReadTruncatedBundleFails() throws Exception {
+		final File file = folder.newFile(ModelBundle.BUNDLE_FILENAME);
+		makeBundle(Optional.of("ancestor")).write(file);
+		final RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(output.length() - 8);
+		} finally {
+			output.close();
+		}
+		try {
+			ModelBundle.read(file);
+			fail("expected an IOException");
+		} catch (IOException expected) { }
+	}
+
+	@Test
+	public void testWriteReplacesExistingBundle() throws Exception {
+		final File file = folder.newFile(ModelBundle.BUNDLE_FILENAME);
+		makeBundle(Optional.<String>absent()).write(file);
+		final ModelBundle bundle = makeBundle(Optional.of("ancestor"));
+		bundle.write(file);
+		assertBundlesEqual(bundle, ModelBundle.read(file));
+		assertEquals(1, folder.getRoot().listFiles().length);
+	}
+}
@@ -0,0 +1,77 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
+import gnu.trove.THashSet;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SemaforSocketServerTest {
+	private static final String SENTENCE = ConllCodec.encode(MaltCodec.decode(
+			"My/PRP$/2/NMOD kitchen/NN/5/SBJ no/RB/5/ADV longer/RB/3/AMOD smells/VBZ/0/ROOT ././5/P"));
+	private static final int TIMEOUT_MILLIS = 10000;
+
+	/** A Semafor with no targets, so every sentence parses (quickly) to an empty frame list */
+	private static Semafor makeSemafor() {
+		return new Semafor(ImmutableSet.<String>of(), new FEDict(ImmutableMap.<String, THashSet<String>>of()),
+				new RoteSegmenter(ImmutableSet.<String>of()), null, new Decoding(new double[1]),
+				ImmutableMap.<String, Integer>of());
+	}
+
+	@Test
+	public void testWorkerPoolShutDownMidStream() throws Exception {
+		final ExecutorService workerPool = Executors.newSingleThreadExecutor();
+		final SemaforSocketServer server = new SemaforSocketServer(makeSemafor(), 0, workerPool, 1);
+		final Thread serving = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					server.serve();
+				} catch (InterruptedException ignored) { }
+			} });
+		serving.start();
+		final Socket socket = new Socket("localhost", server.getLocalPort());
+		try {
+			socket.setSoTimeout(TIMEOUT_MILLIS);
+			final Writer output = new OutputStreamWriter(socket.getOutputStream(), Charsets.UTF_8);
+			final BufferedReader input =
+					new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+			output.write(SENTENCE);
+			output.flush();
+			final String first = input.readLine();
+			assertTrue(first.startsWith("{\"frames\""));
+
+			workerPool.shutdown();
+			assertTrue(workerPool.awaitTermination(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+			output.write(SENTENCE);
+			output.write(SENTENCE);
+			output.flush();
+			// the sentence that got rejected is still answered, then the connection is closed instead of hanging
+			assertEquals(first, input.readLine());
+			assertNull(input.readLine());
+		} finally {
+			socket.close();
+			server.shutdown();
+		}
+		serving.join(TIMEOUT_MILLIS);
+		assertFalse(serving.isAlive());
+	}
+}
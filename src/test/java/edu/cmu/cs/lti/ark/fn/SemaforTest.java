@@ -0,0 +1,74 @@
+package edu.cmu.cs.lti.ark.fn;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.parsing.DataPrep;
+import edu.cmu.cs.lti.ark.fn.parsing.Decoding;
+import edu.cmu.cs.lti.ark.fn.parsing.FEDict;
+import edu.cmu.cs.lti.ark.fn.parsing.FeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.parsing.SemaforParseResult;
+import edu.cmu.cs.lti.ark.fn.segmentation.RoteSegmenter;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import gnu.trove.THashSet;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.*;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static org.junit.Assert.assertEquals;
+
+public class SemaforTest {
+	private static final String MALT_LINE =
+			"My/PRP$/2/NMOD kitchen/NN/5/SBJ no/RB/5/ADV longer/RB/3/AMOD smells/VBZ/0/ROOT ././5/P";
+	private static final Map<String, THashSet<String>> FRAME_ELEMENTS = ImmutableMap.of(
+			"Temporal_collocation", new THashSet<String>(Arrays.asList("Trajector_event", "Landmark_period", "Time")),
+			"Perception_passive", new THashSet<String>(Arrays.asList("Phenomenon", "Perceiver_passive")));
+	private static final List<Pair<List<Integer>, String>> ID_RESULTS = ImmutableList.of(
+			Pair.<List<Integer>, String>of(ImmutableList.of(2, 3), "Temporal_collocation"),
+			Pair.<List<Integer>, String>of(ImmutableList.of(4), "Perception_passive"));
+
+	/** An alphabet of every feature that fires for the targets in ID_RESULTS, with random weights */
+	private static Semafor makeSemafor(SentenceAnalysis analysis) {
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		final Map<String, Integer> alphabet = Maps.newHashMap();
+		for (Pair<List<Integer>, String> targetAndFrame : ID_RESULTS) {
+			final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(analysis,
+					targetAndFrame.second, "x.v", new int[] {targetAndFrame.first.get(0)}, 0);
+			for (SpanAndParseIdx span : DataPrep.findSpans(dataPoint, 1)) {
+				for (String role : FRAME_ELEMENTS.get(targetAndFrame.second)) {
+					for (String feature : featureExtractor.extractFeatures(dataPoint, targetAndFrame.second, role,
+							span.span, dataPoint.getParses().getBestParse()).elementSet()) {
+						if (!alphabet.containsKey(feature)) alphabet.put(feature, alphabet.size() + 1);
+					}
+				}
+			}
+		}
+		final Random random = new Random(0);
+		final double[] weights = new double[alphabet.size() + 1];
+		for (int i = 0; i < weights.length; i++) weights[i] = random.nextGaussian();
+		return new Semafor(ImmutableSet.<String>of(), new FEDict(FRAME_ELEMENTS),
+				new RoteSegmenter(ImmutableSet.<String>of()), null, new Decoding(weights), alphabet);
+	}
+
+	@Test
+	public void testPredictArgumentsMatchesLineFormat() throws Exception {
+		final Sentence sentence = MaltCodec.decode(MALT_LINE);
+		final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+		final Semafor semafor = makeSemafor(analysis);
+		final List<String> argResult =
+				semafor.predictArgumentLines(analysis, semafor.getArgumentIdInput(analysis, ID_RESULTS), 1);
+		final String expected = semafor.getSemaforParseResult(sentence, argResult).toJson();
+		final SemaforParseResult result = semafor.predictArguments(analysis, ID_RESULTS);
+		assertEquals(expected, result.toJson());
+		final StringWriter streamed = new StringWriter();
+		result.writeJson(streamed);
+		assertEquals(expected, streamed.toString());
+	}
+}
@@ -1,5 +1,6 @@
 package edu.cmu.cs.lti.ark.fn.data.prep.formats;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.BiMap;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.io.Resources;
@@ -7,7 +8,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.util.List;
 
 import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.collect.ImmutableList.copyOf;
@@ -15,6 +18,7 @@ import static com.google.common.io.Resources.getResource;
 import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.*;
 import static org.apache.commons.io.IOUtils.closeQuietly;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 
 /**
@@ -87,4 +91,50 @@ public class SentenceTest {
 	public void testMaltToTokenized() throws IOException {
 		testFromTo(MALT_FILENAME, TOKENIZED_FILENAME);
 	}
+
+	@Test
+	public void testParallelReadMatchesSerialRead() throws IOException {
+		final String conll = Resources.toString(getResource(CONNL_FILENAME), UTF_8);
+		// enough copies to span several chunks
+		final String input = Strings.repeat(conll, 300);
+		final SentenceIterator serial = ConllCodec.readInput(new StringReader(input));
+		final SentenceIterator parallel = ConllCodec.readInput(new StringReader(input), 4);
+		try {
+			assertEquals(writeAll(serial, ConllCodec), writeAll(parallel, ConllCodec));
+		} finally {
+			closeQuietly(serial);
+			closeQuietly(parallel);
+		}
+	}
+
+	@Test
+	public void testExtraBlankLinesAndCarriageReturns() throws IOException {
+		final String line1 = "1\tMy\t_\tPRP$\tPRP$\t_\t2\tNMOD\t_\t_";
+		final String line2 = "2\tkitchen\t_\tNN\tNN\t_\t0\tROOT\t_\t_";
+		final String input = "\n\n" + line1 + "\r\n" + line2 + "\r\n\r\n \n\n" + line1 + "\n";
+		final List<Sentence> sentences = copyOf(ConllCodec.readInput(new StringReader(input)));
+		assertEquals(2, sentences.size());
+		assertEquals(line1 + "\n" + line2 + "\n\n", ConllCodec.encode(sentences.get(0)));
+		assertEquals(line1 + "\n\n", ConllCodec.encode(sentences.get(1)));
+	}
+
+	@Test
+	public void testDecodeFromCharRange() {
+		final char[] chars = "xx 1\tMy\t_\tPRP$\tPRP$\t_\t-2\tNMOD\t_\t_ xx".toCharArray();
+		final Token token = Token.fromConll(chars, 2, chars.length - 2);
+		assertEquals(Integer.valueOf(1), token.getId());
+		assertEquals("My", token.getForm());
+		assertNull(token.getLemma());
+		assertEquals("PRP$", token.getPostag());
+		assertEquals(Integer.valueOf(-2), token.getHead());
+		assertNull(token.getPhead());
+		final Sentence sentence = MaltCodec.decode("My/PRP$/2/NMOD kitchen/NN/0/ROOT\t1");
+		assertEquals(2, sentence.getTokens().size());
+		assertEquals("ROOT", sentence.getTokens().get(1).getDeprel());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongNumberOfConllFieldsFails() {
+		Token.fromConll("1\tMy\t_\tPRP$\tPRP$\t_\t2\tNMOD\t_");
+	}
 }
@@ -0,0 +1,119 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import static edu.cmu.cs.lti.ark.fn.identification.GraphBasedFrameIdentifier.GRAPH_FILENAME;
+import static edu.cmu.cs.lti.ark.util.SerializedObjects.writeSerializedObject;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CompactGraphTest {
+	private static final Map<String, Set<String>> FINE_MAP = ImmutableMap.<String, Set<String>>of(
+			"run.v", ImmutableSet.of("Self_motion", "Operating_a_system"),
+			"dash.n", ImmutableSet.of("Motion"),
+			"@th.a", ImmutableSet.of("Ordinal_numbers"));
+	private static final Map<String, Set<String>> COARSE_MAP = ImmutableMap.<String, Set<String>>of(
+			"run", ImmutableSet.of("Self_motion", "Operating_a_system", "Motion"),
+			"give up", ImmutableSet.of("Surrendering"),
+			"@th", ImmutableSet.of("Ordinal_numbers"));
+
+	private static CompactGraph graph() {
+		return CompactGraph.fromSmoothedGraph(new SmoothedGraph(FINE_MAP, COARSE_MAP));
+	}
+
+	@Test
+	public void testLookUpsMatchSmoothedGraph() {
+		final CompactGraph graph = graph();
+		assertEquals(3, graph.numFinePredicates());
+		assertEquals(3, graph.numCoarsePredicates());
+		assertEquals(FINE_MAP.get("run.v"), graph.getFineFrames("run", "v").get());
+		assertEquals(FINE_MAP.get("dash.n"), graph.getFineFrames("dash", "n").get());
+		assertFalse(graph.getFineFrames("dash", "v").isPresent());
+		assertEquals(COARSE_MAP.get("run"), graph.getCoarseFrames("run").get());
+		assertEquals(COARSE_MAP.get("give up"), graph.getCoarseFrames(Arrays.asList("give", "up")).get());
+		assertFalse(graph.getCoarseFrames(Arrays.asList("give", "in")).isPresent());
+		assertFalse(graph.getCoarseFrames("").isPresent());
+	}
+
+	@Test
+	public void testKeysAreCanonicalized() {
+		final CompactGraph graph = graph();
+		assertEquals(FINE_MAP.get("@th.a"), graph.getFineFrames("5th", "a").get());
+		assertEquals(FINE_MAP.get("run.v"), graph.getFineFrames("Run", "V").get());
+		assertEquals(COARSE_MAP.get("@th"), graph.getCoarseFrames("7TH").get());
+		assertEquals(COARSE_MAP.get("give up"), graph.getCoarseFrames(Arrays.asList("Give", "UP")).get());
+	}
+
+	@Test
+	public void testFrameSetContains() {
+		final Set<String> frames = graph().getCoarseFrames("run").get();
+		assertEquals(3, frames.size());
+		assertTrue(frames.contains("Motion"));
+		assertFalse(frames.contains("Surrendering"));
+		assertFalse(frames.contains("No_such_frame"));
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		final File file = File.createTempFile("sparsegraph", ".compact");
+		file.deleteOnExit();
+		graph().write(file);
+		final CompactGraph graph = CompactGraph.read(file);
+		for (Map.Entry<String, Set<String>> entry : COARSE_MAP.entrySet()) {
+			assertEquals(entry.getValue(), graph.getCoarseFrames(Arrays.asList(entry.getKey().split(" "))).get());
+		}
+		assertEquals(FINE_MAP.get("run.v"), graph.getFineFrames("run", "v").get());
+		assertEquals(FINE_MAP.get("@th.a"), graph.getFineFrames("9th", "a").get());
+	}
+
+	private static void truncate(File file) throws IOException {
+		final RandomAccessFile output = new RandomAccessFile(file, "rw");
+		try {
+			output.setLength(output.length() / 2);
+		} finally {
+			output.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testReadTruncatedFileFails() throws Exception {
+		final File file = File.createTempFile("sparsegraph", ".compact");
+		file.deleteOnExit();
+		graph().write(file);
+		truncate(file);
+		CompactGraph.read(file);
+	}
+
+	@Test
+	public void testReadGraphFallsBackOnTruncatedFile() throws Exception {
+		final File modelDirectory = Files.createTempDir();
+		final File graphFile = new File(modelDirectory, GRAPH_FILENAME);
+		final File compactGraphFile = new File(modelDirectory, CompactGraph.COMPACT_GRAPH_FILENAME);
+		try {
+			writeSerializedObject(new SmoothedGraph(FINE_MAP, COARSE_MAP), graphFile.getAbsolutePath());
+			graph().write(compactGraphFile);
+			truncate(compactGraphFile);
+			compactGraphFile.setLastModified(graphFile.lastModified() + 1000);
+			final CompactGraph graph = GraphBasedFrameIdentifier.readGraph(modelDirectory);
+			assertEquals(FINE_MAP.get("run.v"), graph.getFineFrames("run", "v").get());
+			// and the complete graph was saved over the truncated one
+			assertEquals(COARSE_MAP.get("give up"),
+					CompactGraph.read(compactGraphFile).getCoarseFrames(Arrays.asList("give", "up")).get());
+			assertEquals(2, modelDirectory.listFiles().length); // no temp files left behind
+		} finally {
+			for (File file : modelDirectory.listFiles()) file.delete();
+			modelDirectory.delete();
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexedFrameScorerTest {
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testMatchesScoringByName() {
+		final IdFeatureExtractor featureExtractor = new IdFeatureExtractor(false, false, false);
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		params.put("f:Motion aP:V", 1.5);
+		params.put("f:Motion bias", 0.25);
+		params.put("f:Motion sTP:New York_N", 2.0);
+		params.put("f:Arriving aP:V", -1.0);
+		params.put("f:Arriving dH:ROOT", 3.0);
+		params.put("f:Unused aP:V", 7.0);
+		final List<String> frames = ImmutableList.of("Motion", "Arriving", "Unknown");
+		final Map<String, Double> baseFeatures = ImmutableMap.of(
+				"aP:V", 1.0,
+				"bias", 1.0,
+				"sTP:New York_N", 2.0,
+				"unseen", 4.0);
+		// only "Motion" and "Arriving" are known ahead of time
+		final IndexedFrameScorer scorer = new IndexedFrameScorer(params, frames.subList(0, 2), featureExtractor);
+		final IndexedFrameScorer.TargetFeatures targetFeatures = scorer.lookUpBaseFeatures(baseFeatures);
+		for (String frame : frames) {
+			final Map<String, Double> conjoined = new FrameFeatureExtractor.BasicFrameFeatureExtractor()
+					.conjoinAll(ImmutableList.of(frame), baseFeatures).get(frame);
+			double expected = 0.0;
+			for (String feature : conjoined.keySet()) {
+				expected += conjoined.get(feature) * params.get(feature);
+			}
+			assertEquals(frame, expected, scorer.score(frame, targetFeatures), DELTA);
+		}
+		assertEquals(1.5 + 0.25 + 4.0, scorer.score("Motion", targetFeatures), DELTA);
+	}
+}
@@ -0,0 +1,109 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.io.Files;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LabelPropagationTest {
+	private static final double MU = 0.5;
+	private static final double NU = 1e-6;
+
+	/** a chain, seeded with Motion at one end and Self_motion at the other */
+	private static LabelPropagation chain() {
+		return LabelPropagation.builder()
+				.addEdge("run.v", "sprint.v", 1.0)
+				.addEdge("sprint.v", "dash.v", 1.0)
+				.addEdge("dash.v", "dash.n", 1.0)
+				.addSeed("run.v", "Self_motion", 1.0)
+				.addSeed("dash.n", "Motion", 0.75)
+				.addSeed("dash.n", "Fleeing", 0.25)
+				.build();
+	}
+
+	@Test
+	public void testLabelsReachUnseededVertices() throws Exception {
+		final LabelPropagation propagation = chain();
+		final LabelPropagation.Distributions distributions = propagation.propagate(10, MU, NU, 5, 1);
+		final List<Pair<String, Double>> sprint = distributions.get(propagation.getVertexId("sprint.v"));
+		assertEquals("Self_motion", sprint.get(0).first);
+		final List<Pair<String, Double>> dash = distributions.get(propagation.getVertexId("dash.v"));
+		assertEquals("Motion", dash.get(0).first);
+		double total = 0.0;
+		for (Pair<String, Double> labelAndProb : dash) total += labelAndProb.second;
+		assertEquals(1.0, total, 1e-9);
+	}
+
+	@Test
+	public void testOnlyTopLabelsAreKept() throws Exception {
+		final LabelPropagation propagation = chain();
+		final LabelPropagation.Distributions distributions = propagation.propagate(10, MU, NU, 1, 1);
+		for (int v = 0; v < propagation.numVertices(); v++) assertEquals(1, distributions.get(v).size());
+		final SmoothedGraph graph = distributions.toSmoothedGraph(1);
+		assertEquals(ImmutableSet.of("Motion"), graph.getFineMap().get("dash.n"));
+		// the coarse entry is the union of dash.n and dash.v
+		assertEquals(Sets.union(graph.getFineMap().get("dash.n"), graph.getFineMap().get("dash.v")),
+				graph.getCoarseMap().get("dash"));
+	}
+
+	@Test
+	public void testThreadsDontChangeTheResult() throws Exception {
+		final Random random = new Random(1234);
+		final LabelPropagation.Builder builder = LabelPropagation.builder();
+		for (int i = 0; i < 10000; i++) {
+			builder.addEdge("w" + random.nextInt(5000) + ".n", "w" + random.nextInt(5000) + ".n", random.nextDouble());
+		}
+		for (int i = 0; i < 200; i++) builder.addSeed("w" + i + ".n", "Frame" + random.nextInt(30), 1.0);
+		final LabelPropagation propagation = builder.build();
+		final LabelPropagation.Distributions serial = propagation.propagate(5, MU, NU, 4, 1);
+		final LabelPropagation.Distributions parallel = propagation.propagate(5, MU, NU, 4, 3);
+		for (int v = 0; v < propagation.numVertices(); v++) assertEquals(serial.get(v), parallel.get(v));
+	}
+
+	@Test
+	public void testWrittenGraphCanBeRead() throws Exception {
+		final File neighbors = File.createTempFile("neighbors", ".txt");
+		neighbors.deleteOnExit();
+		Files.write("run.v\tsprint.v\t0.9\tjog.v\t0.5\twalk.v\t0.1\n", neighbors, Charsets.UTF_8);
+		final File seeds = File.createTempFile("seeds", ".txt");
+		seeds.deleteOnExit();
+		Files.write("run.v\tSelf_motion 0.8 Fleeing 0.2\n", seeds, Charsets.UTF_8);
+		final LabelPropagation propagation = LabelPropagation.builder()
+				.readSeedFile(seeds)
+				.readNeighborFile(neighbors, 2)
+				.build();
+		// walk.v isn't one of the 2 nearest neighbors
+		assertEquals(-1, propagation.getVertexId("walk.v"));
+		assertEquals(4, propagation.numEdges());
+		final File output = File.createTempFile("smoothed.graph", "");
+		output.deleteOnExit();
+		propagation.propagate(5, MU, NU, 2, 2).write(output);
+		final SmoothedGraph graph = new SmoothedGraph(output.getAbsolutePath(), 2);
+		assertEquals(ImmutableSet.of("Self_motion", "Fleeing"), graph.getFineMap().get("jog.v"));
+		assertTrue(graph.getCoarseMap().containsKey("sprint"));
+	}
+
+	@Test
+	public void testShortLinesCanBeRead() throws Exception {
+		final LabelPropagation propagation = LabelPropagation.builder()
+				.addEdge("run.v", "sprint.v", 1.0)
+				.addSeed("run.v", "Self_motion", 1.0)
+				.build();
+		final File output = File.createTempFile("smoothed.graph", "");
+		output.deleteOnExit();
+		// only one label reaches each vertex, fewer than t
+		propagation.propagate(5, MU, NU, 5, 1).write(output);
+		final SmoothedGraph graph = new SmoothedGraph(output.getAbsolutePath(), 3);
+		assertEquals(ImmutableSet.of("Self_motion"), graph.getFineMap().get("sprint.v"));
+		assertEquals(ImmutableSet.of("Self_motion"), graph.getCoarseMap().get("run"));
+	}
+}
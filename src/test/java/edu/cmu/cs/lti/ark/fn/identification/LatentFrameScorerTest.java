@@ -0,0 +1,94 @@
+package edu.cmu.cs.lti.ark.fn.identification;
+
+import com.google.common.collect.ImmutableSet;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.identification.latentmodel.LatentFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.fn.wordnet.Relations;
+import edu.cmu.cs.lti.ark.fn.wordnet.WordNetRelations;
+import edu.cmu.cs.lti.ark.util.ds.map.IntCounter;
+import edu.cmu.cs.lti.ark.util.nlp.MorphaLemmatizer;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import gnu.trove.TObjectDoubleHashMap;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatentFrameScorerTest {
+	private static final double DELTA = 1e-9;
+	private static final String ALL_LEMMA_TAGS = "5\t" +
+			"The\tdogs\tran\thome\t.\t" +
+			"DT\tNNS\tVBD\tNN\t.\t" +
+			"NMOD\tSBJ\tROOT\tADV\tP\t" +
+			"2\t3\t0\t3\t3\t" +
+			"O\tO\tO\tO\tO\t" +
+			"the\tdog\trun\thome\t.";
+
+	/** "ran" is a synonym of "sprinted", and nothing else is related */
+	private static final Relations RELATIONS = new Relations() {
+		@Override public Set<String> getRelations(String actualTokens, String hiddenUnitTokens) {
+			if (actualTokens.equals("ran") && hiddenUnitTokens.equals("sprinted")) return ImmutableSet.of("synonym");
+			return ImmutableSet.of(WordNetRelations.NO_RELATION);
+		} };
+
+	@Test
+	public void testMatchesScoringEachHiddenUnitByName() {
+		final LatentFeatureExtractor featureExtractor = new LatentFeatureExtractor(RELATIONS, new MorphaLemmatizer());
+		final THashMap<String, THashSet<String>> hiddenUnitsByFrame = new THashMap<String, THashSet<String>>();
+		hiddenUnitsByFrame.put("Self_motion", new THashSet<String>(Arrays.asList("ran_VBD", "sprinted_VBD", "walk_VB")));
+		hiddenUnitsByFrame.put("Operating_a_system", new THashSet<String>(Arrays.asList("run_VB", "operate_VB")));
+		final SentenceAnalysis sentence =
+				new SentenceAnalysis(Sentence.fromAllLemmaTagsArray(AllLemmaTags.readLine(ALL_LEMMA_TAGS)));
+		final int[] targetTokenIdxs = {2};
+		// give a random weight to every feature that comes up, and to a few that don't
+		final Random random = new Random(0);
+		final TObjectDoubleHashMap<String> params = new TObjectDoubleHashMap<String>();
+		for (String frame : hiddenUnitsByFrame.keySet()) {
+			for (String hiddenUnit : hiddenUnitsByFrame.get(frame)) {
+				for (String feature : extract(featureExtractor, frame, targetTokenIdxs, hiddenUnit, sentence).keySet()) {
+					params.put(feature, random.nextGaussian());
+				}
+			}
+		}
+		params.put("hT:walk_V_f:Operating_a_system", 10.0);
+		params.put("unrelated", 10.0);
+
+		final LatentFrameScorer scorer = new LatentFrameScorer(featureExtractor, hiddenUnitsByFrame, params);
+		final LatentFrameScorer.TargetFeatures targetFeatures = scorer.extractTargetFeatures(targetTokenIdxs, sentence);
+		for (String frame : hiddenUnitsByFrame.keySet()) {
+			double expected = 0.0;
+			for (String hiddenUnit : hiddenUnitsByFrame.get(frame)) {
+				final IntCounter<String> features = extract(featureExtractor, frame, targetTokenIdxs, hiddenUnit, sentence);
+				double featSum = 0.0;
+				for (String feature : features.keySet()) {
+					featSum += features.getT(feature) * params.get(feature);
+				}
+				expected += Math.exp(featSum);
+			}
+			assertEquals(frame, Math.log(expected), scorer.score(frame, targetFeatures), DELTA);
+		}
+		assertEquals(Double.NEGATIVE_INFINITY, scorer.score("Unknown_frame", targetFeatures), 0.0);
+	}
+
+	@Test
+	public void testLogSumExpDoesNotOverflow() {
+		assertEquals(1000.0 + Math.log(2), LatentFrameScorer.logSumExp(new double[] {1000.0, 1000.0}), DELTA);
+		assertEquals(-1000.0 + Math.log(2), LatentFrameScorer.logSumExp(new double[] {-1000.0, -1000.0}), DELTA);
+		assertEquals(Double.NEGATIVE_INFINITY, LatentFrameScorer.logSumExp(new double[0]), 0.0);
+	}
+
+	private static IntCounter<String> extract(LatentFeatureExtractor featureExtractor,
+											  String frame,
+											  int[] targetTokenIdxs,
+											  String hiddenUnit,
+											  SentenceAnalysis sentence) {
+		return featureExtractor.extractFeatures(
+				frame, targetTokenIdxs, hiddenUnit, sentence.getAllLemmaTags(), sentence.getParse(), true);
+	}
+}
@@ -0,0 +1,43 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+import gnu.trove.THashMap;
+import gnu.trove.THashSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class ExtractTrainingFeaturesTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testFactoredEventsRejectAPartialRange() throws Exception {
+		final File frameElementsFile = folder.newFile("train.frame.elements");
+		Files.write("line 0\nline 1\nline 2\n", frameElementsFile, Charsets.UTF_8);
+		final ExtractTrainingFeatures extractor = new ExtractTrainingFeatures(
+				ImmutableMap.<String, Integer>of(),
+				folder.getRoot(),
+				frameElementsFile.getAbsolutePath(),
+				folder.newFile("train.parses").getAbsolutePath(),
+				new THashMap<String, THashSet<String>>(),
+				null,
+				1,
+				3,
+				1,
+				null);
+		// another shard would overwrite this one's factored events
+		try {
+			extractor.createFactoredEvents();
+			fail("expected an IllegalArgumentException");
+		} catch (IllegalArgumentException expected) { }
+		assertFalse(new File(folder.getRoot(), FactoredEvents.FACTORED_EVENTS_FILENAME).exists());
+	}
+}
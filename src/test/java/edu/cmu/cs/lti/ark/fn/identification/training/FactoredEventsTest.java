@@ -0,0 +1,93 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+import edu.cmu.cs.lti.ark.fn.identification.FrameCosts;
+import edu.cmu.cs.lti.ark.fn.identification.FrameFeatureExtractor;
+import edu.cmu.cs.lti.ark.fn.identification.IdFeatureExtractor;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FactoredEventsTest {
+	private static final double DELTA = 1e-9;
+	private final List<String> frames = ImmutableList.of("A", "B", "C");
+	private final Map<String, Integer> alphabet = ImmutableMap.<String, Integer>builder()
+			.put("f:A aP:V", 0)
+			.put("f:A bias", 1)
+			.put("f:B aP:V", 2)
+			.put("f:C bias", 3)
+			.put("f:B x y", 4)
+			.put("unconjoined", 5)
+			.build();
+	private final List<Map<String, Double>> baseFeaturesByTarget = ImmutableList.<Map<String, Double>>of(
+			ImmutableMap.of("aP:V", 1.0, "bias", 1.0, "x y", 2.0, "unseen", 3.0),
+			ImmutableMap.of("bias", 1.0));
+	private final List<String> goldFrames = ImmutableList.of("B", "C");
+	private final double[] weights = {1.0, 10.0, 100.0, 1000.0, 10000.0, 100000.0};
+
+	private FactoredEvents build() {
+		final Table<String, String, Float> costs = HashBasedTable.create();
+		costs.put("B", "A", 0.5f);
+		final FactoredEvents.Builder builder = new FactoredEvents.Builder(
+				frames, new IdFeatureExtractor(false, false, false), alphabet, new FrameCosts(costs));
+		for (int i = 0; i < goldFrames.size(); i++) builder.addTarget(baseFeaturesByTarget.get(i), goldFrames.get(i));
+		return builder.build();
+	}
+
+	/** the dot product of weights and the conjoined features of frame, computed by name */
+	private double scoreByName(Map<String, Double> baseFeatures, String frame) {
+		final Map<String, Double> conjoined = new FrameFeatureExtractor.BasicFrameFeatureExtractor()
+				.conjoinAll(ImmutableList.of(frame), baseFeatures).get(frame);
+		double result = 0.0;
+		for (String feature : conjoined.keySet()) {
+			if (alphabet.containsKey(feature)) result += weights[alphabet.get(feature)] * conjoined.get(feature);
+		}
+		return result;
+	}
+
+	private void checkEvents(FactoredEvents events) {
+		assertEquals(2, events.numTargets());
+		assertEquals(3, events.numFrames());
+		assertEquals(1, events.getGoldFrame(0));
+		assertEquals(2, events.getGoldFrame(1));
+		assertEquals(0.5f, events.getCost(0, 0), 0f);
+		assertEquals(0f, events.getCost(0, 1), 0f);
+		assertEquals(FrameCosts.DEFAULT_COST, events.getCost(0, 2), 0f);
+		final double[] scratch = new double[events.numFrameFeatures()];
+		final double[] scores = new double[events.numFrames()];
+		for (int t = 0; t < events.numTargets(); t++) {
+			events.score(weights, t, scratch, scores);
+			for (int f = 0; f < frames.size(); f++) {
+				assertEquals(scoreByName(baseFeaturesByTarget.get(t), frames.get(f)), scores[f], DELTA);
+			}
+		}
+		// gradient of frame B's score
+		final double[] gradient = new double[weights.length];
+		events.addTo(gradient, 0, new double[] {0.0, 1.0, 0.0}, scratch);
+		assertArrayEquals(new double[] {0.0, 0.0, 1.0, 0.0, 2.0, 0.0}, gradient, DELTA);
+		// everything but the gold frame, negated
+		events.addTo(gradient, 0, new double[] {-1.0, 0.0, -1.0}, scratch);
+		assertArrayEquals(new double[] {-1.0, -1.0, 1.0, -1.0, 2.0, 0.0}, gradient, DELTA);
+	}
+
+	@Test
+	public void testBuild() {
+		checkEvents(build());
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		final File file = File.createTempFile("events", ".factored");
+		file.deleteOnExit();
+		build().write(file);
+		checkEvents(FactoredEvents.read(file));
+	}
+}
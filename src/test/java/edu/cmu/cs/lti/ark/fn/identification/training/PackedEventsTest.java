@@ -0,0 +1,88 @@
+package edu.cmu.cs.lti.ark.fn.identification.training;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import gnu.trove.TIntDoubleHashMap;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static edu.cmu.cs.lti.ark.util.SerializedObjects.writeSerializedObject;
+import static org.junit.Assert.assertEquals;
+
+public class PackedEventsTest {
+	private static TIntDoubleHashMap features(int[] idxs, double[] values) {
+		final TIntDoubleHashMap result = new TIntDoubleHashMap();
+		for (int i = 0; i < idxs.length; i++) result.put(idxs[i], values[i]);
+		return result;
+	}
+
+	private final ImmutableList<FeaturesAndCost[]> featuresByTarget = ImmutableList.of(
+			new FeaturesAndCost[] {
+					new FeaturesAndCost(features(new int[] {0, 3}, new double[] {1.0, 2.0}), 0f),
+					new FeaturesAndCost(features(new int[] {1}, new double[] {1.0}), 0.5f)
+			},
+			new FeaturesAndCost[] {
+					new FeaturesAndCost(features(new int[] {}, new double[] {}), 0f),
+					new FeaturesAndCost(features(new int[] {2, 3}, new double[] {1.0, 3.0}), 0.25f),
+					new FeaturesAndCost(features(new int[] {0}, new double[] {4.0}), 1f)
+			});
+	private final double[] weights = {1.0, 10.0, 100.0, 1000.0};
+
+	private void checkEvents(PackedEvents events) {
+		assertEquals(2, events.numTargets());
+		assertEquals(2, events.numFrames(0));
+		assertEquals(3, events.numFrames(1));
+		for (int targetIdx = 0; targetIdx < featuresByTarget.size(); targetIdx++) {
+			final FeaturesAndCost[] frames = featuresByTarget.get(targetIdx);
+			for (int frameNum = 0; frameNum < frames.length; frameNum++) {
+				final int frameIdx = events.getFrameIdx(targetIdx, frameNum);
+				assertEquals(frames[frameNum].cost, events.getCost(frameIdx), 0f);
+				assertEquals(frames[frameNum].features, events.getFeatures(frameIdx));
+			}
+		}
+		assertEquals(2001.0, events.dotProduct(weights, events.getFrameIdx(0, 0)), 1e-9);
+		assertEquals(3100.0, events.dotProduct(weights, events.getFrameIdx(1, 1)), 1e-9);
+		final double[] gradient = new double[weights.length];
+		events.addTo(gradient, events.getFrameIdx(1, 2), -0.5);
+		assertEquals(-2.0, gradient[0], 1e-9);
+	}
+
+	@Test
+	public void testPack() {
+		checkEvents(PackedEvents.pack(featuresByTarget));
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		final File file = File.createTempFile("events", ".packed");
+		file.deleteOnExit();
+		PackedEvents.pack(featuresByTarget).write(file);
+		checkEvents(PackedEvents.read(file));
+	}
+
+	@Test
+	public void testFromEventFiles() throws Exception {
+		final File eventsDir = Files.createTempDir();
+		try {
+			final File target0 = new File(eventsDir, "feats_0.jobj.gz");
+			final File target1 = new File(eventsDir, "feats_1.jobj.gz");
+			writeSerializedObject(featuresByTarget.get(0), target0.getAbsolutePath());
+			writeSerializedObject(featuresByTarget.get(1), target1.getAbsolutePath());
+			checkEvents(PackedEvents.fromEventFiles(
+					ImmutableList.of(target0.getAbsolutePath(), target1.getAbsolutePath()), 2));
+			// more files than are read ahead at once, so they have to come back in order
+			final List<String> eventFiles = ImmutableList.of(target0.getAbsolutePath(), target1.getAbsolutePath(),
+					target1.getAbsolutePath(), target0.getAbsolutePath(), target1.getAbsolutePath());
+			final PackedEvents events = PackedEvents.fromEventFiles(eventFiles, 1);
+			assertEquals(5, events.numTargets());
+			final int[] expectedNumFrames = {2, 3, 3, 2, 3};
+			for (int i = 0; i < expectedNumFrames.length; i++) assertEquals(expectedNumFrames[i], events.numFrames(i));
+			assertEquals(2001.0, events.dotProduct(weights, events.getFrameIdx(3, 0)), 1e-9);
+		} finally {
+			for (File file : eventsDir.listFiles()) file.delete();
+			eventsDir.delete();
+		}
+	}
+}
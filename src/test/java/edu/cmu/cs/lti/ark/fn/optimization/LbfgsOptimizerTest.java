@@ -0,0 +1,94 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import com.google.common.base.Function;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class LbfgsOptimizerTest {
+	private static final double[] TARGET = { 3.0, -0.2, 0.05, -4.0, 0.0 };
+
+	/** 0.5 * ||params - target||^2 */
+	private static Function<double[], Pair<Double, double[]>> squaredDistanceTo(final double[] target) {
+		return new Function<double[], Pair<Double, double[]>>() {
+			@Override public Pair<Double, double[]> apply(double[] params) {
+				final double[] gradient = new double[params.length];
+				double value = 0.0;
+				for (int i = 0; i < params.length; i++) {
+					gradient[i] = params[i] - target[i];
+					value += 0.5 * gradient[i] * gradient[i];
+				}
+				return Pair.of(value, gradient);
+			} };
+	}
+
+	/** The Rosenbrock function, minimized at (1, 1) */
+	private static final Function<double[], Pair<Double, double[]>> ROSENBROCK =
+			new Function<double[], Pair<Double, double[]>>() {
+				@Override public Pair<Double, double[]> apply(double[] p) {
+					final double a = 1 - p[0];
+					final double b = p[1] - p[0] * p[0];
+					return Pair.of(a * a + 100 * b * b, new double[] { -2 * a - 400 * p[0] * b, 200 * b });
+				} };
+
+	private static LbfgsOptimizer.Builder tightOptimizer() {
+		return LbfgsOptimizer.builder().convergenceCriterion(LbfgsOptimizer.gradientNormBelow(1e-10));
+	}
+
+	@Test
+	public void testMinimizesQuadratic() throws Exception {
+		final double[] start = new double[TARGET.length];
+		final double[] result = tightOptimizer().build().minimize(squaredDistanceTo(TARGET), start);
+		assertArrayEquals(TARGET, result, 1e-6);
+		assertArrayEquals(new double[TARGET.length], start, 0.0);
+	}
+
+	@Test
+	public void testMinimizesRosenbrock() throws Exception {
+		final double[] result = tightOptimizer().build().minimize(ROSENBROCK, new double[] { -1.2, 1.0 });
+		assertArrayEquals(new double[] { 1.0, 1.0 }, result, 1e-4);
+	}
+
+	@Test
+	public void testL1GivesExactZeros() throws Exception {
+		final double l1Weight = 0.5;
+		final double[] result = tightOptimizer().l1Weight(l1Weight).build()
+				.minimize(squaredDistanceTo(TARGET), new double[] { 1.0, 1.0, 1.0, 1.0, 1.0 });
+		// the minimizer soft-thresholds the target
+		for (int i = 0; i < TARGET.length; i++) {
+			final double expected = Math.signum(TARGET[i]) * Math.max(Math.abs(TARGET[i]) - l1Weight, 0.0);
+			if (expected == 0.0) {
+				assertEquals(0.0, result[i], 0.0);
+			} else {
+				assertEquals(expected, result[i], 1e-6);
+			}
+		}
+	}
+
+	@Test
+	public void testRunsCanOverlap() throws Exception {
+		final LbfgsOptimizer optimizer = tightOptimizer().build();
+		final ExecutorService threads = Executors.newFixedThreadPool(2);
+		try {
+			final Future<double[]> rosenbrock = threads.submit(new Callable<double[]>() {
+				@Override public double[] call() throws Exception {
+					return optimizer.minimize(ROSENBROCK, new double[] { -1.2, 1.0 });
+				} });
+			final Future<double[]> quadratic = threads.submit(new Callable<double[]>() {
+				@Override public double[] call() throws Exception {
+					return optimizer.minimize(squaredDistanceTo(new double[] { 5.0, 6.0 }), new double[2]);
+				} });
+			assertArrayEquals(new double[] { 1.0, 1.0 }, rosenbrock.get(), 1e-4);
+			assertArrayEquals(new double[] { 5.0, 6.0 }, quadratic.get(), 1e-6);
+		} finally {
+			threads.shutdown();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package edu.cmu.cs.lti.ark.fn.optimization;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TrainingExecutorTest {
+	// spans a few chunks, so that most of them go untouched by any one example
+	private static final int MODEL_SIZE = 5 * GradientAccumulator.CHUNK_SIZE + 17;
+
+	/** Each example touches a handful of random features */
+	private static int[][] makeExamples(Random random, int numExamples) {
+		final int[][] examples = new int[numExamples][];
+		for (int i = 0; i < numExamples; i++) {
+			examples[i] = new int[1 + random.nextInt(4)];
+			for (int k = 0; k < examples[i].length; k++) examples[i][k] = random.nextInt(MODEL_SIZE);
+		}
+		return examples;
+	}
+
+	private static TrainingExecutor.Loss lossOf(final int[][] examples) {
+		return new TrainingExecutor.Loss() {
+			@Override public double addLossAndGradient(int exampleIdx, GradientAccumulator gradient) {
+				for (int feat : examples[exampleIdx]) gradient.add(feat, exampleIdx + 1);
+				return exampleIdx;
+			} };
+	}
+
+	@Test
+	public void testMatchesSerialSum() throws Exception {
+		final int[][] examples = makeExamples(new Random(1234), 1001);
+		final double[] expectedGradient = new double[MODEL_SIZE];
+		double expectedValue = 0.0;
+		for (int i = 0; i < examples.length; i++) {
+			for (int feat : examples[i]) expectedGradient[feat] += i + 1;
+			expectedValue += i;
+		}
+		final TrainingExecutor executor = new TrainingExecutor(3, MODEL_SIZE);
+		try {
+			final double[] gradient = new double[MODEL_SIZE];
+			// a second pass must not see anything left over from the first
+			for (int pass = 0; pass < 2; pass++) {
+				Arrays.fill(gradient, 42.0);
+				assertEquals(expectedValue, executor.computeValueAndGradient(examples.length, 7, lossOf(examples), gradient), 1e-9);
+				assertArrayEquals(expectedGradient, gradient, 1e-9);
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testFailedPassDoesNotLeakIntoNextPass() throws Exception {
+		final int[][] examples = makeExamples(new Random(4321), 100);
+		final TrainingExecutor executor = new TrainingExecutor(2, MODEL_SIZE);
+		try {
+			try {
+				executor.computeValueAndGradient(examples.length, 5, new TrainingExecutor.Loss() {
+					@Override public double addLossAndGradient(int exampleIdx, GradientAccumulator gradient)
+							throws Exception {
+						gradient.add(exampleIdx, 1.0);
+						if (exampleIdx == 50) throw new Exception("bad example");
+						return 0.0;
+					} }, new double[MODEL_SIZE]);
+				fail("expected the example's exception to be rethrown");
+			} catch (RuntimeException expected) { }
+			final double[] gradient = new double[MODEL_SIZE];
+			executor.computeValueAndGradient(1, 5, new TrainingExecutor.Loss() {
+				@Override public double addLossAndGradient(int exampleIdx, GradientAccumulator gradient) {
+					return 0.0;
+				} }, gradient);
+			assertArrayEquals(new double[MODEL_SIZE], gradient, 0.0);
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
+import edu.cmu.cs.lti.ark.util.ds.Range0Based;
+import edu.cmu.cs.lti.ark.util.nlp.parse.DependencyParse;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Random;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.CandidateFrameElementFilters.createSpanRange;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.NON_BREAKING_LEFT_CONSTITUENT_POS;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx.EMPTY_SPAN_AND_PARSE_IDX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CandidateSpanIndexTest {
+	private static final String MALT_LINE =
+			"My/PRP$/2/NMOD kitchen/NN/5/SBJ no/RB/5/ADV longer/RB/3/AMOD smells/VBZ/0/ROOT ././5/P";
+
+	/** How DataPrep.findSpans used to do it, with length x length matrices */
+	private static List<SpanAndParseIdx> findSpansWithMatrix(DataPointWithFrameElements dataPoint) {
+		final DependencyParse[] nodes = dataPoint.getParses().getBestParse().getIndexSortedListOfNodes();
+		final int length = nodes.length - 1;
+		final boolean[][] spanMatrix = new boolean[length][length];
+		for (Range0Based span : dataPoint.getOvertFrameElementFillerSpans()) {
+			spanMatrix[span.start][span.end] = true;
+		}
+		final int[] left = new int[length];
+		final int[] right = new int[length];
+		final int[] parent = new int[length];
+		for (int i = 0; i < length; i++) {
+			parent[i] = nodes[i + 1].getParentIndex() - 1;
+			left[i] = i;
+			right[i] = i;
+		}
+		for (int i = 0; i < length; i++) {
+			int parentIndex = parent[i];
+			while (parentIndex >= 0) {
+				if (left[parentIndex] > i) {
+					left[parentIndex] = i;
+				} else if (right[parentIndex] < i) {
+					right[parentIndex] = i;
+				}
+				parentIndex = parent[parentIndex];
+			}
+		}
+		for (int i = 0; i < length; i++) {
+			spanMatrix[left[i]][right[i]] = true;
+			spanMatrix[i][i] = true;
+		}
+		for (int i = 0; i < length; i++) {
+			if (!(left[i] < i && right[i] > i)) continue;
+			final int justLeft = i - 1;
+			if (spanMatrix[left[i]][justLeft]
+					&& !(justLeft == left[i] && NON_BREAKING_LEFT_CONSTITUENT_POS.contains(nodes[justLeft + 1].getPOS()))) {
+				spanMatrix[i][right[i]] = true;
+			}
+			final int justRight = i + 1;
+			if (spanMatrix[justRight][right[i]]) spanMatrix[left[i]][i] = true;
+		}
+		final List<SpanAndParseIdx> spans = Lists.newArrayList();
+		for (int i = 0; i < length; i++) {
+			for (int j = 0; j < length; j++) {
+				if (spanMatrix[i][j]) spans.add(new SpanAndParseIdx(createSpanRange(i, j), 0));
+			}
+		}
+		spans.add(EMPTY_SPAN_AND_PARSE_IDX);
+		return spans;
+	}
+
+	@Test
+	public void testMatchesMatrixWithAndWithoutGoldSpans() throws Exception {
+		final String conll = Resources.toString(Resources.getResource("fixtures/example.conll"), Charsets.UTF_8);
+		final Random random = new Random(0);
+		for (Sentence sentence : ImmutableList.copyOf(ConllCodec.readInput(new StringReader(conll)))) {
+			final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+			final int length = sentence.size();
+			for (int trial = 0; trial < 20; trial++) {
+				// a target with a few random gold spans (none on the first trial)
+				final StringBuilder feLine = new StringBuilder("\tTarget_frame\tx.v\t0\tx\t0");
+				final int numGoldSpans = trial == 0 ? 0 : 1 + random.nextInt(3);
+				for (int i = 0; i < numGoldSpans; i++) {
+					final int start = random.nextInt(length);
+					final int end = start + random.nextInt(length - start);
+					feLine.append("\tRole_").append(i).append('\t').append(start).append(':').append(end);
+				}
+				final DataPointWithFrameElements dataPoint =
+						new DataPointWithFrameElements(analysis, "0\t1.0\t" + (numGoldSpans + 1) + feLine);
+				final List<SpanAndParseIdx> expected = findSpansWithMatrix(dataPoint);
+				assertEquals(expected, analysis.getCandidateSpans().getCandidates(dataPoint, 1));
+				assertEquals(expected, DataPrep.findSpans(dataPoint, 1));
+			}
+		}
+	}
+
+	@Test
+	public void testHeadsAndSharedCandidates() {
+		final SentenceAnalysis analysis = new SentenceAnalysis(MaltCodec.decode(MALT_LINE));
+		final CandidateSpanIndex index = analysis.getCandidateSpans();
+		for (int i = 0; i < index.size(); i++) {
+			final Range0Based span = index.getSpan(i);
+			if (span.equals(createSpanRange(0, 5))) assertEquals(4, index.getHead(i));  // smells
+			if (span.equals(createSpanRange(0, 1))) assertEquals(1, index.getHead(i));  // my -> kitchen
+			if (span.equals(createSpanRange(2, 3))) assertEquals(2, index.getHead(i));  // no <- longer
+			if (span.start == span.end) assertEquals(span.start, index.getHead(i));
+		}
+		// targets without gold spans all get the same list
+		final DataPointWithFrameElements first = new DataPointWithFrameElements(analysis, "X", "x.v", new int[] {1}, 0);
+		final DataPointWithFrameElements second = new DataPointWithFrameElements(analysis, "Y", "y.v", new int[] {4}, 0);
+		assertSame(index.getCandidates(first, 1), index.getCandidates(second, 1));
+	}
+}
@@ -0,0 +1,67 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.Ints;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.utils.DataPointWithFrameElements;
+import gnu.trove.THashSet;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.MaltCodec;
+import static edu.cmu.cs.lti.ark.fn.parsing.DataPrep.SpanAndParseIdx;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConjoinedFeatureIndexTest {
+	private static final String FRAME = "Temporal_collocation";
+	private static final String[] ROLES = {"Trajector_event", "Landmark_period", "Time"};
+	final String maltLine = "My/PRP$/2/NMOD kitchen/NN/5/SBJ no/RB/5/ADV longer/RB/3/AMOD smells/VBZ/0/ROOT ././5/P";
+	private final Sentence sentence = MaltCodec.decode(maltLine);
+	final String frameElementsLine = "0\t1.0\t1\tTemporal_collocation\tno.r\t2_3\tno longer\t0\n";
+	private final DataPointWithFrameElements dataPoint = new DataPointWithFrameElements(sentence, frameElementsLine);
+
+	@Test
+	public void testMatchesLookupByName() {
+		final FeatureExtractor featureExtractor = new FeatureExtractor();
+		// an alphabet containing some, but not all, of the features that fire
+		final Map<String, Integer> alphabet = Maps.newHashMap();
+		int i = 0;
+		for (SpanAndParseIdx span : DataPrep.findSpans(dataPoint, 1)) {
+			for (String role : ROLES) {
+				for (String feature :
+						featureExtractor.extractFeatures(dataPoint, FRAME, role, span.span, dataPoint.getParses().getBestParse()).elementSet()) {
+					if (!alphabet.containsKey(feature) && i++ % 3 != 0) alphabet.put(feature, alphabet.size() + 1);
+				}
+			}
+		}
+		// features whose names are ambiguous between base and conjoined
+		alphabet.put("OVERT_Time", alphabet.size() + 1);
+		alphabet.put("OVERT_Time_Time", alphabet.size() + 1);
+		final Map<String, THashSet<String>> frameElements =
+				ImmutableMap.of(FRAME, new THashSet<String>(Arrays.asList(ROLES)));
+		final ConjoinedFeatureIndex index = new ConjoinedFeatureIndex(alphabet, new FEDict(frameElements));
+
+		for (SpanAndParseIdx span : DataPrep.findSpans(dataPoint, 1)) {
+			final FeatureExtractor.BaseFeatures baseFeatures =
+					featureExtractor.extractBaseFeatures(dataPoint, span.span, dataPoint.getParses().getBestParse());
+			final int[] baseIds = index.getBaseIds(baseFeatures);
+			for (String role : ROLES) {
+				final Set<String> featureNames =
+						featureExtractor.extractFeatures(dataPoint, FRAME, role, span.span, dataPoint.getParses().getBestParse()).elementSet();
+				final SortedSet<Integer> expected = new TreeSet<Integer>();
+				for (String feature : featureNames) {
+					if (alphabet.containsKey(feature)) expected.add(alphabet.get(feature));
+				}
+				assertTrue(expected.size() > 0);
+				assertArrayEquals(Ints.toArray(expected), index.getFeatureIdxs(baseFeatures, baseIds, FRAME, role));
+			}
+		}
+	}
+}
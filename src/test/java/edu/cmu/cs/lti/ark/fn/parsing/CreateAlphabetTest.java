@@ -0,0 +1,123 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Resources;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.util.ds.Pair;
+import gnu.trove.THashSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec.ConllCodec;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CreateAlphabetTest {
+	private static final int NUM_FRAMES = 5;
+	private static List<String> tagLines;
+	private static List<String> feLines;
+	private static FEDict frameElementDict;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		final String conll = Resources.toString(Resources.getResource("fixtures/example.conll"), Charsets.UTF_8);
+		final List<Sentence> sentences = ImmutableList.copyOf(ConllCodec.readInput(new StringReader(conll)));
+		final Map<String, THashSet<String>> rolesByFrame = Maps.newHashMap();
+		for (int f = 0; f < NUM_FRAMES; f++) {
+			final THashSet<String> roles = new THashSet<String>();
+			for (int r = 0; r <= f; r++) roles.add("Role_" + r);
+			rolesByFrame.put("Frame_" + f, roles);
+		}
+		frameElementDict = new FEDict(rolesByFrame);
+		final Random random = new Random(0);
+		tagLines = Lists.newArrayList();
+		feLines = Lists.newArrayList();
+		for (int sentNum = 0; sentNum < sentences.size(); sentNum++) {
+			final Sentence sentence = sentences.get(sentNum);
+			tagLines.add(AllLemmaTags.makeLine(sentence.toAllLemmaTagsArray()));
+			for (int target = 0; target < sentence.size(); target += 3) {
+				// a gold span for some of the frame's roles
+				final int frame = random.nextInt(NUM_FRAMES);
+				final StringBuilder feLine = new StringBuilder();
+				int numSpans = 1;
+				for (int r = 0; r <= frame; r += 2) {
+					final int start = random.nextInt(sentence.size());
+					final int end = start + random.nextInt(Math.min(3, sentence.size() - start));
+					feLine.append("\tRole_").append(r).append('\t').append(start).append(':').append(end);
+					numSpans++;
+				}
+				feLines.add("0\t1.0\t" + numSpans + "\tFrame_" + frame + "\tx.v\t" + target + "\tx\t" + sentNum + feLine);
+			}
+		}
+	}
+
+	@Test
+	public void testThreadsGetSameAlphabetAndFeatures() throws Exception {
+		final Map<String, Integer> expectedIndex = Maps.newHashMap();
+		final List<Pair<FrameFeatures, List<String>>> expected =
+				new CreateAlphabet(tagLines, feLines, frameElementDict, 1, 1).extract(expectedIndex, true);
+		final Map<String, Integer> featureIndex = Maps.newHashMap();
+		final List<Pair<FrameFeatures, List<String>>> actual =
+				new CreateAlphabet(tagLines, feLines, frameElementDict, 1, 3).extract(featureIndex, true);
+		assertEquals(expectedIndex, featureIndex);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).second, actual.get(i).second);
+			assertSameFeatures(expected.get(i).first, actual.get(i).first);
+		}
+		// with a fixed alphabet, we get the same indices back
+		final List<Pair<FrameFeatures, List<String>>> fixed =
+				new CreateAlphabet(tagLines, feLines, frameElementDict, 1, 3).extract(featureIndex, false);
+		assertEquals(expectedIndex, featureIndex);
+		for (int i = 0; i < expected.size(); i++) assertSameFeatures(expected.get(i).first, fixed.get(i).first);
+	}
+
+	@Test
+	public void testFrameFeaturesMatchLocalFeatureReading() throws Exception {
+		final List<Pair<FrameFeatures, List<String>>> trainData =
+				new CreateAlphabet(tagLines, feLines, frameElementDict, 1, 3)
+						.extract(Maps.<String, Integer>newHashMap(), true);
+		final File eventsFile = File.createTempFile("events", ".bin");
+		eventsFile.deleteOnExit();
+		final File spansFile = File.createTempFile("spans", ".txt");
+		spansFile.deleteOnExit();
+		CreateAlphabet.writeEvents(trainData, eventsFile.getAbsolutePath());
+		CreateAlphabet.writeSpans(trainData, spansFile.getAbsolutePath());
+		final List<FrameFeatures> expected =
+				new LocalFeatureReading(eventsFile.getAbsolutePath(), spansFile.getAbsolutePath(), feLines)
+						.readLocalFeatures();
+		final List<FrameFeatures> actual = CreateAlphabet.toFrameFeatures(trainData);
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertSameFeatures(expected.get(i), actual.get(i));
+			assertEquals(expected.get(i).goldSpanIdxs, actual.get(i).goldSpanIdxs);
+		}
+	}
+
+	private static void assertSameFeatures(FrameFeatures expected, FrameFeatures actual) {
+		assertEquals(expected.frameName, actual.frameName);
+		assertEquals(expected.start, actual.start);
+		assertEquals(expected.end, actual.end);
+		assertEquals(expected.fElements, actual.fElements);
+		assertEquals(expected.fElementSpansAndFeatures.size(), actual.fElementSpansAndFeatures.size());
+		for (int r = 0; r < expected.fElementSpansAndFeatures.size(); r++) {
+			final SpanAndCorrespondingFeatures[] expectedSpans = expected.fElementSpansAndFeatures.get(r);
+			final SpanAndCorrespondingFeatures[] actualSpans = actual.fElementSpansAndFeatures.get(r);
+			assertEquals(expectedSpans.length, actualSpans.length);
+			for (int s = 0; s < expectedSpans.length; s++) {
+				assertArrayEquals(expectedSpans[s].span, actualSpans[s].span);
+				assertArrayEquals(expectedSpans[s].features, actualSpans[s].features);
+			}
+		}
+	}
+}
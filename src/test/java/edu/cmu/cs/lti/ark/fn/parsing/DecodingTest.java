@@ -0,0 +1,55 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class DecodingTest {
+	/** enough that no two candidate spans of a role get the same features, and so tie */
+	private static final int NUM_FEATURES = 1000;
+	private static final int NUM_FRAMES = 25;
+
+	private static String frameLine(int targetIdx) {
+		return "0\t1.0\t1\tFrame" + targetIdx + "\tlu.v\t" + targetIdx + "\tword\t0";
+	}
+
+	@Test
+	public void testParallelDecodingKeepsOrder() throws Exception {
+		final Random random = new Random(0);
+		final double[] weights = new double[NUM_FEATURES];
+		for (int i = 0; i < NUM_FEATURES; i++) weights[i] = random.nextGaussian();
+		final List<FrameFeatures> frames = new RandomFrameFeatures(random, NUM_FEATURES)
+				.roles(4, 4).candidates(6, 6).features(2, 2).withNullSpan()
+				.makeFrames(NUM_FRAMES);
+		final List<String> frameLines = Lists.newArrayList();
+		for (int t = 0; t < NUM_FRAMES; t++) frameLines.add(frameLine(t));
+		final Decoding decoding = new Decoding(weights);
+		final List<String> expected = decoding.decodeAll(frames, frameLines, 3, 2);
+
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertEquals(expected, decoding.decodeAll(frames, frameLines, 3, 2, executor));
+		} finally {
+			executor.shutdown();
+		}
+		// a shut down executor rejects everything, so the caller decodes all the frames itself
+		assertEquals(expected, decoding.decodeAll(frames, frameLines, 3, 2, executor));
+
+		// calling from the executor's only thread can't wait on it, so mustn't deadlock
+		final ExecutorService singleThread = Executors.newSingleThreadExecutor();
+		try {
+			final Future<List<String>> nested = singleThread.submit(new Callable<List<String>>() {
+				@Override public List<String> call() {
+					return decoding.decodeAll(frames, frameLines, 3, 2, singleThread);
+				} });
+			assertEquals(expected, nested.get(30, TimeUnit.SECONDS));
+		} finally {
+			singleThread.shutdown();
+		}
+	}
+}
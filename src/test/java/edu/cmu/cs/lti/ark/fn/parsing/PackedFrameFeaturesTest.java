@@ -0,0 +1,68 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+import edu.cmu.cs.lti.ark.fn.optimization.GradientAccumulator;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PackedFrameFeaturesTest {
+	private static final int NUM_FEATURES = 50;
+
+	private static List<FrameFeatures> makeFrames(Random random, int numFrames) {
+		// some frames have no roles, and some spans have no features
+		return new RandomFrameFeatures(random, NUM_FEATURES).roles(0, 3).candidates(1, 5).features(0, 5)
+				.makeFrames(numFrames);
+	}
+
+	private static void assertSameAsFrames(List<FrameFeatures> expected, PackedFrameFeatures actual) {
+		assertEquals(expected.size(), actual.numFrames());
+		for (int f = 0; f < expected.size(); f++) {
+			final FrameFeatures frame = expected.get(f);
+			assertEquals(frame.fElementSpansAndFeatures.size(), actual.numRoles(f));
+			for (int r = 0; r < frame.fElementSpansAndFeatures.size(); r++) {
+				final int roleIdx = actual.getFirstRole(f) + r;
+				final SpanAndCorrespondingFeatures[] spans = frame.fElementSpansAndFeatures.get(r);
+				assertEquals((int) frame.goldSpanIdxs.get(r), actual.getGoldSpanIdx(roleIdx));
+				assertEquals(spans.length, actual.numSpans(roleIdx));
+				for (int s = 0; s < spans.length; s++) {
+					final int spanIdx = actual.getFirstSpan(roleIdx) + s;
+					final int[] features = new int[actual.numFeatures(spanIdx)];
+					for (int k = 0; k < features.length; k++) features[k] = actual.getFeature(spanIdx, k);
+					assertArrayEquals(spans[s].features, features);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndReadBack() throws Exception {
+		for (int numFrames : new int[] {0, 1, 2, 37}) {
+			final List<FrameFeatures> frames = makeFrames(new Random(numFrames), numFrames);
+			assertSameAsFrames(frames, PackedFrameFeatures.pack(frames));
+			final File file = File.createTempFile("frames", ".packed");
+			file.deleteOnExit();
+			PackedFrameFeatures.write(frames, file);
+			assertSameAsFrames(frames, PackedFrameFeatures.read(file));
+		}
+	}
+
+	@Test
+	public void testDotProductSkipsUnknownFeatureButAddToDoesNot() {
+		final List<FrameFeatures> frames = Lists.newArrayList(new FrameFeatures("frame", 0, 0,
+				Lists.newArrayList("role"),
+				Lists.<SpanAndCorrespondingFeatures[]>newArrayList(new SpanAndCorrespondingFeatures[] {
+						new SpanAndCorrespondingFeatures(new int[] {0, 0}, new int[] {0, 2, 2})}),
+				Lists.newArrayList(0)));
+		final PackedFrameFeatures packed = PackedFrameFeatures.pack(frames);
+		assertEquals(6.0, packed.dotProduct(new double[] {1.0, 2.0, 3.0}, 0), 0.0);
+		final double[] gradient = new double[3];
+		packed.addTo(new GradientAccumulator(gradient), 0, 0.5);
+		assertArrayEquals(new double[] {0.5, 0.0, 1.0}, gradient, 0.0);
+	}
+}
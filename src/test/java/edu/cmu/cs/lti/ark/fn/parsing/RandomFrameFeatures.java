@@ -0,0 +1,89 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.collect.Lists;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes random {@link FrameFeatures} for tests. Frame <code>f</code> is named "Frame[f]", with its target at token
+ * <code>f</code>. Each role gets a random number of candidate spans in [minCandidates, maxCandidates], each with a
+ * random number of feature ids in [minFeatures, maxFeatures], and a random gold span.
+ */
+class RandomFrameFeatures {
+	private final Random random;
+	private final int numFeatures;
+	private int minRoles = 1;
+	private int maxRoles = 1;
+	private int minCandidates = 1;
+	private int maxCandidates = 1;
+	private int minFeatures = 1;
+	private int maxFeatures = 1;
+	private boolean hasNullSpan = false;
+
+	/** Feature ids will be in [0, numFeatures) */
+	RandomFrameFeatures(Random random, int numFeatures) {
+		this.random = random;
+		this.numFeatures = numFeatures;
+	}
+
+	/** A minimum of 0 gives some frames no roles */
+	RandomFrameFeatures roles(int min, int max) {
+		minRoles = min;
+		maxRoles = max;
+		return this;
+	}
+
+	RandomFrameFeatures candidates(int min, int max) {
+		minCandidates = min;
+		maxCandidates = max;
+		return this;
+	}
+
+	RandomFrameFeatures features(int min, int max) {
+		minFeatures = min;
+		maxFeatures = max;
+		return this;
+	}
+
+	/** Makes the first candidate of every role the null span, like DataPrep does */
+	RandomFrameFeatures withNullSpan() {
+		hasNullSpan = true;
+		return this;
+	}
+
+	ArrayList<FrameFeatures> makeFrames(int numFrames) {
+		final ArrayList<FrameFeatures> frames = Lists.newArrayListWithCapacity(numFrames);
+		for (int f = 0; f < numFrames; f++) frames.add(makeFrame(f));
+		return frames;
+	}
+
+	FrameFeatures makeFrame(int targetIdx) {
+		final int numRoles = between(minRoles, maxRoles);
+		final List<String> roles = Lists.newArrayList();
+		final List<SpanAndCorrespondingFeatures[]> spans = Lists.newArrayList();
+		final List<Integer> goldSpanIdxs = Lists.newArrayList();
+		for (int r = 0; r < numRoles; r++) {
+			roles.add("role" + r);
+			final SpanAndCorrespondingFeatures[] candidates =
+					new SpanAndCorrespondingFeatures[between(minCandidates, maxCandidates)];
+			for (int s = 0; s < candidates.length; s++) {
+				final int[] feats = new int[between(minFeatures, maxFeatures)];
+				for (int k = 0; k < feats.length; k++) feats[k] = random.nextInt(numFeatures);
+				final int start = random.nextInt(10);
+				final int[] span =
+						hasNullSpan && s == 0 ? new int[] {-1, -1} : new int[] {start, start + random.nextInt(3)};
+				candidates[s] = new SpanAndCorrespondingFeatures(span, feats);
+			}
+			spans.add(candidates);
+			goldSpanIdxs.add(random.nextInt(candidates.length));
+		}
+		return new FrameFeatures("Frame" + targetIdx, targetIdx, targetIdx, roles, spans, goldSpanIdxs);
+	}
+
+	/** A random int in [min, max] */
+	private int between(int min, int max) {
+		return min + random.nextInt(max - min + 1);
+	}
+}
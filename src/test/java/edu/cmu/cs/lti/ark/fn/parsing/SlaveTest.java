@@ -0,0 +1,133 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SlaveTest {
+	private static final int LEN = 12;
+	private static final double UNTOUCHED = -7.0;
+	private static final double DELTA = 1e-12;
+
+	/** Projection onto the simplex, computed the straightforward way */
+	private static double[] project(double[] as) {
+		final Double[] bs = new Double[as.length];
+		for (int i = 0; i < as.length; i++) bs[i] = as[i];
+		Arrays.sort(bs, Collections.reverseOrder());
+		double sum = 0.0;
+		double tau = 0.0;
+		for (int i = 0; i < bs.length; i++) {
+			sum += bs[i];
+			final double candidate = (sum - 1.0) / (i + 1);
+			if (bs[i] - candidate > 0) tau = candidate;
+		}
+		final double[] result = new double[as.length];
+		for (int i = 0; i < as.length; i++) result[i] = Math.max(as[i] - tau, 0);
+		return result;
+	}
+
+	private static double[] randomArray(Random random, double scale) {
+		final double[] result = new double[LEN];
+		for (int i = 0; i < LEN; i++) result[i] = scale * (random.nextDouble() - 0.3);
+		return result;
+	}
+
+	private static double[] localAs(int[] indices, double[] thetas, double rho, double[] us, double[] lambdas) {
+		final double[] as = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) {
+			as[i] = us[indices[i]] + (1.0 / rho) * (thetas[indices[i]] + lambdas[indices[i]]);
+		}
+		return as;
+	}
+
+	private static double[] gather(int[] indices, double[] zs) {
+		final double[] result = new double[indices.length];
+		for (int i = 0; i < indices.length; i++) result[i] = zs[indices[i]];
+		return result;
+	}
+
+	private static void assertOthersUntouched(int[] indices, double[] zs) {
+		final boolean[] isPart = new boolean[LEN];
+		for (int i : indices) isPart[i] = true;
+		for (int i = 0; i < LEN; i++) {
+			if (!isPart[i]) assertEquals(UNTOUCHED, zs[i], 0.0);
+		}
+	}
+
+	private static double[] update(Slave slave, double[] thetas, double rho, double[] us, double[] lambdas) {
+		final double[] zs = new double[LEN];
+		Arrays.fill(zs, UNTOUCHED);
+		slave.makeZUpdate(thetas, rho, us, lambdas, zs);
+		return zs;
+	}
+
+	@Test
+	public void testUniqueSpanSlaveProjectsOntoSimplex() {
+		final Random random = new Random(0);
+		final int[] indices = { 3, 4, 5, 6, 7 };
+		for (int trial = 0; trial < 50; trial++) {
+			final double[] thetas = randomArray(random, 4.0);
+			final double[] us = randomArray(random, 1.0);
+			final double[] lambdas = randomArray(random, 1.0);
+			final double rho = 0.5;
+			final Slave slave = new UniqueSpanSlave(thetas, 3, 8);
+			final double[] zs = update(slave, thetas, rho, us, lambdas);
+			final double[] expected = project(localAs(indices, thetas, rho, us, lambdas));
+			assertArrayEquals(expected, gather(indices, zs), DELTA);
+			assertOthersUntouched(indices, zs);
+			// same inputs again hit the cache
+			assertArrayEquals(zs, update(slave, thetas, rho, us, lambdas), 0.0);
+		}
+	}
+
+	@Test
+	public void testOverlapAndExclusionSlaves() {
+		final Random random = new Random(1);
+		final int[] indices = { 0, 2, 9 };
+		for (int trial = 0; trial < 50; trial++) {
+			final double[] thetas = randomArray(random, 3.0);
+			final double[] us = randomArray(random, 1.0);
+			final double[] lambdas = randomArray(random, 1.0);
+			final double rho = 1.0;
+			final double[] as = localAs(indices, thetas, rho, us, lambdas);
+			final double[] clipped = new double[as.length];
+			double sum = 0.0;
+			for (int i = 0; i < as.length; i++) {
+				clipped[i] = Math.min(1.0, Math.max(as[i], 0));
+				sum += clipped[i];
+			}
+
+			final double[] overlapZs = update(new OverlapSlave(thetas, indices), thetas, rho, us, lambdas);
+			assertArrayEquals(sum <= 1.0 ? clipped : project(as), gather(indices, overlapZs), DELTA);
+			assertOthersUntouched(indices, overlapZs);
+
+			final double[] exclusionZs = update(new ExclusionSlave(thetas, indices), thetas, rho, us, lambdas);
+			assertArrayEquals(sum >= 1.0 ? clipped : project(as), gather(indices, exclusionZs), DELTA);
+			assertOthersUntouched(indices, exclusionZs);
+		}
+	}
+
+	@Test
+	public void testRequiredSlaveNegatesLastVariable() {
+		final Random random = new Random(2);
+		final int[] indices = { 1, 10 };
+		for (int trial = 0; trial < 50; trial++) {
+			final double[] thetas = randomArray(random, 3.0);
+			final double[] us = randomArray(random, 1.0);
+			final double[] lambdas = randomArray(random, 1.0);
+			final double rho = 2.0;
+			final double[] aprimes = localAs(indices, thetas, rho, us, lambdas);
+			aprimes[1] = 1 - aprimes[1];
+			final double[] expected = project(aprimes);
+			expected[1] = 1 - expected[1];
+			final double[] zs = update(new RequiredSlave(thetas, indices), thetas, rho, us, lambdas);
+			assertArrayEquals(expected, gather(indices, zs), DELTA);
+			assertOthersUntouched(indices, zs);
+		}
+	}
+}
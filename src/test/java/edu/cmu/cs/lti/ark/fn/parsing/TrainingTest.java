@@ -0,0 +1,104 @@
+package edu.cmu.cs.lti.ark.fn.parsing;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TrainingTest {
+	private static final int NUM_FEATURES = 20;
+	private static final double LAMBDA = 0.3;
+
+	private static ArrayList<FrameFeatures> makeFrames(Random random, int numFrames) {
+		return new RandomFrameFeatures(random, NUM_FEATURES).roles(3, 3).candidates(4, 4).features(3, 3)
+				.makeFrames(numFrames);
+	}
+
+	/** The objective, computed directly from its definition */
+	private static double referenceValueAndGradient(List<FrameFeatures> frames, double[] w, double[] gradient) {
+		Arrays.fill(gradient, 0.0);
+		double value = 0.0;
+		for (FrameFeatures frame : frames) {
+			for (int r = 0; r < frame.fElementSpansAndFeatures.size(); r++) {
+				final SpanAndCorrespondingFeatures[] candidates = frame.fElementSpansAndFeatures.get(r);
+				final double[] scores = new double[candidates.length];
+				double sumExp = 0.0;
+				for (int s = 0; s < candidates.length; s++) {
+					scores[s] = w[0];
+					for (int feat : candidates[s].features) if (feat != 0) scores[s] += w[feat];
+					sumExp += Math.exp(scores[s]);
+				}
+				final int gold = frame.goldSpanIdxs.get(r);
+				value -= scores[gold] - Math.log(sumExp);
+				for (int s = 0; s < candidates.length; s++) {
+					final double yMinusP = (s == gold ? 1 : 0) - Math.exp(scores[s]) / sumExp;
+					gradient[0] -= yMinusP;
+					for (int feat : candidates[s].features) gradient[feat] -= yMinusP;
+				}
+			}
+		}
+		for (int i = 0; i < w.length; i++) {
+			value += LAMBDA * w[i] * w[i];
+			gradient[i] += 2 * LAMBDA * w[i];
+		}
+		return value;
+	}
+
+	@Test
+	public void testValueAndGradientMatchReference() throws Exception {
+		final Random random = new Random(1234);
+		final ArrayList<FrameFeatures> frames = makeFrames(random, 57);
+		final File alphabetFile = File.createTempFile("alphabet", ".dat");
+		alphabetFile.deleteOnExit();
+		Files.write((NUM_FEATURES - 1) + "\n", alphabetFile, Charsets.UTF_8);
+		final File frameFile = File.createTempFile("frames", ".txt");
+		frameFile.deleteOnExit();
+		Files.write("", frameFile, Charsets.UTF_8);
+
+		final Training training = new Training();
+		training.init("unused", alphabetFile.getAbsolutePath(), frames, frameFile.getAbsolutePath(), "reg", LAMBDA, 3);
+		final double[] w = training.getWeights();
+		for (int i = 0; i < w.length; i++) w[i] = random.nextGaussian();
+
+		final double[] expectedGradient = new double[NUM_FEATURES];
+		final double expectedValue = referenceValueAndGradient(frames, w, expectedGradient);
+		for (int pass = 0; pass < 2; pass++) {
+			assertEquals(expectedValue, training.getValuesAndGradients(), 1e-9);
+			assertArrayEquals(expectedGradient, training.getGradients(), 1e-9);
+		}
+	}
+
+	@Test
+	public void testMappedFeaturesMatchInMemory() throws Exception {
+		final Random random = new Random(4321);
+		final ArrayList<FrameFeatures> frames = makeFrames(random, 23);
+		final File alphabetFile = File.createTempFile("alphabet", ".dat");
+		alphabetFile.deleteOnExit();
+		Files.write((NUM_FEATURES - 1) + "\n", alphabetFile, Charsets.UTF_8);
+		final File frameFile = File.createTempFile("frames", ".txt");
+		frameFile.deleteOnExit();
+		Files.write("", frameFile, Charsets.UTF_8);
+		final File packedFile = File.createTempFile("frames", ".packed");
+		packedFile.deleteOnExit();
+		PackedFrameFeatures.write(frames, packedFile);
+
+		final Training inMemory = new Training();
+		inMemory.init("unused", alphabetFile.getAbsolutePath(), frames, frameFile.getAbsolutePath(), "reg", LAMBDA, 2);
+		final Training mapped = new Training();
+		mapped.init("unused", alphabetFile.getAbsolutePath(), PackedFrameFeatures.read(packedFile),
+				frameFile.getAbsolutePath(), "reg", LAMBDA, 2);
+		for (int i = 0; i < NUM_FEATURES; i++) {
+			inMemory.getWeights()[i] = mapped.getWeights()[i] = random.nextGaussian();
+		}
+		assertEquals(inMemory.getValuesAndGradients(), mapped.getValuesAndGradients(), 1e-9);
+		assertArrayEquals(inMemory.getGradients(), mapped.getGradients(), 1e-9);
+	}
+}
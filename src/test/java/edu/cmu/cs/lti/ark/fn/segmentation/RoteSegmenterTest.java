@@ -1,14 +1,22 @@
 package edu.cmu.cs.lti.ark.fn.segmentation;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.io.Resources;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.AllLemmaTags;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
 import edu.cmu.cs.lti.ark.fn.data.prep.formats.Token;
+import edu.cmu.cs.lti.ark.fn.utils.SentenceAnalysis;
 import org.junit.Test;
 
+import java.io.StringReader;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import static edu.cmu.cs.lti.ark.util.IntRanges.xrange;
@@ -63,4 +71,57 @@ public class RoteSegmenterTest {
 		final Integer[] expected = {1};
 		assertArrayEquals(expected, segmentation.get(0).toArray());
 	}
+
+	/** How RoteSegmenter used to find ngrams: joining every ngram's lemmas and looking them up */
+	private static List<List<Integer>> findNgramsByJoining(List<String> lemmas, Set<String> allRelatedWords) {
+		final Set<Integer> remainingStartIndices = Sets.newHashSet(xrange(lemmas.size()));
+		final List<List<Integer>> allNgramIndices = Lists.newArrayList();
+		for (int n = RoteSegmenter.MAX_LEN; n >= 1; n--) {
+			for (int start : xrange(lemmas.size() - n + 1)) {
+				if (!remainingStartIndices.contains(start)) continue;
+				final List<Integer> ngramIndices = ImmutableList.copyOf(xrange(start, start + n));
+				if (allRelatedWords.contains(Joiner.on(" ").join(lemmas.subList(start, start + n)))) {
+					allNgramIndices.add(ngramIndices);
+					remainingStartIndices.removeAll(ngramIndices);
+				}
+			}
+		}
+		return allNgramIndices;
+	}
+
+	@Test
+	public void testMatchesJoiningNgrams() throws Exception {
+		final String conll = Resources.toString(Resources.getResource("fixtures/example.conll"), Charsets.UTF_8);
+		final List<Sentence> sentences = Lists.newArrayList(SentenceCodec.ConllCodec.readInput(new StringReader(conll)));
+		sentences.add(sentence);
+		final Random random = new Random(0);
+		for (Sentence sentence : sentences) {
+			final List<String> lemmas = Lists.newArrayList();
+			for (Token token : sentence.getTokens()) {
+				lemmas.add(token.getLemma() + "_" + token.getPostag().substring(0, Math.min(1, token.getPostag().length())));
+			}
+			for (int trial = 0; trial < 10; trial++) {
+				// random ngrams of the sentence, some longer than MAX_LEN, and some that aren't in it
+				final Set<String> allRelatedWords = Sets.newHashSet("not_X", "in_I two_C");
+				for (int i = 0; i < lemmas.size(); i++) {
+					final int start = random.nextInt(lemmas.size());
+					final int end = Math.min(lemmas.size(), start + 1 + random.nextInt(RoteSegmenter.MAX_LEN + 1));
+					allRelatedWords.add(Joiner.on(" ").join(lemmas.subList(start, end)));
+				}
+				final List<List<Integer>> expected = Segmenter.trimPrepositions(
+						findNgramsByJoining(lemmas, allRelatedWords), new SentenceAnalysis(sentence));
+				assertEquals(expected, new RoteSegmenter(allRelatedWords).getSegmentation(sentence));
+			}
+		}
+	}
+
+	@Test
+	public void testMatchesLemmasWithSpaces() {
+		final String conll =
+				"1	no	no longer	RB	RB	_	2	advmod	_	_\n" +
+				"2	smells	smell	VBZ	VBZ	_	0	null	_	_";
+		final Sentence sentence = SentenceCodec.ConllCodec.decode(conll);
+		final RoteSegmenter segmenter = new RoteSegmenter(ImmutableSet.of("no longer_R smell_V", "no longer_R"));
+		assertEquals(ImmutableList.of(ImmutableList.of(0, 1)), segmenter.getSegmentation(sentence));
+	}
 }
@@ -0,0 +1,38 @@
+package edu.cmu.cs.lti.ark.fn.utils;
+
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.Sentence;
+import edu.cmu.cs.lti.ark.fn.data.prep.formats.SentenceCodec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class SentenceAnalysisTest {
+	private static final String CONLL =
+			"1\tI\ti\tPRP\tPRP\t_\t2\tnsubj\t_\t_\n" +
+			"2\thave\thave\tVBP\tVBP\t_\t0\tnull\t_\t_\n" +
+			"3\tmoney\tmoney\tNN\tNN\t_\t2\tdobj\t_\t_\n" +
+			"4\t.\t.\t.\t.\t_\t2\tpunct\t_\t_";
+
+	@Test
+	public void testBuildsEachRepresentationOnce() {
+		final SentenceAnalysis analysis = new SentenceAnalysis(SentenceCodec.ConllCodec.decode(CONLL));
+		assertSame(analysis.getAllLemmaTags(), analysis.getAllLemmaTags());
+		assertSame(analysis.getAllLemmaTagsLine(), analysis.getAllLemmaTagsLine());
+		assertSame(analysis.getParse(), analysis.getParse());
+		assertSame(analysis.getNodes(), analysis.getNodes());
+		assertSame(analysis.getParses(), analysis.getParses());
+	}
+
+	@Test
+	public void testMatchesUnsharedRepresentations() {
+		final Sentence sentence = SentenceCodec.ConllCodec.decode(CONLL);
+		final SentenceAnalysis analysis = new SentenceAnalysis(sentence);
+		assertArrayEquals(sentence.toAllLemmaTagsArray(), analysis.getAllLemmaTags());
+		// node 0 is the root
+		assertEquals(sentence.size() + 1, analysis.getNodes().length);
+		assertEquals("have", analysis.getNodes()[2].getWord());
+		assertEquals(sentence.size(), analysis.getParses().getNumWords());
+	}
+}
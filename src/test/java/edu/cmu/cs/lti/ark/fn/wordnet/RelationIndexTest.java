@@ -0,0 +1,72 @@
+package edu.cmu.cs.lti.ark.fn.wordnet;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static edu.cmu.cs.lti.ark.fn.wordnet.WordNetRelations.NO_RELATION;
+import static org.junit.Assert.assertEquals;
+
+public class RelationIndexTest {
+	private static final Map<String, Map<String, Set<String>>> REVISED_RELATIONS_MAP =
+			ImmutableMap.<String, Map<String, Set<String>>>of(
+					"run", ImmutableMap.<String, Set<String>>of(
+							"run", ImmutableSet.of("identity"),
+							"dash", ImmutableSet.of("synonym", "hyponym"),
+							"runner", ImmutableSet.of("derived-form")),
+					"walk", ImmutableMap.<String, Set<String>>of(
+							"walk", ImmutableSet.of("identity"),
+							"run", ImmutableSet.of("hypernym")));
+	private static final Map<String, Set<String>> RELATED_WORDS_FOR_WORD = ImmutableMap.<String, Set<String>>of(
+			"run", ImmutableSet.of("run", "dash", "runner", "sprint"),
+			"walk", ImmutableSet.of("walk"),
+			"the", ImmutableSet.of("the"));
+
+	private static final RelationIndex INDEX = RelationIndex.fromMaps(REVISED_RELATIONS_MAP, RELATED_WORDS_FOR_WORD);
+
+	@Test
+	public void testGetRelations() {
+		assertEquals(3, INDEX.numHiddenWords());
+		assertEquals(6, INDEX.numPairs());
+		assertEquals(ImmutableSet.of("identity"), INDEX.getRelations("run", "run"));
+		assertEquals(ImmutableSet.of("synonym", "hyponym"), INDEX.getRelations("dash", "run"));
+		assertEquals(ImmutableSet.of("derived-form"), INDEX.getRelations("runner", "run"));
+		// related, but with no relations in the revised map
+		assertEquals(ImmutableSet.<String>of(), INDEX.getRelations("sprint", "run"));
+		assertEquals(ImmutableSet.<String>of(), INDEX.getRelations("the", "the"));
+		// in the revised map, but not a related word, so not related
+		assertEquals(ImmutableSet.of(NO_RELATION), INDEX.getRelations("run", "walk"));
+		assertEquals(ImmutableSet.of(NO_RELATION), INDEX.getRelations("walk", "run"));
+		assertEquals(ImmutableSet.of(NO_RELATION), INDEX.getRelations("unknown", "run"));
+	}
+
+	@Test
+	public void testCaseIsIgnored() {
+		assertEquals(ImmutableSet.of("synonym", "hyponym"), INDEX.getRelations("Dash", "RUN"));
+		assertEquals(INDEX.getRelationMask("dash", "run"), INDEX.getRelationMask("DASH", "Run"));
+	}
+
+	@Test
+	public void testGetRelationsByWord() {
+		final Map<String, Set<String>> wordsByRelation = ImmutableMap.<String, Set<String>>of(
+				"synonym", ImmutableSet.of("dash", "sprint"),
+				"hyponym", ImmutableSet.of("dash"));
+		assertEquals(ImmutableMap.of("dash", ImmutableSet.of("synonym", "hyponym"), "sprint", ImmutableSet.of("synonym")),
+				WordNetRelations.getRelationsByWord(wordsByRelation));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownHiddenWordThrows() {
+		INDEX.getRelations("run", "dash");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownRelationThrows() {
+		RelationIndex.fromMaps(
+				ImmutableMap.of("run", ImmutableMap.of("dash", ImmutableSet.of("cousin"))),
+				ImmutableMap.of("run", ImmutableSet.of("dash")));
+	}
+}
@@ -0,0 +1,50 @@
+package edu.cmu.cs.lti.ark.util.nlp;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CachingLemmatizerTest {
+	/** Counts how many times it gets called */
+	private static class CountingLemmatizer extends Lemmatizer {
+		final AtomicInteger numCalls = new AtomicInteger();
+
+		@Override public String getLemma(String word, String postag) {
+			numCalls.incrementAndGet();
+			return new MorphaLemmatizer().getLemma(word, postag);
+		}
+	}
+
+	@Test
+	public void testMissesAreLemmatizedOnce() {
+		final CountingLemmatizer morpha = new CountingLemmatizer();
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(morpha);
+		assertEquals("fall", lemmatizer.getLemma("fell", "VBD"));
+		assertEquals("fall", lemmatizer.getLemma("fell", "VBD"));
+		assertEquals("fell", lemmatizer.getLemma("fell", "NN"));
+		assertEquals(2, morpha.numCalls.get());
+		assertEquals(1, lemmatizer.stats().hitCount());
+		assertEquals(2, lemmatizer.stats().missCount());
+	}
+
+	@Test
+	public void testPreloadedLemmasAreUsed() {
+		final CountingLemmatizer morpha = new CountingLemmatizer();
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(morpha)
+				.preload(ImmutableMap.of("saw_VBD", "see", "New_York_NNP", "new_york"));
+		assertEquals("see", lemmatizer.getLemma("saw", "VBD"));
+		assertEquals("new_york", lemmatizer.getLemma("New_York", "NNP"));
+		assertEquals(0, morpha.numCalls.get());
+	}
+
+	@Test
+	public void testSizeIsBounded() {
+		final CachingLemmatizer lemmatizer = new CachingLemmatizer(new MorphaLemmatizer(), 10);
+		for (int i = 0; i < 100; i++) lemmatizer.getLemma("word" + i, "NN");
+		assertTrue(lemmatizer.size() <= 10);
+	}
+}
@@ -3,7 +3,7 @@
 set -e # fail fast
 
 echo
-echo "step 4i: create the alphabet file for the argument identification model."
+echo "step 4i: create the alphabet file and feature cache for the argument identification model."
 echo
 
 source "$(dirname ${0})/config.sh"
@@ -20,4 +20,7 @@ ${JAVA_HOME_BIN}/java -classpath ${classpath} -Xms4g -Xmx4g \
    ${SCAN_DIR}/cv.train.sentences.frame.elements.spans \
    true \
    1 \
-   null
+   null \
+   ${num_threads} \
+   null \
+   ${SCAN_DIR}/featurecache.packed
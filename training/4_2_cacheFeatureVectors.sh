@@ -11,4 +11,4 @@ ${JAVA_HOME_BIN}/java -classpath ${classpath} -Xms4g -Xmx4g \
   eventsfile:${SCAN_DIR}/cv.train.events.bin \
   spansfile:${SCAN_DIR}/cv.train.sentences.frame.elements.spans \
   train-framefile:${fe_file} \
-  localfeaturescache:${SCAN_DIR}/featurecache.jobj
+  packedfeatures:${SCAN_DIR}/featurecache.packed
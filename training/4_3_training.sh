@@ -10,7 +10,7 @@ ${JAVA_HOME_BIN}/java -classpath ${classpath} -Xms8000m -Xmx8000m \
   edu.cmu.cs.lti.ark.fn.parsing.TrainingBatchMain \
   model:${datadir}/argmodel.dat \
   alphabetfile:${SCAN_DIR}/parser.conf.unlabeled \
-  localfeaturescache:${SCAN_DIR}/featurecache.jobj \
+  packedfeatures:${SCAN_DIR}/featurecache.packed \
   train-framefile:${fe_file} \
   regularization:reg \
   lambda:0.1 \